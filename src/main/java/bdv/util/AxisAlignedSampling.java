@@ -0,0 +1,262 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package bdv.util;
+
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.NativeImg;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.NumericType;
+import net.imglib2.util.Fraction;
+import net.imglib2.view.Views;
+
+/**
+ * Resampling of an origin image on a model grid whose voxels fall exactly on
+ * origin voxels: along each axis, the model voxel x samples the origin voxel
+ * offset + step * x, with an integer offset and a positive integer step. A
+ * pure translation has steps of 1, a downsampling by two steps of 2.
+ * <p>
+ * In this case the origin does not need to be interpolated: nearest neighbor
+ * and linear interpolation both return the origin voxel values, which are
+ * read directly, or copied from the backing array of the origin when it is an
+ * {@link ArrayImg}. Out of its bounds, the origin is extended with zeros, as
+ * most BigDataViewer sources are: this sampling gives the same result as the
+ * interpolated view of a source only if
+ * {@link sc.fiji.bdvpg.source.SourceHelper#isZeroExtendedRaster} is true.
+ *
+ * @author Nicolas Chiaruttini
+ */
+public final class AxisAlignedSampling {
+
+	/**
+	 * Tolerance, in origin voxels, for a transform coefficient to be considered
+	 * as an integer
+	 */
+	public static double EPSILON = 1e-6;
+
+	final long[] offset;
+
+	final long[] step;
+
+	private AxisAlignedSampling(long[] offset, long[] step) {
+		this.offset = offset;
+		this.step = step;
+	}
+
+	/**
+	 * @param modelToOrigin transform from model voxel coordinates to origin
+	 *          voxel coordinates
+	 * @return the sampling, or null if model voxels do not fall on origin
+	 *         voxels
+	 */
+	public static AxisAlignedSampling of(AffineTransform3D modelToOrigin) {
+		final long[] offset = new long[3];
+		final long[] step = new long[3];
+		for (int r = 0; r < 3; r++) {
+			for (int c = 0; c < 3; c++) {
+				final double value = modelToOrigin.get(r, c);
+				if (r == c) {
+					step[r] = Math.round(value);
+					if ((step[r] < 1) || (Math.abs(value - step[r]) > EPSILON))
+						return null;
+				}
+				else if (Math.abs(value) > EPSILON) return null;
+			}
+			final double translation = modelToOrigin.get(r, 3);
+			offset[r] = Math.round(translation);
+			if (Math.abs(translation - offset[r]) > EPSILON) return null;
+		}
+		return new AxisAlignedSampling(offset, step);
+	}
+
+	/**
+	 * @return origin voxel sampled by the model voxel 0
+	 */
+	public long[] getOffset() {
+		return offset.clone();
+	}
+
+	/**
+	 * @return origin voxels between two consecutive model voxels
+	 */
+	public long[] getStep() {
+		return step.clone();
+	}
+
+	/**
+	 * @param origin origin image
+	 * @param <T> pixel type
+	 * @return view of the origin sampled on the model grid
+	 */
+	public <T extends NumericType<T>> RandomAccessible<T> sample(
+		RandomAccessibleInterval<T> origin)
+	{
+		return Views.subsample(Views.offset(Views.extendZero(origin), offset),
+			step);
+	}
+
+	/**
+	 * Copies the sampled origin into an image, with strided copies between the
+	 * backing arrays. The target image should be freshly allocated: voxels
+	 * sampling the origin out of its bounds are left untouched.
+	 *
+	 * @param origin origin image
+	 * @param target image to fill, located in model voxel coordinates
+	 * @param <T> pixel type
+	 * @return false if nothing was copied because one of the images is not
+	 *         backed by a single primitive array of one entity per pixel
+	 */
+	public <T extends NativeType<T>> boolean copy(
+		RandomAccessibleInterval<T> origin, NativeImg<T, ?> target)
+	{
+		if (!(origin instanceof ArrayImg)) return false;
+		final Fraction entities = ((ArrayImg<T, ?>) origin).firstElement()
+			.getEntitiesPerPixel();
+		if ((entities.getNumerator() != 1) || (entities.getDenominator() != 1))
+			return false;
+		final Object originAccess = ((ArrayImg<T, ?>) origin).update(null);
+		final Object targetAccess = target.update(null);
+		if (!(originAccess instanceof ArrayDataAccess) ||
+			!(targetAccess instanceof ArrayDataAccess)) return false;
+		final Object src = ((ArrayDataAccess<?>) originAccess)
+			.getCurrentStorageArray();
+		final Object dst = ((ArrayDataAccess<?>) targetAccess)
+			.getCurrentStorageArray();
+		if (src.getClass() != dst.getClass()) return false;
+
+		final long[] srcDims = new long[3];
+		final long[] dstMin = new long[3];
+		final long[] dstDims = new long[3];
+		for (int d = 0; d < 3; d++) {
+			srcDims[d] = origin.dimension(d);
+			dstMin[d] = target.min(d);
+			dstDims[d] = target.dimension(d);
+		}
+
+		// Range of target x whose samples are within the origin
+		final long x0 = firstInside(0, dstMin[0], dstDims[0], srcDims[0]);
+		final long x1 = lastInside(0, dstMin[0], dstDims[0], srcDims[0]);
+		if (x0 > x1) return true;
+		final int length = (int) (x1 - x0 + 1);
+		final int stepX = (int) step[0];
+
+		for (long z = 0; z < dstDims[2]; z++) {
+			final long sz = offset[2] + step[2] * (dstMin[2] + z);
+			if ((sz < 0) || (sz >= srcDims[2])) continue;
+			for (long y = 0; y < dstDims[1]; y++) {
+				final long sy = offset[1] + step[1] * (dstMin[1] + y);
+				if ((sy < 0) || (sy >= srcDims[1])) continue;
+				final int srcIndex = (int) (offset[0] + step[0] * (dstMin[0] + x0) +
+					srcDims[0] * (sy + srcDims[1] * sz));
+				final int dstIndex = (int) (x0 + dstDims[0] * (y + dstDims[1] * z));
+				copyRow(src, srcIndex, stepX, dst, dstIndex, length);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return first target index, along d, sampling the origin within its
+	 *         bounds, or dstDims if none
+	 */
+	private long firstInside(int d, long dstMin, long dstDims, long srcDims) {
+		for (long x = 0; x < dstDims; x++) {
+			final long s = offset[d] + step[d] * (dstMin + x);
+			if (s >= srcDims) return dstDims;
+			if (s >= 0) return x;
+		}
+		return dstDims;
+	}
+
+	/**
+	 * @return last target index, along d, sampling the origin within its
+	 *         bounds, or -1 if none
+	 */
+	private long lastInside(int d, long dstMin, long dstDims, long srcDims) {
+		for (long x = dstDims - 1; x >= 0; x--) {
+			final long s = offset[d] + step[d] * (dstMin + x);
+			if (s < 0) return -1;
+			if (s < srcDims) return x;
+		}
+		return -1;
+	}
+
+	private static void copyRow(Object src, int srcIndex, int step, Object dst,
+		int dstIndex, int length)
+	{
+		if (step == 1) {
+			System.arraycopy(src, srcIndex, dst, dstIndex, length);
+		}
+		else if (src instanceof byte[]) {
+			final byte[] s = (byte[]) src;
+			final byte[] t = (byte[]) dst;
+			for (int i = 0; i < length; i++, srcIndex += step)
+				t[dstIndex + i] = s[srcIndex];
+		}
+		else if (src instanceof short[]) {
+			final short[] s = (short[]) src;
+			final short[] t = (short[]) dst;
+			for (int i = 0; i < length; i++, srcIndex += step)
+				t[dstIndex + i] = s[srcIndex];
+		}
+		else if (src instanceof int[]) {
+			final int[] s = (int[]) src;
+			final int[] t = (int[]) dst;
+			for (int i = 0; i < length; i++, srcIndex += step)
+				t[dstIndex + i] = s[srcIndex];
+		}
+		else if (src instanceof float[]) {
+			final float[] s = (float[]) src;
+			final float[] t = (float[]) dst;
+			for (int i = 0; i < length; i++, srcIndex += step)
+				t[dstIndex + i] = s[srcIndex];
+		}
+		else if (src instanceof long[]) {
+			final long[] s = (long[]) src;
+			final long[] t = (long[]) dst;
+			for (int i = 0; i < length; i++, srcIndex += step)
+				t[dstIndex + i] = s[srcIndex];
+		}
+		else if (src instanceof double[]) {
+			final double[] s = (double[]) src;
+			final double[] t = (double[]) dst;
+			for (int i = 0; i < length; i++, srcIndex += step)
+				t[dstIndex + i] = s[srcIndex];
+		}
+		else {
+			// Other arrays: one element at a time
+			for (int i = 0; i < length; i++, srcIndex += step)
+				System.arraycopy(src, srcIndex, dst, dstIndex + i, 1);
+		}
+	}
+}
@@ -0,0 +1,528 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package bdv.util;
+
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sc.fiji.bdvpg.source.SourceHelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link FusedSource} combines several sources, typically the tiles of an
+ * acquisition, into a single source sampled on the grid of a model source.
+ * Where tiles overlap, their linearly interpolated values are averaged, or
+ * their maximum is taken, or they are averaged with weights which decrease
+ * close to the tile borders (see {@link #BLENDING_RANGE}), which hides the
+ * seams between tiles. Out of all tiles, the fused source is zero.
+ * <p>
+ * Each resolution level of the model is cached cell by cell in the global
+ * cache. A cell only reads the tiles whose bounds, mapped on the model grid,
+ * intersect it: the cost of a cell depends on the number of tiles which
+ * overlap it, not on the total number of tiles. Cells which intersect no
+ * tile are not computed, see {@link sc.fiji.bdvpg.cache.EmptyCell}. Each tile
+ * is read at the resolution level which best matches the voxel size of the
+ * model level. Cells are computed concurrently by the threads which request
+ * them, for instance by the fetcher threads of the volatile version of this
+ * source.
+ * <p>
+ * As for {@link ResampledSource}, the transforms of the tiles and of the model
+ * are tracked: when the transform of a tile changes, the cells it intersects,
+ * before or after the change, are computed again.
+ *
+ * @param <T> pixel type, identical for all fused sources
+ * @author Nicolas Chiaruttini
+ */
+public class FusedSource<T extends RealType<T> & NativeType<T>> implements
+	Source<T>
+{
+
+	protected static final Logger logger = LoggerFactory.getLogger(
+		FusedSource.class);
+
+	/** How the tiles covering a pixel are combined */
+	public enum Method {
+			/** Mean value */
+			AVERAGE,
+			/** Maximal value */
+			MAX,
+			/** Mean value, weighted by the distance to the tile borders */
+			WEIGHTED
+	}
+
+	/**
+	 * Width, in pixels of the highest resolution level of a tile, of the
+	 * border where its weight smoothly decreases to zero, for
+	 * {@link Method#WEIGHTED}
+	 */
+	public static final double BLENDING_RANGE = 20;
+
+	// Tolerance on the position of a pixel at the border of a tile
+	private static final double EPSILON = 1e-6;
+
+	/**
+	 * Cached levels (per timepoint and level)
+	 */
+	final transient ConcurrentHashMap<Integer, ConcurrentHashMap<Integer, FusedLevel>> cachedLevels =
+		new ConcurrentHashMap<>();
+
+	/**
+	 * Fused sources, of type {@link T}
+	 */
+	final List<Source<T>> origins;
+
+	/**
+	 * Model source, no need to be of type {@link T}
+	 */
+	final Source<?> model;
+
+	final Method method;
+
+	/**
+	 * Cell dimensions of the cached levels
+	 */
+	final int[] blockSize;
+
+	private final String name;
+
+	protected final DefaultInterpolators<T> interpolators =
+		new DefaultInterpolators<>();
+
+	/**
+	 * @param origins sources to fuse, at least one
+	 * @param model source whose grid, transform and resolution levels are used
+	 * @param name of the fused source
+	 * @param method how overlapping sources are combined
+	 * @param blockSize cell dimensions of the cached levels
+	 */
+	public FusedSource(List<? extends Source<T>> origins, Source<?> model,
+		String name, Method method, int[] blockSize)
+	{
+		if (origins.isEmpty()) {
+			throw new IllegalArgumentException("No source to fuse in " + name);
+		}
+		this.origins = Collections.unmodifiableList(new ArrayList<>(origins));
+		this.model = model;
+		this.name = name;
+		this.method = method;
+		this.blockSize = blockSize.clone();
+	}
+
+	@Override
+	public boolean isPresent(int t) {
+		for (Source<T> origin : origins) {
+			if (origin.isPresent(t)) return true;
+		}
+		return false;
+	}
+
+	@Override
+	public RandomAccessibleInterval<T> getSource(int t, int level) {
+		return cachedLevels.computeIfAbsent(t, k -> new ConcurrentHashMap<>())
+			.computeIfAbsent(level, l -> new FusedLevel(t, l)).getImage();
+	}
+
+	/**
+	 * Cached image of a model level and of a timepoint, and how each tile is
+	 * sampled by its cells
+	 */
+	class FusedLevel {
+
+		final int t, level;
+
+		// Model transform the cached cells are computed with
+		final AffineTransform3D atModel = new AffineTransform3D();
+
+		// Read by the cell loader, null for tiles absent at this timepoint
+		volatile Tile[] tiles;
+
+		volatile CachedCellImg<T, ?> image;
+
+		FusedLevel(int t, int level) {
+			this.t = t;
+			this.level = level;
+			build();
+		}
+
+		private void build() {
+			model.getSourceTransform(t, level, atModel);
+			final double voxelSize = SourceHelper.getCharacteristicVoxelSize(model,
+				t, level);
+			final Tile[] built = new Tile[origins.size()];
+			for (int i = 0; i < built.length; i++) {
+				final Source<T> origin = origins.get(i);
+				if (origin.isPresent(t)) {
+					built[i] = new Tile(origin, t, SourceHelper.bestLevel(origin, t,
+						voxelSize), atModel);
+				}
+			}
+			tiles = built;
+			final long[] dimensions = Intervals.dimensionsAsLongArray(model
+				.getSource(t, level));
+			image = RAIHelper.wrapAsVolatileCachedCellImg(dimensions,
+				this::loadCell, this::isEmpty, RAIHelper.clampBlockSize(blockSize,
+					dimensions), FusedSource.this, t, level, getType());
+		}
+
+		private boolean isEmpty(Interval cell) {
+			for (Tile tile : tiles) {
+				if ((tile != null) && !Intervals.isEmpty(Intervals.intersect(cell,
+					tile.footprint))) return false;
+			}
+			return true;
+		}
+
+		private void loadCell(SingleCellArrayImg<T, ?> cell) {
+			final Tile[] currentTiles = tiles;
+			final T type = getType();
+			final int numPixels = (int) Intervals.numElements(cell);
+			final double[] fused = new double[numPixels];
+			final double[] weights = new double[numPixels];
+			final double[] tileWeights = new double[numPixels];
+			final double[] tileValues = new double[numPixels];
+			if (method == Method.MAX) Arrays.fill(fused, Double.NEGATIVE_INFINITY);
+
+			for (int i = 0; i < currentTiles.length; i++) {
+				final Tile tile = currentTiles[i];
+				if ((tile == null) || Intervals.isEmpty(Intervals.intersect(cell,
+					tile.footprint))) continue;
+				if (!tile.getWeights(cell, method == Method.WEIGHTED, tileWeights))
+					continue;
+				final Source<T> origin = origins.get(i);
+				// The raster of other tiles may not match their interpolated view
+				if (SourceHelper.isZeroExtendedRaster(origin)) tile.sample(origin
+					.getSource(t, tile.level), type, cell, tileValues);
+				else tile.sample(origin.getInterpolatedSource(t, tile.level,
+					Interpolation.NLINEAR), cell, tileValues);
+				for (int p = 0; p < numPixels; p++) {
+					final double weight = tileWeights[p];
+					if (weight == 0) continue;
+					if (method == Method.MAX) {
+						fused[p] = Math.max(fused[p], tileValues[p]);
+						weights[p] = 1;
+					}
+					else {
+						fused[p] += weight * tileValues[p];
+						weights[p] += weight;
+					}
+				}
+			}
+
+			final Cursor<T> out = Views.flatIterable(cell).cursor();
+			for (int p = 0; p < numPixels; p++) {
+				final double value;
+				if (weights[p] == 0) value = 0;
+				else if (method == Method.MAX) value = fused[p];
+				else value = fused[p] / weights[p];
+				out.next().setReal(value);
+			}
+		}
+
+		RandomAccessibleInterval<T> getImage() {
+			if (transformsChanged()) update();
+			return image;
+		}
+
+		private boolean transformsChanged() {
+			final AffineTransform3D current = new AffineTransform3D();
+			model.getSourceTransform(t, level, current);
+			if (!ResampledSource.sameTransform(current, atModel)) return true;
+			final Tile[] currentTiles = tiles;
+			for (int i = 0; i < currentTiles.length; i++) {
+				if (currentTiles[i] == null) continue;
+				origins.get(i).getSourceTransform(t, currentTiles[i].level, current);
+				if (!ResampledSource.sameTransform(current, currentTiles[i].atTile))
+					return true;
+			}
+			return false;
+		}
+
+		private synchronized void update() {
+			if (!transformsChanged()) return; // Updated concurrently
+			final AffineTransform3D current = new AffineTransform3D();
+			model.getSourceTransform(t, level, current);
+			if (!ResampledSource.sameTransform(current, atModel)) {
+				// All cells are affected
+				image.getCache().invalidateAll();
+				build();
+				return;
+			}
+
+			final Tile[] before = tiles;
+			final Tile[] after = before.clone();
+			final List<Interval> changed = new ArrayList<>();
+			for (int i = 0; i < before.length; i++) {
+				if (before[i] == null) continue;
+				origins.get(i).getSourceTransform(t, before[i].level, current);
+				if (ResampledSource.sameTransform(current, before[i].atTile)) continue;
+				after[i] = new Tile(origins.get(i), t, before[i].level, atModel);
+				changed.add(before[i].footprint);
+				changed.add(after[i].footprint);
+			}
+			tiles = after;
+
+			final CellGrid grid = image.getCellGrid();
+			final long[] gridDimensions = grid.getGridDimensions();
+			final long[] gridPosition = new long[3];
+			final long[] cellMin = new long[3];
+			final int[] cellDimensions = new int[3];
+			long numCells = 1;
+			for (long size : gridDimensions)
+				numCells *= size;
+			long invalidated = 0;
+			for (long index = 0; index < numCells; index++) {
+				IntervalIndexer.indexToPosition(index, gridDimensions, gridPosition);
+				grid.getCellDimensions(gridPosition, cellMin, cellDimensions);
+				for (Interval footprint : changed) {
+					if (ResampledSource.intersects(cellMin, cellDimensions, footprint)) {
+						image.getCache().invalidate(index);
+						invalidated++;
+						break;
+					}
+				}
+			}
+			logger.debug(getName() + " (t = " + t + ", level = " + level + ") : " +
+				(changed.size() / 2) + " tile transform(s) changed, " + invalidated +
+				" cells out of " + numCells + " invalidated");
+		}
+	}
+
+	/**
+	 * How a tile is sampled on the model grid, immutable
+	 */
+	static class Tile {
+
+		// Resolution level of the tile which is read
+		final int level;
+
+		// Transform of this level the tile is sampled with
+		final AffineTransform3D atTile = new AffineTransform3D();
+
+		// From model pixels to pixels of this level
+		final AffineTransform3D modelToTile;
+
+		// From model pixels to pixels of the highest resolution level
+		final AffineTransform3D modelToTile0;
+
+		// Pixels of the highest resolution level, which define the tile bounds
+		final Interval bounds0;
+
+		// Out of this interval of model pixels, the tile covers no pixel
+		final Interval footprint;
+
+		Tile(Source<?> origin, int t, int level, AffineTransform3D atModel) {
+			this.level = level;
+			origin.getSourceTransform(t, level, atTile);
+			modelToTile = atTile.inverse();
+			modelToTile.concatenate(atModel);
+			final AffineTransform3D atTile0 = new AffineTransform3D();
+			origin.getSourceTransform(t, 0, atTile0);
+			modelToTile0 = atTile0.inverse();
+			modelToTile0.concatenate(atModel);
+			bounds0 = new FinalInterval(origin.getSource(t, 0));
+			footprint = RAIHelper.getFootprint(bounds0, modelToTile0.inverse());
+		}
+
+		/**
+		 * Computes the weight of the tile for each pixel of a cell: zero out of
+		 * the tile, one inside, or decreasing close to its borders if blended
+		 *
+		 * @return false if the tile covers no pixel of the cell
+		 */
+		boolean getWeights(Interval cell, boolean blend, double[] weights) {
+			final boolean[] covered = { false };
+			forEachPosition(modelToTile0, cell, (index, position) -> {
+				final double weight = getWeight(position, blend);
+				weights[index] = weight;
+				if (weight > 0) covered[0] = true;
+			});
+			return covered[0];
+		}
+
+		private double getWeight(double[] position, boolean blend) {
+			double weight = 1;
+			for (int d = 0; d < 3; d++) {
+				final double distance = Math.min(position[d] - bounds0.min(d), bounds0
+					.max(d) - position[d]);
+				if (distance < -EPSILON) return 0;
+				// No border along an axis of a single pixel (2D tiles)
+				if (!blend || (bounds0.dimension(d) == 1)) continue;
+				final double ramp = (Math.max(distance, 0) + 0.5) / BLENDING_RANGE;
+				if (ramp < 1) weight *= 0.5 - 0.5 * Math.cos(Math.PI * ramp);
+			}
+			return weight;
+		}
+
+		/**
+		 * Interpolates linearly the tile at each pixel of a cell, from its raster
+		 * extended with zeros: only valid for tiles whose interpolated view is
+		 * this one, see {@link SourceHelper#isZeroExtendedRaster}
+		 */
+		<T extends RealType<T> & NativeType<T>> void sample(
+			RandomAccessibleInterval<T> image, T type, Interval cell, double[] values)
+		{
+			final AffineTransform3D cellToTile = modelToTile.copy();
+			final AffineTransform3D shift = new AffineTransform3D();
+			shift.translate(cell.min(0), cell.min(1), cell.min(2));
+			cellToTile.concatenate(shift);
+			final ArrayImg<T, ?> target = new ArrayImgFactory<>(type).create(
+				Intervals.dimensionsAsLongArray(cell));
+			if (TrilinearResampling.resample(image, cellToTile, target)) {
+				int index = 0;
+				for (T pixel : target)
+					values[index++] = pixel.getRealDouble();
+				return;
+			}
+			sample(Views.interpolate(Views.extendZero(image),
+				new NLinearInterpolatorFactory<T>()), cell, values);
+		}
+
+		/**
+		 * Samples the interpolated tile at each pixel of a cell
+		 */
+		<T extends RealType<T>> void sample(RealRandomAccessible<T> interpolated,
+			Interval cell, double[] values)
+		{
+			final RealRandomAccess<T> access = interpolated.realRandomAccess();
+			forEachPosition(modelToTile, cell, (index, position) -> {
+				access.setPosition(position);
+				values[index] = access.get().getRealDouble();
+			});
+		}
+	}
+
+	interface PositionConsumer {
+
+		void accept(int index, double[] position);
+	}
+
+	/**
+	 * Visits the pixels of a cell, in flat iteration order, with their
+	 * position transformed
+	 */
+	private static void forEachPosition(AffineTransform3D transform,
+		Interval cell, PositionConsumer consumer)
+	{
+		final double[] step = { transform.get(0, 0), transform.get(1, 0),
+			transform.get(2, 0) };
+		final double[] position = new double[3];
+		int index = 0;
+		for (long z = cell.min(2); z <= cell.max(2); z++) {
+			for (long y = cell.min(1); y <= cell.max(1); y++) {
+				position[0] = cell.min(0);
+				position[1] = y;
+				position[2] = z;
+				transform.apply(position, position);
+				for (long x = cell.min(0); x <= cell.max(0); x++) {
+					consumer.accept(index++, position);
+					position[0] += step[0];
+					position[1] += step[1];
+					position[2] += step[2];
+				}
+			}
+		}
+	}
+
+	@Override
+	public RealRandomAccessible<T> getInterpolatedSource(int t, int level,
+		Interpolation method)
+	{
+		return Views.interpolate(Views.extendZero(getSource(t, level)),
+			interpolators.get(method));
+	}
+
+	@Override
+	public void getSourceTransform(int t, int level,
+		AffineTransform3D transform)
+	{
+		model.getSourceTransform(t, level, transform);
+	}
+
+	@Override
+	public T getType() {
+		return origins.get(0).getType().createVariable();
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public VoxelDimensions getVoxelDimensions() {
+		return model.getVoxelDimensions();
+	}
+
+	@Override
+	public int getNumMipmapLevels() {
+		return model.getNumMipmapLevels();
+	}
+
+	public List<Source<T>> getOriginalSources() {
+		return origins;
+	}
+
+	public Source<?> getModelSource() {
+		return model;
+	}
+
+	public Method getMethod() {
+		return method;
+	}
+
+	public int[] getBlockSize() {
+		return blockSize.clone();
+	}
+}
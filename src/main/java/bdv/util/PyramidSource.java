@@ -0,0 +1,342 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package bdv.util;
+
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import sc.fiji.bdvpg.source.SourceHelper;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link PyramidSource} adds downsampled resolution levels to a source which
+ * has a single one: only the level 0 of the {@link PyramidSource#origin}
+ * source is used. Level n + 1 is level n downsampled by two along each axis
+ * which is larger than one pixel, either by averaging the pixels (for
+ * intensities) or by taking their most frequent value (for labels). Pixels
+ * of a level are centered on the pixels they are computed from, as in
+ * BigDataViewer multiresolution datasets.
+ * <p>
+ * Levels are computed lazily, cell by cell, each from the cells of the level
+ * below, and kept in the global cache: zooming out of a large source only
+ * reads the pixels which are displayed. Changes of the origin pixel values
+ * are not tracked, its transform is.
+ *
+ * @param <T> pixel type, identical to the origin source
+ * @author Nicolas Chiaruttini
+ */
+public class PyramidSource<T extends RealType<T> & NativeType<T>> implements
+	Source<T>
+{
+
+	/** How a pixel is computed from the pixels of the level below */
+	public enum Method {
+			/** Mean value, for intensities */
+			AVERAGE,
+			/** Most frequent value, the lowest one in case of tie, for labels */
+			MODE
+	}
+
+	/**
+	 * When the number of levels is picked automatically, levels are added until
+	 * the largest dimension is at most this size, in pixels
+	 */
+	public static final int MIN_LEVEL_SIZE = 64;
+
+	/**
+	 * Cached levels (per timepoint and level), level 0 excepted
+	 */
+	final transient ConcurrentHashMap<Integer, ConcurrentHashMap<Integer, RandomAccessibleInterval<T>>> cachedLevels =
+		new ConcurrentHashMap<>();
+
+	/**
+	 * Origin source of type {@link T}
+	 */
+	final Source<T> origin;
+
+	final Method method;
+
+	/**
+	 * Number of levels as requested, 0 for automatic
+	 */
+	final int requestedNumLevels;
+
+	final int numLevels;
+
+	/**
+	 * Cell dimensions of the cached levels
+	 */
+	final int[] blockSize;
+
+	private final String name;
+
+	protected final DefaultInterpolators<T> interpolators =
+		new DefaultInterpolators<>();
+
+	/**
+	 * @param origin source whose level 0 is downsampled
+	 * @param name of the pyramid source
+	 * @param method how pixels are downsampled
+	 * @param numLevels number of resolution levels, level 0 included, or 0 to
+	 *          add levels until the origin fits in {@link #MIN_LEVEL_SIZE}
+	 *          pixels (using its dimensions at its first valid timepoint)
+	 * @param blockSize cell dimensions of the cached levels
+	 */
+	public PyramidSource(Source<T> origin, String name, Method method,
+		int numLevels, int[] blockSize)
+	{
+		this.origin = origin;
+		this.name = name;
+		this.method = method;
+		this.requestedNumLevels = Math.max(numLevels, 0);
+		this.blockSize = blockSize.clone();
+		if (numLevels > 0) {
+			this.numLevels = numLevels;
+		}
+		else {
+			this.numLevels = getAutoNumLevels(Intervals.dimensionsAsLongArray(origin
+				.getSource(SourceHelper.getAValidTimepoint(origin), 0)));
+		}
+	}
+
+	/**
+	 * @param dimensions dimensions of the level 0
+	 * @return number of levels needed for the largest dimension to be at most
+	 *         {@link #MIN_LEVEL_SIZE}
+	 */
+	public static int getAutoNumLevels(long[] dimensions) {
+		int numLevels = 1;
+		long[] levelDimensions = dimensions;
+		while (max(levelDimensions) > MIN_LEVEL_SIZE) {
+			levelDimensions = downsample(levelDimensions);
+			numLevels++;
+		}
+		return numLevels;
+	}
+
+	private static long max(long[] dimensions) {
+		long max = 0;
+		for (long size : dimensions)
+			max = Math.max(max, size);
+		return max;
+	}
+
+	/**
+	 * @param dimensions dimensions of a level
+	 * @return downsampling factors from this level to the next one: 2, or 1 for
+	 *         axes of a single pixel
+	 */
+	public static int[] getFactors(long[] dimensions) {
+		final int[] factors = new int[dimensions.length];
+		for (int d = 0; d < dimensions.length; d++) {
+			factors[d] = dimensions[d] > 1 ? 2 : 1;
+		}
+		return factors;
+	}
+
+	/**
+	 * @param dimensions dimensions of a level
+	 * @return dimensions of the next level
+	 */
+	public static long[] downsample(long[] dimensions) {
+		final int[] factors = getFactors(dimensions);
+		final long[] downsampled = new long[dimensions.length];
+		for (int d = 0; d < dimensions.length; d++) {
+			downsampled[d] = (dimensions[d] + factors[d] - 1) / factors[d];
+		}
+		return downsampled;
+	}
+
+	@Override
+	public boolean isPresent(int t) {
+		return origin.isPresent(t);
+	}
+
+	@Override
+	public RandomAccessibleInterval<T> getSource(int t, int level) {
+		if (level == 0) return origin.getSource(t, 0);
+		return cachedLevels.computeIfAbsent(t, k -> new ConcurrentHashMap<>())
+			.computeIfAbsent(level, l -> RAIHelper.wrapAsVolatileCachedCellImg(
+				getDimensions(t, l), cell -> loadCell(t, l, cell), RAIHelper
+					.clampBlockSize(blockSize, getDimensions(t, l)), this, t, l,
+				getType()));
+	}
+
+	/**
+	 * @return dimensions of a level, computed from the origin dimensions
+	 */
+	private long[] getDimensions(int t, int level) {
+		long[] dimensions = Intervals.dimensionsAsLongArray(origin.getSource(t,
+			0));
+		for (int l = 0; l < level; l++)
+			dimensions = downsample(dimensions);
+		return dimensions;
+	}
+
+	/**
+	 * Fills a cell of a level from the pixels of the level below
+	 */
+	private void loadCell(int t, int level, SingleCellArrayImg<T, ?> cell) {
+		final RandomAccessibleInterval<T> below = Views.zeroMin(getSource(t,
+			level - 1));
+		final int[] factors = getFactors(Intervals.dimensionsAsLongArray(below));
+
+		// Pixels are read one block of the level below at a time: no buffer of
+		// the size of the cell is needed
+		final long[] max = Intervals.maxAsLongArray(below);
+		final RandomAccess<T> in = below.randomAccess();
+		final double[] block = new double[factors[0] * factors[1] * factors[2]];
+		final Cursor<T> out = Views.flatIterable(cell).cursor();
+		while (out.hasNext()) {
+			final T pixel = out.next();
+			// First pixel below
+			final long x0 = out.getLongPosition(0) * factors[0];
+			final long y0 = out.getLongPosition(1) * factors[1];
+			final long z0 = out.getLongPosition(2) * factors[2];
+			int n = 0;
+			for (long z = z0; (z < z0 + factors[2]) && (z <= max[2]); z++) {
+				for (long y = y0; (y < y0 + factors[1]) && (y <= max[1]); y++) {
+					in.setPosition(x0, 0);
+					in.setPosition(y, 1);
+					in.setPosition(z, 2);
+					for (long x = x0; (x < x0 + factors[0]) && (x <= max[0]); x++) {
+						block[n++] = in.get().getRealDouble();
+						in.fwd(0);
+					}
+				}
+			}
+			pixel.setReal(method == Method.MODE ? mode(block, n) : mean(block, n));
+		}
+	}
+
+	private static double mean(double[] values, int n) {
+		double sum = 0;
+		for (int i = 0; i < n; i++)
+			sum += values[i];
+		return sum / n;
+	}
+
+	private static double mode(double[] values, int n) {
+		double mode = values[0];
+		int modeCount = 0;
+		for (int i = 0; i < n; i++) {
+			int count = 0;
+			for (int j = 0; j < n; j++) {
+				if (values[j] == values[i]) count++;
+			}
+			if ((count > modeCount) || ((count == modeCount) && (values[i] < mode))) {
+				mode = values[i];
+				modeCount = count;
+			}
+		}
+		return mode;
+	}
+
+	@Override
+	public RealRandomAccessible<T> getInterpolatedSource(int t, int level,
+		Interpolation method)
+	{
+		return Views.interpolate(Views.extendZero(getSource(t, level)),
+			interpolators.get(method));
+	}
+
+	/**
+	 * The transform of a level is the transform of the origin, composed with
+	 * the downsampling factors and the half pixel shift which centers the
+	 * pixels of a level on the pixels they are computed from.
+	 */
+	@Override
+	public void getSourceTransform(int t, int level,
+		AffineTransform3D transform)
+	{
+		origin.getSourceTransform(t, 0, transform);
+		long[] dimensions = Intervals.dimensionsAsLongArray(origin.getSource(t,
+			0));
+		final AffineTransform3D levelTransform = new AffineTransform3D();
+		for (int l = 0; l < level; l++) {
+			final int[] factors = getFactors(dimensions);
+			levelTransform.set(factors[0], 0, 0, (factors[0] - 1) / 2.0, 0,
+				factors[1], 0, (factors[1] - 1) / 2.0, 0, 0, factors[2],
+				(factors[2] - 1) / 2.0);
+			transform.concatenate(levelTransform);
+			dimensions = downsample(dimensions);
+		}
+	}
+
+	@Override
+	public T getType() {
+		return origin.getType().createVariable();
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public VoxelDimensions getVoxelDimensions() {
+		return origin.getVoxelDimensions();
+	}
+
+	@Override
+	public int getNumMipmapLevels() {
+		return numLevels;
+	}
+
+	public Source<T> getOriginalSource() {
+		return origin;
+	}
+
+	public Method getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return the number of levels as requested, 0 if picked automatically
+	 */
+	public int getRequestedNumLevels() {
+		return requestedNumLevels;
+	}
+
+	public int[] getBlockSize() {
+		return blockSize.clone();
+	}
+}
@@ -29,18 +29,29 @@
 
 package bdv.util;
 
+import sc.fiji.bdvpg.cache.EmptyCell;
 import sc.fiji.bdvpg.cache.GlobalLoaderCache;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.algorithm.lazy.Caches;
 import net.imglib2.cache.Cache;
+import net.imglib2.cache.CacheLoader;
 import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.CellLoader;
 import net.imglib2.cache.img.LoadedCellCacheLoader;
 import net.imglib2.img.basictypeaccess.AccessFlags;
 import net.imglib2.img.basictypeaccess.ArrayDataAccessFactory;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
 import net.imglib2.img.cell.Cell;
 import net.imglib2.img.cell.CellGrid;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.RealViews;
 import net.imglib2.type.NativeType;
+import net.imglib2.type.PrimitiveType;
 import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.NumericType;
 import net.imglib2.type.numeric.integer.GenericByteType;
 import net.imglib2.type.numeric.integer.GenericIntType;
 import net.imglib2.type.numeric.integer.GenericLongType;
@@ -50,6 +61,8 @@ import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
 
+import java.util.function.Predicate;
+
 import static net.imglib2.img.basictypeaccess.AccessFlags.VOLATILE;
 import static net.imglib2.type.PrimitiveType.BYTE;
 import static net.imglib2.type.PrimitiveType.INT;
@@ -65,55 +78,280 @@ import static net.imglib2.type.PrimitiveType.DOUBLE;
 
 public class RAIHelper {
 
+	/** Default cell dimensions of cached images */
+	private static final int[] DEFAULT_BLOCK_SIZE = { 64, 64, 64 };
+
+	/**
+	 * @return default cell dimensions of cached images, a new array which can
+	 *         be modified by the caller
+	 */
+	public static int[] getDefaultBlockSize() {
+		return DEFAULT_BLOCK_SIZE.clone();
+	}
+
+	/**
+	 * Number of pixels aimed at for a cell by {@link #autoBlockSize}. Cells
+	 * with up to twice fewer or twice more pixels are accepted.
+	 */
+	public static long TARGET_BLOCK_PIXELS = 64 * 64 * 64;
+
+	/**
+	 * @param blockSize cell dimensions
+	 * @param dimensions image dimensions
+	 * @return the cell dimensions, no larger than the image (and at least 1)
+	 */
+	public static int[] clampBlockSize(int[] blockSize, long[] dimensions) {
+		final int[] clamped = new int[dimensions.length];
+		for (int d = 0; d < dimensions.length; d++) {
+			final int size = d < blockSize.length ? blockSize[d]
+				: DEFAULT_BLOCK_SIZE[Math.min(d, DEFAULT_BLOCK_SIZE.length - 1)];
+			clamped[d] = (int) Math.max(Math.min(size, dimensions[d]), 1);
+		}
+		return clamped;
+	}
+
+	/**
+	 * Picks cell dimensions for an image, starting from a preferred cell shape
+	 * (typically the footprint of the native cells of the data the image is
+	 * computed from) and scaling it by powers of two until cells have about
+	 * {@link #TARGET_BLOCK_PIXELS} pixels. Axes which are thinner than the
+	 * cells are clamped, and the other axes grown instead: a 2000 x 2000 x 3
+	 * image gets 256 x 256 x 3 cells, not 64 x 64 x 3 ones.
+	 * <p>
+	 * Cells are grown by doubling and shrunk by halving, so that they stay
+	 * multiples (or divisors) of the preferred shape, and thus aligned on the
+	 * native cells they are computed from when the grids share their origin.
+	 *
+	 * @param dimensions image dimensions
+	 * @param preferredShape preferred cell shape, in pixels of the image, null
+	 *          to start from {@link #getDefaultBlockSize()}
+	 * @return cell dimensions
+	 */
+	public static int[] autoBlockSize(long[] dimensions, double[] preferredShape)
+	{
+		final int n = dimensions.length;
+		final int[] blockSize = new int[n];
+		for (int d = 0; d < n; d++) {
+			double size = DEFAULT_BLOCK_SIZE[Math.min(d, DEFAULT_BLOCK_SIZE.length -
+				1)];
+			if ((preferredShape != null) && (d < preferredShape.length) &&
+				(preferredShape[d] >= 1) && (preferredShape[d] < Integer.MAX_VALUE))
+			{
+				size = preferredShape[d];
+			}
+			blockSize[d] = (int) Math.max(Math.min(Math.round(size), dimensions[d]),
+				1);
+		}
+
+		// Too small: doubles the smallest axis which can still grow
+		while (numPixels(blockSize) < TARGET_BLOCK_PIXELS / 2) {
+			int smallest = -1;
+			for (int d = 0; d < n; d++) {
+				if ((blockSize[d] < dimensions[d]) && ((smallest == -1) ||
+					(blockSize[d] < blockSize[smallest]))) smallest = d;
+			}
+			if (smallest == -1) break; // The whole image fits in one cell
+			blockSize[smallest] = (int) Math.min(2L * blockSize[smallest],
+				dimensions[smallest]);
+		}
+
+		// Too large: halves the largest axis
+		while (numPixels(blockSize) > TARGET_BLOCK_PIXELS * 2) {
+			int largest = 0;
+			for (int d = 1; d < n; d++) {
+				if (blockSize[d] > blockSize[largest]) largest = d;
+			}
+			if (blockSize[largest] == 1) break;
+			blockSize[largest] = (blockSize[largest] + 1) / 2;
+		}
+		return blockSize;
+	}
+
+	private static long numPixels(int[] blockSize) {
+		long numPixels = 1;
+		for (int size : blockSize)
+			numPixels *= size;
+		return numPixels;
+	}
+
 	public static <T extends NativeType<T>> RandomAccessibleInterval<T>
 	wrapAsVolatileCachedCellImg(final RandomAccessibleInterval<T> source,
 								final int[] blockSize, Object objectSource, int timepoint, int level, T type)
 	{
+		return wrapAsVolatileCachedCellImg(Intervals.dimensionsAsLongArray(source),
+				new Caches.RandomAccessibleLoader<>(Views.zeroMin(source)), blockSize,
+				objectSource, timepoint, level, type);
+	}
 
-		final long[] dimensions = Intervals.dimensionsAsLongArray(source);
-		final CellGrid grid = new CellGrid(dimensions, blockSize);
+	/**
+	 * Creates a cached image of the linear interpolation of an image on a grid.
+	 * Cells are computed by the kernels of {@link TrilinearResampling} when
+	 * the pixel type has one, and by interpolating the image pixel by pixel
+	 * otherwise. Cells outside of the image are not computed, see
+	 * {@link #getFootprint}.
+	 * <p>
+	 * The image is always extended with zeros: to resample a source, this is
+	 * the same as its interpolated view only if
+	 * {@link sc.fiji.bdvpg.source.SourceHelper#isZeroExtendedRaster} is true.
+	 *
+	 * @param origin image to resample, extended with zeros
+	 * @param gridToOrigin transform from the grid pixel coordinates to the
+	 *          image pixel coordinates
+	 * @param dimensions grid dimensions
+	 * @param blockSize cell dimensions
+	 * @param objectSource source object of the keys of the global cache
+	 * @param timepoint timepoint of the keys of the global cache
+	 * @param level resolution level of the keys of the global cache
+	 * @param type pixel type
+	 * @param <T> pixel type
+	 * @return the cached image
+	 */
+	public static <T extends NumericType<T> & NativeType<T>> CachedCellImg<T, ?>
+	wrapAsVolatileCachedResampling(final RandomAccessibleInterval<T> origin,
+								   final AffineTransform3D gridToOrigin, final long[] dimensions,
+								   final int[] blockSize, Object objectSource, int timepoint, int level, T type)
+	{
+		final AffineTransform3D transform = gridToOrigin.copy();
+		final RandomAccessibleInterval<T> interpolated = Views.interval(RealViews
+				.affine(Views.interpolate(Views.extendZero(origin),
+						new NLinearInterpolatorFactory<>()), transform.inverse()),
+				new FinalInterval(dimensions));
+		final Interval footprint = getFootprint(origin, transform.inverse());
+		return wrapAsVolatileCachedCellImg(dimensions, cell -> {
+			if (!TrilinearResampling.resample(origin, transform, cell)) {
+				new Caches.RandomAccessibleLoader<>(interpolated).load(cell);
+			}
+		}, cell -> Intervals.isEmpty(Intervals.intersect(cell, footprint)),
+				blockSize, objectSource, timepoint, level, type);
+	}
 
-		final Caches.RandomAccessibleLoader<T> loader =
-				new Caches.RandomAccessibleLoader<>(Views.zeroMin(source));
+	/**
+	 * Creates a cached image whose cells are filled by a {@link CellLoader},
+	 * and kept in the global cache
+	 *
+	 * @param dimensions image dimensions
+	 * @param loader fills the cells, which are zero-min
+	 * @param blockSize cell dimensions
+	 * @param objectSource source object of the keys of the global cache
+	 * @param timepoint timepoint of the keys of the global cache
+	 * @param level resolution level of the keys of the global cache
+	 * @param type pixel type
+	 * @param <T> pixel type
+	 * @return the cached image, whose cache can be invalidated cell by cell
+	 */
+	public static <T extends NativeType<T>> CachedCellImg<T, ?>
+	wrapAsVolatileCachedCellImg(final long[] dimensions, final CellLoader<T> loader,
+								final int[] blockSize, Object objectSource, int timepoint, int level, T type)
+	{
+		return wrapAsVolatileCachedCellImg(dimensions, loader, null, blockSize,
+				objectSource, timepoint, level, type);
+	}
 
-		final CachedCellImg<T, ?> img;
-		final Cache<Long, Cell<?>> cache = new GlobalLoaderCache(objectSource,
-				timepoint, level).withLoader(LoadedCellCacheLoader.get(grid, loader, type,
-				AccessFlags.setOf(VOLATILE)));
+	/**
+	 * Creates a cached image whose cells are filled by a {@link CellLoader},
+	 * and kept in the global cache. Cells which are known to be filled with
+	 * zeros are not loaded: they are backed by an {@link EmptyCell}, which has
+	 * no storage and is read-only.
+	 *
+	 * @param dimensions image dimensions
+	 * @param loader fills the cells, which are zero-min
+	 * @param isEmpty tests whether the cell of an interval is filled with zeros,
+	 *          null if no cell is known to be empty
+	 * @param blockSize cell dimensions
+	 * @param objectSource source object of the keys of the global cache
+	 * @param timepoint timepoint of the keys of the global cache
+	 * @param level resolution level of the keys of the global cache
+	 * @param type pixel type
+	 * @param <T> pixel type
+	 * @return the cached image, whose cache can be invalidated cell by cell
+	 */
+	public static <T extends NativeType<T>> CachedCellImg<T, ?>
+	wrapAsVolatileCachedCellImg(final long[] dimensions, final CellLoader<T> loader,
+								final Predicate<Interval> isEmpty, final int[] blockSize, Object objectSource,
+								int timepoint, int level, T type)
+	{
+		final CellGrid grid = new CellGrid(dimensions, blockSize);
 
+		final PrimitiveType primitiveType;
 		if (type instanceof GenericByteType) {
-			img = new CachedCellImg(grid, type, cache, ArrayDataAccessFactory.get(
-					BYTE, AccessFlags.setOf(VOLATILE)));
+			primitiveType = BYTE;
 		}
 		else if (type instanceof GenericShortType) {
-			img = new CachedCellImg(grid, type, cache, ArrayDataAccessFactory.get(
-					SHORT, AccessFlags.setOf(VOLATILE)));
+			primitiveType = SHORT;
 		}
-		else if (type instanceof GenericIntType) {
-			img = new CachedCellImg(grid, type, cache, ArrayDataAccessFactory.get(INT,
-					AccessFlags.setOf(VOLATILE)));
+		else if ((type instanceof GenericIntType) || (type instanceof ARGBType)) {
+			primitiveType = INT;
 		}
 		else if (type instanceof GenericLongType) {
-			img = new CachedCellImg(grid, type, cache, ArrayDataAccessFactory.get(
-					LONG, AccessFlags.setOf(VOLATILE)));
+			primitiveType = LONG;
 		}
 		else if (type instanceof FloatType) {
-			img = new CachedCellImg(grid, type, cache, ArrayDataAccessFactory.get(
-					FLOAT, AccessFlags.setOf(VOLATILE)));
+			primitiveType = FLOAT;
 		}
 		else if (type instanceof DoubleType) {
-			img = new CachedCellImg(grid, type, cache, ArrayDataAccessFactory.get(
-					DOUBLE, AccessFlags.setOf(VOLATILE)));
-		}
-		else if (type instanceof ARGBType) {
-			img = new CachedCellImg(grid, type, cache, ArrayDataAccessFactory.get(INT,
-					AccessFlags.setOf(VOLATILE)));
+			primitiveType = DOUBLE;
 		}
 		else {
 			throw new UnsupportedOperationException("Cannot resample RAI (wrapAsVolatileCachedCellImg) of pixel type "+type.getClass().getName());
 		}
+		final ArrayDataAccess prototype = ArrayDataAccessFactory.get(primitiveType,
+				AccessFlags.setOf(VOLATILE));
 
-		return img;
+		final CacheLoader<Long, Cell<?>> cellLoader = LoadedCellCacheLoader.get(grid,
+				loader, type, AccessFlags.setOf(VOLATILE));
+		final CacheLoader<Long, Cell<?>> cacheLoader;
+		if (isEmpty == null) {
+			cacheLoader = cellLoader;
+		}
+		else {
+			cacheLoader = key -> {
+				final long[] cellMin = new long[grid.numDimensions()];
+				final int[] cellDims = new int[grid.numDimensions()];
+				grid.getCellDimensions(key, cellMin, cellDims);
+				final long[] cellMax = new long[cellMin.length];
+				for (int d = 0; d < cellMin.length; d++) {
+					cellMax[d] = cellMin[d] + cellDims[d] - 1;
+				}
+				if (isEmpty.test(new FinalInterval(cellMin, cellMax))) {
+					return EmptyCell.create(cellDims, cellMin, prototype);
+				}
+				return cellLoader.get(key);
+			};
+		}
+
+		final Cache<Long, Cell<?>> cache = new GlobalLoaderCache(objectSource,
+				timepoint, level).withLoader(cacheLoader);
+		return new CachedCellImg(grid, type, cache, prototype);
+	}
+
+	/**
+	 * @param origin interval of an image
+	 * @param originToGrid transform from the image pixel coordinates to the
+	 *          pixel coordinates of a grid
+	 * @return the bounding box, in grid pixels, of the pixels of the grid
+	 *         which may be interpolated from the image: the image, one pixel
+	 *         larger, is mapped to the grid, and the box is one grid pixel
+	 *         larger. Out of this box, the resampling of a zero-extended image
+	 *         is zero.
+	 */
+	public static Interval getFootprint(Interval origin,
+		AffineTransform3D originToGrid)
+	{
+		final long[] min = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+		final long[] max = { Long.MIN_VALUE, Long.MIN_VALUE, Long.MIN_VALUE };
+		final double[] corner = new double[3];
+		for (int i = 0; i < 8; i++) {
+			for (int d = 0; d < 3; d++) {
+				corner[d] = ((i >> d) & 1) == 0 ? origin.min(d) - 1 : origin.max(d) +
+					1;
+			}
+			originToGrid.apply(corner, corner);
+			for (int d = 0; d < 3; d++) {
+				min[d] = Math.min(min[d], (long) Math.floor(corner[d]) - 1);
+				max[d] = Math.max(max[d], (long) Math.ceil(corner[d]) + 1);
+			}
+		}
+		return new FinalInterval(min, max);
 	}
 
 }
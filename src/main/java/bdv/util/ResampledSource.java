@@ -34,13 +34,22 @@ import bdv.tools.transformation.TransformedSource;
 import bdv.viewer.Interpolation;
 import bdv.viewer.Source;
 import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Interval;
 import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealRandomAccessible;
+import net.imglib2.Volatile;
+import net.imglib2.algorithm.lazy.Caches;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.img.cell.CellGrid;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.realtransform.RealViews;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.NumericType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
 import net.imglib2.view.ExtendedRandomAccessibleInterval;
 import net.imglib2.view.Views;
 import org.slf4j.Logger;
@@ -48,10 +57,12 @@ import org.slf4j.LoggerFactory;
 import sc.fiji.bdvpg.source.SourceHelper;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
 /**
  * A {@link ResampledSource} is a {@link Source} which is computed on the fly by
@@ -80,7 +91,7 @@ public class ResampledSource<T extends NumericType<T> & NativeType<T>>
 	 * Hashmap to cache RAIs (mipmaps and timepoints), used only if
 	 * {@link ResampledSource#cache} is true
 	 */
-	final transient ConcurrentHashMap<Integer, ConcurrentHashMap<Integer, RandomAccessibleInterval<T>>> cachedRAIs =
+	final transient ConcurrentHashMap<Integer, ConcurrentHashMap<Integer, CachedLevel>> cachedRAIs =
 		new ConcurrentHashMap<>();
 
 	/**
@@ -104,6 +115,19 @@ public class ResampledSource<T extends NumericType<T> & NativeType<T>>
 
 	final boolean cache;
 
+	/**
+	 * True if the interpolated view of the origin is its pixels extended with
+	 * zeros, see {@link SourceHelper#isZeroExtendedRaster(Source)}: only then
+	 * can its pixels be read directly instead of its interpolated view
+	 */
+	final boolean zeroExtendedOrigin;
+
+	/**
+	 * Cell dimensions of the cached images, null for cells picked per level,
+	 * see {@link #getBlockSize(int, int)}
+	 */
+	final int[] blockSize;
+
 	private final String name;
 
 	/**
@@ -130,9 +154,11 @@ public class ResampledSource<T extends NumericType<T> & NativeType<T>>
 	 *          the linked method above
 	 * @param cache specifies whether the result of the resampling should be
 	 *          cached. This allows for a fast access of resampled source after
-	 *          the first computation - but the synchronization with the origin
-	 *          and model source is lost. TODO : check how the cache can be
-	 *          accessed / reset
+	 *          the first computation. When the transform of the origin or of
+	 *          the model source changes, only the cached cells which sample the
+	 *          origin before or after the change are computed again, see
+	 *          {@link CachedLevel}. Changes of the origin pixel values are not
+	 *          tracked.
 	 * @param originInterpolation specifies whether the origin source should be
 	 *          interpolated of not in the resampling process
 	 * @param defaultMipMapLevel mipmap level chosen to resample the origin source
@@ -142,6 +168,36 @@ public class ResampledSource<T extends NumericType<T> & NativeType<T>>
 		String name, boolean reuseMipMaps, boolean cache,
 		boolean originInterpolation, int defaultMipMapLevel)
 	{
+		this(source, resamplingModel, name, reuseMipMaps, cache,
+			originInterpolation, defaultMipMapLevel, RAIHelper.getDefaultBlockSize());
+	}
+
+	/**
+	 * Same as
+	 * {@link #ResampledSource(Source, Source, String, boolean, boolean, boolean, int)},
+	 * with the cell dimensions of the cache.
+	 *
+	 * @param source origin source
+	 * @param resamplingModel model source used for resampling the origin source
+	 * @param name of the resampled source
+	 * @param reuseMipMaps allows reusing mipmaps of both the origin and the model
+	 *          source in the resampling
+	 * @param cache specifies whether the result of the resampling should be
+	 *          cached
+	 * @param originInterpolation specifies whether the origin source should be
+	 *          interpolated of not in the resampling process
+	 * @param defaultMipMapLevel mipmap level chosen to resample the origin source
+	 *          if reuseMipMaps is false
+	 * @param blockSize cell dimensions of the cache (clamped to the image size),
+	 *          or null to pick them for each level from the model dimensions and
+	 *          the native cells of the origin, see
+	 *          {@link RAIHelper#autoBlockSize(long[], double[])}
+	 */
+	public ResampledSource(Source<T> source, Source<?> resamplingModel,
+		String name, boolean reuseMipMaps, boolean cache,
+		boolean originInterpolation, int defaultMipMapLevel, int[] blockSize)
+	{
+		this.blockSize = blockSize == null ? null : blockSize.clone();
 		this.origin = source;
 		this.resamplingModel = resamplingModel;
 		this.name = name;
@@ -154,6 +210,7 @@ public class ResampledSource<T extends NumericType<T> & NativeType<T>>
 			this.originInterpolation = Interpolation.NEARESTNEIGHBOR;
 		}
 		this.defaultMipMapLevel = defaultMipMapLevel;
+		this.zeroExtendedOrigin = SourceHelper.isZeroExtendedRaster(source);
 		computeMipMapsCorrespondance();
 	}
 
@@ -256,43 +313,343 @@ public class ResampledSource<T extends NumericType<T> & NativeType<T>>
 	}
 
 	@Override
-	public RandomAccessibleInterval<T> getSource(int t, int level) { // TODO: shouldn't this be synchronized ?
+	public RandomAccessibleInterval<T> getSource(int t, int level) {
 		if (cache) {
-			if (!cachedRAIs.containsKey(t)) {
-				cachedRAIs.put(t, new ConcurrentHashMap<>());
+			return cachedRAIs.computeIfAbsent(t, k -> new ConcurrentHashMap<>())
+				.computeIfAbsent(level, l -> new CachedLevel(t, l)).getImage();
+		}
+		else {
+			return buildSource(t, level);
+		}
+
+	}
+
+	/**
+	 * Cached resampling of a timepoint and level, kept in sync with the
+	 * transforms of the origin and model sources.
+	 * <p>
+	 * The transforms are checked each time the image is requested. When one of
+	 * them has changed, a new {@link Sampling} is published, and only the cells
+	 * which intersect the footprint of the origin, before or after the change,
+	 * are invalidated: the other ones only sample the origin out of its bounds,
+	 * which is zero, and are kept. This holds only for an origin extended with
+	 * zeros (see {@link SourceHelper#isZeroExtendedRaster}): otherwise, all
+	 * cells are invalidated. If the dimensions of the model change, all cells
+	 * are computed again.
+	 * <p>
+	 * A cell is loaded with a single sampling, read once. The new sampling is
+	 * published before the invalidation, and an invalidation waits for the
+	 * load of the cell in progress, if any (see
+	 * {@link sc.fiji.bdvpg.cache.GlobalLoaderCache#invalidate}): a cell
+	 * computed with the old transforms is thus removed from the cache, and a
+	 * cell loaded after the invalidation uses the new transforms.
+	 * <p>
+	 * For the same reason, cells outside of the footprint of the origin are
+	 * not computed: they are backed by an {@link sc.fiji.bdvpg.cache.EmptyCell},
+	 * provided that the origin is extended with zeros, see
+	 * {@link SourceHelper#isZeroExtendedRaster(Source)}.
+	 */
+	class CachedLevel {
+
+		final int t, level;
+
+		// Read by the cell loader, replaced as a whole
+		volatile Sampling sampling;
+
+		volatile CachedCellImg<T, ?> image;
+
+		CachedLevel(int t, int level) {
+			this.t = t;
+			this.level = level;
+			build(new Sampling());
+		}
+
+		private void build(Sampling current) {
+			sampling = current;
+			// Cells out of the footprint are known to be zero only if the origin
+			// is extended with zeros
+			final Predicate<Interval> isEmpty = zeroExtendedOrigin ? cell -> Intervals
+				.isEmpty(Intervals.intersect(cell, sampling.footprint)) : null;
+			image = RAIHelper.wrapAsVolatileCachedCellImg(Intervals
+				.dimensionsAsLongArray(current.resampled), this::loadCell, isEmpty,
+				getBlockSize(t, level), ResampledSource.this, t, level, getType());
+		}
+
+		private void loadCell(SingleCellArrayImg<T, ?> cell) throws Exception {
+			final Sampling current = sampling;
+			final RandomAccessibleInterval<T> originImage = origin.getSource(t,
+				getModelToOriginMipMapLevel(level));
+			if ((current.axisAligned != null) && (current.axisAligned.copy(
+				originImage, cell))) return;
+			if (zeroExtendedOrigin && (originInterpolation == Interpolation.NLINEAR) &&
+				(TrilinearResampling.resample(originImage, current.modelToOrigin,
+					cell))) return;
+			new Caches.RandomAccessibleLoader<>(current.resampled).load(cell);
+		}
+
+		RandomAccessibleInterval<T> getImage() {
+			if (transformsChanged()) update();
+			return image;
+		}
+
+		private boolean transformsChanged() {
+			final Sampling current = sampling;
+			final AffineTransform3D transform = new AffineTransform3D();
+			resamplingModel.getSourceTransform(t, level, transform);
+			if (!sameTransform(transform, current.atModel)) return true;
+			origin.getSourceTransform(t, getModelToOriginMipMapLevel(level),
+				transform);
+			return !sameTransform(transform, current.atOrigin);
+		}
+
+		private synchronized void update() {
+			if (!transformsChanged()) return; // Updated concurrently
+			final Sampling before = sampling;
+			final Sampling after = new Sampling();
+			final CachedCellImg<T, ?> current = image;
+			if (!Arrays.equals(Intervals.dimensionsAsLongArray(after.resampled),
+				Intervals.dimensionsAsLongArray(current)))
+			{
+				build(after);
+				current.getCache().invalidateAll();
+				return;
 			}
+			sampling = after;
+
+			final CellGrid grid = current.getCellGrid();
+			final long[] gridDimensions = grid.getGridDimensions();
+			final long[] gridPosition = new long[3];
+			final long[] cellMin = new long[3];
+			final int[] cellDimensions = new int[3];
+			long numCells = 1;
+			for (long size : gridDimensions)
+				numCells *= size;
+			long invalidated = 0;
+			for (long index = 0; index < numCells; index++) {
+				IntervalIndexer.indexToPosition(index, gridDimensions, gridPosition);
+				grid.getCellDimensions(gridPosition, cellMin, cellDimensions);
+				// Out of the footprints, only an origin extended with zeros is
+				// known to be left unchanged
+				if (!zeroExtendedOrigin || intersects(cellMin, cellDimensions,
+					before.footprint) || intersects(cellMin, cellDimensions,
+						after.footprint))
+				{
+					current.getCache().invalidate(index);
+					invalidated++;
+				}
+			}
+			logger.debug(getName() + " (t = " + t + ", level = " + level +
+				") : transform changed, " + invalidated + " cells out of " +
+				numCells + " invalidated");
+		}
+
+		/**
+		 * How the cells are computed, for the transforms of the origin and model
+		 * sources read on creation. Immutable: the transforms are not modified
+		 * once read.
+		 */
+		final class Sampling {
+
+			final AffineTransform3D atModel = new AffineTransform3D();
+
+			final AffineTransform3D atOrigin = new AffineTransform3D();
+
+			// Non null if the cells can be copied from the origin
+			final AxisAlignedSampling axisAligned;
 
-			if (!cachedRAIs.get(t).containsKey(level)) {
-				RandomAccessibleInterval<T> nonCached = buildSource(t, level);
+			// Transform from model pixels to origin pixels
+			final AffineTransform3D modelToOrigin;
 
-				int[] blockSize = { 64, 64, 64 };
+			// Out of this interval, cells are empty
+			final Interval footprint;
 
-				if (nonCached.dimension(0) < 64) blockSize[0] = (int) nonCached
-					.dimension(0);
-				if (nonCached.dimension(1) < 64) blockSize[1] = (int) nonCached
-					.dimension(1);
-				if (nonCached.dimension(2) < 64) blockSize[2] = (int) nonCached
-					.dimension(2);
+			final RandomAccessibleInterval<T> resampled;
 
-				cachedRAIs.get(t).put(level, RAIHelper.wrapAsVolatileCachedCellImg(
-					nonCached, blockSize, this, t, level, this.getType()));
+			Sampling() {
+				getTransforms(t, level, atModel, atOrigin);
+				modelToOrigin = atOrigin.inverse();
+				modelToOrigin.concatenate(atModel);
+				axisAligned = getAxisAlignedSampling(atModel, atOrigin);
+				final AffineTransform3D originToModel = atModel.inverse();
+				originToModel.concatenate(atOrigin);
+				footprint = RAIHelper.getFootprint(origin.getSource(t,
+					getModelToOriginMipMapLevel(level)), originToModel);
+				resampled = buildSource(t, level, atModel, atOrigin);
 			}
-			return cachedRAIs.get(t).get(level);
 		}
-		else {
-			return buildSource(t, level);
+	}
+
+	static boolean intersects(long[] cellMin, int[] cellDimensions,
+		Interval box)
+	{
+		for (int d = 0; d < cellMin.length; d++) {
+			if ((cellMin[d] + cellDimensions[d] - 1 < box.min(d)) || (cellMin[d] >
+				box.max(d))) return false;
 		}
+		return true;
+	}
 
+	static boolean sameTransform(AffineTransform3D a,
+		AffineTransform3D b)
+	{
+		for (int r = 0; r < 3; r++) {
+			for (int c = 0; c < 4; c++) {
+				if (a.get(r, c) != b.get(r, c)) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the cell dimensions of the cache, or null if they are picked per
+	 *         level
+	 */
+	public int[] getBlockSize() {
+		return blockSize == null ? null : blockSize.clone();
+	}
+
+	/**
+	 * @param t timepoint
+	 * @param level resolution level
+	 * @return the cell dimensions of the cache at this timepoint and level:
+	 *         the configured ones clamped to the image size, or, in automatic
+	 *         mode, a multiple or divisor of the footprint of the origin
+	 *         native cells in model pixels, see
+	 *         {@link RAIHelper#autoBlockSize(long[], double[])}
+	 */
+	public int[] getBlockSize(int t, int level) {
+		final long[] dimensions = Intervals.dimensionsAsLongArray(resamplingModel
+			.getSource(t, level));
+		if (blockSize != null) {
+			return RAIHelper.clampBlockSize(blockSize, dimensions);
+		}
+		return RAIHelper.autoBlockSize(dimensions, getOriginCellFootprint(t,
+			level));
+	}
+
+	/**
+	 * @return the size, along each model axis and in model pixels, of the
+	 *         bounding box of a native cell of the origin, or null if the origin
+	 *         is not a cell image, or is warped
+	 */
+	private double[] getOriginCellFootprint(int t, int level) {
+		final int originLevel = getModelToOriginMipMapLevel(level);
+		// Transformed sources keep the pixel grid of the source they wrap
+		Source<?> rootOrigin = origin;
+		while (rootOrigin instanceof TransformedSource) {
+			rootOrigin = ((TransformedSource<?>) rootOrigin).getWrappedSource();
+		}
+		if ((rootOrigin instanceof WarpedSource) || (originLevel >= rootOrigin
+			.getNumMipmapLevels())) return null;
+		final RandomAccessibleInterval<?> originImage = rootOrigin.getSource(t,
+			originLevel);
+		if (!(originImage instanceof AbstractCellImg)) return null;
+		final CellGrid grid = ((AbstractCellImg<?, ?, ?, ?>) originImage)
+			.getCellGrid();
+		if (grid.numDimensions() != 3) return null;
+		final int[] cellDimensions = new int[3];
+		grid.cellDimensions(cellDimensions);
+
+		// Origin pixel to model pixel
+		final AffineTransform3D atModel = new AffineTransform3D();
+		resamplingModel.getSourceTransform(t, level, atModel);
+		final AffineTransform3D atOrigin = new AffineTransform3D();
+		origin.getSourceTransform(t, originLevel, atOrigin);
+		final AffineTransform3D originToModel = atModel.inverse();
+		originToModel.concatenate(atOrigin);
+
+		final double[] footprint = new double[3];
+		for (int d = 0; d < 3; d++) {
+			for (int o = 0; o < 3; o++) {
+				footprint[d] += Math.abs(originToModel.get(d, o)) * cellDimensions[o];
+			}
+		}
+		return footprint;
 	}
 
-	@SuppressWarnings("UnnecessaryLocalVariable")
 	public RandomAccessibleInterval<T> buildSource(int t, int level) {
-		// Get current model source transformation
-		AffineTransform3D at = new AffineTransform3D();
-		resamplingModel.getSourceTransform(t, level, at);
+		final AffineTransform3D atModel = new AffineTransform3D();
+		final AffineTransform3D atOrigin = new AffineTransform3D();
+		getTransforms(t, level, atModel, atOrigin);
+		return buildSource(t, level, atModel, atOrigin);
+	}
+
+	/**
+	 * @param atModel transform of the model, read once by the caller
+	 * @param atOrigin transform of the origin, read once by the caller
+	 */
+	private RandomAccessibleInterval<T> buildSource(int t, int level,
+		AffineTransform3D atModel, AffineTransform3D atOrigin)
+	{
+		final AxisAlignedSampling sampling = getAxisAlignedSampling(atModel,
+			atOrigin);
+		if (sampling == null) return buildInterpolatedSource(t, level, atModel,
+			atOrigin);
+		final RandomAccessibleInterval<?> model = resamplingModel.getSource(t,
+			level);
+		return Views.interval(sampling.sample(origin.getSource(t,
+			getModelToOriginMipMapLevel(level))), new long[] { 0, 0, 0 }, new long[] {
+				model.dimension(0) - 1, model.dimension(1) - 1, model.dimension(2) -
+					1 });
+	}
 
-		// int mipmap = getModelToOriginMipMapLevel(level);
+	/**
+	 * @param t timepoint
+	 * @param level model resolution level
+	 * @return the sampling of the origin voxels if the model voxels fall exactly
+	 *         on them, in which case the origin does not need to be
+	 *         interpolated, null otherwise, or if the interpolated view of the
+	 *         origin is not its voxels extended with zeros
+	 */
+	public AxisAlignedSampling getAxisAlignedSampling(int t, int level) {
+		final AffineTransform3D atModel = new AffineTransform3D();
+		final AffineTransform3D atOrigin = new AffineTransform3D();
+		getTransforms(t, level, atModel, atOrigin);
+		return getAxisAlignedSampling(atModel, atOrigin);
+	}
+
+	private AxisAlignedSampling getAxisAlignedSampling(AffineTransform3D atModel,
+		AffineTransform3D atOrigin)
+	{
+		if ((getType() instanceof Volatile) || (!zeroExtendedOrigin)) return null;
+		final AffineTransform3D modelToOrigin = atOrigin.inverse();
+		modelToOrigin.concatenate(atModel);
+		return AxisAlignedSampling.of(modelToOrigin);
+	}
 
+	/**
+	 * Reads the current transforms of the model level and of the matching
+	 * origin level
+	 */
+	private void getTransforms(int t, int level, AffineTransform3D atModel,
+		AffineTransform3D atOrigin)
+	{
+		resamplingModel.getSourceTransform(t, level, atModel);
+		origin.getSourceTransform(t, getModelToOriginMipMapLevel(level),
+			atOrigin);
+	}
+
+	/**
+	 * Resamples the origin by interpolating it at the model voxel positions,
+	 * whatever the transforms. Gives the same result as {@link #buildSource}.
+	 *
+	 * @param t timepoint
+	 * @param level model resolution level
+	 * @return resampled image
+	 */
+	public RandomAccessibleInterval<T> buildInterpolatedSource(int t,
+		int level)
+	{
+		final AffineTransform3D atModel = new AffineTransform3D();
+		final AffineTransform3D atOrigin = new AffineTransform3D();
+		getTransforms(t, level, atModel, atOrigin);
+		return buildInterpolatedSource(t, level, atModel, atOrigin);
+	}
+
+	@SuppressWarnings("UnnecessaryLocalVariable")
+	private RandomAccessibleInterval<T> buildInterpolatedSource(int t,
+		int level, AffineTransform3D atModel, AffineTransform3D atOrigin)
+	{
 		// Get bounds of model source RAI
 		// TODO check if -1 is necessary
 		long sx = resamplingModel.getSource(t, level).dimension(0) - 1;
@@ -304,9 +661,7 @@ public class ResampledSource<T extends NumericType<T> & NativeType<T>>
 			getModelToOriginMipMapLevel(level), originInterpolation);
 
 		// Gets randomAccessible... ( with appropriate transform )
-		at = at.inverse();
-		AffineTransform3D atOrigin = new AffineTransform3D();
-		origin.getSourceTransform(t, getModelToOriginMipMapLevel(level), atOrigin);
+		final AffineTransform3D at = atModel.inverse();
 		at.concatenate(atOrigin);
 		RandomAccessible<T> ra = RealViews.simplify(RealViews.affine(ipimg, at)); // Gets the view
 
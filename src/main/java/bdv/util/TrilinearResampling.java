@@ -0,0 +1,340 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package bdv.util;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.NativeImg;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+/**
+ * Trilinear resampling kernels specialized for {@link UnsignedShortType},
+ * {@link UnsignedByteType} and {@link FloatType} images, which write straight
+ * into the primitive array of a target image (typically a cell being loaded)
+ * instead of going through an interpolator and generic type accessors.
+ * <p>
+ * The origin is read from its backing array if it is an {@link ArrayImg}.
+ * Otherwise, the block of the origin covered by the target is first copied
+ * into a primitive array. Along each row of the target, the origin position
+ * is incremented by the first column of the transform. Out of its bounds,
+ * the origin is extended with zeros, as BigDataViewer sources are.
+ * <p>
+ * The results match an {@link net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory}
+ * interpolation up to rounding: the weighted sum is computed in double and
+ * rounded once, while the generic interpolator rounds each weighted term for
+ * integer types.
+ *
+ * @author Nicolas Chiaruttini
+ */
+public final class TrilinearResampling {
+
+	/**
+	 * An origin which is not an {@link ArrayImg} is resampled with these
+	 * kernels only if the block it is read from has at most this number of
+	 * pixels per target pixel: a strong downsampling reads few of them.
+	 */
+	public static int MAX_BLOCK_RATIO = 32;
+
+	private TrilinearResampling() {}
+
+	/**
+	 * @param type pixel type
+	 * @return true if there is a kernel for this pixel type
+	 */
+	public static boolean isSupported(Object type) {
+		return (type != null) && ((type.getClass() == UnsignedShortType.class) ||
+			(type.getClass() == UnsignedByteType.class) || (type
+				.getClass() == FloatType.class));
+	}
+
+	/**
+	 * Resamples an image into a target image.
+	 *
+	 * @param origin 3D image to resample
+	 * @param targetToOrigin transform from the target pixel coordinates to the
+	 *          origin pixel coordinates
+	 * @param target image to fill, backed by a single primitive array
+	 * @param <T> pixel type
+	 * @return false if nothing was done because there is no kernel for the
+	 *         pixel type, because the target is not backed by a primitive
+	 *         array, or because the origin block to read is too large
+	 */
+	public static <T extends NativeType<T>> boolean resample(
+		RandomAccessibleInterval<T> origin, AffineTransform3D targetToOrigin,
+		NativeImg<T, ?> target)
+	{
+		final Object targetAccess = target.update(null);
+		if (!(targetAccess instanceof ArrayDataAccess)) return false;
+		final Object dst = ((ArrayDataAccess<?>) targetAccess)
+			.getCurrentStorageArray();
+		final T type = target.firstElement();
+		if (!isSupported(type)) return false;
+
+		final double[] m = targetToOrigin.getRowPackedCopy();
+		final long[] dstMin = new long[3];
+		final int[] dstDims = new int[3];
+		for (int d = 0; d < 3; d++) {
+			dstMin[d] = target.min(d);
+			dstDims[d] = (int) target.dimension(d);
+		}
+
+		final Object src;
+		final long[] srcMin = new long[3];
+		final int[] srcDims = new int[3];
+		if (origin instanceof ArrayImg) {
+			final Object originAccess = ((ArrayImg<T, ?>) origin).update(null);
+			if (!(originAccess instanceof ArrayDataAccess)) return false;
+			src = ((ArrayDataAccess<?>) originAccess).getCurrentStorageArray();
+			for (int d = 0; d < 3; d++)
+				srcDims[d] = (int) origin.dimension(d);
+		}
+		else {
+			// Block of the origin which is read: footprint of the target
+			final long[] max = new long[3];
+			getFootprint(m, dstMin, dstDims, srcMin, max);
+			long size = 1;
+			for (int d = 0; d < 3; d++) {
+				srcMin[d] = Math.max(srcMin[d], origin.min(d));
+				max[d] = Math.min(max[d], origin.max(d));
+				if (max[d] < srcMin[d]) return true; // Only zeros
+				srcDims[d] = (int) (max[d] - srcMin[d] + 1);
+				size *= srcDims[d];
+			}
+			if (size > (long) MAX_BLOCK_RATIO * dstDims[0] * dstDims[1] *
+				dstDims[2]) return false;
+			src = copyBlock(Views.interval(origin, new FinalInterval(srcMin, max)),
+				type, (int) size);
+		}
+
+		resample(Pixels.wrap(src), srcMin, srcDims, Pixels.wrap(dst), dstMin,
+			dstDims, m);
+		return true;
+	}
+
+	/**
+	 * Bounding box, in origin pixels, of the pixels read to interpolate the
+	 * target
+	 */
+	private static void getFootprint(double[] m, long[] dstMin, int[] dstDims,
+		long[] min, long[] max)
+	{
+		for (int r = 0; r < 3; r++) {
+			double lo = Double.MAX_VALUE;
+			double hi = -Double.MAX_VALUE;
+			for (int i = 0; i < 8; i++) {
+				double p = m[4 * r + 3];
+				for (int c = 0; c < 3; c++) {
+					final long x = ((i >> c) & 1) == 0 ? dstMin[c] : dstMin[c] +
+						dstDims[c] - 1;
+					p += m[4 * r + c] * x;
+				}
+				lo = Math.min(lo, p);
+				hi = Math.max(hi, p);
+			}
+			min[r] = (long) Math.floor(lo);
+			max[r] = (long) Math.floor(hi) + 1;
+		}
+	}
+
+	private static Object copyBlock(RandomAccessibleInterval<?> block,
+		Object type, int size)
+	{
+		final Cursor<?> cursor = Views.flatIterable(block).cursor();
+		if (type instanceof UnsignedShortType) {
+			final short[] array = new short[size];
+			for (int i = 0; i < size; i++)
+				array[i] = ((UnsignedShortType) cursor.next()).getShort();
+			return array;
+		}
+		else if (type instanceof UnsignedByteType) {
+			final byte[] array = new byte[size];
+			for (int i = 0; i < size; i++)
+				array[i] = ((UnsignedByteType) cursor.next()).getByte();
+			return array;
+		}
+		else {
+			final float[] array = new float[size];
+			for (int i = 0; i < size; i++)
+				array[i] = ((FloatType) cursor.next()).get();
+			return array;
+		}
+	}
+
+	private static void resample(Pixels src, long[] srcMin, int[] srcDims,
+		Pixels dst, long[] dstMin, int[] dstDims, double[] m)
+	{
+		final int sx = srcDims[0], sy = srcDims[1], sz = srcDims[2];
+		final int strideZ = sx * sy;
+		int o = 0;
+		for (int z = 0; z < dstDims[2]; z++) {
+			for (int y = 0; y < dstDims[1]; y++) {
+				// Origin position of the first pixel of the row, in the block
+				final double gx = dstMin[0], gy = dstMin[1] + y, gz = dstMin[2] + z;
+				double px = m[0] * gx + m[1] * gy + m[2] * gz + m[3] - srcMin[0];
+				double py = m[4] * gx + m[5] * gy + m[6] * gz + m[7] - srcMin[1];
+				double pz = m[8] * gx + m[9] * gy + m[10] * gz + m[11] - srcMin[2];
+				for (int x = 0; x < dstDims[0]; x++, o++, px += m[0], py += m[4],
+					pz += m[8])
+				{
+					final double fx = Math.floor(px), fy = Math.floor(py), fz = Math
+						.floor(pz);
+					final double wx = px - fx, wy = py - fy, wz = pz - fz;
+					final double v000, v100, v010, v110, v001, v101, v011, v111;
+					if ((fx >= 0) && (fy >= 0) && (fz >= 0) && (fx < sx - 1) &&
+						(fy < sy - 1) && (fz < sz - 1))
+					{
+						final int i = (int) fx + sx * (int) fy + strideZ * (int) fz;
+						v000 = src.get(i);
+						v100 = src.get(i + 1);
+						v010 = src.get(i + sx);
+						v110 = src.get(i + sx + 1);
+						v001 = src.get(i + strideZ);
+						v101 = src.get(i + strideZ + 1);
+						v011 = src.get(i + strideZ + sx);
+						v111 = src.get(i + strideZ + sx + 1);
+					}
+					else if ((fx < -1) || (fy < -1) || (fz < -1) || (fx >= sx) ||
+						(fy >= sy) || (fz >= sz))
+					{
+						continue; // Out of bounds: zero, as allocated
+					}
+					else {
+						final int ix = (int) fx, iy = (int) fy, iz = (int) fz;
+						v000 = get(src, srcDims, ix, iy, iz);
+						v100 = get(src, srcDims, ix + 1, iy, iz);
+						v010 = get(src, srcDims, ix, iy + 1, iz);
+						v110 = get(src, srcDims, ix + 1, iy + 1, iz);
+						v001 = get(src, srcDims, ix, iy, iz + 1);
+						v101 = get(src, srcDims, ix + 1, iy, iz + 1);
+						v011 = get(src, srcDims, ix, iy + 1, iz + 1);
+						v111 = get(src, srcDims, ix + 1, iy + 1, iz + 1);
+					}
+					final double c00 = v000 + wx * (v100 - v000);
+					final double c10 = v010 + wx * (v110 - v010);
+					final double c01 = v001 + wx * (v101 - v001);
+					final double c11 = v011 + wx * (v111 - v011);
+					final double c0 = c00 + wy * (c10 - c00);
+					final double c1 = c01 + wy * (c11 - c01);
+					dst.set(o, c0 + wz * (c1 - c0));
+				}
+			}
+		}
+	}
+
+	/** Value of an origin pixel, zero out of the block */
+	private static double get(Pixels src, int[] srcDims, int x, int y, int z) {
+		if ((x < 0) || (y < 0) || (z < 0) || (x >= srcDims[0]) ||
+			(y >= srcDims[1]) || (z >= srcDims[2])) return 0;
+		return src.get(x + srcDims[0] * (y + srcDims[1] * z));
+	}
+
+	/**
+	 * Reads and writes the primitive array of a supported pixel type as
+	 * doubles, so that a single kernel serves all of them. Integer values are
+	 * rounded once, when written.
+	 */
+	private static abstract class Pixels {
+
+		abstract double get(int i);
+
+		abstract void set(int i, double value);
+
+		static Pixels wrap(Object array) {
+			if (array instanceof short[]) return new ShortPixels((short[]) array);
+			if (array instanceof byte[]) return new BytePixels((byte[]) array);
+			return new FloatPixels((float[]) array);
+		}
+	}
+
+	private static final class ShortPixels extends Pixels {
+
+		private final short[] array;
+
+		ShortPixels(short[] array) {
+			this.array = array;
+		}
+
+		@Override
+		double get(int i) {
+			return array[i] & 0xffff;
+		}
+
+		@Override
+		void set(int i, double value) {
+			array[i] = (short) (value + 0.5);
+		}
+	}
+
+	private static final class BytePixels extends Pixels {
+
+		private final byte[] array;
+
+		BytePixels(byte[] array) {
+			this.array = array;
+		}
+
+		@Override
+		double get(int i) {
+			return array[i] & 0xff;
+		}
+
+		@Override
+		void set(int i, double value) {
+			array[i] = (byte) (value + 0.5);
+		}
+	}
+
+	private static final class FloatPixels extends Pixels {
+
+		private final float[] array;
+
+		FloatPixels(float[] array) {
+			this.array = array;
+		}
+
+		@Override
+		double get(int i) {
+			return array[i];
+		}
+
+		@Override
+		void set(int i, double value) {
+			array[i] = (float) value;
+		}
+	}
+}
@@ -85,7 +85,7 @@ public class WrapVolatileSource<T extends NumericType<T>, V extends Volatile<T>
 
 	public WrapVolatileSource(final Source<T> source) {
 		this.originSource = source;
-		queue = GlobalSharedQueue.getInstance();
+		queue = GlobalSharedQueue.getInstanceFor(source);
 	}
 
 	public WrapVolatileSource(final Source<T> originSource, final SharedQueue queue) {
@@ -30,14 +30,10 @@
 package sc.fiji.bdvpg.cache;
 
 import net.imglib2.cache.Cache;
-import net.imglib2.img.basictypeaccess.ByteAccess;
-import net.imglib2.img.basictypeaccess.FloatAccess;
-import net.imglib2.img.basictypeaccess.IntAccess;
-import net.imglib2.img.basictypeaccess.ShortAccess;
 import net.imglib2.img.cell.Cell;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Predicate;
 
@@ -48,20 +44,32 @@ import java.util.function.Predicate;
  * objects will be forwarded to the global cache of BigDataViewer-Playground.
  * BigDataViewer-Playground also attempts to override the cache of any
  * {@link bdv.ViewerImgLoader} in order to use the bigdataviewer playground
- * global cache. Two implementations are provided: - a Caffeine backed cache
- * {@link CaffeineGlobalCache} - and a LinkedHashMap cache
- * {@link BoundedLinkedHashMapGlobalCache} The {@link GlobalCacheBuilder} object
+ * global cache. Four implementations are provided: - a Caffeine backed cache
+ * {@link CaffeineGlobalCache} - a LinkedHashMap cache
+ * {@link BoundedLinkedHashMapGlobalCache} - its lock-striped variant
+ * {@link SegmentedLinkedHashMapGlobalCache} - and a cache evicting according
+ * to the reload cost of values {@link CostAwareGlobalCache} The {@link GlobalCacheBuilder} object
  * can be serialized to store the cache configuration The global caching allows
  * to bound the memory used when many sources are potentially accessed in a
  * random manner by the program. The reason to use many sources is if the user
  * wants to work on different spim data objects at the same time, work with
  * resampled sources, etc Global caching allow to bound the memory used at the
  * JVM level, instead of a per source level or per spimdata level. Each value of
- * the value is weighted by its memory footprint, assuming it is a {@link Cell}
- * object. If the value is not a Cell object, an error is logged. This allows to
+ * the value is weighted by its memory footprint, see {@link CacheWeighers}:
+ * {@link Cell} objects are weighed with their storage array and a per entry
+ * overhead, other values need a registered weigher. This allows to
  * bound memory correctly even when sources have very different block size
  * (setting a fixed number of items maintained in cache would not be precise
  * enough).
+ * <p>
+ * Optionally, values evicted from the heap because of the memory bound are
+ * demoted into a second, off-heap, tier: see {@link OffHeapCellStore}. Its
+ * size is set with {@link #setMaxOffHeapSize(long)} and is reported
+ * separately from the heap size.
+ * <p>
+ * Sources (SpimData objects or sources computed on the fly) can be given a
+ * {@link CacheQuota}, so that a single huge source can not push the blocks of
+ * all other sources out of the cache, see {@link #setQuota(Object, CacheQuota)}.
  *
  * @author Nicolas Chiaruttini
  */
@@ -69,8 +77,22 @@ abstract public class AbstractGlobalCache implements
 	Cache<GlobalCacheKey, Object>
 {
 
-	final static private Logger logger = LoggerFactory.getLogger(
-		AbstractGlobalCache.class);
+	/**
+	 * Off-heap tier receiving the values evicted from the heap, disabled (0
+	 * bytes) by default
+	 */
+	final OffHeapCellStore offHeap = new OffHeapCellStore(0);
+
+	/**
+	 * Hits, misses, loads, evictions and bytes in and out, per source and level
+	 */
+	final GlobalCacheMetrics metrics = new GlobalCacheMetrics();
+
+	/**
+	 * Keys per source, timepoint and level, with running totals, kept up to
+	 * date by the implementations on each insertion and removal
+	 */
+	final GlobalCacheIndex index = new GlobalCacheIndex(metrics);
 
 	public static <K> Predicate<GlobalCacheKey> getCondition(Object source,
 		int timepoint, int level, Predicate<K> condition)
@@ -89,6 +111,19 @@ abstract public class AbstractGlobalCache implements
 
 	abstract public void put(GlobalCacheKey key, Object value);
 
+	/**
+	 * Puts a value which took some time to load or compute. This time is
+	 * ignored by default, and used by cost aware implementations to keep
+	 * expensive values longer, see {@link CostAwareGlobalCache}.
+	 *
+	 * @param key global cache key
+	 * @param value value
+	 * @param loadTimeNanos time spent to load the value, in nanoseconds
+	 */
+	public void put(GlobalCacheKey key, Object value, long loadTimeNanos) {
+		put(key, value);
+	}
+
 	@Override
 	abstract public Object get(GlobalCacheKey key) throws ExecutionException;
 
@@ -111,43 +146,201 @@ abstract public class AbstractGlobalCache implements
 	abstract public void invalidateIf(long parallelismThreshold,
 		Predicate<GlobalCacheKey> condition);
 
+	/**
+	 * Invalidates the keys of a single source matching a condition. Contrary to
+	 * {@link #invalidateIf(long, Predicate)}, only the keys of this source are
+	 * visited, thanks to the {@link GlobalCacheIndex}.
+	 *
+	 * @param source source object of the keys to invalidate
+	 * @param timepoint timepoint of the keys, or -1 (with level -1) for all keys
+	 *          of the source
+	 * @param level level of the keys, or -1 (with timepoint -1) for all keys of
+	 *          the source
+	 * @param condition condition on the keys to invalidate
+	 */
+	public void invalidateIf(Object source, int timepoint, int level,
+		Predicate<GlobalCacheKey> condition)
+	{
+		for (GlobalCacheKey key : index.getKeys(source, timepoint, level)) {
+			if (condition.test(key)) invalidate(key);
+		}
+		// Values demoted off-heap are not indexed anymore
+		offHeap.invalidateIf(condition);
+	}
+
 	@Override
 	abstract public void invalidateAll(long parallelismThreshold);
 
 	abstract public long getMaxSize();
 
+	/**
+	 * @param object cached value
+	 * @return estimated heap size of this value, see {@link CacheWeighers}
+	 */
 	static long getWeight(Object object) {
-		if (object instanceof Cell) {
-			Cell cell = ((Cell) object);
-			Object data = cell.getData();
-
-			if (data instanceof ShortAccess) {
-				return 2 * cell.size();
-			}
-			else if (data instanceof ByteAccess) {
-				return cell.size();
-			}
-			else if (data instanceof FloatAccess) {
-				return 4 * cell.size();
-			}
-			else if (data instanceof IntAccess) {
-				return 4 * cell.size();
-			}
-			else {
-				logger.info("Unknown data class of cell object " + data.getClass());
-				return cell.size();
-			}
+		return CacheWeighers.weigh(object);
+	}
+
+	abstract public long getEstimatedSize();
+
+	/**
+	 * @return the number of bytes currently stored off-heap, not included in
+	 *         {@link #getEstimatedSize()}
+	 */
+	public long getEstimatedOffHeapSize() {
+		return offHeap.getCost();
+	}
+
+	public long getMaxOffHeapSize() {
+		return offHeap.getMaxCost();
+	}
+
+	/**
+	 * Sets the budget of the off-heap tier. 0 disables it, which discards all
+	 * off-heap data.
+	 *
+	 * @param maxOffHeapSize size in bytes
+	 */
+	public void setMaxOffHeapSize(long maxOffHeapSize) {
+		offHeap.setMaxCost(Math.max(maxOffHeapSize, 0));
+	}
 
+	/**
+	 * To be called by implementations when a value is evicted from the heap
+	 * because of the memory bound (and not because it has been invalidated).
+	 *
+	 * @param key evicted key
+	 * @param value evicted value, ignored if null
+	 */
+	protected void onEvictedForSize(GlobalCacheKey key, Object value) {
+		metrics.forKey(key).recordSizeEviction();
+		if (value != null) offHeap.demote(key, value);
+	}
+
+	/**
+	 * To be called by implementations when a value is evicted because its
+	 * source exceeds its hard cap (see {@link CacheQuota}). Unlike
+	 * {@link #onEvictedForSize}, the value is not demoted off-heap: the cap is
+	 * meant to release the memory of the source.
+	 *
+	 * @param key evicted key
+	 * @param value evicted value, ignored
+	 */
+	protected void onEvictedForQuota(GlobalCacheKey key, Object value) {
+		metrics.forKey(key).recordQuotaEviction();
+	}
+
+	/**
+	 * @return hits, misses, loads, evictions and bytes in and out of this
+	 *         cache, per source and level
+	 */
+	public GlobalCacheMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Rebuilds a value previously demoted off-heap, and puts it back on the heap
+	 * cache.
+	 *
+	 * @param key global cache key
+	 * @return the promoted value, or null if this key is not stored off-heap
+	 */
+	protected Object promote(GlobalCacheKey key) {
+		final Object value = offHeap.promote(key);
+		if (value != null) put(key, value);
+		return value;
+	}
+
+	/**
+	 * @return a short description of the off-heap tier, or an empty String if
+	 *         it is disabled. Used in the cache label of the source tree.
+	 */
+	protected String offHeapToString() {
+		if (!offHeap.isEnabled()) return "";
+		return " - " + offHeap;
+	}
+
+	public abstract <V> void touch(GlobalCacheKey key, V value);
+
+	/**
+	 * Returns the keys most likely to be accessed again, most valuable first,
+	 * according to the eviction policy of the cache (most recently used for the
+	 * LinkedHashMap caches). Used to save the hot set of the cache and prefetch
+	 * it after a restart. Returns an empty list by default.
+	 *
+	 * @param maxKeys maximal number of keys returned
+	 * @return a snapshot of the hottest keys
+	 */
+	public List<GlobalCacheKey> getHotKeys(int maxKeys) {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Sets or removes the quota of a source in this cache. Hard caps are
+	 * enforced by all implementations: when a source exceeds its cap, its own
+	 * blocks are evicted. Guaranteed minimums are honoured by the LinkedHashMap
+	 * and cost aware caches, which skip the blocks of sources under their
+	 * minimum when evicting; the Caffeine cache chooses its victims itself and
+	 * ignores them.
+	 * <p>
+	 * If the source already exceeds its new cap, its blocks are evicted in the
+	 * eviction order of the cache: the coldest ones first, as given by
+	 * {@link #getHotKeys}. Blocks not listed there, if any, are evicted last.
+	 *
+	 * @param source source object, as used in the {@link GlobalCacheKey}s: the
+	 *          SpimData object for sources of a dataset, or the source itself
+	 *          for sources cached with a {@link GlobalLoaderCache}
+	 * @param quota quota, or null to remove it
+	 */
+	public void setQuota(Object source, CacheQuota quota) {
+		index.setQuota(source, quota);
+		if (!index.isOverCap(source)) return;
+		final List<GlobalCacheKey> hotKeys = getHotKeys(Integer.MAX_VALUE);
+		for (int i = hotKeys.size() - 1; i >= 0; i--) {
+			if (!index.isOverCap(source)) return;
+			final GlobalCacheKey key = hotKeys.get(i);
+			if (key.getSource() == source) evictForQuota(key);
 		}
-		else {
-			logger.info("Unknown class of cached object " + object.getClass());
-			return 1;
+		for (GlobalCacheKey key : index.getKeys(source, -1, -1)) {
+			if (!index.isOverCap(source)) return;
+			evictForQuota(key);
 		}
 	}
 
-	abstract public long getEstimatedSize();
+	private void evictForQuota(GlobalCacheKey key) {
+		onEvictedForQuota(key, null);
+		invalidate(key);
+	}
 
-	public abstract <V> void touch(GlobalCacheKey key, V value);
+	/**
+	 * @param source source object
+	 * @return the quota of this source, or null if it has none
+	 */
+	public CacheQuota getQuota(Object source) {
+		return index.getQuota(source);
+	}
+
+	private AdaptiveCacheSizer adaptiveSizer;
+
+	/**
+	 * Replaces the sizer adapting the size of this cache to the heap pressure.
+	 * The previous one, if any, is stopped, and the new one is started.
+	 *
+	 * @param sizer adaptive sizer, or null to keep the current size fixed
+	 */
+	public synchronized void setAdaptiveSizer(AdaptiveCacheSizer sizer) {
+		if (adaptiveSizer != null) adaptiveSizer.stop();
+		adaptiveSizer = sizer;
+		if (sizer != null) sizer.start();
+	}
+
+	/**
+	 * @return the sizer adapting the size of this cache, or null if its size is
+	 *         fixed
+	 */
+	public AdaptiveCacheSizer getAdaptiveSizer() {
+		return adaptiveSizer;
+	}
 
 	/**
 	 * Statistics for cached data for a specific source and timepoint.
@@ -172,22 +365,28 @@ abstract public class AbstractGlobalCache implements
 
 	/**
 	 * Get cache statistics for a specific source and timepoint (for SpimData sources).
+	 * Constant time: read from the {@link GlobalCacheIndex}.
 	 *
 	 * @param source the source object
 	 * @param setupId the setup ID
 	 * @param timepoint the timepoint (-1 for all timepoints)
 	 * @return cache statistics
 	 */
-	abstract public CacheStats getCacheStats(Object source, int setupId, int timepoint);
+	public CacheStats getCacheStats(Object source, int setupId, int timepoint) {
+		return index.getStats(source, setupId, timepoint);
+	}
 
 	/**
 	 * Get cache statistics for a specific source and timepoint (for non-SpimData sources).
-	 * This version doesn't filter by setupId.
+	 * This version doesn't filter by setupId. Constant time: read from the
+	 * {@link GlobalCacheIndex}.
 	 *
 	 * @param source the source object
 	 * @param timepoint the timepoint (-1 for all timepoints)
 	 * @return cache statistics
 	 */
-	abstract public CacheStats getCacheStats(Object source, int timepoint);
+	public CacheStats getCacheStats(Object source, int timepoint) {
+		return index.getStats(source, timepoint);
+	}
 
 }
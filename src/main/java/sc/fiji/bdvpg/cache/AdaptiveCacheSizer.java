@@ -0,0 +1,322 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.cache;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Adapts the size of an {@link AbstractGlobalCache} to the heap pressure,
+ * instead of keeping the size fixed at creation. The budget moves between a
+ * floor and a ceiling (the size computed by the {@link GlobalCacheBuilder}):
+ * <ul>
+ * <li>it is shrunk when the occupancy of the heap after a garbage collection
+ * is high, or when a collection usage threshold of a heap memory pool is
+ * exceeded ({@link MemoryPoolMXBean#setCollectionUsageThreshold(long)}), i.e.
+ * when other plugins need memory,</li>
+ * <li>it grows back towards the ceiling when the heap has been idle (low
+ * occupancy after the last collection, no pressure for a while).</li>
+ * </ul>
+ * Each resize is logged. The current budget is shown in the cache label of the
+ * source tree.
+ *
+ * @author Nicolas Chiaruttini
+ */
+public class AdaptiveCacheSizer {
+
+	final static Logger logger = LoggerFactory.getLogger(
+		AdaptiveCacheSizer.class);
+
+	/** Heap occupancy after a collection above which the cache shrinks */
+	public static final double HIGH_OCCUPANCY = 0.85;
+
+	/** Heap occupancy after a collection below which the cache can grow */
+	public static final double LOW_OCCUPANCY = 0.6;
+
+	static final double SHRINK_FACTOR = 0.7;
+
+	static final double GROW_FACTOR = 1.1;
+
+	/** Time without heap pressure before the cache is allowed to grow */
+	static final long IDLE_MS = 10_000;
+
+	static final long CHECK_PERIOD_MS = 5_000;
+
+	private final AbstractGlobalCache cache;
+
+	private final long floor;
+
+	private final long ceiling;
+
+	private volatile long budget;
+
+	private volatile long lastPressureMs;
+
+	// Number of garbage collections when the occupancy was last used
+	private volatile long lastCollectionCount = -1;
+
+	private final List<NotificationEmitter> emitters = new ArrayList<>();
+
+	private final NotificationListener listener = this::handleNotification;
+
+	private Timer timer;
+
+	/**
+	 * @param cache cache to resize
+	 * @param floor minimal budget in bytes
+	 * @param ceiling maximal budget in bytes
+	 */
+	public AdaptiveCacheSizer(AbstractGlobalCache cache, long floor,
+		long ceiling)
+	{
+		this.cache = cache;
+		this.floor = Math.min(floor, ceiling);
+		this.ceiling = ceiling;
+		this.budget = cache.getMaxSize();
+		this.lastPressureMs = System.currentTimeMillis();
+	}
+
+	/**
+	 * Starts listening to memory pool threshold and garbage collection
+	 * notifications.
+	 */
+	public synchronized void start() {
+		if (timer != null) return;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if ((pool.getType() == MemoryType.HEAP) && pool
+				.isCollectionUsageThresholdSupported() && (pool.getUsage()
+					.getMax() > 0))
+			{
+				pool.setCollectionUsageThreshold((long) (pool.getUsage().getMax() *
+					HIGH_OCCUPANCY));
+			}
+		}
+		register(ManagementFactory.getMemoryMXBean());
+		for (GarbageCollectorMXBean gc : ManagementFactory
+			.getGarbageCollectorMXBeans())
+		{
+			register(gc);
+		}
+		lastCollectionCount = getCollectionCount();
+		timer = new Timer("Adaptive cache sizer", true);
+		timer.schedule(new TimerTask() {
+
+			@Override
+			public void run() {
+				check(getCollectionCount(), getHeapOccupancyAfterGC(), System
+					.currentTimeMillis());
+			}
+		}, CHECK_PERIOD_MS, CHECK_PERIOD_MS);
+		logger.info("Adaptive cache size enabled, between " + toMb(floor) +
+			" Mb and " + toMb(ceiling) + " Mb");
+	}
+
+	private void register(Object bean) {
+		if (bean instanceof NotificationEmitter) {
+			((NotificationEmitter) bean).addNotificationListener(listener, null,
+				null);
+			emitters.add((NotificationEmitter) bean);
+		}
+	}
+
+	/**
+	 * Stops listening to memory notifications. The current budget is kept.
+	 */
+	public synchronized void stop() {
+		for (NotificationEmitter emitter : emitters) {
+			try {
+				emitter.removeNotificationListener(listener);
+			}
+			catch (ListenerNotFoundException e) {
+				logger.debug("Listener already removed");
+			}
+		}
+		emitters.clear();
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+	}
+
+	private void handleNotification(Notification notification, Object handback) {
+		final long now = System.currentTimeMillis();
+		switch (notification.getType()) {
+			case MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED:
+			case MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED:
+				onPressure(now, "memory pool threshold exceeded");
+				break;
+			case GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION:
+				final GarbageCollectionNotificationInfo info =
+					GarbageCollectionNotificationInfo.from((CompositeData) notification
+						.getUserData());
+				final double occupancy = getHeapOccupancy(info.getGcInfo()
+					.getMemoryUsageAfterGc());
+				// After a minor collection, the old generation may still hold a lot of
+				// garbage: only a major collection can tell that the heap is full
+				if ((occupancy <= HIGH_OCCUPANCY) || info.getGcAction().contains(
+					"major"))
+				{
+					lastCollectionCount = getCollectionCount();
+					update(occupancy, now);
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Adapts the budget to the heap occupancy. Called after each garbage
+	 * collection, and by the periodic {@link #check}.
+	 *
+	 * @param heapOccupancy ratio of the heap used after a garbage collection, or
+	 *          a negative value if unknown
+	 * @param nowMs current time in milliseconds
+	 */
+	public void update(double heapOccupancy, long nowMs) {
+		if (heapOccupancy < 0) return;
+		if (heapOccupancy > HIGH_OCCUPANCY) {
+			onPressure(nowMs, "heap occupancy after GC " + (int) (heapOccupancy *
+				100) + " %");
+		}
+		else if ((heapOccupancy < LOW_OCCUPANCY) && (nowMs -
+			lastPressureMs > IDLE_MS) && (budget < ceiling))
+		{
+			resize(Math.min(ceiling, (long) (budget * GROW_FACTOR)),
+				"idle heap, occupancy after GC " + (int) (heapOccupancy * 100) + " %");
+		}
+	}
+
+	/**
+	 * Periodic check, with the occupancy measured after the last garbage
+	 * collection. This occupancy only changes after a collection: a high
+	 * occupancy shrinks the budget once per collection and not at each check,
+	 * while the budget can keep growing on an idle heap.
+	 *
+	 * @param collectionCount total number of garbage collections so far
+	 * @param heapOccupancy ratio of the heap used after the last garbage
+	 *          collection, or a negative value if unknown
+	 * @param nowMs current time in milliseconds
+	 */
+	public void check(long collectionCount, double heapOccupancy, long nowMs) {
+		if ((heapOccupancy > HIGH_OCCUPANCY) &&
+			(collectionCount == lastCollectionCount)) return;
+		lastCollectionCount = collectionCount;
+		update(heapOccupancy, nowMs);
+	}
+
+	private void onPressure(long nowMs, String reason) {
+		lastPressureMs = nowMs;
+		if (budget > floor) {
+			resize(Math.max(floor, (long) (budget * SHRINK_FACTOR)), reason);
+		}
+	}
+
+	private synchronized void resize(long newBudget, String reason) {
+		if (newBudget == budget) return;
+		logger.info("Global cache resized from " + toMb(budget) + " Mb to " + toMb(
+			newBudget) + " Mb (" + reason + ")");
+		budget = newBudget;
+		cache.setMaxSize(newBudget);
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	public long getFloor() {
+		return floor;
+	}
+
+	public long getCeiling() {
+		return ceiling;
+	}
+
+	private static double getHeapOccupancy(Map<String, MemoryUsage> usages) {
+		long used = 0, max = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() != MemoryType.HEAP) continue;
+			final MemoryUsage usage = usages.get(pool.getName());
+			if (usage == null) continue;
+			used += usage.getUsed();
+			max += usage.getMax() > 0 ? usage.getMax() : usage.getCommitted();
+		}
+		return max > 0 ? (double) used / max : -1;
+	}
+
+	private static double getHeapOccupancyAfterGC() {
+		long used = 0, max = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() != MemoryType.HEAP) continue;
+			final MemoryUsage usage = pool.getCollectionUsage();
+			if (usage == null) continue;
+			used += usage.getUsed();
+			max += usage.getMax() > 0 ? usage.getMax() : usage.getCommitted();
+		}
+		return max > 0 ? (double) used / max : -1;
+	}
+
+	private static long getCollectionCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+			.getGarbageCollectorMXBeans())
+		{
+			count += Math.max(gc.getCollectionCount(), 0);
+		}
+		return count;
+	}
+
+	private static long toMb(long bytes) {
+		return bytes / (1024 * 1024);
+	}
+
+	@Override
+	public String toString() {
+		return "Adaptive budget : " + toMb(budget) + " Mb (" + toMb(floor) + " - " +
+			toMb(ceiling) + " Mb)";
+	}
+
+}
@@ -29,20 +29,23 @@
 
 package sc.fiji.bdvpg.cache;
 
-import bdv.img.cache.VolatileGlobalCellCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.ref.SoftReference;
-import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 import java.util.function.Predicate;
 
 public class BoundedLinkedHashMapGlobalCache extends AbstractGlobalCache {
@@ -57,6 +60,9 @@ public class BoundedLinkedHashMapGlobalCache extends AbstractGlobalCache {
 	{
 
 		cache = new SoftRefs(iniSize, maxCacheSize);
+		cache.evictionListener = this::onEvictedForSize;
+		cache.quotaEvictionListener = this::onEvictedForQuota;
+		cache.index = index;
 
 		if (log) {
 			TimerTask periodicLogger = new TimerTask() {
@@ -78,28 +84,25 @@ public class BoundedLinkedHashMapGlobalCache extends AbstractGlobalCache {
 	}
 
 	public void put(GlobalCacheKey key, Object value) {
-		cache.touch(key, value);
+		cache.insert(key, value);
 	}
 
 	@Override
 	public Object get(GlobalCacheKey key) throws ExecutionException {
-		// Access-order get() reorders the map (a structural modification), so it
-		// must be guarded against concurrent touch()/trim eviction.
-		synchronized (cache) {
-			return cache.get(key);
-		}
+		return cache.getValue(key);
 	}
 
 	@Override
 	public Object getIfPresent(GlobalCacheKey key) {
-		synchronized (cache) {
-			return cache.get(key);
-		}
+		final Object value = cache.getValue(key);
+		if (value != null) return value;
+		return promote(key);
 	}
 
 	@Override
 	public void invalidate(GlobalCacheKey key) {
 		cache.removeEntry(key);
+		offHeap.invalidate(key);
 	}
 
 	@Override
@@ -107,11 +110,13 @@ public class BoundedLinkedHashMapGlobalCache extends AbstractGlobalCache {
 		Predicate<GlobalCacheKey> condition)
 	{
 		cache.removeIfKey(condition);
+		offHeap.invalidateIf(condition);
 	}
 
 	@Override
 	public void invalidateAll(long parallelismThreshold) {
 		cache.clear();
+		offHeap.invalidateAll();
 	}
 
 	public long getMaxSize() {
@@ -127,6 +132,21 @@ public class BoundedLinkedHashMapGlobalCache extends AbstractGlobalCache {
 		cache.touch(key, value);
 	}
 
+	@Override
+	public List<GlobalCacheKey> getHotKeys(int maxKeys) {
+		return cache.getHotKeys(maxKeys);
+	}
+
+	/**
+	 * Access-ordered map of soft references, bounded by the total weight of its
+	 * values. All structural operations are done while holding {@link #lock}.
+	 * Cache hits ({@link #touch}) are not applied immediately: they are recorded
+	 * in a lock-free {@link ReadBuffer} and replayed in batch by the next thread
+	 * acquiring the lock, so that BigDataViewer painter threads never block
+	 * just to record that a block was viewed. The buffer is always drained
+	 * before an eviction, so that the LRU order is only affected by dropped
+	 * accesses, which happen when a stripe of the buffer is full or contended.
+	 */
 	static class SoftRefs extends
 		LinkedHashMap<GlobalCacheKey, SoftReference<Object>>
 	{
@@ -137,16 +157,66 @@ public class BoundedLinkedHashMapGlobalCache extends AbstractGlobalCache {
 
 		AtomicLong totalWeight = new AtomicLong();
 
+		/**
+		 * Weight counter shared between several maps (segments), kept in sync
+		 * with {@link #totalWeight}, may be null
+		 */
+		final AtomicLong globalWeight;
+
 		HashMap<GlobalCacheKey, Long> cost = new HashMap<>();
 
+		/**
+		 * Notified of each entry evicted by {@link #trimToCost}, while holding
+		 * the lock, may be null
+		 */
+		BiConsumer<GlobalCacheKey, Object> evictionListener;
+
+		/**
+		 * Notified of each entry evicted by {@link #trimToCost} because its
+		 * source exceeds its hard cap, while holding the lock, may be null
+		 */
+		BiConsumer<GlobalCacheKey, Object> quotaEvictionListener;
+
+		/**
+		 * Secondary index updated on each insertion and removal, may be null
+		 */
+		GlobalCacheIndex index;
+
+		final ReentrantLock lock = new ReentrantLock();
+
+		private final ReadBuffer readBuffer = new ReadBuffer();
+
+		// Method reference kept to not allocate on each drain
+		private final BiConsumer<GlobalCacheKey, Object> accessApplier =
+			this::applyAccess;
+
 		public SoftRefs(final int iniSize, final long maxCost) {
+			this(iniSize, maxCost, null);
+		}
+
+		public SoftRefs(final int iniSize, final long maxCost,
+			final AtomicLong globalWeight)
+		{
 			super(iniSize, 0.75f, true);
 			this.maxCost = maxCost;
+			this.globalWeight = globalWeight;
 		}
 
-		synchronized public void setMaxCost(long maxCost) {
-			this.maxCost = maxCost;
-			trimToCost(null);
+		private void addWeight(final long weight) {
+			totalWeight.addAndGet(weight);
+			if (globalWeight != null) globalWeight.addAndGet(weight);
+		}
+
+		public void setMaxCost(long maxCost) {
+			lock.lock();
+			try {
+				drainReadBuffer();
+				this.maxCost = maxCost;
+				trimToCost(null);
+			}
+			finally {
+				lock.unlock();
+			}
 		}
 
 		public long getCost() {
@@ -167,15 +237,105 @@ public class BoundedLinkedHashMapGlobalCache extends AbstractGlobalCache {
 		 * is therefore performed by the explicit loop in trimToCost() below.
 		 */
 
-		synchronized public void touch(final GlobalCacheKey key,
+		/**
+		 * Inserts or refreshes an entry immediately, evicting least recently used
+		 * entries if needed.
+		 *
+		 * @param key key
+		 * @param value value
+		 */
+		public void insert(final GlobalCacheKey key, final Object value) {
+			lock.lock();
+			try {
+				drainReadBuffer();
+				insertOrRefresh(key, value);
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Records an access without blocking. It is applied the next time the
+		 * lock is taken, provided that the key is still present: an access
+		 * replayed after an invalidation or an eviction does not put the key
+		 * back. If the read buffer
+		 * needs to be drained and the lock is free, the current thread drains
+		 * it; otherwise it returns immediately.
+		 *
+		 * @param key key
+		 * @param value value
+		 */
+		public void touch(final GlobalCacheKey key, final Object value) {
+			if (readBuffer.offer(key, value) && lock.tryLock()) {
+				try {
+					drainReadBuffer();
+				}
+				finally {
+					lock.unlock();
+				}
+			}
+		}
+
+		/**
+		 * @param key key
+		 * @return the value associated to this key, or null if there is none or if
+		 *         it has been garbage collected
+		 */
+		public Object getValue(final GlobalCacheKey key) {
+			final SoftReference<Object> ref;
+			lock.lock();
+			try {
+				drainReadBuffer();
+				ref = get(key);
+			}
+			finally {
+				lock.unlock();
+			}
+			return ref == null ? null : ref.get();
+		}
+
+		/**
+		 * @param maxKeys maximal number of keys returned
+		 * @return the most recently used keys, most recent first
+		 */
+		public List<GlobalCacheKey> getHotKeys(final int maxKeys) {
+			final List<GlobalCacheKey> keys;
+			lock.lock();
+			try {
+				drainReadBuffer();
+				keys = new ArrayList<>(keySet());
+			}
+			finally {
+				lock.unlock();
+			}
+			Collections.reverse(keys);
+			return keys.size() > maxKeys ? new ArrayList<>(keys.subList(0, maxKeys))
+				: keys;
+		}
+
+		/**
+		 * Replays the accesses recorded by {@link #touch}. Must be called while
+		 * holding the lock.
+		 */
+		void drainReadBuffer() {
+			readBuffer.drainTo(accessApplier);
+		}
+
+		private void applyAccess(final GlobalCacheKey key, final Object value) {
+			if (containsKey(key)) insertOrRefresh(key, value);
+		}
+
+		private void insertOrRefresh(final GlobalCacheKey key,
 			final Object value)
 		{
 			final SoftReference<Object> ref = get(key);
 			if (ref == null) {
 				long costValue = getWeight(value);
-				totalWeight.addAndGet(costValue);
+				addWeight(costValue);
 				cost.put(key, costValue);
 				put(key, new SoftReference<>(value));
+				if (index != null) index.add(key, costValue);
 				trimToCost(key);
 			}
 			else if (ref.get() == null) {
@@ -190,23 +350,52 @@ public class BoundedLinkedHashMapGlobalCache extends AbstractGlobalCache {
 		 * block larger than the whole budget is still cached rather than
 		 * discarded immediately after being loaded (in that degenerate case the
 		 * cache holds exactly that one block and maxCost is exceeded by it
-		 * alone). Must be called while holding this monitor.
+		 * alone). Blocks of sources holding no more than their guaranteed
+		 * minimum are skipped too, and if the source of the inserted key exceeds
+		 * its hard cap, its own least recently used blocks are then evicted (see
+		 * {@link CacheQuota}). Must be called while holding the lock.
 		 *
 		 * @param protect key that must not be evicted, or {@code null}
 		 */
 		private void trimToCost(final GlobalCacheKey protect) {
-			if (totalWeight.get() <= maxCost) return;
-			final Iterator<Map.Entry<GlobalCacheKey, SoftReference<Object>>> it =
-				entrySet().iterator();
-			while (totalWeight.get() > maxCost && it.hasNext()) {
-				final Map.Entry<GlobalCacheKey, SoftReference<Object>> eldest = it
-					.next();
-				if (eldest.getKey() == protect) continue;
-				final Long c = cost.remove(eldest.getKey());
-				if (c != null) totalWeight.addAndGet(-c);
-				eldest.getValue().clear();
-				it.remove();
+			if (totalWeight.get() > maxCost) {
+				final Iterator<Map.Entry<GlobalCacheKey, SoftReference<Object>>> it =
+					entrySet().iterator();
+				while (totalWeight.get() > maxCost && it.hasNext()) {
+					final Map.Entry<GlobalCacheKey, SoftReference<Object>> eldest = it
+						.next();
+					if (eldest.getKey() == protect) continue;
+					if ((index != null) && index.isGuaranteed(eldest.getKey())) continue;
+					evict(it, eldest, evictionListener);
+				}
 			}
+			if ((protect != null) && (index != null)) {
+				final Object source = protect.getSource();
+				if (!index.isOverCap(source)) return;
+				final Iterator<Map.Entry<GlobalCacheKey, SoftReference<Object>>> it =
+					entrySet().iterator();
+				while (index.isOverCap(source) && it.hasNext()) {
+					final Map.Entry<GlobalCacheKey, SoftReference<Object>> eldest = it
+						.next();
+					if (eldest.getKey() == protect) continue;
+					if (eldest.getKey().getSource() == source) evict(it, eldest,
+						quotaEvictionListener);
+				}
+			}
+		}
+
+		private void evict(
+			final Iterator<Map.Entry<GlobalCacheKey, SoftReference<Object>>> it,
+			final Map.Entry<GlobalCacheKey, SoftReference<Object>> entry,
+			final BiConsumer<GlobalCacheKey, Object> listener)
+		{
+			final Long c = cost.remove(entry.getKey());
+			if (c != null) addWeight(-c);
+			final Object value = entry.getValue().get();
+			entry.getValue().clear();
+			it.remove();
+			if (index != null) index.remove(entry.getKey());
+			if (listener != null) listener.accept(entry.getKey(), value);
 		}
 
 		/**
@@ -217,12 +406,22 @@ public class BoundedLinkedHashMapGlobalCache extends AbstractGlobalCache {
 		 *
 		 * @param key key to remove
 		 */
-		synchronized public void removeEntry(final GlobalCacheKey key) {
-			final SoftReference<Object> ref = remove(key);
-			if (ref != null) {
-				ref.clear();
-				final Long c = cost.remove(key);
-				if (c != null) totalWeight.addAndGet(-c);
+		public void removeEntry(final GlobalCacheKey key) {
+			lock.lock();
+			try {
+				// Pending accesses are applied first, so that they can not
+				// re-insert the entry afterwards
+				drainReadBuffer();
+				final SoftReference<Object> ref = remove(key);
+				if (ref != null) {
+					ref.clear();
+					final Long c = cost.remove(key);
+					if (c != null) addWeight(-c);
+					if (index != null) index.remove(key);
+				}
+			}
+			finally {
+				lock.unlock();
 			}
 		}
 
@@ -234,30 +433,45 @@ public class BoundedLinkedHashMapGlobalCache extends AbstractGlobalCache {
 		 *
 		 * @param condition predicate selecting keys to remove
 		 */
-		synchronized public void removeIfKey(
-			final Predicate<GlobalCacheKey> condition)
-		{
-			final Iterator<Map.Entry<GlobalCacheKey, SoftReference<Object>>> it =
-				entrySet().iterator();
-			while (it.hasNext()) {
-				final Map.Entry<GlobalCacheKey, SoftReference<Object>> e = it.next();
-				if (condition.test(e.getKey())) {
-					final Long c = cost.remove(e.getKey());
-					if (c != null) totalWeight.addAndGet(-c);
-					e.getValue().clear();
-					it.remove();
+		public void removeIfKey(final Predicate<GlobalCacheKey> condition) {
+			lock.lock();
+			try {
+				drainReadBuffer();
+				final Iterator<Map.Entry<GlobalCacheKey, SoftReference<Object>>> it =
+					entrySet().iterator();
+				while (it.hasNext()) {
+					final Map.Entry<GlobalCacheKey, SoftReference<Object>> e = it
+						.next();
+					if (condition.test(e.getKey())) {
+						final Long c = cost.remove(e.getKey());
+						if (c != null) addWeight(-c);
+						e.getValue().clear();
+						it.remove();
+						if (index != null) index.remove(e.getKey());
+					}
 				}
 			}
+			finally {
+				lock.unlock();
+			}
 		}
 
 		@Override
-		public synchronized void clear() {
-			for (final SoftReference<Object> ref : values()) {
-				ref.clear();
+		public void clear() {
+			lock.lock();
+			try {
+				drainReadBuffer();
+				for (final Map.Entry<GlobalCacheKey, SoftReference<Object>> e : entrySet()) {
+					e.getValue().clear();
+					if (index != null) index.remove(e.getKey());
+				}
+				addWeight(-totalWeight.get());
+				cost.clear();
+				super.clear();
+			}
+			finally {
+				lock.unlock();
 			}
-			totalWeight.set(0);
-			cost.clear();
-			super.clear();
 		}
 	}
 
@@ -265,95 +479,7 @@ public class BoundedLinkedHashMapGlobalCache extends AbstractGlobalCache {
 	public String toString() {
 		return "Cache size : " + (cache.getCost() / (1024 * 1024)) + " Mb (" +
 			(int) (100.0 * (double) cache.getCost() / (double) cache.getMaxCost()) +
-			" %)";
-	}
-
-	@Override
-	public CacheStats getCacheStats(Object source, int setupid, int timepoint) {
-		long totalSize = 0;
-		long cellCount = 0;
-        try {
-
-            Field tpField = VolatileGlobalCellCache.Key.class.getDeclaredField("timepoint");
-            tpField.setAccessible(true);
-            Field setupField = VolatileGlobalCellCache.Key.class.getDeclaredField("setup");
-            setupField.setAccessible(true);
-
-            synchronized (cache) {
-                for (Map.Entry<GlobalCacheKey, SoftReference<Object>> entry : cache.entrySet()) {
-                    GlobalCacheKey key = entry.getKey();
-                    VolatileGlobalCellCache.Key innerKey = null;
-                    if (key.key.get() instanceof VolatileGlobalCellCache.Key) {
-                        innerKey = (VolatileGlobalCellCache.Key) key.key.get();
-                    }
-                    if (innerKey == null) continue;
-                    int tp = (int) tpField.get(innerKey);
-                    int setupId = (int) setupField.get(innerKey);
-
-                    if (timepoint == -1) {
-                        // Match source for any timepoint
-                        if ((key.getSource() == source) && (setupid == setupId)) {
-                            Long cost = cache.cost.get(key);
-                            if (cost != null) {
-                                totalSize += cost;
-                                cellCount++;
-                            }
-                        }
-                    } else {
-                        // Match source and specific timepoint (any level)
-                        if ((key.getSource() == source) && (tp == timepoint) && (setupid == setupId)) {
-                            Long cost = cache.cost.get(key);
-                            if (cost != null) {
-                                totalSize += cost;
-                                cellCount++;
-                            }
-                        }
-                    }
-
-                }
-                return new CacheStats(cellCount, totalSize);
-            }
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            return new CacheStats(0,0);
-        }
-	}
-
-	@Override
-	public CacheStats getCacheStats(Object source, int timepoint) {
-		long totalSize = 0;
-		long cellCount = 0;
-
-		synchronized (cache) {
-			for (Map.Entry<GlobalCacheKey, SoftReference<Object>> entry : cache
-				.entrySet())
-			{
-				GlobalCacheKey key = entry.getKey();
-				if (timepoint == -1) {
-					// Match source for any timepoint
-					if (key.getSource() == source) {
-						Long cost = cache.cost.get(key);
-						if (cost != null) {
-							totalSize += cost;
-							cellCount++;
-						}
-					}
-				}
-				else {
-					// Match source and specific timepoint (any level)
-					if (key.getSource() == source && key.getTimepoint() == timepoint) {
-						Long cost = cache.cost.get(key);
-						if (cost != null) {
-							totalSize += cost;
-							cellCount++;
-						}
-					}
-				}
-			}
-		}
-
-		return new CacheStats(cellCount, totalSize);
+			" %)" + offHeapToString();
 	}
 
 }
@@ -0,0 +1,232 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the global cache activity, for a resolution level of a source,
+ * for a whole source or for the whole cache. Each counter recorded for a level
+ * is also recorded for its source, and for the cache ({@link #parent}).
+ * Recording does not allocate, so that it can be used on the cache hit path.
+ * See {@link GlobalCacheMetrics}.
+ *
+ * @author Nicolas Chiaruttini
+ */
+public class CacheMetrics {
+
+	final CacheMetrics parent;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LatencyHistogram loadTimes = new LatencyHistogram();
+
+	// Time spent by the loads in the shared queue before being started
+	private final LatencyHistogram queueWaits = new LatencyHistogram();
+
+	private final LongAdder sizeEvictions = new LongAdder();
+
+	private final LongAdder quotaEvictions = new LongAdder();
+
+	private final LongAdder removals = new LongAdder();
+
+	private final LongAdder bytesIn = new LongAdder();
+
+	private final LongAdder bytesOut = new LongAdder();
+
+	CacheMetrics(CacheMetrics parent) {
+		this.parent = parent;
+	}
+
+	/** A value was found in cache */
+	public void recordHit() {
+		for (CacheMetrics m = this; m != null; m = m.parent)
+			m.hits.increment();
+	}
+
+	/** A value was not found in cache */
+	public void recordMiss() {
+		for (CacheMetrics m = this; m != null; m = m.parent)
+			m.misses.increment();
+	}
+
+	/**
+	 * A value was loaded or computed
+	 *
+	 * @param nanos load time in nanoseconds
+	 */
+	public void recordLoad(long nanos) {
+		for (CacheMetrics m = this; m != null; m = m.parent)
+			m.loadTimes.record(nanos);
+	}
+
+	/**
+	 * A value was loaded by a fetcher thread of the shared queue
+	 *
+	 * @param nanos time spent in the queue before the fetch started, in
+	 *          nanoseconds
+	 */
+	public void recordQueueWait(long nanos) {
+		for (CacheMetrics m = this; m != null; m = m.parent)
+			m.queueWaits.record(nanos);
+	}
+
+	/**
+	 * A value was inserted in the cache
+	 *
+	 * @param bytes weight of the value
+	 */
+	public void recordInsert(long bytes) {
+		for (CacheMetrics m = this; m != null; m = m.parent)
+			m.bytesIn.add(bytes);
+	}
+
+	/**
+	 * A value was removed from the cache, whatever the cause
+	 *
+	 * @param bytes weight of the value
+	 */
+	public void recordRemoval(long bytes) {
+		for (CacheMetrics m = this; m != null; m = m.parent) {
+			m.removals.increment();
+			m.bytesOut.add(bytes);
+		}
+	}
+
+	/** A value was evicted to fit the cache budget */
+	public void recordSizeEviction() {
+		for (CacheMetrics m = this; m != null; m = m.parent)
+			m.sizeEvictions.increment();
+	}
+
+	/** A value was evicted because its source exceeds its hard cap */
+	public void recordQuotaEviction() {
+		for (CacheMetrics m = this; m != null; m = m.parent)
+			m.quotaEvictions.increment();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public double getHitRatio() {
+		final long hits = getHits();
+		final long total = hits + getMisses();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	public long getLoads() {
+		return loadTimes.getCount();
+	}
+
+	public double getMeanLoadTimeMs() {
+		return loadTimes.getMeanMs();
+	}
+
+	/**
+	 * @return number of loads per duration bucket, see {@link LatencyHistogram}
+	 */
+	public long[] getLoadTimeHistogram() {
+		return loadTimes.getBuckets();
+	}
+
+	/**
+	 * @return time spent in the shared queue by the loads done by its fetcher
+	 *         threads
+	 */
+	public LatencyHistogram getQueueWaits() {
+		return queueWaits;
+	}
+
+	/**
+	 * @return number of values evicted because of the cache budget
+	 */
+	public long getSizeEvictions() {
+		return sizeEvictions.sum();
+	}
+
+	/**
+	 * @return number of values evicted because their source exceeds its hard
+	 *         cap, see {@link CacheQuota}
+	 */
+	public long getQuotaEvictions() {
+		return quotaEvictions.sum();
+	}
+
+	/**
+	 * @return number of values removed explicitly (invalidation) or replaced
+	 */
+	public long getExplicitRemovals() {
+		return Math.max(removals.sum() - sizeEvictions.sum() - quotaEvictions
+			.sum(), 0);
+	}
+
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	/**
+	 * Resets this counter only, not its parents
+	 */
+	void reset() {
+		hits.reset();
+		misses.reset();
+		loadTimes.reset();
+		queueWaits.reset();
+		sizeEvictions.reset();
+		quotaEvictions.reset();
+		removals.reset();
+		bytesIn.reset();
+		bytesOut.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "hits " + getHits() + ", misses " + getMisses() + " (" + (int) (100 *
+			getHitRatio()) + " % hits), loads " + getLoads() + String.format(
+				" (mean %.1f ms, queued %.1f ms)", getMeanLoadTimeMs(), queueWaits
+					.getMeanMs()) + ", evictions " +
+			getSizeEvictions() + ", quota evictions " + getQuotaEvictions() +
+			", removals " + getExplicitRemovals() +
+			", in " + (getBytesIn() / (1024 * 1024)) + " Mb, out " + (getBytesOut() /
+				(1024 * 1024)) + " Mb";
+	}
+
+}
@@ -0,0 +1,120 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.cache;
+
+/**
+ * Memory quota of a source object in the global cache (a SpimData object for
+ * all its setups, or a source computed on the fly like a
+ * {@link bdv.util.ResampledSource}), on top of the global byte budget, see
+ * {@link AbstractGlobalCache#setQuota(Object, CacheQuota)}:
+ * <ul>
+ * <li>a hard cap: when the source exceeds it, its own least valuable blocks
+ * are evicted, whatever the global cache occupancy,</li>
+ * <li>a guaranteed minimum: as long as the source holds less than this amount,
+ * its blocks are not evicted to make room for other sources.</li>
+ * </ul>
+ *
+ * @author Nicolas Chiaruttini
+ */
+public final class CacheQuota {
+
+	/** Guaranteed minimum in bytes, 0 for none */
+	public final long minBytes;
+
+	/** Hard cap in bytes, -1 for none */
+	public final long maxBytes;
+
+	/**
+	 * @param minBytes guaranteed minimum in bytes, 0 for none
+	 * @param maxBytes hard cap in bytes, -1 for none
+	 */
+	public CacheQuota(long minBytes, long maxBytes) {
+		if ((maxBytes >= 0) && (minBytes > maxBytes)) {
+			throw new IllegalArgumentException("Guaranteed minimum (" + minBytes +
+				" bytes) larger than the hard cap (" + maxBytes + " bytes)");
+		}
+		this.minBytes = Math.max(minBytes, 0);
+		this.maxBytes = maxBytes < 0 ? -1 : maxBytes;
+	}
+
+	public boolean hasMin() {
+		return minBytes > 0;
+	}
+
+	public boolean hasMax() {
+		return maxBytes >= 0;
+	}
+
+	/**
+	 * Parses a quota written as {@code "min=100 max=2000"}, sizes in megabytes.
+	 * Each part is optional, and parts can be separated by spaces, commas or
+	 * semicolons.
+	 *
+	 * @param quota quota String
+	 * @return the parsed quota
+	 * @throws IllegalArgumentException if the String can not be parsed
+	 */
+	public static CacheQuota parse(String quota) {
+		long min = 0, max = -1;
+		for (String part : quota.trim().split("[\\s,;]+")) {
+			if (part.isEmpty()) continue;
+			final String[] keyValue = part.split("=");
+			if (keyValue.length != 2) {
+				throw new IllegalArgumentException("Invalid cache quota: " + quota);
+			}
+			final long bytes;
+			try {
+				bytes = (long) (Double.parseDouble(keyValue[1].trim()) * 1024 * 1024);
+			}
+			catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid cache quota: " + quota);
+			}
+			switch (keyValue[0].trim().toLowerCase()) {
+				case "min":
+					min = bytes;
+					break;
+				case "max":
+					max = bytes;
+					break;
+				default:
+					throw new IllegalArgumentException("Invalid cache quota: " + quota);
+			}
+		}
+		return new CacheQuota(min, max);
+	}
+
+	@Override
+	public String toString() {
+		return "Quota : min " + (hasMin() ? (minBytes / (1024 * 1024)) + " Mb"
+			: "none") + ", max " + (hasMax() ? (maxBytes / (1024 * 1024)) + " Mb"
+				: "none");
+	}
+
+}
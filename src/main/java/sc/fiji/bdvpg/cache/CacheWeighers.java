@@ -0,0 +1,217 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.cache;
+
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.cell.Cell;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Array;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * Estimates the heap memory, in bytes, used by a value of the global cache,
+ * see {@link AbstractGlobalCache#getWeight}. The weight of a value is the sum
+ * of:
+ * <ul>
+ * <li>the weight of the value itself: for a {@link Cell}, the cell object,
+ * its access object and the storage array of any {@link ArrayDataAccess}
+ * (Byte, Short, Int, Long, Float, Double, Char, Boolean, volatile or dirty
+ * variants), with array headers and alignment,</li>
+ * <li>for an {@link EmptyCell}, the cell object only: it has no storage,</li>
+ * <li>a constant per entry overhead, covering the key, the references and the
+ * map entries held by the caches for each value ({@link #setEntryOverhead}).
+ * </li>
+ * </ul>
+ * Other value or access types can be weighed by registering a weigher for
+ * their class ({@link #register}). Values which can't be weighed are logged
+ * once per class, and only count for the entry overhead.
+ * <p>
+ * Sizes assume a 64 bits JVM with compressed references.
+ *
+ * @author Nicolas Chiaruttini
+ */
+public final class CacheWeighers {
+
+	final static Logger logger = LoggerFactory.getLogger(CacheWeighers.class);
+
+	/** Object header size, in bytes */
+	public static final int OBJECT_HEADER = 12;
+
+	/** Array header size, in bytes */
+	public static final int ARRAY_HEADER = 16;
+
+	/**
+	 * Size of a {@link Cell} object, its dimensions and min arrays included
+	 * (3D)
+	 */
+	public static final int CELL_OVERHEAD = 112;
+
+	/** Size of an access object, without its storage array */
+	public static final int ACCESS_OVERHEAD = 24;
+
+	/**
+	 * Default per entry overhead: global cache key, its weakly referenced inner
+	 * key, the loader cache entry and its weak reference, the map entries of the
+	 * global cache and of its index
+	 */
+	public static final int DEFAULT_ENTRY_OVERHEAD = 352;
+
+	private static volatile long entryOverhead = DEFAULT_ENTRY_OVERHEAD;
+
+	// Weighers of values and accesses, per class
+	private static final Map<Class<?>, ToLongFunction<Object>> weighers =
+		new ConcurrentHashMap<>();
+
+	// Classes which are not weighed, logged once
+	private static final Set<Class<?>> unknownClasses = ConcurrentHashMap
+		.newKeySet();
+
+	private CacheWeighers() {}
+
+	/**
+	 * Registers how to weigh the objects of a class, either a cached value or a
+	 * cell access. The weigher takes precedence over the default weighing of
+	 * cells and accesses, and applies to the subclasses.
+	 *
+	 * @param type class of the weighed objects
+	 * @param weigher returns the size in bytes of an object, without the entry
+	 *          overhead
+	 * @param <T> weighed type
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> void register(Class<T> type,
+		ToLongFunction<? super T> weigher)
+	{
+		weighers.put(type, (ToLongFunction<Object>) weigher);
+	}
+
+	/**
+	 * @param type class of the weighed objects
+	 */
+	public static void unregister(Class<?> type) {
+		weighers.remove(type);
+	}
+
+	/**
+	 * @param overhead size, in bytes, added to the weight of each value
+	 */
+	public static void setEntryOverhead(long overhead) {
+		entryOverhead = Math.max(overhead, 0);
+	}
+
+	public static long getEntryOverhead() {
+		return entryOverhead;
+	}
+
+	/**
+	 * @param value cached value
+	 * @return estimated heap size of this value, entry overhead included
+	 */
+	public static long weigh(Object value) {
+		if (value == null) return entryOverhead;
+		final ToLongFunction<Object> weigher = findWeigher(value.getClass());
+		if (weigher != null) return entryOverhead + weigher.applyAsLong(value);
+		if (value instanceof EmptyCell) return entryOverhead + CELL_OVERHEAD;
+		if (value instanceof Cell) {
+			return entryOverhead + CELL_OVERHEAD + weighAccess(((Cell<?>) value)
+				.getData());
+		}
+		logUnknown(value.getClass());
+		return entryOverhead;
+	}
+
+	/**
+	 * @param access cell data access
+	 * @return estimated heap size of this access and of its storage
+	 */
+	public static long weighAccess(Object access) {
+		if (access == null) return 0;
+		final ToLongFunction<Object> weigher = findWeigher(access.getClass());
+		if (weigher != null) return weigher.applyAsLong(access);
+		if (access instanceof ArrayDataAccess) {
+			return ACCESS_OVERHEAD + weighArray(((ArrayDataAccess<?>) access)
+				.getCurrentStorageArray());
+		}
+		logUnknown(access.getClass());
+		return ACCESS_OVERHEAD;
+	}
+
+	/**
+	 * @param array any array
+	 * @return size of this array, header and alignment included
+	 */
+	public static long weighArray(Object array) {
+		if ((array == null) || (!array.getClass().isArray())) return 0;
+		final long length = Array.getLength(array);
+		return align(ARRAY_HEADER + length * elementSize(array.getClass()
+			.getComponentType()));
+	}
+
+	static int elementSize(Class<?> componentType) {
+		if ((componentType == byte.class) || (componentType == boolean.class))
+			return 1;
+		if ((componentType == short.class) || (componentType == char.class))
+			return 2;
+		if ((componentType == long.class) || (componentType == double.class))
+			return 8;
+		return 4; // int, float, and compressed references
+	}
+
+	static long align(long size) {
+		return (size + 7) & ~7L;
+	}
+
+	private static ToLongFunction<Object> findWeigher(Class<?> type) {
+		if (weighers.isEmpty()) return null;
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			final ToLongFunction<Object> weigher = weighers.get(c);
+			if (weigher != null) return weigher;
+		}
+		for (Map.Entry<Class<?>, ToLongFunction<Object>> entry : weighers
+			.entrySet())
+		{
+			if (entry.getKey().isAssignableFrom(type)) return entry.getValue();
+		}
+		return null;
+	}
+
+	private static void logUnknown(Class<?> type) {
+		if (unknownClasses.add(type)) {
+			logger.info("Unknown class of cached object " + type +
+				", only the entry overhead is counted");
+		}
+	}
+
+}
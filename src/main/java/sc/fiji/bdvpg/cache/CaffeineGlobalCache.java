@@ -31,10 +31,15 @@ package sc.fiji.bdvpg.cache;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.RemovalListener;
 import com.github.benmanes.caffeine.cache.Weigher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ExecutionException;
@@ -47,7 +52,7 @@ public class CaffeineGlobalCache extends AbstractGlobalCache {
 
 	final Cache<GlobalCacheKey, Object> cache;
 
-	final long maxCacheSize;
+	private long maxCacheSize;
 
 	CaffeineGlobalCache(long maxCacheSize, boolean log, int msBetweenLogs) {
 		this.maxCacheSize = maxCacheSize;
@@ -58,9 +63,16 @@ public class CaffeineGlobalCache extends AbstractGlobalCache {
 		// clears soft references in bulk under memory pressure - evicting hot
 		// blocks and forcing constant reloads. The weigher counts real bytes, so
 		// maximumWeight is itself a hard memory bound and no soft-ref net is needed.
+		// The removal listener keeps the secondary index up to date, and demotes
+		// values evicted because of the weight bound to the off-heap tier, if
+		// enabled. It is run on the calling thread (direct executor) so that the
+		// index does not lag behind the cache.
 		cache = Caffeine.newBuilder().maximumWeight(maxCacheSize)
 			.weigher((Weigher<GlobalCacheKey, Object>) (key,
-				value) -> (int) AbstractGlobalCache.getWeight(value)).build();
+				value) -> (int) AbstractGlobalCache.getWeight(value))
+			.executor(Runnable::run)
+			.removalListener(
+				(RemovalListener<GlobalCacheKey, Object>) this::onRemoval).build();
 
 		if (log) {
 			TimerTask periodicLogger = new TimerTask() {
@@ -77,13 +89,43 @@ public class CaffeineGlobalCache extends AbstractGlobalCache {
 
 	}
 
+	private void onRemoval(GlobalCacheKey key, Object value,
+		RemovalCause cause)
+	{
+		if ((key == null) || (cause == RemovalCause.REPLACED)) return;
+		// The key may have been put back in the meantime
+		if (!cache.asMap().containsKey(key)) index.remove(key);
+		if (cause == RemovalCause.SIZE) onEvictedForSize(key, value);
+	}
+
+	/**
+	 * Resizes the cache at runtime through Caffeine's eviction policy. Shrinking
+	 * it evicts entries (and demotes them off-heap if enabled) right away.
+	 *
+	 * @param maxCacheSize new maximal weight in bytes
+	 */
 	public void setMaxSize(long maxCacheSize) {
-		throw new UnsupportedOperationException(
-			"Can't changed caffeine backed max cache size");
+		this.maxCacheSize = maxCacheSize;
+		cache.policy().eviction().ifPresent(eviction -> eviction.setMaximum(
+			maxCacheSize));
 	}
 
 	public void put(GlobalCacheKey key, Object value) {
+		// Indexed first: the value may be evicted right away by the put
+		index.add(key, getWeight(value));
 		cache.put(key, value);
+		final Object source = key.getSource();
+		if (index.isOverCap(source)) {
+			// Caffeine does not know about quotas: other blocks of this source are
+			// invalidated, in no particular order
+			for (GlobalCacheKey other : index.getKeys(source, -1, -1)) {
+				if (!index.isOverCap(source)) break;
+				if (other != key) {
+					onEvictedForQuota(other, null);
+					cache.invalidate(other);
+				}
+			}
+		}
 	}
 
 	@Override
@@ -94,25 +136,48 @@ public class CaffeineGlobalCache extends AbstractGlobalCache {
 
 	@Override
 	public Object getIfPresent(GlobalCacheKey key) {
-		return cache.getIfPresent(key);
+		final Object value = cache.getIfPresent(key);
+		if (value != null) return value;
+		return promote(key);
 	}
 
 	@Override
 	public void invalidate(GlobalCacheKey key) {
 		cache.invalidate(key);
+		offHeap.invalidate(key);
 	}
 
+	/**
+	 * Scans all keys of the cache: prefer
+	 * {@link #invalidateIf(Object, int, int, Predicate)} when the source is
+	 * known, which only visits the keys of this source.
+	 */
 	@Override
 	public void invalidateIf(long parallelismThreshold,
 		Predicate<GlobalCacheKey> condition)
 	{
-		throw new UnsupportedOperationException(
-			"Can't invalidate based on predicate");
+		// Removal through the map view notifies the removal listener, which
+		// updates the index
+		cache.asMap().keySet().removeIf(condition);
+		offHeap.invalidateIf(condition);
+	}
+
+	@Override
+	public void invalidateIf(Object source, int timepoint, int level,
+		Predicate<GlobalCacheKey> condition)
+	{
+		final List<GlobalCacheKey> keys = new ArrayList<>();
+		for (GlobalCacheKey key : index.getKeys(source, timepoint, level)) {
+			if (condition.test(key)) keys.add(key);
+		}
+		cache.invalidateAll(keys);
+		offHeap.invalidateIf(condition);
 	}
 
 	@Override
 	public void invalidateAll(long parallelismThreshold) {
 		cache.invalidateAll();
+		offHeap.invalidateAll();
 	}
 
 	public long getMaxSize() {
@@ -120,7 +185,14 @@ public class CaffeineGlobalCache extends AbstractGlobalCache {
 	}
 
 	public long getEstimatedSize() {
-		return cache.estimatedSize() * 1_000_000;
+		return cache.policy().eviction().get().weightedSize().orElse(0);
+	}
+
+	@Override
+	public List<GlobalCacheKey> getHotKeys(int maxKeys) {
+		return cache.policy().eviction().<List<GlobalCacheKey>> map(
+			eviction -> new ArrayList<>(eviction.hottest(maxKeys).keySet())).orElse(
+				Collections.emptyList());
 	}
 
 	@Override
@@ -130,97 +202,10 @@ public class CaffeineGlobalCache extends AbstractGlobalCache {
 
 	@Override
 	public String toString() {
-		long totalBytes = cache.policy().eviction().get().weightedSize()
-			.getAsLong();
+		long totalBytes = getEstimatedSize();
 		return "Cache size : " + (totalBytes / (1024 * 1024)) + " Mb (" +
-			(int) (100.0 * (double) totalBytes / (double) maxCacheSize) + " %)";
-	}
-
-	@Override
-	public CacheStats getCacheStats(Object source, int setupid, int timepoint) {
-		long totalSize = 0;
-		long cellCount = 0;
-
-		try {
-			java.lang.reflect.Field tpField = bdv.img.cache.VolatileGlobalCellCache.Key.class
-				.getDeclaredField("timepoint");
-			tpField.setAccessible(true);
-			java.lang.reflect.Field setupField = bdv.img.cache.VolatileGlobalCellCache.Key.class
-				.getDeclaredField("setup");
-			setupField.setAccessible(true);
-
-			for (GlobalCacheKey key : cache.asMap().keySet()) {
-				bdv.img.cache.VolatileGlobalCellCache.Key innerKey = null;
-				if (key.key.get() instanceof bdv.img.cache.VolatileGlobalCellCache.Key) {
-					innerKey = (bdv.img.cache.VolatileGlobalCellCache.Key) key.key.get();
-				}
-				if (innerKey == null) continue;
-
-				int tp = (int) tpField.get(innerKey);
-				int setupId = (int) setupField.get(innerKey);
-
-				if (timepoint == -1) {
-					// Match source for any timepoint
-					if ((key.getSource() == source) && (setupid == setupId)) {
-						Object value = cache.getIfPresent(key);
-						if (value != null) {
-							totalSize += getWeight(value);
-							cellCount++;
-						}
-					}
-				}
-				else {
-					// Match source and specific timepoint (any level)
-					if ((key.getSource() == source) && (tp == timepoint) && (setupid ==
-						setupId))
-					{
-						Object value = cache.getIfPresent(key);
-						if (value != null) {
-							totalSize += getWeight(value);
-							cellCount++;
-						}
-					}
-				}
-			}
-
-			return new CacheStats(cellCount, totalSize);
-		}
-		catch (Exception e) {
-			logger.debug("Could not get cache stats: " + e.getMessage());
-			return new CacheStats(0, 0);
-		}
-	}
-	@Override
-	public CacheStats getCacheStats(Object source, int timepoint) {
-		long totalSize = 0;
-		long cellCount = 0;
-
-		for (GlobalCacheKey key : cache.asMap().keySet()) {
-			if (timepoint == -1) {
-				// Match source for any timepoint
-				if (key.getSource() == source) {
-					Object value = cache.getIfPresent(key);
-					if (value != null) {
-						totalSize += getWeight(value);
-						cellCount++;
-					}
-				}
-			}
-			else {
-				// Match source and specific timepoint (any level)
-				if (key.getSource() == source && key.getTimepoint() == timepoint) {
-					Object value = cache.getIfPresent(key);
-					if (value != null) {
-						totalSize += getWeight(value);
-						cellCount++;
-					}
-				}
-			}
-		}
-
-		return new CacheStats(cellCount, totalSize);
+			(int) (100.0 * (double) totalBytes / (double) maxCacheSize) + " %)" +
+			offHeapToString();
 	}
 
-
 }
-
@@ -0,0 +1,425 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Global cache evicting values according to their reload cost, and not only
+ * to their size and recency, following the GreedyDual-Size-Frequency policy.
+ * <p>
+ * Each entry has a priority {@code L + frequency * cost / size}, where cost is
+ * the time it took to load or compute the value (measured by
+ * {@link GlobalLoaderCache}, see {@link #put(GlobalCacheKey, Object, long)}),
+ * size is its weight in bytes, and frequency is its number of accesses. The
+ * entry with the lowest priority is evicted first, and the 'inflation' L is
+ * raised to its priority: entries which are not accessed anymore thus age and
+ * end up being evicted, even if they were expensive. A block computed through
+ * a chain of transformations survives longer than a block of the same size
+ * read from a file.
+ * <p>
+ * When the cost of a value is unknown (values put without a load time), the
+ * mean cost per byte of the measured values is used.
+ * <p>
+ * Like for the LinkedHashMap caches, accesses ({@link #touch}) are recorded in
+ * a lossy {@link ReadBuffer} and applied in batch by the thread holding the
+ * lock.
+ *
+ * @author Nicolas Chiaruttini
+ */
+public class CostAwareGlobalCache extends AbstractGlobalCache {
+
+	final static Logger logger = LoggerFactory.getLogger(
+		CostAwareGlobalCache.class);
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final ReadBuffer readBuffer = new ReadBuffer();
+
+	// Method reference kept to not allocate on each drain
+	private final BiConsumer<GlobalCacheKey, Object> accessApplier =
+		this::applyAccess;
+
+	private final Map<GlobalCacheKey, Node> entries = new HashMap<>();
+
+	/** Entries ordered by priority, lowest (evicted first) first */
+	private final TreeSet<Node> queue = new TreeSet<>((n1, n2) -> {
+		final int c = Double.compare(n1.priority, n2.priority);
+		return c != 0 ? c : Long.compare(n1.sequence, n2.sequence);
+	});
+
+	private final AtomicLong totalWeight = new AtomicLong();
+
+	private long maxCacheSize;
+
+	/** Priority of the last evicted entry */
+	private double inflation = 0;
+
+	private long sequence = 0;
+
+	// Sums over the values put with a measured load time, for the mean cost per
+	// byte
+	private double measuredCost = 0;
+
+	private double measuredWeight = 0;
+
+	CostAwareGlobalCache(long maxCacheSize, boolean log, int msBetweenLogs) {
+		this.maxCacheSize = maxCacheSize;
+
+		if (log) {
+			TimerTask periodicLogger = new TimerTask() {
+
+				@Override
+				public void run() {
+					logger.info(CostAwareGlobalCache.this.toString());
+				}
+			};
+
+			Timer time = new Timer(); // Instantiate Timer Object
+			time.schedule(periodicLogger, 0, msBetweenLogs);
+		}
+	}
+
+	private static final class Node {
+
+		final GlobalCacheKey key;
+
+		final long weight;
+
+		final long sequence;
+
+		SoftReference<Object> ref;
+
+		double cost;
+
+		int frequency = 1;
+
+		double priority;
+
+		Node(GlobalCacheKey key, Object value, long weight, long sequence) {
+			this.key = key;
+			this.ref = new SoftReference<>(value);
+			this.weight = weight;
+			this.sequence = sequence;
+		}
+	}
+
+	@Override
+	public void setMaxSize(long maxCacheSize) {
+		lock.lock();
+		try {
+			drainReadBuffer();
+			this.maxCacheSize = maxCacheSize;
+			evict(null);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void put(GlobalCacheKey key, Object value) {
+		put(key, value, -1);
+	}
+
+	@Override
+	public void put(GlobalCacheKey key, Object value, long loadTimeNanos) {
+		lock.lock();
+		try {
+			drainReadBuffer();
+			insert(key, value, loadTimeNanos);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Object get(GlobalCacheKey key) throws ExecutionException {
+		return getValue(key);
+	}
+
+	@Override
+	public Object getIfPresent(GlobalCacheKey key) {
+		final Object value = getValue(key);
+		if (value != null) return value;
+		return promote(key);
+	}
+
+	private Object getValue(GlobalCacheKey key) {
+		final Node node;
+		lock.lock();
+		try {
+			drainReadBuffer();
+			node = entries.get(key);
+		}
+		finally {
+			lock.unlock();
+		}
+		return node == null ? null : node.ref.get();
+	}
+
+	@Override
+	public <V> void touch(GlobalCacheKey key, V value) {
+		if (readBuffer.offer(key, value) && lock.tryLock()) {
+			try {
+				drainReadBuffer();
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * @param maxKeys maximal number of keys returned
+	 * @return the keys of highest priority first
+	 */
+	@Override
+	public List<GlobalCacheKey> getHotKeys(int maxKeys) {
+		final List<GlobalCacheKey> keys = new ArrayList<>();
+		lock.lock();
+		try {
+			drainReadBuffer();
+			final Iterator<Node> it = queue.descendingIterator();
+			while (it.hasNext() && keys.size() < maxKeys) {
+				keys.add(it.next().key);
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+		return keys;
+	}
+
+	private void drainReadBuffer() {
+		readBuffer.drainTo(accessApplier);
+	}
+
+	/**
+	 * Replays an access recorded by {@link #touch}. An access replayed after
+	 * the key has been invalidated or evicted does not put it back.
+	 */
+	private void applyAccess(GlobalCacheKey key, Object value) {
+		if (entries.containsKey(key)) insert(key, value, -1);
+	}
+
+	/**
+	 * Inserts a value, or records an access to an existing one. Must be called
+	 * while holding the lock.
+	 */
+	private void insert(GlobalCacheKey key, Object value, long loadTimeNanos) {
+		Node node = entries.get(key);
+		if (node != null) {
+			queue.remove(node);
+			if (node.ref.get() == null) node.ref = new SoftReference<>(value);
+			if (loadTimeNanos >= 0) node.cost = loadTimeNanos;
+			node.frequency++;
+			node.priority = priority(node);
+			queue.add(node);
+			return;
+		}
+		final long weight = Math.max(getWeight(value), 1);
+		node = new Node(key, value, weight, sequence++);
+		if (loadTimeNanos >= 0) {
+			node.cost = loadTimeNanos;
+			measuredCost += loadTimeNanos;
+			measuredWeight += weight;
+		}
+		else {
+			node.cost = (measuredWeight > 0) ? weight * measuredCost /
+				measuredWeight : weight;
+		}
+		node.priority = priority(node);
+		entries.put(key, node);
+		queue.add(node);
+		totalWeight.addAndGet(weight);
+		index.add(key, weight);
+		evict(node);
+	}
+
+	private double priority(Node node) {
+		return inflation + node.frequency * node.cost / node.weight;
+	}
+
+	/**
+	 * Evicts the entries of lowest priority until the cache fits its maximal
+	 * size. The just inserted entry is not evicted, even if it is the only one
+	 * left, and neither are the entries of sources holding no more than their
+	 * guaranteed minimum. If the source of the inserted entry exceeds its hard
+	 * cap, its own entries of lowest priority are then evicted (see
+	 * {@link CacheQuota}). Must be called while holding the lock.
+	 *
+	 * @param protect entry that must not be evicted, or null
+	 */
+	private void evict(Node protect) {
+		if (totalWeight.get() > maxCacheSize) {
+			final Iterator<Node> it = queue.iterator();
+			while (totalWeight.get() > maxCacheSize && it.hasNext()) {
+				final Node node = it.next();
+				if (node == protect) continue;
+				if (index.isGuaranteed(node.key)) continue;
+				it.remove();
+				inflation = Math.max(inflation, node.priority);
+				evictNode(node);
+			}
+		}
+		if (protect != null) {
+			final Object source = protect.key.getSource();
+			if (!index.isOverCap(source)) return;
+			final Iterator<Node> it = queue.iterator();
+			while (index.isOverCap(source) && it.hasNext()) {
+				final Node node = it.next();
+				if (node == protect) continue;
+				if (node.key.getSource() != source) continue;
+				it.remove();
+				// Evicted because of the quota: the inflation is not raised
+				removeNode(node);
+				onEvictedForQuota(node.key, null);
+			}
+		}
+	}
+
+	/**
+	 * Must be called while holding the lock, the node should already be removed
+	 * from the queue
+	 */
+	private void evictNode(Node node) {
+		final Object value = node.ref.get();
+		removeNode(node);
+		onEvictedForSize(node.key, value);
+	}
+
+	/**
+	 * Must be called while holding the lock, the node should already be removed
+	 * from the queue
+	 */
+	private void removeNode(Node node) {
+		entries.remove(node.key);
+		node.ref.clear();
+		totalWeight.addAndGet(-node.weight);
+		index.remove(node.key);
+	}
+
+	@Override
+	public void invalidate(GlobalCacheKey key) {
+		lock.lock();
+		try {
+			// Pending accesses are applied first, so that they can not re-insert
+			// the entry afterwards
+			drainReadBuffer();
+			final Node node = entries.get(key);
+			if (node != null) {
+				queue.remove(node);
+				removeNode(node);
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+		offHeap.invalidate(key);
+	}
+
+	@Override
+	public void invalidateIf(long parallelismThreshold,
+		Predicate<GlobalCacheKey> condition)
+	{
+		lock.lock();
+		try {
+			drainReadBuffer();
+			final List<Node> removed = new ArrayList<>();
+			for (Node node : entries.values()) {
+				if (condition.test(node.key)) removed.add(node);
+			}
+			for (Node node : removed) {
+				queue.remove(node);
+				removeNode(node);
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+		offHeap.invalidateIf(condition);
+	}
+
+	@Override
+	public void invalidateAll(long parallelismThreshold) {
+		lock.lock();
+		try {
+			drainReadBuffer();
+			for (Node node : entries.values()) {
+				node.ref.clear();
+				index.remove(node.key);
+			}
+			entries.clear();
+			queue.clear();
+			totalWeight.set(0);
+			inflation = 0;
+		}
+		finally {
+			lock.unlock();
+		}
+		offHeap.invalidateAll();
+	}
+
+	@Override
+	public long getMaxSize() {
+		return maxCacheSize;
+	}
+
+	@Override
+	public long getEstimatedSize() {
+		return totalWeight.get();
+	}
+
+	@Override
+	public String toString() {
+		return "Cache size : " + (totalWeight.get() / (1024 * 1024)) + " Mb (" +
+			(int) (100.0 * (double) totalWeight.get() / (double) maxCacheSize) +
+			" %)" + offHeapToString();
+	}
+
+}
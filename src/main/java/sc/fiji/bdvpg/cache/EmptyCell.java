@@ -0,0 +1,223 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.cache;
+
+import net.imglib2.img.basictypeaccess.ByteAccess;
+import net.imglib2.img.basictypeaccess.DoubleAccess;
+import net.imglib2.img.basictypeaccess.FloatAccess;
+import net.imglib2.img.basictypeaccess.IntAccess;
+import net.imglib2.img.basictypeaccess.LongAccess;
+import net.imglib2.img.basictypeaccess.ShortAccess;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileByteAccess;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileDoubleAccess;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileFloatAccess;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileIntAccess;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileLongAccess;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileShortAccess;
+import net.imglib2.img.cell.Cell;
+
+/**
+ * Cell of a computed image which is known to be filled with zeros, and which
+ * is thus not computed: typically a cell of a resampled image which lies
+ * outside of the resampled source.
+ * <p>
+ * Empty cells have no storage: they are backed by a read-only access, shared
+ * by all empty cells of the same primitive type, which returns zero for any
+ * index and throws an {@link UnsupportedOperationException} on writes. In the
+ * global cache, an empty cell only weighs its cell object (see
+ * {@link CacheWeighers}), and it is never demoted off-heap (see
+ * {@link OffHeapCellStore}).
+ *
+ * @param <A> access type
+ * @author Nicolas Chiaruttini
+ */
+public final class EmptyCell<A> extends Cell<A> {
+
+	private EmptyCell(int[] dimensions, long[] min, A data) {
+		super(dimensions, min, data);
+	}
+
+	/**
+	 * @param dimensions cell dimensions
+	 * @param min cell min
+	 * @param prototype access of the image cells, which gives the primitive type
+	 *          of the empty cell
+	 * @return an empty cell backed by the read-only access of this primitive
+	 *         type
+	 */
+	public static EmptyCell<?> create(int[] dimensions, long[] min,
+		Object prototype)
+	{
+		if (prototype instanceof ByteAccess) {
+			return new EmptyCell<>(dimensions, min, ZeroByteAccess.INSTANCE);
+		}
+		if (prototype instanceof ShortAccess) {
+			return new EmptyCell<>(dimensions, min, ZeroShortAccess.INSTANCE);
+		}
+		if (prototype instanceof IntAccess) {
+			return new EmptyCell<>(dimensions, min, ZeroIntAccess.INSTANCE);
+		}
+		if (prototype instanceof LongAccess) {
+			return new EmptyCell<>(dimensions, min, ZeroLongAccess.INSTANCE);
+		}
+		if (prototype instanceof FloatAccess) {
+			return new EmptyCell<>(dimensions, min, ZeroFloatAccess.INSTANCE);
+		}
+		if (prototype instanceof DoubleAccess) {
+			return new EmptyCell<>(dimensions, min, ZeroDoubleAccess.INSTANCE);
+		}
+		throw new IllegalArgumentException("No empty cell for access " +
+			prototype.getClass().getName());
+	}
+
+	private static UnsupportedOperationException readOnly() {
+		return new UnsupportedOperationException("Empty cells are read-only");
+	}
+
+	static final class ZeroByteAccess implements VolatileByteAccess {
+
+		static final ZeroByteAccess INSTANCE = new ZeroByteAccess();
+
+		@Override
+		public byte getValue(int index) {
+			return 0;
+		}
+
+		@Override
+		public void setValue(int index, byte value) {
+			throw readOnly();
+		}
+
+		@Override
+		public boolean isValid() {
+			return true;
+		}
+	}
+
+	static final class ZeroShortAccess implements VolatileShortAccess {
+
+		static final ZeroShortAccess INSTANCE = new ZeroShortAccess();
+
+		@Override
+		public short getValue(int index) {
+			return 0;
+		}
+
+		@Override
+		public void setValue(int index, short value) {
+			throw readOnly();
+		}
+
+		@Override
+		public boolean isValid() {
+			return true;
+		}
+	}
+
+	static final class ZeroIntAccess implements VolatileIntAccess {
+
+		static final ZeroIntAccess INSTANCE = new ZeroIntAccess();
+
+		@Override
+		public int getValue(int index) {
+			return 0;
+		}
+
+		@Override
+		public void setValue(int index, int value) {
+			throw readOnly();
+		}
+
+		@Override
+		public boolean isValid() {
+			return true;
+		}
+	}
+
+	static final class ZeroLongAccess implements VolatileLongAccess {
+
+		static final ZeroLongAccess INSTANCE = new ZeroLongAccess();
+
+		@Override
+		public long getValue(int index) {
+			return 0;
+		}
+
+		@Override
+		public void setValue(int index, long value) {
+			throw readOnly();
+		}
+
+		@Override
+		public boolean isValid() {
+			return true;
+		}
+	}
+
+	static final class ZeroFloatAccess implements VolatileFloatAccess {
+
+		static final ZeroFloatAccess INSTANCE = new ZeroFloatAccess();
+
+		@Override
+		public float getValue(int index) {
+			return 0;
+		}
+
+		@Override
+		public void setValue(int index, float value) {
+			throw readOnly();
+		}
+
+		@Override
+		public boolean isValid() {
+			return true;
+		}
+	}
+
+	static final class ZeroDoubleAccess implements VolatileDoubleAccess {
+
+		static final ZeroDoubleAccess INSTANCE = new ZeroDoubleAccess();
+
+		@Override
+		public double getValue(int index) {
+			return 0;
+		}
+
+		@Override
+		public void setValue(int index, double value) {
+			throw readOnly();
+		}
+
+		@Override
+		public boolean isValid() {
+			return true;
+		}
+	}
+}
@@ -39,9 +39,16 @@ public class GlobalCacheBuilder {
 
 	final public static String LINKED_HASH_MAP = "LinkedHashMap";
 	final public static String CAFFEINE = "Caffeine";
+	final public static String SEGMENTED_LINKED_HASH_MAP =
+		"SegmentedLinkedHashMap";
+	final public static String COST_AWARE = "CostAware";
+
+	final static int defaultNumberOfSegments = 16;
 
 	final static double defaultPolicyRatio = 0.5;
 
+	final static double defaultAdaptiveFloorRatio = 0.1;
+
 	private boolean log = false;
 	private int msBetweenLog = 2000;
 
@@ -57,6 +64,21 @@ public class GlobalCacheBuilder {
 	// Policy three : specify the amount of ram not used for caching
 	private long memoryInBytesForEverythingElse = -1;
 
+	// Number of independently locked segments of the segmented LinkedHashMap
+	// cache
+	private int numberOfSegments = defaultNumberOfSegments;
+
+	// Optional off-heap tier receiving the values evicted from the heap, 0 to
+	// disable it
+	private long memoryInBytesOffHeap = 0;
+
+	// Adaptive size: the cache shrinks under heap pressure, down to this ratio
+	// of its size, and grows back when the heap is idle, see
+	// AdaptiveCacheSizer
+	private boolean adaptive = false;
+
+	private double adaptiveFloorRatio = defaultAdaptiveFloorRatio;
+
 	transient long maxAvailableMemoryInBytes;
 
 	String cacheType = CAFFEINE;
@@ -102,6 +124,35 @@ public class GlobalCacheBuilder {
 		return memoryRatioForCache;
 	}
 
+	public int getNumberOfSegments() {
+		return numberOfSegments;
+	}
+
+	public long getMemoryInBytesOffHeap() {
+		return memoryInBytesOffHeap;
+	}
+
+	public boolean getAdaptive() {
+		return adaptive;
+	}
+
+	public double getAdaptiveFloorRatio() {
+		return adaptiveFloorRatio;
+	}
+
+	/**
+	 * @param cache a global cache
+	 * @return the cache type constant matching this cache implementation
+	 */
+	public static String typeOf(AbstractGlobalCache cache) {
+		if (cache instanceof CaffeineGlobalCache) return CAFFEINE;
+		if (cache instanceof CostAwareGlobalCache) return COST_AWARE;
+		if (cache instanceof SegmentedLinkedHashMapGlobalCache)
+			return SEGMENTED_LINKED_HASH_MAP;
+		if (cache instanceof BoundedLinkedHashMapGlobalCache) return LINKED_HASH_MAP;
+		return cache.getClass().getSimpleName();
+	}
+
 	// builder methods
 	public static GlobalCacheBuilder builder() {
 		return new GlobalCacheBuilder();
@@ -132,6 +183,38 @@ public class GlobalCacheBuilder {
 		return this;
 	}
 
+	/**
+	 * Selects the lock-striped LinkedHashMap cache, see
+	 * {@link SegmentedLinkedHashMapGlobalCache}
+	 *
+	 * @return this builder
+	 */
+	public GlobalCacheBuilder segmentedLinkedHashMap() {
+		cacheType = SEGMENTED_LINKED_HASH_MAP;
+		return this;
+	}
+
+	/**
+	 * Selects the cache evicting values according to their reload cost, see
+	 * {@link CostAwareGlobalCache}
+	 *
+	 * @return this builder
+	 */
+	public GlobalCacheBuilder costAware() {
+		cacheType = COST_AWARE;
+		return this;
+	}
+
+	/**
+	 * @param numberOfSegments number of segments of the segmented LinkedHashMap
+	 *          cache, rounded up to a power of two
+	 * @return this builder
+	 */
+	public GlobalCacheBuilder segments(int numberOfSegments) {
+		this.numberOfSegments = numberOfSegments;
+		return this;
+	}
+
 	public GlobalCacheBuilder memoryRatioForCache(double ratio) {
 		memoryRatioForCache = ratio;
 		memoryInBytesForCache = -1;
@@ -153,7 +236,50 @@ public class GlobalCacheBuilder {
 		return this;
 	}
 
-	public AbstractGlobalCache create() {
+	/**
+	 * Enables the off-heap tier of the cache, see {@link OffHeapCellStore}.
+	 * Direct memory is bounded by the JVM option
+	 * {@code -XX:MaxDirectMemorySize}.
+	 *
+	 * @param nBytes off-heap budget in bytes, 0 to disable the off-heap tier
+	 * @return this builder
+	 */
+	public GlobalCacheBuilder offHeapSize(long nBytes) {
+		memoryInBytesOffHeap = nBytes;
+		return this;
+	}
+
+	/**
+	 * Makes the cache size adaptive: the size computed by the policy becomes a
+	 * ceiling, the cache shrinks under heap pressure and grows back when the
+	 * heap is idle, see {@link AdaptiveCacheSizer}
+	 *
+	 * @param adaptive whether the cache size is adaptive
+	 * @return this builder
+	 */
+	public GlobalCacheBuilder adaptive(boolean adaptive) {
+		this.adaptive = adaptive;
+		return this;
+	}
+
+	/**
+	 * @param floorRatio minimal size of an adaptive cache, as a ratio of its
+	 *          maximal size
+	 * @return this builder
+	 */
+	public GlobalCacheBuilder adaptiveFloorRatio(double floorRatio) {
+		this.adaptiveFloorRatio = floorRatio;
+		return this;
+	}
+
+	/**
+	 * Computes the heap size of the cache according to the chosen policy. This
+	 * can be used to resize a running cache, see
+	 * {@link AbstractGlobalCache#setMaxSize(long)}.
+	 *
+	 * @return the cache size in bytes
+	 */
+	public long getCacheSize() {
 		long cacheSize;
 
 		if (memoryRatioForCache > 0) {
@@ -187,16 +313,45 @@ public class GlobalCacheBuilder {
 			" Mb available (" + (int) (100.0 * (cacheSize / (1024.0 * 1024.0)) /
 				(maxAvailableMemoryInBytes / (1024.0 * 1024.0))) + "%)");
 
+		return cacheSize;
+	}
+
+	public AbstractGlobalCache create() {
+		final long cacheSize = getCacheSize();
+
+		final AbstractGlobalCache cache;
 		switch (cacheType) {
 			case CAFFEINE:
-				return new CaffeineGlobalCache(cacheSize, log, msBetweenLog);
+				cache = new CaffeineGlobalCache(cacheSize, log, msBetweenLog);
+				break;
 			case LINKED_HASH_MAP:
-				return new BoundedLinkedHashMapGlobalCache(100, cacheSize, log,
+				cache = new BoundedLinkedHashMapGlobalCache(100, cacheSize, log,
 					msBetweenLog);
+				break;
+			case SEGMENTED_LINKED_HASH_MAP:
+				cache = new SegmentedLinkedHashMapGlobalCache(100, cacheSize, Math.max(
+					numberOfSegments, 1), log, msBetweenLog);
+				break;
+			case COST_AWARE:
+				cache = new CostAwareGlobalCache(cacheSize, log, msBetweenLog);
+				break;
 			default:
 				throw new UnsupportedOperationException("Cannot create cache of type " +
 					cacheType);
 		}
+
+		if (memoryInBytesOffHeap > 0) {
+			logger.info("Off-heap cache tier set to " + (int) (memoryInBytesOffHeap /
+				(1024.0 * 1024.0)) + " Mb");
+			cache.setMaxOffHeapSize(memoryInBytesOffHeap);
+		}
+
+		if (adaptive) {
+			cache.setAdaptiveSizer(new AdaptiveCacheSizer(cache, (long) (cacheSize *
+				adaptiveFloorRatio), cacheSize));
+		}
+
+		return cache;
 	}
 
 }
@@ -0,0 +1,425 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.cache;
+
+import bdv.img.cache.VolatileGlobalCellCache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Secondary index of the keys held by an {@link AbstractGlobalCache}, grouped
+ * by source, then timepoint, then level (as stored in the
+ * {@link GlobalCacheKey}), with running byte and cell totals. It is updated by
+ * the cache implementations on each insertion and removal, so that:
+ * <ul>
+ * <li>cache statistics per source, setup and timepoint
+ * ({@link AbstractGlobalCache#getCacheStats}) are read in constant time instead
+ * of scanning the whole cache,</li>
+ * <li>invalidating the keys of a single source only visits the keys of this
+ * source.</li>
+ * </ul>
+ * For SpimData sources, the global cache key only holds the dataset, and the
+ * setup and timepoint of a cell are stored in its inner
+ * {@link VolatileGlobalCellCache.Key}. They are read (see
+ * {@link SpimDataKeys}) once per insertion, and totals are maintained for them too.
+ * <p>
+ * The index also holds the optional {@link CacheQuota} of each source, and
+ * tells the implementations, during eviction, which blocks are protected by a
+ * guaranteed minimum and which sources exceed their hard cap.
+ * <p>
+ * Sources are weakly referenced: the index of a source which is garbage
+ * collected vanishes with it.
+ *
+ * @author Nicolas Chiaruttini
+ */
+public class GlobalCacheIndex {
+
+	final static Logger logger = LoggerFactory.getLogger(GlobalCacheIndex.class);
+
+	/**
+	 * @param key global cache key
+	 * @return the level of the inner SpimData key if any, the level of the
+	 *         global cache key otherwise
+	 */
+	static int getEffectiveLevel(GlobalCacheKey key) {
+		final Object innerKey = key.key.get();
+		if (SpimDataKeys.isReadable(innerKey)) {
+			try {
+				return SpimDataKeys.getLevel(innerKey);
+			}
+			catch (IllegalAccessException e) {
+				logger.debug("Could not read SpimData key: " + e.getMessage());
+			}
+		}
+		return key.getLevel();
+	}
+
+	private final GlobalCacheMetrics metrics;
+
+	/**
+	 * @param metrics metrics recording the bytes inserted and removed
+	 */
+	public GlobalCacheIndex(GlobalCacheMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	// Weak keys, compared by identity
+	private final ConcurrentMap<Object, SourceIndex> sources = CacheBuilder
+		.newBuilder().weakKeys().<Object, SourceIndex> build().asMap();
+
+	/**
+	 * Indexes a key, or updates its weight if it is already indexed.
+	 *
+	 * @param key key inserted in the cache
+	 * @param weight weight, in bytes, of the associated value
+	 */
+	public void add(GlobalCacheKey key, long weight) {
+		final Object source = key.getSource();
+		if (source == null) return;
+		final SourceIndex sourceIndex = sources.computeIfAbsent(source,
+			s -> new SourceIndex());
+		sourceIndex.add(key, weight, metrics);
+	}
+
+	/**
+	 * Removes a key from the index. The lookup is done by identity first, so
+	 * that keys whose inner key has been garbage collected can still be
+	 * removed.
+	 *
+	 * @param key key removed from the cache
+	 */
+	public void remove(GlobalCacheKey key) {
+		final Object source = key.getSource();
+		if (source == null) return; // The whole source index is gone
+		final SourceIndex sourceIndex = sources.get(source);
+		if (sourceIndex != null) sourceIndex.remove(key);
+	}
+
+	// Avoids any lookup during eviction when no quota is set
+	private volatile boolean hasQuotas = false;
+
+	public void clear() {
+		sources.values().removeIf(sourceIndex -> sourceIndex.quota == null);
+		for (SourceIndex sourceIndex : sources.values()) {
+			sourceIndex.clear();
+		}
+	}
+
+	/**
+	 * Sets or removes the quota of a source.
+	 *
+	 * @param source source object, as stored in the {@link GlobalCacheKey}
+	 * @param quota quota, or null to remove it
+	 */
+	public void setQuota(Object source, CacheQuota quota) {
+		if (quota == null) {
+			final SourceIndex sourceIndex = sources.get(source);
+			if (sourceIndex != null) sourceIndex.quota = null;
+		}
+		else {
+			sources.computeIfAbsent(source, s -> new SourceIndex()).quota = quota;
+			hasQuotas = true;
+		}
+	}
+
+	/**
+	 * @param source source object
+	 * @return the quota of this source, or null if it has none
+	 */
+	public CacheQuota getQuota(Object source) {
+		final SourceIndex sourceIndex = sources.get(source);
+		return sourceIndex == null ? null : sourceIndex.quota;
+	}
+
+	/**
+	 * @param key cached key
+	 * @return true if the value of this key should not be evicted because its
+	 *         source holds no more than its guaranteed minimum
+	 */
+	public boolean isGuaranteed(GlobalCacheKey key) {
+		if (!hasQuotas) return false;
+		final Object source = key.getSource();
+		if (source == null) return false;
+		final SourceIndex sourceIndex = sources.get(source);
+		if (sourceIndex == null) return false;
+		final CacheQuota quota = sourceIndex.quota;
+		if ((quota == null) || (!quota.hasMin())) return false;
+		synchronized (sourceIndex) {
+			return sourceIndex.total.bytes <= quota.minBytes;
+		}
+	}
+
+	/**
+	 * @param source source object
+	 * @return true if this source holds more bytes than its hard cap
+	 */
+	public boolean isOverCap(Object source) {
+		if ((!hasQuotas) || (source == null)) return false;
+		final SourceIndex sourceIndex = sources.get(source);
+		if (sourceIndex == null) return false;
+		final CacheQuota quota = sourceIndex.quota;
+		if ((quota == null) || (!quota.hasMax())) return false;
+		synchronized (sourceIndex) {
+			return sourceIndex.total.bytes > quota.maxBytes;
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the indexed keys of a source, at a timepoint and
+	 * level as stored in the {@link GlobalCacheKey}. If both the timepoint and
+	 * the level are -1, all keys of the source are returned.
+	 *
+	 * @param source source object
+	 * @param timepoint timepoint of the global cache key
+	 * @param level level of the global cache key
+	 * @return a copy of the matching keys
+	 */
+	public List<GlobalCacheKey> getKeys(Object source, int timepoint,
+		int level)
+	{
+		final SourceIndex sourceIndex = sources.get(source);
+		if (sourceIndex == null) return Collections.emptyList();
+		return sourceIndex.getKeys(timepoint, level);
+	}
+
+	/**
+	 * @param source source object
+	 * @param setupId setup id of the inner SpimData key
+	 * @param timepoint timepoint, -1 for all timepoints
+	 * @return cache statistics of this source setup
+	 */
+	public AbstractGlobalCache.CacheStats getStats(Object source, int setupId,
+		int timepoint)
+	{
+		final SourceIndex sourceIndex = sources.get(source);
+		if (sourceIndex == null) return new AbstractGlobalCache.CacheStats(0, 0);
+		synchronized (sourceIndex) {
+			if (timepoint == -1) {
+				return Totals.toStats(sourceIndex.setups.get(setupId));
+			}
+			else {
+				return Totals.toStats(sourceIndex.setupTimepoints.get(pack(setupId,
+					timepoint)));
+			}
+		}
+	}
+
+	/**
+	 * @param source source object
+	 * @param timepoint timepoint, -1 for all timepoints
+	 * @return cache statistics of this source, all setups included
+	 */
+	public AbstractGlobalCache.CacheStats getStats(Object source,
+		int timepoint)
+	{
+		final SourceIndex sourceIndex = sources.get(source);
+		if (sourceIndex == null) return new AbstractGlobalCache.CacheStats(0, 0);
+		synchronized (sourceIndex) {
+			if (timepoint == -1) {
+				return Totals.toStats(sourceIndex.total);
+			}
+			else {
+				return Totals.toStats(sourceIndex.timepoints.get(timepoint));
+			}
+		}
+	}
+
+	static long pack(int a, int b) {
+		return (((long) a) << 32) | (b & 0xFFFFFFFFL);
+	}
+
+	static class Totals {
+
+		long cells;
+
+		long bytes;
+
+		void add(long weight) {
+			cells++;
+			bytes += weight;
+		}
+
+		/**
+		 * @return true if no cell is counted anymore
+		 */
+		boolean remove(long weight) {
+			cells--;
+			bytes -= weight;
+			return cells <= 0;
+		}
+
+		static AbstractGlobalCache.CacheStats toStats(Totals totals) {
+			if (totals == null) return new AbstractGlobalCache.CacheStats(0, 0);
+			return new AbstractGlobalCache.CacheStats(totals.cells, totals.bytes);
+		}
+	}
+
+	/**
+	 * Location of an indexed key in the totals, and its weight
+	 */
+	static class IndexedKey {
+
+		final int setup;
+
+		final int timepoint;
+
+		final CacheMetrics metrics;
+
+		long weight;
+
+		IndexedKey(int setup, int timepoint, CacheMetrics metrics, long weight) {
+			this.setup = setup;
+			this.timepoint = timepoint;
+			this.metrics = metrics;
+			this.weight = weight;
+		}
+	}
+
+	static class SourceIndex {
+
+		volatile CacheQuota quota;
+
+		final Totals total = new Totals();
+
+		// Totals per effective timepoint (inner SpimData key timepoint if any)
+		final Map<Integer, Totals> timepoints = new HashMap<>();
+
+		// Totals per SpimData setup (-1 for other sources)
+		final Map<Integer, Totals> setups = new HashMap<>();
+
+		// Totals per (setup, timepoint)
+		final Map<Long, Totals> setupTimepoints = new HashMap<>();
+
+		// Keys per (timepoint, level) of the global cache key
+		final Map<Long, Map<GlobalCacheKey, IndexedKey>> keys = new HashMap<>();
+
+		synchronized void add(GlobalCacheKey key, long weight,
+			GlobalCacheMetrics metrics)
+		{
+			final Map<GlobalCacheKey, IndexedKey> bucket = keys.computeIfAbsent(pack(
+				key.getTimepoint(), key.getLevel()), k -> new HashMap<>());
+			final IndexedKey existing = bucket.get(key);
+			if (existing != null) {
+				// Already indexed, only the weight may change
+				final long delta = weight - existing.weight;
+				existing.weight = weight;
+				if (delta > 0) existing.metrics.recordInsert(delta);
+				total.bytes += delta;
+				timepoints.get(existing.timepoint).bytes += delta;
+				setups.get(existing.setup).bytes += delta;
+				setupTimepoints.get(pack(existing.setup,
+					existing.timepoint)).bytes += delta;
+				return;
+			}
+
+			int setup = -1;
+			int timepoint = key.getTimepoint();
+			int level = key.getLevel();
+			final Object innerKey = key.key.get();
+			if (SpimDataKeys.isReadable(innerKey)) {
+				try {
+					timepoint = SpimDataKeys.getTimepoint(innerKey);
+					setup = SpimDataKeys.getSetup(innerKey);
+					level = SpimDataKeys.getLevel(innerKey);
+				}
+				catch (IllegalAccessException e) {
+					logger.debug("Could not read SpimData key: " + e.getMessage());
+				}
+			}
+
+			final CacheMetrics levelMetrics = metrics.forLevel(key.getSource(),
+				level);
+			levelMetrics.recordInsert(weight);
+			bucket.put(key, new IndexedKey(setup, timepoint, levelMetrics, weight));
+			total.add(weight);
+			timepoints.computeIfAbsent(timepoint, k -> new Totals()).add(weight);
+			setups.computeIfAbsent(setup, k -> new Totals()).add(weight);
+			setupTimepoints.computeIfAbsent(pack(setup, timepoint),
+				k -> new Totals()).add(weight);
+		}
+
+		synchronized void remove(GlobalCacheKey key) {
+			final long bucketKey = pack(key.getTimepoint(), key.getLevel());
+			final Map<GlobalCacheKey, IndexedKey> bucket = keys.get(bucketKey);
+			if (bucket == null) return;
+			final IndexedKey indexedKey = bucket.remove(key);
+			if (indexedKey == null) return;
+			if (bucket.isEmpty()) keys.remove(bucketKey);
+
+			final long weight = indexedKey.weight;
+			indexedKey.metrics.recordRemoval(weight);
+			total.remove(weight);
+			if (timepoints.get(indexedKey.timepoint).remove(weight)) timepoints
+				.remove(indexedKey.timepoint);
+			if (setups.get(indexedKey.setup).remove(weight)) setups.remove(
+				indexedKey.setup);
+			final long setupTimepoint = pack(indexedKey.setup, indexedKey.timepoint);
+			if (setupTimepoints.get(setupTimepoint).remove(weight)) setupTimepoints
+				.remove(setupTimepoint);
+		}
+
+		synchronized void clear() {
+			for (Map<GlobalCacheKey, IndexedKey> bucket : keys.values()) {
+				for (IndexedKey indexedKey : bucket.values()) {
+					indexedKey.metrics.recordRemoval(indexedKey.weight);
+				}
+			}
+			total.cells = 0;
+			total.bytes = 0;
+			timepoints.clear();
+			setups.clear();
+			setupTimepoints.clear();
+			keys.clear();
+		}
+
+		synchronized List<GlobalCacheKey> getKeys(int timepoint, int level) {
+			final List<GlobalCacheKey> result = new ArrayList<>();
+			if ((timepoint == -1) && (level == -1)) {
+				for (Map<GlobalCacheKey, IndexedKey> bucket : keys.values()) {
+					result.addAll(bucket.keySet());
+				}
+			}
+			else {
+				final Map<GlobalCacheKey, IndexedKey> bucket = keys.get(pack(timepoint,
+					level));
+				if (bucket != null) result.addAll(bucket.keySet());
+			}
+			return result;
+		}
+	}
+}
@@ -98,4 +98,12 @@ public class GlobalCacheKey {
 	public Object getSource() {
 		return source.get();
 	}
+
+	/**
+	 * @return the key of the value in its source (for instance the cell index),
+	 *         or null if it has been garbage collected
+	 */
+	public Object getKey() {
+		return key.get();
+	}
 }
@@ -0,0 +1,299 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.cache;
+
+import bdv.viewer.Source;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Activity metrics of an {@link AbstractGlobalCache}: hits, misses, loads,
+ * load time histogram, evictions by cause, bytes in and out. They are recorded
+ * for the whole cache ({@link #getTotal()}), and broken down per source
+ * ({@link #getSourceTotal(Object)}) and per resolution level
+ * ({@link #getLevels(Object)}). For SpimData sources, the level is the one of
+ * the inner {@link bdv.img.cache.VolatileGlobalCellCache.Key}.
+ * <p>
+ * Hits, misses and loads are recorded by {@link GlobalLoaderCache}, insertions
+ * and removals by the {@link GlobalCacheIndex}, and size evictions by
+ * {@link AbstractGlobalCache#onEvictedForSize}. Sources are weakly referenced,
+ * like in the index.
+ * <p>
+ * The metrics are also published over JMX, see {@link #register}.
+ *
+ * @author Nicolas Chiaruttini
+ */
+public class GlobalCacheMetrics implements GlobalCacheMetricsMXBean {
+
+	final static Logger logger = LoggerFactory.getLogger(
+		GlobalCacheMetrics.class);
+
+	/**
+	 * Name under which the metrics of the global cache are published over JMX
+	 */
+	public static final String OBJECT_NAME = "sc.fiji.bdvpg:type=GlobalCache";
+
+	private final CacheMetrics total = new CacheMetrics(null);
+
+	// Weak keys, compared by identity
+	private final ConcurrentMap<Object, SourceMetrics> sources = CacheBuilder
+		.newBuilder().weakKeys().<Object, SourceMetrics> build().asMap();
+
+	private volatile Function<Object, String> sourceNamer =
+		GlobalCacheMetrics::defaultName;
+
+	/**
+	 * @return the metrics of the whole cache
+	 */
+	public CacheMetrics getTotal() {
+		return total;
+	}
+
+	/**
+	 * Returns the metrics of a resolution level of a source, creating them if
+	 * needed. The returned object can be kept, for instance by a loader cache,
+	 * to record without any lookup.
+	 *
+	 * @param source source object, as stored in the {@link GlobalCacheKey}
+	 * @param level resolution level, -1 if unknown
+	 * @return the metrics of this level, or the metrics of the whole cache if
+	 *         the source is null
+	 */
+	public CacheMetrics forLevel(Object source, int level) {
+		if (source == null) return total;
+		return sources.computeIfAbsent(source, s -> new SourceMetrics(total))
+			.forLevel(level);
+	}
+
+	/**
+	 * @param key global cache key
+	 * @return the metrics of the source and level of this key
+	 */
+	public CacheMetrics forKey(GlobalCacheKey key) {
+		return forLevel(key.getSource(), GlobalCacheIndex.getEffectiveLevel(key));
+	}
+
+	/**
+	 * @param source source object
+	 * @return the metrics of this source, all levels included, or null if
+	 *         nothing was recorded for this source
+	 */
+	public CacheMetrics getSourceTotal(Object source) {
+		final SourceMetrics sourceMetrics = sources.get(source);
+		return sourceMetrics == null ? null : sourceMetrics.total;
+	}
+
+	/**
+	 * @param source source object
+	 * @return the metrics of each recorded level of this source, indexed by
+	 *         level + 1 (level -1 being used when the level is unknown). Levels
+	 *         without any activity are null.
+	 */
+	public CacheMetrics[] getLevels(Object source) {
+		final SourceMetrics sourceMetrics = sources.get(source);
+		if (sourceMetrics == null) return new CacheMetrics[0];
+		final CacheMetrics[] levels = sourceMetrics.levels;
+		return Arrays.copyOf(levels, levels.length);
+	}
+
+	/**
+	 * @return the sources for which metrics have been recorded
+	 */
+	public List<Object> getSources() {
+		return new ArrayList<>(sources.keySet());
+	}
+
+	/**
+	 * Sets how sources are named in the JMX summary. Sources are named with
+	 * {@link Source#getName()} by default, and with their class otherwise.
+	 *
+	 * @param sourceNamer function returning the name of a source object
+	 */
+	public void setSourceNamer(Function<Object, String> sourceNamer) {
+		this.sourceNamer = sourceNamer;
+	}
+
+	/**
+	 * @param source source object
+	 * @return the name of a {@link Source}, or the class of the object
+	 */
+	public static String defaultName(Object source) {
+		if (source instanceof Source) return ((Source<?>) source).getName();
+		return source.getClass().getSimpleName() + "@" + Integer.toHexString(System
+			.identityHashCode(source));
+	}
+
+	// ----------------- JMX attributes
+
+	@Override
+	public long getHits() {
+		return total.getHits();
+	}
+
+	@Override
+	public long getMisses() {
+		return total.getMisses();
+	}
+
+	@Override
+	public double getHitRatio() {
+		return total.getHitRatio();
+	}
+
+	@Override
+	public long getLoads() {
+		return total.getLoads();
+	}
+
+	@Override
+	public double getMeanLoadTimeMs() {
+		return total.getMeanLoadTimeMs();
+	}
+
+	@Override
+	public long[] getLoadTimeHistogram() {
+		return total.getLoadTimeHistogram();
+	}
+
+	@Override
+	public long getSizeEvictions() {
+		return total.getSizeEvictions();
+	}
+
+	@Override
+	public long getQuotaEvictions() {
+		return total.getQuotaEvictions();
+	}
+
+	@Override
+	public long getExplicitRemovals() {
+		return total.getExplicitRemovals();
+	}
+
+	@Override
+	public long getBytesIn() {
+		return total.getBytesIn();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return total.getBytesOut();
+	}
+
+	@Override
+	public String[] getSourceSummary() {
+		final List<String> lines = new ArrayList<>();
+		for (Map.Entry<Object, SourceMetrics> entry : sources.entrySet()) {
+			final String name = sourceNamer.apply(entry.getKey());
+			final SourceMetrics sourceMetrics = entry.getValue();
+			lines.add(name + " : " + sourceMetrics.total);
+			final CacheMetrics[] levels = sourceMetrics.levels;
+			for (int i = 0; i < levels.length; i++) {
+				if (levels[i] != null) lines.add(name + " [level " + (i - 1) + "] : " +
+					levels[i]);
+			}
+		}
+		return lines.toArray(new String[0]);
+	}
+
+	@Override
+	public void reset() {
+		total.reset();
+		for (SourceMetrics sourceMetrics : sources.values()) {
+			sourceMetrics.reset();
+		}
+	}
+
+	/**
+	 * Publishes metrics over JMX under {@link #OBJECT_NAME}, replacing the
+	 * ones previously published, if any.
+	 *
+	 * @param metrics metrics of the global cache
+	 */
+	public static void register(GlobalCacheMetrics metrics) {
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name)) server.unregisterMBean(name);
+			server.registerMBean(metrics, name);
+		}
+		catch (Exception e) {
+			logger.warn("Could not publish the cache metrics over JMX: " + e
+				.getMessage());
+		}
+	}
+
+	static class SourceMetrics {
+
+		final CacheMetrics total;
+
+		// Indexed by level + 1, copied on write
+		volatile CacheMetrics[] levels = new CacheMetrics[0];
+
+		SourceMetrics(CacheMetrics cacheTotal) {
+			total = new CacheMetrics(cacheTotal);
+		}
+
+		CacheMetrics forLevel(int level) {
+			final int index = Math.max(level, -1) + 1;
+			final CacheMetrics[] current = levels;
+			if ((index < current.length) && (current[index] != null))
+				return current[index];
+			synchronized (this) {
+				CacheMetrics[] copy = levels;
+				if (index >= copy.length) copy = Arrays.copyOf(copy, index + 1);
+				else if (copy[index] != null) return copy[index];
+				else copy = copy.clone();
+				copy[index] = new CacheMetrics(total);
+				levels = copy;
+				return copy[index];
+			}
+		}
+
+		void reset() {
+			total.reset();
+			for (CacheMetrics level : levels) {
+				if (level != null) level.reset();
+			}
+		}
+	}
+
+}
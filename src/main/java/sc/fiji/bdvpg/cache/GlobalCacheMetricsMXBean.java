@@ -0,0 +1,79 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.cache;
+
+/**
+ * JMX view of the {@link GlobalCacheMetrics}, published under
+ * {@link GlobalCacheMetrics#OBJECT_NAME}. Attributes are the totals of the
+ * whole cache, the per source and per level breakdown being available in
+ * {@link #getSourceSummary()}.
+ *
+ * @author Nicolas Chiaruttini
+ */
+public interface GlobalCacheMetricsMXBean {
+
+	long getHits();
+
+	long getMisses();
+
+	double getHitRatio();
+
+	long getLoads();
+
+	double getMeanLoadTimeMs();
+
+	/**
+	 * @return number of loads per duration bucket, bucket i counting the loads
+	 *         which took less than 2^i ms, see
+	 *         {@link LatencyHistogram}
+	 */
+	long[] getLoadTimeHistogram();
+
+	long getSizeEvictions();
+
+	long getQuotaEvictions();
+
+	long getExplicitRemovals();
+
+	long getBytesIn();
+
+	long getBytesOut();
+
+	/**
+	 * @return one line per source and per level of this source, with its
+	 *         metrics
+	 */
+	String[] getSourceSummary();
+
+	/**
+	 * Resets all counters
+	 */
+	void reset();
+}
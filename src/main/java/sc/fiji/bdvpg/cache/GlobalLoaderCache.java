@@ -31,22 +31,36 @@ package sc.fiji.bdvpg.cache;
 
 import net.imglib2.cache.CacheLoader;
 import net.imglib2.cache.LoaderCache;
-import net.imglib2.cache.ref.WeakRefLoaderCache;
 import sc.fiji.bdvpg.service.SourceServices;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Predicate;
 
 /**
  * LoaderCache which uses BigDataViewer-Playground global cache. See
  * {@link AbstractGlobalCache} Can be used to cache multi-timepoint
  * multi-resolution bdv {@link bdv.viewer.Source}s
+ * <p>
+ * Values are weakly referenced here (like in a
+ * {@link net.imglib2.cache.ref.WeakRefLoaderCache}): the global cache is the one
+ * keeping them alive. Each entry stores its {@link GlobalCacheKey} next to the
+ * value, so that a cache hit, which only notifies the global cache of the
+ * access ({@link AbstractGlobalCache#touch}), does not allocate anything.
+ * Hits, misses and load times are recorded in the {@link GlobalCacheMetrics}
+ * of the global cache.
  *
  * @author Nicolas Chiaruttini
  */
 public class GlobalLoaderCache<K, V> implements LoaderCache<K, V> {
 
-	private final LoaderCache<K, V> cache = new WeakRefLoaderCache<>();
+	private final ConcurrentHashMap<K, Entry> map = new ConcurrentHashMap<>();
+
+	private final ReferenceQueue<V> queue = new ReferenceQueue<>();
 
 	private final AbstractGlobalCache globalCache;
 
@@ -63,11 +77,8 @@ public class GlobalLoaderCache<K, V> implements LoaderCache<K, V> {
 	 * @param level resolution level
 	 */
 	public GlobalLoaderCache(Object source, int timepoint, int level) {
-		this.source = source;
-		this.timepoint = timepoint;
-		this.level = level;
-		globalCache = SourceServices.getSourceService()
-			.getCache();
+		this(SourceServices.getSourceService().getCache(), source, timepoint,
+			level);
 	}
 
 	/**
@@ -77,18 +88,37 @@ public class GlobalLoaderCache<K, V> implements LoaderCache<K, V> {
 	 *          belongs to
 	 */
 	public GlobalLoaderCache(Object source) {
+		this(source, -1, -1);
+	}
+
+	/**
+	 * Creates a loader cache object for a 3D rai of a source, backed by a
+	 * specific global cache
+	 *
+	 * @param globalCache global cache keeping the loaded values
+	 * @param source used in the keys of the global cache to know which object it
+	 *          belongs to
+	 * @param timepoint timepoint of the rai cached
+	 * @param level resolution level
+	 */
+	public GlobalLoaderCache(AbstractGlobalCache globalCache, Object source,
+		int timepoint, int level)
+	{
+		this.globalCache = globalCache;
 		this.source = source;
-		this.timepoint = -1;
-		this.level = -1;
-		globalCache = SourceServices.getSourceService()
-			.getCache();
+		this.timepoint = timepoint;
+		this.level = level;
 	}
 
 	@Override
 	public V getIfPresent(final K key) {
-		final V value = cache.getIfPresent(key);
-		if (value != null) globalCache.touch(BoundedLinkedHashMapGlobalCache.getKey(
-			source, timepoint, level, key), value);
+		final Entry entry = map.get(key);
+		if (entry == null) return null;
+		final V value = entry.getValue();
+		if (value != null) {
+			entry.metrics.recordHit();
+			globalCache.touch(entry.globalKey, value);
+		}
 		return value;
 	}
 
@@ -96,10 +126,89 @@ public class GlobalLoaderCache<K, V> implements LoaderCache<K, V> {
 	public V get(final K key, final CacheLoader<? super K, ? extends V> loader)
 		throws ExecutionException
 	{
-		final V value = cache.get(key, loader);
-		globalCache.put(BoundedLinkedHashMapGlobalCache.getKey(source, timepoint,
-			level, key), value);
-		return value;
+		cleanUp();
+		while (true) {
+			Entry entry = map.get(key);
+			if (entry != null) {
+				final V value = entry.getValue();
+				if (value != null) {
+					// Hit: no allocation
+					entry.metrics.recordHit();
+					globalCache.touch(entry.globalKey, value);
+					return value;
+				}
+			}
+			else {
+				entry = map.computeIfAbsent(key, Entry::new);
+			}
+			final V value = load(key, entry, loader);
+			if (value != null) return value;
+			// The entry was invalidated while waiting for its lock: starts again
+			// with a new entry
+		}
+	}
+
+	/**
+	 * Loads the value of an entry, unless it has been loaded concurrently. An
+	 * invalidation removes the entry while holding its lock (see
+	 * {@link #invalidate}): it waits for the load in progress, and a load
+	 * waiting for the lock of an invalidated entry does not put anything in the
+	 * global cache, so that a value computed before an invalidation is never
+	 * kept after it.
+	 *
+	 * @return the value, or null if the entry has been invalidated
+	 */
+	private V load(final K key, final Entry entry,
+		final CacheLoader<? super K, ? extends V> loader)
+		throws ExecutionException
+	{
+		// A lock and not a monitor: a virtual fetcher thread waiting for a slow
+		// load then releases its carrier thread (see ViewerAwareSharedQueue)
+		entry.loadLock.lock();
+		try {
+			if (map.get(key) != entry) return null;
+			V value = entry.getValue();
+			if (value != null) { // Loaded concurrently
+				entry.metrics.recordHit();
+				globalCache.touch(entry.globalKey, value);
+				return value;
+			}
+			entry.metrics.recordMiss();
+			// The value may have been demoted off-heap by the global cache: in this
+			// case it is promoted back (and put in the heap cache) instead of being
+			// loaded again. Only the off-heap tier is read: a value on the heap
+			// with no entry here may be left over by an invalidation
+			@SuppressWarnings("unchecked")
+			final V promoted = (V) globalCache.promote(entry.globalKey);
+			if (promoted != null) {
+				entry.setValue(promoted);
+				return promoted;
+			}
+			final long loadTimeNanos;
+			try {
+				final long start = System.nanoTime();
+				value = loader.get(key);
+				loadTimeNanos = System.nanoTime() - start;
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ExecutionException(e);
+			}
+			catch (final Exception e) {
+				throw new ExecutionException(e);
+			}
+			entry.metrics.recordLoad(loadTimeNanos);
+			// Time spent in the shared queue, if loaded by one of its fetchers
+			final long queueWaitNanos = QueueMetrics.consumeCurrentWait();
+			if (queueWaitNanos >= 0) entry.metrics.recordQueueWait(queueWaitNanos);
+			entry.setValue(value);
+			// The load time is used by cost aware caches
+			globalCache.put(entry.globalKey, value, loadTimeNanos);
+			return value;
+		}
+		finally {
+			entry.loadLock.unlock();
+		}
 	}
 
 	@Override
@@ -113,23 +222,111 @@ public class GlobalLoaderCache<K, V> implements LoaderCache<K, V> {
 
 	@Override
 	public void invalidate(final K key) {
-		cache.invalidate(key);
-		globalCache.invalidate(BoundedLinkedHashMapGlobalCache.getKey(source,
-			timepoint, level, key));
+		final Entry entry = map.get(key);
+		if (entry != null) {
+			// Waits for a load in progress: it would otherwise put its value,
+			// possibly computed from outdated data, back in the global cache
+			entry.loadLock.lock();
+			try {
+				map.remove(key, entry);
+				entry.clear();
+				globalCache.invalidate(entry.globalKey);
+			}
+			finally {
+				entry.loadLock.unlock();
+			}
+		}
+		else {
+			globalCache.invalidate(BoundedLinkedHashMapGlobalCache.getKey(source,
+				timepoint, level, key));
+		}
 	}
 
 	@Override
 	public void invalidateIf(final long parallelismThreshold,
 		final Predicate<K> condition)
 	{
-		cache.invalidateIf(parallelismThreshold, condition);
-		globalCache.invalidateIf(BoundedLinkedHashMapGlobalCache.getCondition(
-			source, timepoint, level, condition));
+		// Waits for the loads in progress, as in invalidate
+		for (final Entry entry : new ArrayList<>(map.values())) {
+			if (!condition.test(entry.key)) continue;
+			entry.loadLock.lock();
+			try {
+				map.remove(entry.key, entry);
+				entry.clear();
+			}
+			finally {
+				entry.loadLock.unlock();
+			}
+		}
+		// Only visits the keys of this source, see GlobalCacheIndex
+		globalCache.invalidateIf(source, timepoint, level,
+			BoundedLinkedHashMapGlobalCache.getCondition(source, timepoint, level,
+				condition));
 	}
 
 	@Override
 	public void invalidateAll(final long parallelismThreshold) {
-		cache.invalidateAll(parallelismThreshold);
+		invalidateIf(parallelismThreshold, key -> true);
+	}
+
+	/**
+	 * Removes the entries whose value has been garbage collected
+	 */
+	private void cleanUp() {
+		Object ref;
+		while ((ref = queue.poll()) != null) {
+			((CacheWeakReference) ref).clean();
+		}
+	}
+
+	final class Entry {
+
+		final K key;
+
+		final GlobalCacheKey globalKey;
+
+		// Resolved once, so that hits are recorded without any lookup
+		final CacheMetrics metrics;
+
+		final ReentrantLock loadLock = new ReentrantLock();
+
+		private CacheWeakReference ref;
+
+		Entry(final K key) {
+			this.key = key;
+			this.globalKey = BoundedLinkedHashMapGlobalCache.getKey(source, timepoint,
+				level, key);
+			this.metrics = globalCache.getMetrics().forKey(globalKey);
+		}
+
+		V getValue() {
+			final CacheWeakReference r = ref;
+			return r == null ? null : r.get();
+		}
+
+		void setValue(final V value) {
+			ref = new CacheWeakReference(value, this);
+		}
+
+		void clear() {
+			final CacheWeakReference r = ref;
+			if (r != null) r.clear();
+		}
+	}
+
+	final class CacheWeakReference extends WeakReference<V> {
+
+		private final Entry entry;
+
+		CacheWeakReference(final V referent, final Entry entry) {
+			super(referent, queue);
+			this.entry = entry;
+		}
+
+		void clean() {
+			// The entry may have been reloaded since
+			if (entry.ref == this) map.remove(entry.key, entry);
+		}
 	}
 
 }
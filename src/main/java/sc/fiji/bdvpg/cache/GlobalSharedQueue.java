@@ -29,35 +29,59 @@
 
 package sc.fiji.bdvpg.cache;
 
+import bdv.AbstractSpimSource;
 import bdv.cache.SharedQueue;
+import bdv.img.WarpedSource;
+import bdv.tools.transformation.TransformedSource;
+import bdv.viewer.Source;
 
 /**
- * Holder for a single, process-wide {@link SharedQueue} shared by all lazily
+ * Holder for the process-wide {@link SharedQueue}s shared by all lazily
  * computed volatile sources created by BigDataViewer-Playground (and, ideally,
  * by downstream libraries building lazy {@link bdv.viewer.Source}s on top of
  * it).
  * <p>
- * <b>Why a single queue?</b> A {@link SharedQueue} owns a fixed pool of daemon
+ * <b>Why shared queues?</b> A {@link SharedQueue} owns a fixed pool of daemon
  * fetcher threads that are started immediately in its constructor and never
  * reclaimed unless {@link SharedQueue#shutdown()} is called. Creating one queue
  * per source (the historical behaviour of {@code SourceResampler} and
  * {@code WrapVolatileSource}) therefore spawned {@code availableProcessors-1}
- * threads per source and leaked them. Sharing one queue keeps the fetcher
- * thread count bounded regardless of how many sources are created, which is
- * exactly what the class name ("shared") implies.
+ * threads per source and leaked them. Sharing queues keeps the fetcher thread
+ * count bounded regardless of how many sources are created, which is exactly
+ * what the class name ("shared") implies.
  * <p>
- * <b>Is a single queue safe for nested lazy pipelines?</b> Yes. A fetcher
+ * <b>Two pools.</b> Blocks read from disk or from the network (HDF5, N5,
+ * ...) spend most of their time waiting, while computed blocks (resampled or
+ * wrapped sources) keep a core busy. They are fetched by two separate pools,
+ * see {@link Pool}, with independent numbers of threads: a burst of expensive
+ * computed blocks no longer delays the loading of raw data, and the I/O pool
+ * can be given more threads than there are cores without oversubscribing the
+ * CPU with computations. {@link #getInstanceFor(Source)} picks the pool of a
+ * source: sources backed by an image loader use the {@link Pool#IO} pool, all
+ * other sources the {@link Pool#COMPUTE} one.
+ * <p>
+ * <b>Virtual threads.</b> With Java 21 or later, the fetchers of a pool can
+ * be virtual threads, see {@link #setVirtualThreads}. This is meant for the
+ * {@link Pool#IO} pool with data on high latency storage: fetchers blocked in
+ * reads no longer hold a platform thread, and their number, which then limits
+ * the reads in flight, can be much larger than the number of cores.
+ * <p>
+ * <b>Are shared queues safe for nested lazy pipelines?</b> Yes. A fetcher
  * thread that picks up a fetch task loads it <em>synchronously</em>
  * (BLOCKING strategy) and recurses through the BLOCKING reads of all upstream
- * sources on that same thread; it never re-enqueues-and-waits on the queue. The
- * only way to provoke a thread-starvation deadlock is to write a loader that,
- * while running on the queue, blocks waiting for another result that itself
- * needs a free fetcher thread of the same queue. Don't do that: inside a cell
- * loader always read upstream data through the blocking (non-volatile)
- * accessor. If a stage genuinely must wait on asynchronous results, give it its
- * own dedicated {@link SharedQueue} instead of this shared one.
+ * sources on that same thread; it never re-enqueues-and-waits on a queue. In
+ * particular, a compute fetcher reading raw data reads it itself, it does not
+ * wait for a free thread of the I/O pool (it may only wait for a load of the
+ * same block already running on an I/O fetcher, which never waits on the
+ * compute pool). The only way to provoke a thread-starvation deadlock is to
+ * write a loader that, while running on a queue, blocks waiting for another
+ * result that itself needs a free fetcher thread of the same queue. Don't do
+ * that: inside a cell loader always read upstream data through the blocking
+ * (non-volatile) accessor. If a stage genuinely must wait on asynchronous
+ * results, give it its own dedicated {@link SharedQueue} instead of a shared
+ * one.
  * <p>
- * <b>numPriorities.</b> The queue keeps one FIFO/LIFO deque per priority level
+ * <b>numPriorities.</b> A queue keeps one FIFO/LIFO deque per priority level
  * (0 = highest); BigDataViewer's renderer requests data with a priority equal
  * to the mipmap/resolution level being drawn, so coarse levels load before fine
  * ones. The default here is deliberately generous so that realistic multi
@@ -66,11 +90,22 @@ import bdv.cache.SharedQueue;
  * configured maximum are clamped, so over-provisioning costs only a few empty
  * deques.
  * <p>
- * The instance is created lazily on first {@link #getInstance()}. Applications
- * that want a different configuration should call {@link #setInstance} or
- * {@link #set} <em>once, at startup, before any lazy source is created</em>;
- * replacing the queue shuts the previous one down, which would break sources
- * already fetching through it.
+ * <b>Viewers.</b> The default queues are {@link ViewerAwareSharedQueue}s: the
+ * requests of each BigDataViewer window are scheduled separately, the ones of
+ * the frame currently displayed first, and fetcher threads are shared fairly
+ * between windows.
+ * <p>
+ * Each queue is created lazily on first {@link #getInstance(Pool)}. Its number
+ * of fetcher threads and of priorities can be changed at any time with
+ * {@link #set(Pool, int, int)}, which resizes the current queue in place:
+ * sources already fetching through it are not affected.
+ * {@link #setInstance(Pool, SharedQueue)}, on the contrary, replaces the queue
+ * and shuts the previous one down, which would break sources already fetching
+ * through it: call it <em>once, at startup, before any lazy source is
+ * created</em>.
+ * <p>
+ * The methods without a {@link Pool} argument act on the {@link Pool#IO}
+ * pool.
  *
  * @author Nicolas Chiaruttini
  */
@@ -78,63 +113,255 @@ public class GlobalSharedQueue {
 
 	private GlobalSharedQueue() {}
 
-	/** Default number of fetcher threads of the shared queue. */
+	/**
+	 * Fetcher pools.
+	 */
+	public enum Pool {
+
+		/** Pool for blocks read by image loaders (disk or network bound) */
+		IO("bdvpg-fetcher", QueueMetrics.OBJECT_NAME),
+
+		/** Pool for blocks computed from other sources (CPU bound) */
+		COMPUTE("bdvpg-compute-fetcher", QueueMetrics.OBJECT_NAME +
+			",pool=compute");
+
+		final String threadName;
+
+		final String objectName;
+
+		Pool(String threadName, String objectName) {
+			this.threadName = threadName;
+			this.objectName = objectName;
+		}
+	}
+
+	/** Default number of fetcher threads of the I/O queue. */
 	public static int DEFAULT_NUM_FETCHER_THREADS = Math.max(Runtime.getRuntime()
 		.availableProcessors() - 1, 1);
 
+	/** Default number of fetcher threads of the compute queue. */
+	public static int DEFAULT_NUM_COMPUTE_THREADS = Math.max(Runtime
+		.getRuntime().availableProcessors() - 1, 1);
+
 	/**
-	 * Default number of priority levels of the shared queue. Generous on
+	 * Default number of fetches in flight when the fetchers are virtual
+	 * threads.
+	 */
+	public static int DEFAULT_NUM_VIRTUAL_FETCHER_THREADS = 256;
+
+	/**
+	 * Default number of priority levels of the shared queues. Generous on
 	 * purpose: it only needs to cover the deepest mipmap pyramid in use, and
 	 * extra levels are cheap (one empty deque each).
 	 */
 	public static int DEFAULT_NUM_PRIORITIES = 16;
 
-	private static volatile SharedQueue instance;
+	private static final SharedQueue[] instances = new SharedQueue[Pool
+		.values().length];
 
 	/**
-	 * @return the shared queue, creating a default one on first access.
+	 * @return the I/O shared queue, creating a default one on first access.
 	 */
 	public static SharedQueue getInstance() {
-		SharedQueue local = instance;
-		if (local == null) {
-			synchronized (GlobalSharedQueue.class) {
-				local = instance;
-				if (local == null) {
-					local = new SharedQueue(DEFAULT_NUM_FETCHER_THREADS,
-						DEFAULT_NUM_PRIORITIES);
-					instance = local;
-				}
+		return getInstance(Pool.IO);
+	}
+
+	/**
+	 * @return the compute shared queue, creating a default one on first access.
+	 */
+	public static SharedQueue getComputeInstance() {
+		return getInstance(Pool.COMPUTE);
+	}
+
+	/**
+	 * @param pool fetcher pool
+	 * @return the shared queue of this pool, creating a default one on first
+	 *         access.
+	 */
+	public static synchronized SharedQueue getInstance(Pool pool) {
+		SharedQueue queue = instances[pool.ordinal()];
+		if (queue == null) {
+			queue = new ViewerAwareSharedQueue(pool.threadName, pool == Pool.IO
+				? DEFAULT_NUM_FETCHER_THREADS : DEFAULT_NUM_COMPUTE_THREADS,
+				DEFAULT_NUM_PRIORITIES);
+			registerMetrics(pool, queue);
+			instances[pool.ordinal()] = queue;
+		}
+		return queue;
+	}
+
+	/**
+	 * @param source source to fetch
+	 * @return the shared queue of the I/O pool if the source reads its data
+	 *         from an image loader, of the compute pool otherwise
+	 */
+	public static SharedQueue getInstanceFor(Source<?> source) {
+		return getInstance(getPoolFor(source));
+	}
+
+	/**
+	 * @param source source to fetch
+	 * @return {@link Pool#IO} if the source reads its data from an image
+	 *         loader, possibly through transformed or warped views, which are
+	 *         not cached, {@link Pool#COMPUTE} otherwise
+	 */
+	public static Pool getPoolFor(Source<?> source) {
+		while (true) {
+			if (source instanceof TransformedSource) {
+				source = ((TransformedSource<?>) source).getWrappedSource();
+			}
+			else if (source instanceof WarpedSource) {
+				source = ((WarpedSource<?>) source).getWrappedSource();
 			}
+			else break;
 		}
-		return local;
+		return source instanceof AbstractSpimSource ? Pool.IO : Pool.COMPUTE;
+	}
+
+	/**
+	 * Installs a pre-configured I/O shared queue, see
+	 * {@link #setInstance(Pool, SharedQueue)}.
+	 *
+	 * @param queue the queue to share globally
+	 */
+	public static void setInstance(SharedQueue queue) {
+		setInstance(Pool.IO, queue);
 	}
 
 	/**
 	 * Installs a pre-configured shared queue, shutting down the previously held
 	 * one (if any). Call once at startup, before any lazy source is created.
 	 *
+	 * @param pool fetcher pool
 	 * @param queue the queue to share globally
 	 */
-	public static synchronized void setInstance(SharedQueue queue) {
+	public static synchronized void setInstance(Pool pool, SharedQueue queue) {
 		if (queue == null) {
 			throw new IllegalArgumentException(
 				"The global shared queue cannot be null.");
 		}
-		SharedQueue old = instance;
-		instance = queue;
+		SharedQueue old = instances[pool.ordinal()];
+		registerMetrics(pool, queue);
+		instances[pool.ordinal()] = queue;
 		if (old != null && old != queue) {
 			old.shutdown();
 		}
 	}
 
 	/**
-	 * Convenience for {@link #setInstance(SharedQueue)} that builds the queue
-	 * from a thread and priority count.
+	 * Sets the number of fetcher threads and of priorities of the I/O shared
+	 * queue, see {@link #set(Pool, int, int)}.
+	 *
+	 * @param numFetcherThreads number of fetcher (daemon) threads
+	 * @param numPriorities number of priority levels (0 = highest)
+	 */
+	public static void set(int numFetcherThreads, int numPriorities) {
+		set(Pool.IO, numFetcherThreads, numPriorities);
+	}
+
+	/**
+	 * Sets the number of fetcher threads and of priorities of a shared queue. A
+	 * {@link ViewerAwareSharedQueue} is resized live, any other queue is
+	 * replaced by a new {@link ViewerAwareSharedQueue} (see
+	 * {@link #setInstance(Pool, SharedQueue)}).
 	 *
+	 * @param pool fetcher pool
 	 * @param numFetcherThreads number of fetcher (daemon) threads
 	 * @param numPriorities number of priority levels (0 = highest)
 	 */
-	public static synchronized void set(int numFetcherThreads, int numPriorities) {
-		setInstance(new SharedQueue(numFetcherThreads, numPriorities));
+	public static synchronized void set(Pool pool, int numFetcherThreads,
+		int numPriorities)
+	{
+		SharedQueue instance = instances[pool.ordinal()];
+		if (instance instanceof ViewerAwareSharedQueue) {
+			ViewerAwareSharedQueue queue = (ViewerAwareSharedQueue) instance;
+			queue.setNumFetcherThreads(numFetcherThreads);
+			queue.setNumPriorities(numPriorities);
+		}
+		else {
+			setInstance(pool, new ViewerAwareSharedQueue(pool.threadName,
+				numFetcherThreads, numPriorities));
+		}
+	}
+
+	/**
+	 * @return true if fetchers can run on virtual threads, that is with Java 21
+	 *         or later
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		return VirtualThreads.isSupported();
+	}
+
+	/**
+	 * Switches the fetchers of a shared queue between platform and virtual
+	 * threads, and sets their number. With virtual threads, the number of
+	 * fetchers is the maximal number of fetches in flight. A
+	 * {@link ViewerAwareSharedQueue} is switched live, any other queue is
+	 * replaced by a new {@link ViewerAwareSharedQueue} (see
+	 * {@link #setInstance(Pool, SharedQueue)}).
+	 *
+	 * @param pool fetcher pool, normally {@link Pool#IO}
+	 * @param virtualThreads true for virtual threads, false for platform threads
+	 * @param numFetcherThreads number of fetcher threads, that is of fetches in
+	 *          flight
+	 * @throws UnsupportedOperationException if virtual threads are requested
+	 *           but not supported by this Java runtime (before Java 21)
+	 */
+	public static synchronized void setVirtualThreads(Pool pool,
+		boolean virtualThreads, int numFetcherThreads)
+	{
+		SharedQueue instance = getInstance(pool);
+		if (instance instanceof ViewerAwareSharedQueue) {
+			ViewerAwareSharedQueue queue = (ViewerAwareSharedQueue) instance;
+			queue.setVirtualThreads(virtualThreads);
+			queue.setNumFetcherThreads(numFetcherThreads);
+		}
+		else {
+			ViewerAwareSharedQueue queue = new ViewerAwareSharedQueue(
+				pool.threadName, 0, instance.getNumPriorities());
+			queue.setVirtualThreads(virtualThreads);
+			queue.setNumFetcherThreads(numFetcherThreads);
+			setInstance(pool, queue);
+		}
+	}
+
+	/**
+	 * @param pool fetcher pool
+	 * @return true if the fetchers of the shared queue of this pool are virtual
+	 *         threads
+	 */
+	public static boolean isVirtualThreads(Pool pool) {
+		SharedQueue queue = getInstance(pool);
+		return (queue instanceof ViewerAwareSharedQueue) &&
+			((ViewerAwareSharedQueue) queue).isVirtualThreads();
+	}
+
+	/**
+	 * @return the number of fetcher threads of the I/O shared queue, or -1 if it
+	 *         is not known (queue not created by this class)
+	 */
+	public static int getNumFetcherThreads() {
+		return getNumFetcherThreads(Pool.IO);
+	}
+
+	/**
+	 * @param pool fetcher pool
+	 * @return the number of fetcher threads of the shared queue of this pool, or
+	 *         -1 if it is not known (queue not created by this class)
+	 */
+	public static int getNumFetcherThreads(Pool pool) {
+		SharedQueue queue = getInstance(pool);
+		if (queue instanceof ViewerAwareSharedQueue) {
+			return ((ViewerAwareSharedQueue) queue).getNumFetcherThreads();
+		}
+		return -1;
+	}
+
+	// Publishes the queue metrics over JMX, see QueueMetrics
+	private static void registerMetrics(Pool pool, SharedQueue queue) {
+		if (queue instanceof ViewerAwareSharedQueue) {
+			QueueMetrics.register(((ViewerAwareSharedQueue) queue).getMetrics(),
+				pool.objectName);
+		}
 	}
 }
@@ -0,0 +1,116 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations, with power of two millisecond buckets: bucket i
+ * counts the durations shorter than 2^i ms (and longer than 2^(i-1) ms), the
+ * last bucket counts all longer durations. Recording does not allocate.
+ *
+ * @author Nicolas Chiaruttini
+ */
+public class LatencyHistogram {
+
+	/** Number of buckets */
+	public static final int BUCKETS = 16;
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder sumNanos = new LongAdder();
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * @param nanos duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		count.increment();
+		sumNanos.add(nanos);
+		buckets[bucketOf(nanos)].increment();
+	}
+
+	static int bucketOf(long nanos) {
+		final long ms = Math.max(nanos, 0) / 1_000_000;
+		final int bucket = 64 - Long.numberOfLeadingZeros(ms);
+		return Math.min(bucket, BUCKETS - 1);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public double getMeanMs() {
+		final long n = getCount();
+		return n == 0 ? 0 : sumNanos.sum() / 1e6 / n;
+	}
+
+	/**
+	 * @return number of durations per bucket
+	 */
+	public long[] getBuckets() {
+		final long[] histogram = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			histogram[i] = buckets[i].sum();
+		}
+		return histogram;
+	}
+
+	void reset() {
+		count.reset();
+		sumNanos.reset();
+		for (LongAdder bucket : buckets)
+			bucket.reset();
+	}
+
+	/**
+	 * @return the non empty buckets, as "&lt;1ms:12 &lt;2ms:3 ..."
+	 */
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder();
+		final long[] histogram = getBuckets();
+		for (int i = 0; i < BUCKETS; i++) {
+			if (histogram[i] == 0) continue;
+			if (builder.length() > 0) builder.append(' ');
+			builder.append(i == BUCKETS - 1 ? ">=" : "<").append(1L << (i == BUCKETS -
+				1 ? i - 1 : i)).append("ms:").append(histogram[i]);
+		}
+		return builder.toString();
+	}
+
+}
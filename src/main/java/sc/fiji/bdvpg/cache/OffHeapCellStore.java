@@ -0,0 +1,353 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.cache;
+
+import net.imglib2.img.basictypeaccess.VolatileAccess;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.cell.Cell;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Second level, off-heap, tier of the {@link AbstractGlobalCache}. Cells
+ * evicted from the on-heap cache because of its memory bound are copied
+ * ("demoted") into direct {@link ByteBuffer}s, which do not count against the
+ * JVM heap. When the same key is requested again, the cell is rebuilt on the
+ * heap ("promoted") from its off-heap copy instead of being reloaded from disk
+ * or recomputed.
+ * <p>
+ * Only {@link Cell}s backed by a primitive {@link ArrayDataAccess} (byte,
+ * short, int, float, long or double arrays) are demoted. Volatile accesses
+ * which are not valid yet are ignored, so are {@link EmptyCell}s and any
+ * other cached objects. The store has its own byte budget, independent of the
+ * on-heap one, and is trimmed in least recently used order. A budget of 0
+ * disables the tier.
+ * <p>
+ * Note that direct memory is bounded by the JVM option
+ * {@code -XX:MaxDirectMemorySize} (which defaults to the maximal heap size),
+ * and is only given back to the system when the evicted buffers are garbage
+ * collected.
+ *
+ * @author Nicolas Chiaruttini
+ */
+public class OffHeapCellStore {
+
+	final static Logger logger = LoggerFactory.getLogger(OffHeapCellStore.class);
+
+	/** Number of dimensions probed first, see {@link #getDimensions} */
+	final static int PROBED_DIMENSIONS = 5;
+
+	private long maxCost;
+
+	private long cost;
+
+	private final LinkedHashMap<GlobalCacheKey, OffHeapCell> cells =
+		new LinkedHashMap<>(100, 0.75f, true);
+
+	/**
+	 * One empty access per access class, used as a factory to rebuild accesses
+	 * of the exact same class (volatile, dirty...) on promotion.
+	 */
+	private final Map<Class<?>, ArrayDataAccess<?>> prototypes = new HashMap<>();
+
+	OffHeapCellStore(long maxCost) {
+		this.maxCost = maxCost;
+	}
+
+	public synchronized long getMaxCost() {
+		return maxCost;
+	}
+
+	public synchronized long getCost() {
+		return cost;
+	}
+
+	public synchronized boolean isEnabled() {
+		return maxCost > 0;
+	}
+
+	synchronized void setMaxCost(long maxCost) {
+		this.maxCost = maxCost;
+		trimToCost();
+	}
+
+	/**
+	 * Copies the data of a cell evicted from the heap into a direct buffer.
+	 * Does nothing if the store is disabled or if the value can't be demoted.
+	 *
+	 * @param key global cache key of the evicted value
+	 * @param value evicted value
+	 */
+	void demote(GlobalCacheKey key, Object value) {
+		if (!isEnabled()) return;
+		if (!(value instanceof Cell)) return;
+		if (value instanceof EmptyCell) return;
+		final Cell<?> cell = (Cell<?>) value;
+		final Object data = cell.getData();
+		if (!(data instanceof ArrayDataAccess)) return;
+		if ((data instanceof VolatileAccess) && (!((VolatileAccess) data)
+			.isValid())) return;
+
+		final ArrayDataAccess<?> access = (ArrayDataAccess<?>) data;
+		final Object array = access.getCurrentStorageArray();
+		final ByteBuffer buffer;
+
+		// The copy is done outside the lock: it is the costly part
+		if (array instanceof byte[]) {
+			final byte[] a = (byte[]) array;
+			buffer = allocate(a.length);
+			buffer.duplicate().put(a);
+		}
+		else if (array instanceof short[]) {
+			final short[] a = (short[]) array;
+			buffer = allocate(2L * a.length);
+			buffer.asShortBuffer().put(a);
+		}
+		else if (array instanceof int[]) {
+			final int[] a = (int[]) array;
+			buffer = allocate(4L * a.length);
+			buffer.asIntBuffer().put(a);
+		}
+		else if (array instanceof float[]) {
+			final float[] a = (float[]) array;
+			buffer = allocate(4L * a.length);
+			buffer.asFloatBuffer().put(a);
+		}
+		else if (array instanceof long[]) {
+			final long[] a = (long[]) array;
+			buffer = allocate(8L * a.length);
+			buffer.asLongBuffer().put(a);
+		}
+		else if (array instanceof double[]) {
+			final double[] a = (double[]) array;
+			buffer = allocate(8L * a.length);
+			buffer.asDoubleBuffer().put(a);
+		}
+		else {
+			return;
+		}
+
+		if (buffer == null) return; // Too big or direct memory exhausted
+
+		final int[] dimensions = getDimensions(cell);
+		final long[] min = new long[dimensions.length];
+		cell.min(min);
+
+		synchronized (this) {
+			if (!prototypes.containsKey(access.getClass())) {
+				prototypes.put(access.getClass(), (ArrayDataAccess<?>) access
+					.createArray(0));
+			}
+			final OffHeapCell previous = cells.put(key, new OffHeapCell(buffer,
+				access.getClass(), dimensions, min));
+			if (previous != null) cost -= previous.buffer.capacity();
+			cost += buffer.capacity();
+			trimToCost();
+		}
+	}
+
+	/**
+	 * Rebuilds on the heap a cell previously demoted, and removes it from the
+	 * off-heap store.
+	 *
+	 * @param key global cache key
+	 * @return the rebuilt cell, or null if the key is not stored off-heap
+	 */
+	Object promote(GlobalCacheKey key) {
+		final OffHeapCell offHeapCell;
+		final ArrayDataAccess<?> prototype;
+		synchronized (this) {
+			if (cells.isEmpty()) return null;
+			offHeapCell = cells.remove(key);
+			if (offHeapCell == null) return null;
+			cost -= offHeapCell.buffer.capacity();
+			prototype = prototypes.get(offHeapCell.accessClass);
+		}
+
+		final ByteBuffer buffer = offHeapCell.buffer;
+		final int bytes = buffer.capacity();
+		final ArrayDataAccess<?> access;
+		final Object array;
+		final Object sample = prototype.getCurrentStorageArray();
+		if (sample instanceof byte[]) {
+			access = (ArrayDataAccess<?>) prototype.createArray(bytes);
+			array = access.getCurrentStorageArray();
+			buffer.duplicate().get((byte[]) array);
+		}
+		else if (sample instanceof short[]) {
+			access = (ArrayDataAccess<?>) prototype.createArray(bytes / 2);
+			array = access.getCurrentStorageArray();
+			buffer.asShortBuffer().get((short[]) array);
+		}
+		else if (sample instanceof int[]) {
+			access = (ArrayDataAccess<?>) prototype.createArray(bytes / 4);
+			array = access.getCurrentStorageArray();
+			buffer.asIntBuffer().get((int[]) array);
+		}
+		else if (sample instanceof float[]) {
+			access = (ArrayDataAccess<?>) prototype.createArray(bytes / 4);
+			array = access.getCurrentStorageArray();
+			buffer.asFloatBuffer().get((float[]) array);
+		}
+		else if (sample instanceof long[]) {
+			access = (ArrayDataAccess<?>) prototype.createArray(bytes / 8);
+			array = access.getCurrentStorageArray();
+			buffer.asLongBuffer().get((long[]) array);
+		}
+		else { // double[], other arrays are never demoted
+			access = (ArrayDataAccess<?>) prototype.createArray(bytes / 8);
+			array = access.getCurrentStorageArray();
+			buffer.asDoubleBuffer().get((double[]) array);
+		}
+
+		return new Cell<>(offHeapCell.dimensions, offHeapCell.min, access);
+	}
+
+	synchronized void invalidate(GlobalCacheKey key) {
+		if (cells.isEmpty()) return;
+		final OffHeapCell offHeapCell = cells.remove(key);
+		if (offHeapCell != null) cost -= offHeapCell.buffer.capacity();
+	}
+
+	synchronized void invalidateIf(Predicate<GlobalCacheKey> condition) {
+		final Iterator<Map.Entry<GlobalCacheKey, OffHeapCell>> it = cells
+			.entrySet().iterator();
+		while (it.hasNext()) {
+			final Map.Entry<GlobalCacheKey, OffHeapCell> e = it.next();
+			if (condition.test(e.getKey())) {
+				cost -= e.getValue().buffer.capacity();
+				it.remove();
+			}
+		}
+	}
+
+	synchronized void invalidateAll() {
+		cells.clear();
+		cost = 0;
+	}
+
+	/**
+	 * Evicts least recently demoted or promoted cells until the store fits in
+	 * its budget. Keys whose source has been garbage collected can't be
+	 * requested anymore: they are evicted first. Must be called while holding
+	 * this monitor.
+	 */
+	private void trimToCost() {
+		if (cost <= maxCost) return;
+		cells.entrySet().removeIf(e -> {
+			if (e.getKey().getSource() == null) {
+				cost -= e.getValue().buffer.capacity();
+				return true;
+			}
+			return false;
+		});
+		final Iterator<OffHeapCell> it = cells.values().iterator();
+		while (cost > maxCost && it.hasNext()) {
+			cost -= it.next().buffer.capacity();
+			it.remove();
+		}
+	}
+
+	/**
+	 * {@link Cell} does not expose its number of dimensions: it is retrieved by
+	 * letting the cell fill an array pre-filled with an invalid (negative) size.
+	 * The array is enlarged if the cell has more dimensions than it can hold.
+	 */
+	private static int[] getDimensions(Cell<?> cell) {
+		for (int probed = PROBED_DIMENSIONS;; probed *= 2) {
+			final int[] dimensions = new int[probed];
+			Arrays.fill(dimensions, -1);
+			try {
+				cell.dimensions(dimensions);
+			}
+			catch (ArrayIndexOutOfBoundsException e) {
+				continue; // More dimensions than probed
+			}
+			int n = 0;
+			while ((n < probed) && (dimensions[n] >= 0))
+				n++;
+			return Arrays.copyOf(dimensions, n);
+		}
+	}
+
+	private ByteBuffer allocate(long nBytes) {
+		if ((nBytes > Integer.MAX_VALUE) || (nBytes > getMaxCost())) return null;
+		try {
+			return ByteBuffer.allocateDirect((int) nBytes).order(ByteOrder
+				.nativeOrder());
+		}
+		catch (OutOfMemoryError e) {
+			logger.warn("Could not allocate " + nBytes +
+				" bytes of direct memory, cell not demoted off-heap: " + e
+					.getMessage());
+			return null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		final long c, max;
+		synchronized (this) {
+			c = cost;
+			max = maxCost;
+		}
+		return "Off-heap : " + (c / (1024 * 1024)) + " Mb (" + (int) (100.0 *
+			(double) c / (double) max) + " %)";
+	}
+
+	private static class OffHeapCell {
+
+		final ByteBuffer buffer;
+
+		final Class<?> accessClass;
+
+		final int[] dimensions;
+
+		final long[] min;
+
+		OffHeapCell(ByteBuffer buffer, Class<?> accessClass, int[] dimensions,
+			long[] min)
+		{
+			this.buffer = buffer;
+			this.accessClass = accessClass;
+			this.dimensions = dimensions;
+			this.min = min;
+		}
+	}
+}
@@ -0,0 +1,268 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Activity metrics of a {@link ViewerAwareSharedQueue}: depth, time spent
+ * waiting in the queue (from enqueue to start) and execution time, per
+ * priority. They are recorded by the fetcher threads, and published over JMX
+ * (see {@link #register}) next to the {@link GlobalCacheMetrics}.
+ * <p>
+ * The wait time of a fetch is also attributed to the source it loads: the
+ * first {@link GlobalLoaderCache} load done by a fetch records it in the
+ * {@link CacheMetrics} of its source and level (see
+ * {@link #consumeCurrentWait()}).
+ *
+ * @author Nicolas Chiaruttini
+ */
+public class QueueMetrics implements QueueMetricsMXBean {
+
+	final static Logger logger = LoggerFactory.getLogger(QueueMetrics.class);
+
+	/**
+	 * Name under which the metrics of the global I/O shared queue are published
+	 * over JMX (the ones of the compute queue add ",pool=compute")
+	 */
+	public static final String OBJECT_NAME = "sc.fiji.bdvpg:type=SharedQueue";
+
+	// Wait time of the fetch run by the current thread, -1 if none or consumed
+	private static final ThreadLocal<long[]> currentWait = ThreadLocal
+		.withInitial(() -> new long[] { -1 });
+
+	private final ViewerAwareSharedQueue queue;
+
+	private final LatencyHistogram waits = new LatencyHistogram();
+
+	private final LatencyHistogram executions = new LatencyHistogram();
+
+	// Copied on resize, see ViewerAwareSharedQueue#setNumPriorities
+	private volatile LatencyHistogram[] waitsPerPriority =
+		new LatencyHistogram[0];
+
+	private volatile LatencyHistogram[] executionsPerPriority =
+		new LatencyHistogram[0];
+
+	QueueMetrics(ViewerAwareSharedQueue queue, int numPriorities) {
+		this.queue = queue;
+		setNumPriorities(numPriorities);
+	}
+
+	synchronized void setNumPriorities(int numPriorities) {
+		final LatencyHistogram[] newWaits = Arrays.copyOf(waitsPerPriority,
+			numPriorities);
+		final LatencyHistogram[] newExecutions = Arrays.copyOf(
+			executionsPerPriority, numPriorities);
+		for (int i = 0; i < numPriorities; i++) {
+			if (newWaits[i] == null) newWaits[i] = new LatencyHistogram();
+			if (newExecutions[i] == null) newExecutions[i] = new LatencyHistogram();
+		}
+		waitsPerPriority = newWaits;
+		executionsPerPriority = newExecutions;
+	}
+
+	// A request may have been enqueued before the number of priorities shrank
+	private static LatencyHistogram get(LatencyHistogram[] histograms,
+		int priority)
+	{
+		return histograms[Math.min(priority, histograms.length - 1)];
+	}
+
+	void recordWait(int priority, long nanos) {
+		waits.record(nanos);
+		get(waitsPerPriority, priority).record(nanos);
+		currentWait.get()[0] = nanos;
+	}
+
+	void recordExecution(int priority, long nanos) {
+		executions.record(nanos);
+		get(executionsPerPriority, priority).record(nanos);
+		currentWait.get()[0] = -1;
+	}
+
+	/**
+	 * @return the time spent in the queue by the fetch run by the calling
+	 *         thread, or -1 if it is not a fetcher thread or if this time has
+	 *         already been consumed during this fetch
+	 */
+	public static long consumeCurrentWait() {
+		final long[] wait = currentWait.get();
+		final long nanos = wait[0];
+		wait[0] = -1;
+		return nanos;
+	}
+
+	/**
+	 * @return time from enqueue to start, all priorities
+	 */
+	public LatencyHistogram getWaits() {
+		return waits;
+	}
+
+	/**
+	 * @return execution time, all priorities
+	 */
+	public LatencyHistogram getExecutions() {
+		return executions;
+	}
+
+	/**
+	 * @param priority priority (0 = highest)
+	 * @return time from enqueue to start of the fetches of this priority
+	 */
+	public LatencyHistogram getWaits(int priority) {
+		return get(waitsPerPriority, priority);
+	}
+
+	/**
+	 * @param priority priority (0 = highest)
+	 * @return execution time of the fetches of this priority
+	 */
+	public LatencyHistogram getExecutions(int priority) {
+		return get(executionsPerPriority, priority);
+	}
+
+	public int getNumPriorities() {
+		return waitsPerPriority.length;
+	}
+
+	// ----------------- JMX attributes
+
+	@Override
+	public int[] getDepthPerPriority() {
+		return queue.getNumQueuedPerPriority();
+	}
+
+	@Override
+	public int getNumStale() {
+		return queue.getNumStale();
+	}
+
+	@Override
+	public long getNumCancelled() {
+		return queue.getNumCancelled();
+	}
+
+	@Override
+	public long getNumExecuted() {
+		return executions.getCount();
+	}
+
+	@Override
+	public double getMeanWaitMs() {
+		return waits.getMeanMs();
+	}
+
+	@Override
+	public double getMeanExecutionMs() {
+		return executions.getMeanMs();
+	}
+
+	@Override
+	public double[] getMeanWaitMsPerPriority() {
+		return getMeans(waitsPerPriority);
+	}
+
+	@Override
+	public double[] getMeanExecutionMsPerPriority() {
+		return getMeans(executionsPerPriority);
+	}
+
+	private static double[] getMeans(LatencyHistogram[] histograms) {
+		final double[] means = new double[histograms.length];
+		for (int i = 0; i < means.length; i++) {
+			means[i] = histograms[i].getMeanMs();
+		}
+		return means;
+	}
+
+	@Override
+	public long[] getWaitHistogram() {
+		return waits.getBuckets();
+	}
+
+	@Override
+	public long[] getExecutionHistogram() {
+		return executions.getBuckets();
+	}
+
+	@Override
+	public String[] getViewerSummary() {
+		return queue.getLaneSummary().toArray(new String[0]);
+	}
+
+	@Override
+	public void reset() {
+		waits.reset();
+		executions.reset();
+		for (LatencyHistogram histogram : waitsPerPriority)
+			histogram.reset();
+		for (LatencyHistogram histogram : executionsPerPriority)
+			histogram.reset();
+	}
+
+	/**
+	 * Publishes metrics over JMX under {@link #OBJECT_NAME}, replacing the
+	 * ones previously published, if any.
+	 *
+	 * @param metrics metrics of the global shared queue
+	 */
+	public static void register(QueueMetrics metrics) {
+		register(metrics, OBJECT_NAME);
+	}
+
+	/**
+	 * Publishes metrics over JMX under the given name, replacing the ones
+	 * previously published under this name, if any.
+	 *
+	 * @param metrics metrics of a shared queue
+	 * @param objectName JMX object name
+	 */
+	public static void register(QueueMetrics metrics, String objectName) {
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName(objectName);
+			if (server.isRegistered(name)) server.unregisterMBean(name);
+			server.registerMBean(metrics, name);
+		}
+		catch (Exception e) {
+			logger.warn("Could not publish the queue metrics over JMX: " + e
+				.getMessage());
+		}
+	}
+
+}
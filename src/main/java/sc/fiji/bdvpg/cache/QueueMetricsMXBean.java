@@ -0,0 +1,76 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.cache;
+
+/**
+ * JMX view of the {@link QueueMetrics} of the global shared queue, published
+ * under {@link QueueMetrics#OBJECT_NAME}. Arrays are indexed by priority (0 =
+ * highest), histograms by duration bucket, see {@link LatencyHistogram}.
+ *
+ * @author Nicolas Chiaruttini
+ */
+public interface QueueMetricsMXBean {
+
+	/**
+	 * @return number of requests for the current frames, per priority
+	 */
+	int[] getDepthPerPriority();
+
+	/**
+	 * @return number of requests from previous frames
+	 */
+	int getNumStale();
+
+	long getNumCancelled();
+
+	long getNumExecuted();
+
+	double getMeanWaitMs();
+
+	double getMeanExecutionMs();
+
+	double[] getMeanWaitMsPerPriority();
+
+	double[] getMeanExecutionMsPerPriority();
+
+	long[] getWaitHistogram();
+
+	long[] getExecutionHistogram();
+
+	/**
+	 * @return one line per viewer, with its queued and stale requests
+	 */
+	String[] getViewerSummary();
+
+	/**
+	 * Resets the wait and execution times
+	 */
+	void reset();
+}
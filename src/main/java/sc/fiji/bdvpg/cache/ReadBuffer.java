@@ -0,0 +1,147 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+
+/**
+ * Lossy, lock-free buffer of cache accesses, in the spirit of the striped
+ * ring buffers used by Caffeine: recording an access never blocks, and the
+ * recorded accesses are later replayed in batch by the thread holding the
+ * cache lock (see {@link BoundedLinkedHashMapGlobalCache.SoftRefs}).
+ * <p>
+ * Threads are spread over several stripes according to their id. Each stripe
+ * is a bounded ring buffer with many producers and a single consumer (the
+ * lock owner). When a stripe is full, or when a producer loses a race for a
+ * slot, the access is simply dropped: this only degrades the LRU order a bit,
+ * which is acceptable for a cache. Recording and draining do not allocate.
+ *
+ * @author Nicolas Chiaruttini
+ */
+final class ReadBuffer {
+
+	/** Number of slots of a stripe, a power of two */
+	static final int BUFFER_SIZE = 16;
+
+	private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+
+	/** Number of pending accesses in a stripe above which a drain is tried */
+	static final int DRAIN_THRESHOLD = BUFFER_SIZE / 2;
+
+	// Stride between counters of different stripes, to limit false sharing
+	private static final int PADDING = 16;
+
+	private final int stripeMask;
+
+	/** Producer counters, one per stripe */
+	private final AtomicLongArray tails;
+
+	/** Consumer counters, one per stripe, only written by the lock owner */
+	private final AtomicLongArray heads;
+
+	/**
+	 * Recorded keys: a non null key publishes the value stored in the same slot
+	 */
+	private final AtomicReferenceArray<GlobalCacheKey> keys;
+
+	private final AtomicReferenceArray<Object> values;
+
+	ReadBuffer() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	ReadBuffer(int numberOfStripes) {
+		int n = 1;
+		while (n < numberOfStripes)
+			n <<= 1;
+		stripeMask = n - 1;
+		tails = new AtomicLongArray(n * PADDING);
+		heads = new AtomicLongArray(n * PADDING);
+		keys = new AtomicReferenceArray<>(n * BUFFER_SIZE);
+		values = new AtomicReferenceArray<>(n * BUFFER_SIZE);
+	}
+
+	private int stripeOfCurrentThread() {
+		final long id = Thread.currentThread().getId();
+		final int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & stripeMask;
+	}
+
+	/**
+	 * Records an access, without blocking.
+	 *
+	 * @param key accessed key
+	 * @param value accessed value
+	 * @return true if the stripe of the current thread is (nearly) full and
+	 *         should be drained. The access is dropped if the stripe is full or if
+	 *         the slot is taken concurrently by another thread
+	 */
+	boolean offer(final GlobalCacheKey key, final Object value) {
+		final int stripe = stripeOfCurrentThread();
+		final int counter = stripe * PADDING;
+		final long tail = tails.get(counter);
+		final long head = heads.get(counter);
+		if (tail - head >= BUFFER_SIZE) return true;
+		if (!tails.compareAndSet(counter, tail, tail + 1)) return false;
+		final int slot = stripe * BUFFER_SIZE + (int) (tail & BUFFER_MASK);
+		values.lazySet(slot, value);
+		keys.set(slot, key);
+		return tail + 1 - head >= DRAIN_THRESHOLD;
+	}
+
+	/**
+	 * Replays and removes all published accesses. Must be called by a single
+	 * thread at a time, i.e. while holding the cache lock.
+	 *
+	 * @param consumer called for each recorded access, in recording order within
+	 *          a stripe
+	 */
+	void drainTo(final BiConsumer<GlobalCacheKey, Object> consumer) {
+		for (int stripe = 0; stripe <= stripeMask; stripe++) {
+			final int counter = stripe * PADDING;
+			long head = heads.get(counter);
+			final long tail = tails.get(counter);
+			while (head < tail) {
+				final int slot = stripe * BUFFER_SIZE + (int) (head & BUFFER_MASK);
+				final GlobalCacheKey key = keys.get(slot);
+				if (key == null) break; // Slot reserved but not yet published
+				final Object value = values.get(slot);
+				values.lazySet(slot, null);
+				keys.lazySet(slot, null);
+				consumer.accept(key, value);
+				head++;
+			}
+			heads.lazySet(counter, head);
+		}
+	}
+
+}
@@ -0,0 +1,209 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Lock-striped variant of {@link BoundedLinkedHashMapGlobalCache}: the keys
+ * are spread, according to their {@link GlobalCacheKey#hashCode()}, over N
+ * independently locked access-ordered segments. Fetcher threads and
+ * BigDataViewer painter threads accessing different blocks thus rarely
+ * contend on the same lock.
+ * <p>
+ * Each segment receives an equal share of the byte budget and evicts its own
+ * least recently used entries, with the same byte accounting as the non
+ * segmented cache. The LRU order is therefore only approximate at the cache
+ * level. A global weight counter, updated by every segment, gives the total
+ * cache size without locking any segment.
+ *
+ * @author Nicolas Chiaruttini
+ */
+public class SegmentedLinkedHashMapGlobalCache extends AbstractGlobalCache {
+
+	final static Logger logger = LoggerFactory.getLogger(
+		SegmentedLinkedHashMapGlobalCache.class);
+
+	final BoundedLinkedHashMapGlobalCache.SoftRefs[] segments;
+
+	final AtomicLong totalWeight = new AtomicLong();
+
+	private final int segmentMask;
+
+	private long maxCacheSize;
+
+	/**
+	 * @param iniSize initial capacity of each segment
+	 * @param maxCacheSize total byte budget, split equally between segments
+	 * @param numberOfSegments number of segments, rounded up to a power of two
+	 * @param log whether the cache size should be logged periodically
+	 * @param msBetweenLogs log period
+	 */
+	SegmentedLinkedHashMapGlobalCache(int iniSize, long maxCacheSize,
+		int numberOfSegments, boolean log, int msBetweenLogs)
+	{
+		int n = 1;
+		while (n < numberOfSegments)
+			n <<= 1;
+		segmentMask = n - 1;
+		this.maxCacheSize = maxCacheSize;
+		segments = new BoundedLinkedHashMapGlobalCache.SoftRefs[n];
+		for (int i = 0; i < n; i++) {
+			segments[i] = new BoundedLinkedHashMapGlobalCache.SoftRefs(iniSize,
+				maxCacheSize / n, totalWeight);
+			segments[i].evictionListener = this::onEvictedForSize;
+			segments[i].quotaEvictionListener = this::onEvictedForQuota;
+			segments[i].index = index;
+		}
+
+		if (log) {
+			TimerTask periodicLogger = new TimerTask() {
+
+				@Override
+				public void run() {
+					logger.info(SegmentedLinkedHashMapGlobalCache.this.toString());
+				}
+			};
+
+			Timer time = new Timer(); // Instantiate Timer Object
+			time.schedule(periodicLogger, 0, msBetweenLogs);
+		}
+	}
+
+	BoundedLinkedHashMapGlobalCache.SoftRefs segmentFor(GlobalCacheKey key) {
+		final int h = key.hashCode();
+		return segments[(h ^ (h >>> 16)) & segmentMask];
+	}
+
+	public int getNumberOfSegments() {
+		return segments.length;
+	}
+
+	public void setMaxSize(long maxCacheSize) {
+		this.maxCacheSize = maxCacheSize;
+		for (BoundedLinkedHashMapGlobalCache.SoftRefs segment : segments) {
+			segment.setMaxCost(maxCacheSize / segments.length);
+		}
+	}
+
+	public void put(GlobalCacheKey key, Object value) {
+		segmentFor(key).insert(key, value);
+	}
+
+	@Override
+	public Object get(GlobalCacheKey key) throws ExecutionException {
+		return segmentFor(key).getValue(key);
+	}
+
+	@Override
+	public Object getIfPresent(GlobalCacheKey key) {
+		final Object value = segmentFor(key).getValue(key);
+		if (value != null) return value;
+		return promote(key);
+	}
+
+	@Override
+	public void invalidate(GlobalCacheKey key) {
+		segmentFor(key).removeEntry(key);
+		offHeap.invalidate(key);
+	}
+
+	@Override
+	public void invalidateIf(long parallelismThreshold,
+		Predicate<GlobalCacheKey> condition)
+	{
+		for (BoundedLinkedHashMapGlobalCache.SoftRefs segment : segments) {
+			segment.removeIfKey(condition);
+		}
+		offHeap.invalidateIf(condition);
+	}
+
+	@Override
+	public void invalidateAll(long parallelismThreshold) {
+		for (BoundedLinkedHashMapGlobalCache.SoftRefs segment : segments) {
+			segment.clear();
+		}
+		offHeap.invalidateAll();
+	}
+
+	public long getMaxSize() {
+		return maxCacheSize;
+	}
+
+	public long getEstimatedSize() {
+		return totalWeight.get();
+	}
+
+	@Override
+	public <V> void touch(GlobalCacheKey key, V value) {
+		segmentFor(key).touch(key, value);
+	}
+
+	/**
+	 * Segments do not share their access order: their most recently used keys
+	 * are interleaved.
+	 */
+	@Override
+	public List<GlobalCacheKey> getHotKeys(int maxKeys) {
+		final List<List<GlobalCacheKey>> perSegment = new ArrayList<>();
+		for (BoundedLinkedHashMapGlobalCache.SoftRefs segment : segments) {
+			perSegment.add(segment.getHotKeys(maxKeys));
+		}
+		final List<GlobalCacheKey> keys = new ArrayList<>();
+		for (int i = 0; keys.size() < maxKeys; i++) {
+			boolean found = false;
+			for (List<GlobalCacheKey> segmentKeys : perSegment) {
+				if (i < segmentKeys.size() && keys.size() < maxKeys) {
+					keys.add(segmentKeys.get(i));
+					found = true;
+				}
+			}
+			if (!found) break;
+		}
+		return keys;
+	}
+
+	@Override
+	public String toString() {
+		return "Cache size : " + (totalWeight.get() / (1024 * 1024)) + " Mb (" +
+			(int) (100.0 * (double) totalWeight.get() / (double) maxCacheSize) +
+			" %)" + offHeapToString();
+	}
+
+}
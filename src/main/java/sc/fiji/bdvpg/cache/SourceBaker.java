@@ -0,0 +1,291 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.cache;
+
+import bdv.export.ProgressWriter;
+import bdv.export.ProgressWriterConsole;
+import bdv.viewer.Source;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sc.fiji.bdvpg.service.SourceServices;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+/**
+ * Computes ("bakes") up front all the cells of a cached source for some
+ * timepoints and resolution levels, so that they are in the global cache
+ * before being displayed, exported or measured. Works with every source whose
+ * {@link Source#getSource(int, int)} is a cell image backed by a
+ * {@link GlobalLoaderCache}, like a cached {@link bdv.util.ResampledSource}
+ * or any image wrapped with {@link bdv.util.RAIHelper}. Other images are
+ * skipped.
+ * <p>
+ * Cells are computed in parallel on a dedicated {@link ForkJoinPool}, through
+ * the blocking access of the image: each one is computed once, even if it is
+ * requested concurrently by a viewer.
+ * <p>
+ * The global cache budget is respected: cells are not baked beyond the
+ * maximal size of the global cache, since they would only evict the ones
+ * baked before. Baked cells can be pinned: the source is then given a
+ * guaranteed minimum (see {@link CacheQuota}) equal to the baked size, so that
+ * they are not evicted to make room for other sources.
+ *
+ * @author Nicolas Chiaruttini
+ */
+public class SourceBaker implements Runnable {
+
+	protected static final Logger logger = LoggerFactory.getLogger(
+		SourceBaker.class);
+
+	// Progress is reported at most this many times
+	static final int PROGRESS_STEPS = 100;
+
+	final AbstractGlobalCache globalCache;
+
+	final Source<?> source;
+
+	final int[] timepoints;
+
+	final int[] levels;
+
+	final int numThreads;
+
+	final boolean pin;
+
+	final ProgressWriter progressWriter;
+
+	private Result result;
+
+	/**
+	 * Bakes a source in the global cache of the source service
+	 *
+	 * @param source source to bake, not its volatile version
+	 * @param timepoints timepoints to bake
+	 * @param levels resolution levels to bake
+	 * @param numThreads number of threads computing cells
+	 * @param pin whether the baked cells should be protected from eviction
+	 */
+	public SourceBaker(Source<?> source, int[] timepoints, int[] levels,
+		int numThreads, boolean pin)
+	{
+		this(SourceServices.getSourceService().getCache(), source, timepoints,
+			levels, numThreads, pin, new ProgressWriterConsole());
+	}
+
+	/**
+	 * @param globalCache global cache holding the cells of the source
+	 * @param source source to bake, not its volatile version
+	 * @param timepoints timepoints to bake
+	 * @param levels resolution levels to bake
+	 * @param numThreads number of threads computing cells
+	 * @param pin whether the baked cells should be protected from eviction
+	 * @param progressWriter receives the progress and a summary
+	 */
+	public SourceBaker(AbstractGlobalCache globalCache, Source<?> source,
+		int[] timepoints, int[] levels, int numThreads, boolean pin,
+		ProgressWriter progressWriter)
+	{
+		this.globalCache = globalCache;
+		this.source = source;
+		this.timepoints = timepoints;
+		this.levels = levels;
+		this.numThreads = Math.max(numThreads, 1);
+		this.pin = pin;
+		this.progressWriter = progressWriter;
+	}
+
+	@Override
+	public void run() {
+		final long start = System.nanoTime();
+
+		// Cells of all images to bake
+		final List<RandomAccessibleInterval<?>> cellImages = new ArrayList<>();
+		long numCells = 0;
+		for (int t : timepoints) {
+			if (!source.isPresent(t)) continue;
+			for (int level : levels) {
+				if ((level < 0) || (level >= source.getNumMipmapLevels())) continue;
+				final RandomAccessibleInterval<?> image = source.getSource(t, level);
+				if (!(image instanceof AbstractCellImg)) {
+					logger.warn("Source " + source.getName() + " is not cached (t = " +
+						t + ", level = " + level + "), nothing to bake");
+					continue;
+				}
+				final RandomAccessibleInterval<?> cells =
+					((AbstractCellImg<?, ?, ?, ?>) image).getCells();
+				cellImages.add(cells);
+				numCells += Intervals.numElements(cells);
+			}
+		}
+
+		final long budget = globalCache.getMaxSize();
+		final CacheQuota previousQuota = globalCache.getQuota(source);
+		if (pin) {
+			// Protects the cells while they are baked, adjusted once done
+			setPinnedBytes(budget, previousQuota);
+		}
+
+		final AtomicLong processed = new AtomicLong();
+		final AtomicLong baked = new AtomicLong();
+		final AtomicLong skipped = new AtomicLong();
+		final AtomicLong bakedBytes = new AtomicLong();
+		final long total = numCells;
+		final long progressStep = Math.max(total / PROGRESS_STEPS, 1);
+		final ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			for (RandomAccessibleInterval<?> cells : cellImages) {
+				final long[] dimensions = Intervals.dimensionsAsLongArray(cells);
+				pool.submit(() -> LongStream.range(0, Intervals.numElements(cells))
+					.parallel().forEach(index -> {
+						if (bakedBytes.get() >= budget) {
+							// Would only evict cells baked before
+							skipped.incrementAndGet();
+						}
+						else {
+							final RandomAccess<?> access = cells.randomAccess();
+							final long[] position = new long[dimensions.length];
+							IntervalIndexer.indexToPosition(index, dimensions, position);
+							access.setPosition(position);
+							bakedBytes.addAndGet(CacheWeighers.weigh(access.get()));
+							baked.incrementAndGet();
+						}
+						final long done = processed.incrementAndGet();
+						if (done % progressStep == 0) {
+							progressWriter.setProgress((double) done / total);
+						}
+					})).get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Baking of " + source.getName() + " interrupted");
+		}
+		catch (ExecutionException e) {
+			logger.error("Baking of " + source.getName() + " failed: " + e
+				.getCause().getMessage(), e.getCause());
+		}
+		finally {
+			pool.shutdown();
+		}
+
+		CacheQuota quota = previousQuota;
+		if (pin) {
+			quota = setPinnedBytes(bakedBytes.get(), previousQuota);
+		}
+
+		result = new Result(baked.get(), skipped.get(), bakedBytes.get(),
+			(System.nanoTime() - start) / 1e9, quota);
+		progressWriter.setProgress(1.0);
+		progressWriter.out().println("Baked " + source.getName() + " : " + result);
+		if (skipped.get() > 0) {
+			progressWriter.err().println(skipped.get() +
+				" cells not baked: the global cache is full (" + budget / (1024 *
+					1024) + " MB)");
+		}
+	}
+
+	// Guaranteed minimum of the source, keeping its hard cap, if any
+	private CacheQuota setPinnedBytes(long bytes, CacheQuota previousQuota) {
+		long minBytes = Math.min(bytes, globalCache.getMaxSize());
+		long maxBytes = -1;
+		if (previousQuota != null) {
+			minBytes = Math.max(minBytes, previousQuota.minBytes);
+			maxBytes = previousQuota.maxBytes;
+			if (previousQuota.hasMax()) minBytes = Math.min(minBytes, maxBytes);
+		}
+		final CacheQuota quota = new CacheQuota(minBytes, maxBytes);
+		globalCache.setQuota(source, quota);
+		return quota;
+	}
+
+	/**
+	 * @return the result of the last {@link #run()}, null if not run yet
+	 */
+	public Result getResult() {
+		return result;
+	}
+
+	/**
+	 * Outcome of a bake
+	 */
+	public static class Result {
+
+		/** Number of cells computed or already in the cache */
+		public final long numCells;
+
+		/** Number of cells not baked because the global cache was full */
+		public final long numSkipped;
+
+		/** Size of the baked cells, as weighed by the global cache */
+		public final long bytes;
+
+		/** Duration of the bake */
+		public final double seconds;
+
+		/** Quota of the source after the bake, null if it has none */
+		public final CacheQuota quota;
+
+		public Result(long numCells, long numSkipped, long bytes, double seconds,
+			CacheQuota quota)
+		{
+			this.numCells = numCells;
+			this.numSkipped = numSkipped;
+			this.bytes = bytes;
+			this.seconds = seconds;
+			this.quota = quota;
+		}
+
+		public double getCellsPerSecond() {
+			return seconds > 0 ? numCells / seconds : 0;
+		}
+
+		public double getMegaBytesPerSecond() {
+			return seconds > 0 ? bytes / (1024.0 * 1024.0) / seconds : 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+				"%d cells, %.1f MB in %.2f s (%.0f cells/s, %.1f MB/s)", numCells,
+				bytes / (1024.0 * 1024.0), seconds, getCellsPerSecond(),
+				getMegaBytesPerSecond());
+		}
+	}
+}
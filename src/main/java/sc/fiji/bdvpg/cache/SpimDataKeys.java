@@ -0,0 +1,112 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.cache;
+
+import bdv.img.cache.VolatileGlobalCellCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+
+/**
+ * Reads the fields of the inner {@link VolatileGlobalCellCache.Key} of the
+ * cells of SpimData sources: their global cache key only holds the dataset,
+ * the setup, timepoint, level and cell index are in the inner key, whose
+ * fields are private. They are read by reflection, the fields being looked
+ * up once.
+ * <p>
+ * If the fields can't be accessed (other version of BigDataViewer), no key is
+ * considered readable, see {@link #isReadable}.
+ *
+ * @author Nicolas Chiaruttini
+ */
+public class SpimDataKeys {
+
+	final static Logger logger = LoggerFactory.getLogger(SpimDataKeys.class);
+
+	final static Field tpField, setupField, levelField, keyField;
+
+	static {
+		Field tp = null, setup = null, level = null, key = null;
+		try {
+			tp = VolatileGlobalCellCache.Key.class.getDeclaredField("timepoint");
+			tp.setAccessible(true);
+			setup = VolatileGlobalCellCache.Key.class.getDeclaredField("setup");
+			setup.setAccessible(true);
+			level = VolatileGlobalCellCache.Key.class.getDeclaredField("level");
+			level.setAccessible(true);
+			key = VolatileGlobalCellCache.Key.class.getDeclaredField("key");
+			key.setAccessible(true);
+		}
+		catch (Exception e) {
+			logger.warn("Could not access VolatileGlobalCellCache.Key fields: " + e
+				.getMessage());
+			tp = setup = level = key = null;
+		}
+		tpField = tp;
+		setupField = setup;
+		levelField = level;
+		keyField = key;
+	}
+
+	private SpimDataKeys() {}
+
+	/**
+	 * @param innerKey key held by a {@link GlobalCacheKey}
+	 * @return true if the key is a {@link VolatileGlobalCellCache.Key} whose
+	 *         fields can be read
+	 */
+	public static boolean isReadable(Object innerKey) {
+		return (innerKey instanceof VolatileGlobalCellCache.Key) &&
+			(keyField != null);
+	}
+
+	public static int getTimepoint(Object innerKey)
+		throws IllegalAccessException
+	{
+		return tpField.getInt(innerKey);
+	}
+
+	public static int getSetup(Object innerKey) throws IllegalAccessException {
+		return setupField.getInt(innerKey);
+	}
+
+	public static int getLevel(Object innerKey) throws IllegalAccessException {
+		return levelField.getInt(innerKey);
+	}
+
+	/**
+	 * @return the key of the cell in its image, its flat cell index for cell
+	 *         images
+	 */
+	public static Object getKey(Object innerKey) throws IllegalAccessException {
+		return keyField.get(innerKey);
+	}
+}
@@ -0,0 +1,722 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.cache;
+
+import bdv.cache.CacheControl;
+import bdv.cache.SharedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link SharedQueue} which schedules fetch requests per viewer, so that the
+ * frame currently displayed by each viewer loads first.
+ * <p>
+ * <b>Viewers.</b> BigDataViewer renders each viewer on its own painter and
+ * rendering threads, created in a {@link ThreadGroup} specific to the viewer.
+ * Requests are thus tagged with the thread group of the thread which enqueues
+ * them, and held in one lane per thread group. Requests coming from other
+ * threads (scripts, prefetching) share the lane of their own thread group.
+ * <p>
+ * <b>Frames.</b> A viewer starting a new frame calls
+ * {@link #clearToPrefetch()} (through the {@link CacheControl} of its SpimData
+ * sources, or through {@link #getFrameControl(String)}) from its painter
+ * thread. Only the requests of this viewer are then considered stale: they are
+ * moved to the stale deque of its lane, and served once no viewer has any
+ * request for its current frame. Requests which stay stale for more than
+ * {@link #setMaxStaleFrames} frames, or which exceed the stale capacity of a
+ * lane, are cancelled: they are dropped from the queue, and enqueued again by
+ * the volatile caches if they are requested in a later frame (see
+ * {@link #getCurrentFrame()}).
+ * <p>
+ * <b>Fairness.</b> Fetcher threads take the requests of the lanes in turn,
+ * highest priority first within a lane, so that a viewer with many requests
+ * does not starve the others.
+ * <p>
+ * <b>Metrics.</b> The depth, wait time and execution time of the requests are
+ * recorded per priority, see {@link #getMetrics()}.
+ * <p>
+ * <b>Live resizing.</b> Fetcher threads are managed by this queue, not by
+ * {@link SharedQueue}: their number ({@link #setNumFetcherThreads}) and the
+ * number of priorities ({@link #setNumPriorities}) can be changed at any time.
+ * Volatile sources keep the same queue object, so they are not affected.
+ * Retired fetcher threads finish their current request before stopping.
+ * <p>
+ * <b>Virtual threads.</b> With Java 21 or later, fetcher threads can be
+ * virtual threads ({@link #setVirtualThreads}). A fetcher blocked in a read
+ * then releases its carrier thread, so that many more reads can be in flight
+ * than there are cores: the number of fetcher threads becomes a limit on the
+ * number of requests run concurrently. This suits loaders which wait on slow
+ * storage (network, object stores), not computed sources, nor loaders which
+ * serialize their reads anyway.
+ *
+ * @author Nicolas Chiaruttini
+ */
+public class ViewerAwareSharedQueue extends SharedQueue {
+
+	/** Default number of frames after which a stale request is cancelled */
+	public static int DEFAULT_MAX_STALE_FRAMES = 2;
+
+	/** Default maximal number of stale requests kept per lane */
+	public static int DEFAULT_STALE_CAPACITY = 16384;
+
+	final static Logger logger = LoggerFactory.getLogger(
+		ViewerAwareSharedQueue.class);
+
+	private volatile int numPriorities;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition notEmpty = lock.newCondition();
+
+	// Lanes per thread group, weakly referenced: the lane of a closed viewer
+	// vanishes once it is empty and its thread group is collected
+	private final Map<ThreadGroup, Lane> laneOfGroup = new WeakHashMap<>();
+
+	// Lanes, in round robin order
+	private final List<Lane> lanes = new ArrayList<>();
+
+	private int nextLane = 0;
+
+	private volatile long currentFrame = 0;
+
+	private volatile int maxStaleFrames = DEFAULT_MAX_STALE_FRAMES;
+
+	private volatile int staleCapacity = DEFAULT_STALE_CAPACITY;
+
+	private long cancelled = 0;
+
+	private final QueueMetrics metrics;
+
+	// Fetcher threads, in their own thread group (and thus lane)
+	private final String fetcherName;
+
+	private final ThreadGroup fetcherGroup;
+
+	private final List<Fetcher> fetchers = new ArrayList<>();
+
+	private int fetcherCount = 0;
+
+	private volatile boolean virtualThreads = false;
+
+	// Fetcher run by the calling thread, if any
+	private final ThreadLocal<Fetcher> currentFetcher = new ThreadLocal<>();
+
+	private boolean shutdown = false;
+
+	/**
+	 * @param numFetcherThreads number of fetcher (daemon) threads
+	 * @param numPriorities number of priority levels (0 = highest)
+	 */
+	public ViewerAwareSharedQueue(int numFetcherThreads, int numPriorities) {
+		this("bdvpg-fetcher", numFetcherThreads, numPriorities);
+	}
+
+	/**
+	 * @param fetcherName name of the fetcher threads, which are numbered, and of
+	 *          their thread group, with an "s" appended
+	 * @param numFetcherThreads number of fetcher (daemon) threads
+	 * @param numPriorities number of priority levels (0 = highest)
+	 */
+	public ViewerAwareSharedQueue(String fetcherName, int numFetcherThreads,
+		int numPriorities)
+	{
+		// Fetcher threads are started below, and not by the super class, so that
+		// their number can be changed
+		super(0, Math.max(numPriorities, 1));
+		this.numPriorities = Math.max(numPriorities, 1);
+		this.fetcherName = fetcherName;
+		this.fetcherGroup = new ThreadGroup(fetcherName + "s");
+		this.metrics = new QueueMetrics(this, this.numPriorities);
+		setNumFetcherThreads(numFetcherThreads);
+	}
+
+	/**
+	 * Starts or retires fetcher threads. Retired threads finish their current
+	 * request first.
+	 *
+	 * @param numFetcherThreads number of fetcher threads (with 0, requests are
+	 *          only run by external calls to {@link #take()})
+	 */
+	public void setNumFetcherThreads(int numFetcherThreads) {
+		final int n = Math.max(numFetcherThreads, 0);
+		lock.lock();
+		try {
+			if (shutdown) return;
+			while (fetchers.size() < n) {
+				final Fetcher fetcher = new Fetcher(fetcherCount++, virtualThreads);
+				fetchers.add(fetcher);
+				fetcher.thread.start();
+			}
+			while (fetchers.size() > n) {
+				fetchers.remove(fetchers.size() - 1).retired = true;
+			}
+			// Retired fetchers waiting for a request stop now
+			notEmpty.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Switches between platform and virtual fetcher threads. The current
+	 * fetcher threads are retired and replaced by as many threads of the other
+	 * kind.
+	 *
+	 * @param virtualThreads true for virtual threads, false for platform
+	 *          (daemon) threads
+	 * @throws UnsupportedOperationException if virtual threads are requested
+	 *           but not supported by this Java runtime (before Java 21)
+	 */
+	public void setVirtualThreads(boolean virtualThreads) {
+		if (virtualThreads && !VirtualThreads.isSupported()) {
+			throw new UnsupportedOperationException(
+				"Virtual threads require Java 21 or later");
+		}
+		lock.lock();
+		try {
+			if ((shutdown) || (this.virtualThreads == virtualThreads)) return;
+			final int n = fetchers.size();
+			setNumFetcherThreads(0);
+			this.virtualThreads = virtualThreads;
+			setNumFetcherThreads(n);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return true if the fetcher threads are virtual threads
+	 */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public int getNumFetcherThreads() {
+		lock.lock();
+		try {
+			return fetchers.size();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Changes the number of priorities. When it decreases, the requests of the
+	 * removed priorities are kept with the lowest remaining priority.
+	 *
+	 * @param numPriorities number of priority levels (0 = highest), at least 1
+	 */
+	public void setNumPriorities(int numPriorities) {
+		final int n = Math.max(numPriorities, 1);
+		lock.lock();
+		try {
+			for (Lane lane : lanes) {
+				lane.setNumPriorities(n);
+			}
+			metrics.setNumPriorities(n);
+			this.numPriorities = n;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int getNumPriorities() {
+		return numPriorities;
+	}
+
+	/**
+	 * Stops all fetcher threads
+	 */
+	@Override
+	public void shutdown() {
+		lock.lock();
+		try {
+			shutdown = true;
+			for (Fetcher fetcher : fetchers) {
+				fetcher.retired = true;
+				fetcher.thread.interrupt();
+			}
+			fetchers.clear();
+		}
+		finally {
+			lock.unlock();
+		}
+		super.shutdown();
+	}
+
+	@Override
+	public void put(final Callable<?> task, final int priority,
+		final boolean enqueueToFront)
+	{
+		lock.lock();
+		try {
+			final int p = Math.min(Math.max(priority, 0), numPriorities - 1);
+			final Lane lane = getLane(Thread.currentThread().getThreadGroup());
+			final Request request = new Request(task, p);
+			if (enqueueToFront) lane.current[p].addFirst(request);
+			else lane.current[p].addLast(request);
+			lane.requestedSinceFrame = true;
+			notEmpty.signal();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the next request, or null if the calling fetcher thread is
+	 *         retired
+	 */
+	@Override
+	public Callable<?> take() throws InterruptedException {
+		final Fetcher fetcher = currentFetcher.get();
+		lock.lockInterruptibly();
+		try {
+			while (true) {
+				if ((fetcher != null) && (fetcher.retired)) return null;
+				final Callable<?> task = poll();
+				if (task != null) return task;
+				notEmpty.await();
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Starts a new frame for the viewer of the calling thread: its pending
+	 * requests become stale, see {@link ViewerAwareSharedQueue}. Does nothing
+	 * if this viewer has not requested anything since its last frame, so that
+	 * several cache controls of the same viewer can call it for a single frame.
+	 */
+	@Override
+	public void clearToPrefetch() {
+		lock.lock();
+		try {
+			newFrame(getLane(Thread.currentThread().getThreadGroup()));
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes all requests, of all viewers
+	 */
+	@Override
+	public void clear() {
+		lock.lock();
+		try {
+			for (Lane lane : lanes) {
+				cancelled += lane.clear();
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return a frame counter, incremented each time a viewer starts a new
+	 *         frame. Volatile caches enqueue again the cells which were enqueued
+	 *         in a previous frame and are still missing.
+	 */
+	@Override
+	public long getCurrentFrame() {
+		return currentFrame;
+	}
+
+	/**
+	 * Returns a {@link CacheControl} to add to the cache controls of a viewer,
+	 * so that its frames are signaled to this queue even if it displays no
+	 * SpimData source. The viewer lane is also named after it.
+	 *
+	 * @param viewerName name of the viewer
+	 * @return a cache control which starts a new frame for the viewer
+	 */
+	public CacheControl getFrameControl(String viewerName) {
+		return () -> {
+			lock.lock();
+			try {
+				final Lane lane = getLane(Thread.currentThread().getThreadGroup());
+				lane.name = viewerName;
+				newFrame(lane);
+			}
+			finally {
+				lock.unlock();
+			}
+		};
+	}
+
+	public void setMaxStaleFrames(int maxStaleFrames) {
+		this.maxStaleFrames = Math.max(maxStaleFrames, 0);
+	}
+
+	public int getMaxStaleFrames() {
+		return maxStaleFrames;
+	}
+
+	public void setStaleCapacity(int staleCapacity) {
+		this.staleCapacity = Math.max(staleCapacity, 0);
+	}
+
+	public int getStaleCapacity() {
+		return staleCapacity;
+	}
+
+	/**
+	 * @return depth, wait time and execution time of the requests
+	 */
+	public QueueMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return the number of requests for the current frame of the viewers
+	 */
+	public int getNumQueued() {
+		int n = 0;
+		for (int depth : getNumQueuedPerPriority())
+			n += depth;
+		return n;
+	}
+
+	/**
+	 * @return the number of requests for the current frame of the viewers, per
+	 *         priority
+	 */
+	public int[] getNumQueuedPerPriority() {
+		lock.lock();
+		try {
+			final int[] depths = new int[numPriorities];
+			for (Lane lane : lanes) {
+				for (int p = 0; p < numPriorities; p++) {
+					depths[p] += lane.current[p].size();
+				}
+			}
+			return depths;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return one line per viewer, with its number of queued and stale requests
+	 */
+	public List<String> getLaneSummary() {
+		final List<String> summary = new ArrayList<>();
+		lock.lock();
+		try {
+			for (Lane lane : lanes) {
+				summary.add(lane.name + " : " + lane.numCurrent() + " queued, " +
+					lane.stale.size() + " stale");
+			}
+			return summary;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of stale requests, from previous frames
+	 */
+	public int getNumStale() {
+		lock.lock();
+		try {
+			int n = 0;
+			for (Lane lane : lanes)
+				n += lane.stale.size();
+			return n;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of requests cancelled since this queue was created
+	 */
+	public long getNumCancelled() {
+		lock.lock();
+		try {
+			return cancelled;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	// ----------------- Called with the lock held
+
+	private Lane getLane(ThreadGroup group) {
+		Lane lane = laneOfGroup.get(group);
+		if (lane == null) {
+			lane = new Lane(group, numPriorities);
+			laneOfGroup.put(group, lane);
+			lanes.add(lane);
+		}
+		return lane;
+	}
+
+	private void newFrame(Lane lane) {
+		if (!lane.requestedSinceFrame) return;
+		lane.requestedSinceFrame = false;
+		lane.frame++;
+		currentFrame++;
+		cancelled += lane.demote(maxStaleFrames, staleCapacity);
+	}
+
+	private Callable<?> poll() {
+		final int n = lanes.size();
+		// Requests of the current frames, in turn
+		for (int i = 0; i < n; i++) {
+			final int index = (nextLane + i) % n;
+			final Request task = lanes.get(index).pollCurrent();
+			if (task != null) {
+				nextLane = (index + 1) % n;
+				return task;
+			}
+		}
+		// Then stale requests, in turn
+		for (int i = 0; i < n; i++) {
+			final int index = (nextLane + i) % n;
+			final Request stale = lanes.get(index).stale.pollFirst();
+			if (stale != null) {
+				nextLane = (index + 1) % n;
+				return stale;
+			}
+		}
+		pruneLanes();
+		return null;
+	}
+
+	// Removes the empty lanes of collected thread groups
+	private void pruneLanes() {
+		final Iterator<Lane> it = lanes.iterator();
+		while (it.hasNext()) {
+			final Lane lane = it.next();
+			if ((lane.group.get() == null) && lane.isEmpty()) it.remove();
+		}
+		if (nextLane >= lanes.size()) nextLane = 0;
+	}
+
+	/**
+	 * Runs the requests of this queue on its own daemon (or virtual) thread,
+	 * until it is retired
+	 */
+	final class Fetcher implements Runnable {
+
+		volatile boolean retired = false;
+
+		final Thread thread;
+
+		Fetcher(int index, boolean virtual) {
+			final String name = fetcherName + "-" + index;
+			if (virtual) {
+				thread = VirtualThreads.newThread(name, this);
+			}
+			else {
+				thread = new Thread(fetcherGroup, this, name);
+				thread.setDaemon(true);
+			}
+		}
+
+		@Override
+		public void run() {
+			currentFetcher.set(this);
+			while (true) {
+				final Callable<?> task;
+				try {
+					task = take();
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				if (task == null) return; // Retired
+				try {
+					task.call();
+				}
+				catch (InterruptedException e) {
+					if (retired) return;
+				}
+				catch (Exception e) {
+					logger.error("Fetch failed: " + e.getMessage(), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queued task, timed when run by a fetcher thread
+	 */
+	final class Request implements Callable<Object> {
+
+		final Callable<?> task;
+
+		final int priority;
+
+		final long enqueueNanos = System.nanoTime();
+
+		// Lane frame at which the request became stale
+		long frame;
+
+		Request(Callable<?> task, int priority) {
+			this.task = task;
+			this.priority = priority;
+		}
+
+		@Override
+		public Object call() throws Exception {
+			final long start = System.nanoTime();
+			metrics.recordWait(priority, start - enqueueNanos);
+			try {
+				return task.call();
+			}
+			finally {
+				metrics.recordExecution(priority, System.nanoTime() - start);
+			}
+		}
+	}
+
+	/**
+	 * Requests of a viewer (thread group)
+	 */
+	static final class Lane {
+
+		final WeakReference<ThreadGroup> group;
+
+		volatile String name;
+
+		ArrayDeque<Request>[] current;
+
+		// Most recently demoted first
+		final ArrayDeque<Request> stale = new ArrayDeque<>();
+
+		long frame = 0;
+
+		boolean requestedSinceFrame = false;
+
+		@SuppressWarnings("unchecked")
+		Lane(ThreadGroup group, int numPriorities) {
+			this.group = new WeakReference<>(group);
+			this.name = group == null ? "" : group.getName();
+			current = new ArrayDeque[numPriorities];
+			for (int i = 0; i < numPriorities; i++) {
+				current[i] = new ArrayDeque<>();
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		void setNumPriorities(int numPriorities) {
+			final ArrayDeque<Request>[] resized = new ArrayDeque[numPriorities];
+			for (int p = 0; p < numPriorities; p++) {
+				resized[p] = p < current.length ? current[p] : new ArrayDeque<>();
+			}
+			// Requests of removed priorities get the lowest remaining one
+			for (int p = numPriorities; p < current.length; p++) {
+				resized[numPriorities - 1].addAll(current[p]);
+			}
+			current = resized;
+		}
+
+		Request pollCurrent() {
+			for (ArrayDeque<Request> deque : current) {
+				final Request task = deque.pollFirst();
+				if (task != null) return task;
+			}
+			return null;
+		}
+
+		/**
+		 * Moves the current requests in front of the stale ones, highest priority
+		 * first, then cancels the requests which are too old or in excess
+		 *
+		 * @return number of cancelled requests
+		 */
+		int demote(int maxStaleFrames, int staleCapacity) {
+			for (int p = current.length - 1; p >= 0; p--) {
+				final ArrayDeque<Request> deque = current[p];
+				Request task;
+				while ((task = deque.pollLast()) != null) {
+					task.frame = frame;
+					stale.addFirst(task);
+				}
+			}
+			int cancelled = 0;
+			while ((!stale.isEmpty()) && ((stale.size() > staleCapacity) || (stale
+				.peekLast().frame < frame - maxStaleFrames)))
+			{
+				stale.pollLast();
+				cancelled++;
+			}
+			return cancelled;
+		}
+
+		int numCurrent() {
+			int n = 0;
+			for (ArrayDeque<Request> deque : current)
+				n += deque.size();
+			return n;
+		}
+
+		boolean isEmpty() {
+			return stale.isEmpty() && (numCurrent() == 0);
+		}
+
+		int clear() {
+			final int n = numCurrent() + stale.size();
+			for (ArrayDeque<Request> deque : current)
+				deque.clear();
+			stale.clear();
+			return n;
+		}
+	}
+
+}
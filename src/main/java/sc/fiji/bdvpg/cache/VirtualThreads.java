@@ -0,0 +1,100 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.cache;
+
+import java.lang.reflect.Method;
+
+/**
+ * Creates virtual threads (Java 21 and later) by reflection, since this
+ * library is compiled for older Java versions.
+ *
+ * @author Nicolas Chiaruttini
+ */
+final class VirtualThreads {
+
+	private VirtualThreads() {}
+
+	// Thread.ofVirtual(), Thread.Builder.name(String), and
+	// Thread.Builder.unstarted(Runnable), null if not available
+	private static final Method ofVirtual;
+
+	private static final Method name;
+
+	private static final Method unstarted;
+
+	static {
+		Method ofVirtualMethod = null, nameMethod = null, unstartedMethod = null;
+		try {
+			final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+			nameMethod = builder.getMethod("name", String.class);
+			unstartedMethod = builder.getMethod("unstarted", Runnable.class);
+			// Fails with preview versions (Java 19 and 20) if not enabled
+			ofVirtualMethod.invoke(null);
+		}
+		catch (ReflectiveOperationException | RuntimeException e) {
+			// Older Java version
+			ofVirtualMethod = null;
+		}
+		ofVirtual = ofVirtualMethod;
+		name = nameMethod;
+		unstarted = unstartedMethod;
+	}
+
+	/**
+	 * @return true if virtual threads can be created by this Java runtime
+	 */
+	static boolean isSupported() {
+		return ofVirtual != null;
+	}
+
+	/**
+	 * @param threadName name of the thread
+	 * @param task task run by the thread
+	 * @return an unstarted virtual thread
+	 * @throws UnsupportedOperationException if virtual threads are not
+	 *           supported
+	 */
+	static Thread newThread(String threadName, Runnable task) {
+		if (!isSupported()) {
+			throw new UnsupportedOperationException(
+				"Virtual threads require Java 21 or later (running Java " + System
+					.getProperty("java.version") + ")");
+		}
+		try {
+			final Object builder = name.invoke(ofVirtual.invoke(null), threadName);
+			return (Thread) unstarted.invoke(builder, task);
+		}
+		catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException("Could not create a virtual thread",
+				e);
+		}
+	}
+}
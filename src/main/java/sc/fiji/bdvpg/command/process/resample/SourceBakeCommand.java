@@ -0,0 +1,118 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.command.process.resample;
+
+import bdv.ij.util.ProgressWriterIJ;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import org.scijava.plugin.Menu;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sc.fiji.bdvpg.cache.SourceBaker;
+import sc.fiji.bdvpg.command.BdvPlaygroundActionCommand;
+import sc.fiji.bdvpg.scijava.BdvPgMenus;
+import sc.fiji.bdvpg.scijava.service.SourceService;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+@SuppressWarnings({ "CanBeFinal", "unused" }) // Because SciJava command fields
+																							// are set by SciJava
+																							// pre-processors
+
+@Plugin(type = BdvPlaygroundActionCommand.class,
+	menu = {
+			@Menu(label = BdvPgMenus.L1),
+			@Menu(label = BdvPgMenus.L2),
+			@Menu(label = BdvPgMenus.ProcessMenu, weight = BdvPgMenus.ProcessW),
+			@Menu(label = "Fuse & Resample", weight = -1),
+			@Menu(label = "Source - Bake Cached Source", weight = 4)
+	},
+	description = "Computes in parallel all the cells of cached sources (resampled sources for instance) and keeps them in the cache")
+public class SourceBakeCommand implements BdvPlaygroundActionCommand {
+
+	final public static Logger logger = LoggerFactory.getLogger(
+		SourceBakeCommand.class);
+
+	@Parameter(label = "Select Source(s)",
+			description = "The cached source(s) to bake")
+	SourceAndConverter<?>[] sources;
+
+	@Parameter(label = "Timepoint start",
+			description = "First timepoint to bake (0-based)")
+	int timepoint_begin = 0;
+
+	@Parameter(label = "Number of timepoints",
+			description = "Number of timepoints to bake",
+			min = "1")
+	int number_of_timepoints = 1;
+
+	@Parameter(label = "Resolution levels",
+			description = "Comma separated resolution levels to bake (0 = highest resolution), or 'all'")
+	String levels = "0";
+
+	@Parameter(label = "Number of Threads",
+			description = "Number of threads computing cells",
+			min = "1")
+	int n_threads = Runtime.getRuntime().availableProcessors();
+
+	@Parameter(label = "Pin baked cells",
+			description = "If checked, the baked cells are not evicted to make room for other sources (sets the guaranteed minimum of the cache quota)")
+	boolean pin;
+
+	@Parameter
+	SourceService source_service;
+
+	@Override
+	public void run() {
+		final int[] timepoints = IntStream.range(timepoint_begin, timepoint_begin +
+			number_of_timepoints).toArray();
+		for (SourceAndConverter<?> sac : sources) {
+			final Source<?> source = sac.getSpimSource();
+			final int[] sourceLevels = levels.trim().equalsIgnoreCase("all")
+				? IntStream.range(0, source.getNumMipmapLevels()).toArray() : Arrays
+					.stream(levels.split(",")).map(String::trim).filter(
+						level -> !level.isEmpty()).mapToInt(Integer::parseInt).toArray();
+			final SourceBaker baker = new SourceBaker(source_service.getCache(),
+				source, timepoints, sourceLevels, n_threads, pin,
+				new ProgressWriterIJ());
+			baker.run();
+			if (pin) {
+				// Kept with the source, and saved with the state
+				source_service.setMetadata(sac, SourceService.CACHE_QUOTA, baker
+					.getResult().quota);
+			}
+			logger.info("Baked " + source.getName() + " : " + baker.getResult());
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.command.process.resample;
+
+import bdv.util.PyramidSource;
+import bdv.util.RAIHelper;
+import bdv.viewer.SourceAndConverter;
+import net.imglib2.type.numeric.RealType;
+import org.scijava.ItemIO;
+import org.scijava.plugin.Menu;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sc.fiji.bdvpg.command.BdvPlaygroundActionCommand;
+import sc.fiji.bdvpg.scijava.BdvPgMenus;
+import sc.fiji.bdvpg.source.transform.SourcePyramidBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@SuppressWarnings({ "CanBeFinal", "unused" }) // Because SciJava command fields
+																							// are set by SciJava
+																							// pre-processors
+
+@Plugin(type = BdvPlaygroundActionCommand.class,
+	menu = {
+			@Menu(label = BdvPgMenus.L1),
+			@Menu(label = BdvPgMenus.L2),
+			@Menu(label = BdvPgMenus.ProcessMenu, weight = BdvPgMenus.ProcessW),
+			@Menu(label = "Fuse & Resample", weight = -1),
+			@Menu(label = "Source - Create Multiresolution Pyramid", weight = 5)
+	},
+	description = "Adds lazily computed downsampled resolution levels to single resolution sources")
+public class SourcePyramidCreateCommand implements BdvPlaygroundActionCommand {
+
+	final public static Logger logger = LoggerFactory.getLogger(
+		SourcePyramidCreateCommand.class);
+
+	@Parameter(label = "Select Source(s)",
+			description = "The source(s) to downsample, only their highest resolution level is used")
+	SourceAndConverter<?>[] sources;
+
+	@Parameter(label = "Downsampling method",
+			description = "Average for intensities, Mode (most frequent value) for labels",
+			choices = { "Average", "Mode" })
+	String method = "Average";
+
+	@Parameter(label = "Number of resolution levels",
+			description = "Number of resolution levels, highest resolution included, 0 to add levels until the source fits in " +
+				PyramidSource.MIN_LEVEL_SIZE + " pixels",
+			min = "0")
+	int number_of_levels = 0;
+
+	@Parameter(label = "Cache block size",
+			required = false,
+			description = "Cell dimensions of the downsampled levels, as 'x,y,z' pixels")
+	String block_size = "64,64,64";
+
+	@Parameter(label = "Suffix",
+			description = "Appended to the name of each source")
+	String suffix = "_pyramid";
+
+	@Parameter(type = ItemIO.OUTPUT,
+			label = "Multiresolution Sources",
+			description = "The newly created multiresolution sources")
+	SourceAndConverter<?>[] sources_out;
+
+	@Override
+	public void run() {
+		final PyramidSource.Method pyramidMethod = PyramidSource.Method.valueOf(
+			method.toUpperCase());
+		int[] blockSize = SourceResampleCommand.parseBlockSize(block_size);
+		if (blockSize == null) blockSize = RAIHelper.getDefaultBlockSize(); // No 'auto'
+		final List<SourceAndConverter<?>> created = new ArrayList<>();
+		for (SourceAndConverter<?> source : sources) {
+			if (!(source.getSpimSource().getType() instanceof RealType)) {
+				logger.error("Cannot create a multiresolution pyramid of " + source
+					.getSpimSource().getName() + " : pixel type " + source
+						.getSpimSource().getType().getClass().getSimpleName() +
+					" is not a real type.");
+				continue;
+			}
+			created.add(new SourcePyramidBuilder(source, source.getSpimSource()
+				.getName() + suffix, pyramidMethod, number_of_levels, blockSize).get());
+		}
+		sources_out = created.toArray(new SourceAndConverter<?>[0]);
+	}
+
+}
@@ -29,6 +29,7 @@
 
 package sc.fiji.bdvpg.command.process.resample;
 
+import bdv.util.RAIHelper;
 import bdv.viewer.SourceAndConverter;
 import org.scijava.ItemIO;
 import org.scijava.command.Command;
@@ -78,6 +79,11 @@ public class SourceResampleCommand implements BdvPlaygroundActionCommand {
 			description = "If checked, caches the resampled data in memory")
 	boolean cache;
 
+	@Parameter(label = "Cache block size",
+			required = false,
+			description = "Cell dimensions of the cache, as 'x,y,z' pixels, or 'auto' to pick them from the model dimensions and the native cells of the source")
+	String block_size = "64,64,64";
+
 	@Parameter(label = "Name(s) of the resampled source(s)",
 			description = "Name(s) for the resampled source(s), comma-separated for multiple sources")
 	String name; // CSV separate for multiple sources
@@ -92,11 +98,37 @@ public class SourceResampleCommand implements BdvPlaygroundActionCommand {
 		// Should not be parallel
 		sources_out = new SourceAndConverter<?>[sources.length];
 		final String[] names = name.split(",");
+		final int[] blockSize = parseBlockSize(block_size);
 		for (int i = 0; i < sources.length; i++) {
 			SourceAndConverter<?> source = sources[i];
 			sources_out[i] = new SourceResampler(source, model, names[i], reuse_mipmaps,
-				cache, interpolate, default_mipmap_level).get();
+				cache, interpolate, default_mipmap_level, blockSize).get();
+		}
+	}
+
+	/**
+	 * @param blockSize 'x,y,z' or 'auto'
+	 * @return the cell dimensions, or null for 'auto'
+	 */
+	static int[] parseBlockSize(String blockSize) {
+		if ((blockSize == null) || (blockSize.trim().isEmpty())) {
+			return RAIHelper.getDefaultBlockSize();
+		}
+		if (blockSize.trim().equalsIgnoreCase("auto")) return null;
+		final String[] sizes = blockSize.split(",");
+		if (sizes.length != 3) {
+			throw new IllegalArgumentException("Invalid block size '" + blockSize +
+				"', 3 comma separated sizes or 'auto' expected");
+		}
+		final int[] parsed = new int[3];
+		for (int d = 0; d < 3; d++) {
+			parsed[d] = Integer.parseInt(sizes[d].trim());
+			if (parsed[d] < 1) {
+				throw new IllegalArgumentException("Invalid block size '" +
+					blockSize + "', sizes should be positive");
+			}
 		}
+		return parsed;
 	}
 
 }
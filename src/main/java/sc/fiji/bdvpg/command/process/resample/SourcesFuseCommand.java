@@ -0,0 +1,122 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.command.process.resample;
+
+import bdv.util.FusedSource;
+import bdv.util.RAIHelper;
+import bdv.viewer.SourceAndConverter;
+import net.imglib2.type.numeric.RealType;
+import org.scijava.ItemIO;
+import org.scijava.plugin.Menu;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sc.fiji.bdvpg.command.BdvPlaygroundActionCommand;
+import sc.fiji.bdvpg.scijava.BdvPgMenus;
+import sc.fiji.bdvpg.source.transform.SourceFuser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@SuppressWarnings({ "CanBeFinal", "unused" }) // Because SciJava command fields
+																							// are set by SciJava
+																							// pre-processors
+
+@Plugin(type = BdvPlaygroundActionCommand.class,
+	menu = {
+			@Menu(label = BdvPgMenus.L1),
+			@Menu(label = BdvPgMenus.L2),
+			@Menu(label = BdvPgMenus.ProcessMenu, weight = BdvPgMenus.ProcessW),
+			@Menu(label = "Fuse & Resample", weight = -1),
+			@Menu(label = "Sources - Fuse Sources", weight = 3)
+	},
+	description = "Fuses sources, for instance tiles, into a single cached source sampled on the grid of a model source")
+public class SourcesFuseCommand implements BdvPlaygroundActionCommand {
+
+	final public static Logger logger = LoggerFactory.getLogger(
+		SourcesFuseCommand.class);
+
+	@Parameter(label = "Select Source(s)",
+			description = "The sources to fuse, with the same pixel type")
+	SourceAndConverter<?>[] sources;
+
+	@Parameter(label = "Model Source",
+			description = "The source whose voxel grid will be used as reference")
+	SourceAndConverter<?> model;
+
+	@Parameter(label = "Fusion method",
+			description = "How overlapping sources are combined: Weighted averages them with weights decreasing close to their borders",
+			choices = { "Average", "Max", "Weighted" })
+	String method = "Weighted";
+
+	@Parameter(label = "Cache block size",
+			required = false,
+			description = "Cell dimensions of the fused source, as 'x,y,z' pixels")
+	String block_size = "64,64,64";
+
+	@Parameter(label = "Name of the fused source",
+			description = "Name of the fused source")
+	String name = "Fused";
+
+	@Parameter(type = ItemIO.OUTPUT,
+			label = "Fused Source",
+			description = "The newly created fused source")
+	SourceAndConverter<?> source_out;
+
+	@Override
+	public void run() {
+		final Class<?> typeClass = sources[0].getSpimSource().getType().getClass();
+		if (!(sources[0].getSpimSource().getType() instanceof RealType)) {
+			logger.error("Cannot fuse sources of pixel type " + typeClass
+				.getSimpleName() + " : not a real type.");
+			return;
+		}
+		for (SourceAndConverter<?> source : sources) {
+			if (source.getSpimSource().getType().getClass() != typeClass) {
+				logger.error("Cannot fuse sources of different pixel types : " +
+					source.getSpimSource().getName() + " is of type " + source
+						.getSpimSource().getType().getClass().getSimpleName() +
+					", " + typeClass.getSimpleName() + " expected.");
+				return;
+			}
+		}
+		final FusedSource.Method fusionMethod = FusedSource.Method.valueOf(method
+			.toUpperCase());
+		int[] blockSize = SourceResampleCommand.parseBlockSize(block_size);
+		if (blockSize == null) blockSize = RAIHelper.getDefaultBlockSize(); // No 'auto'
+		final List<SourceAndConverter<?>> toFuse = new ArrayList<>(Arrays.asList(
+			sources));
+		source_out = new SourceFuser(toFuse, model, name, fusionMethod, blockSize)
+			.get();
+	}
+
+}
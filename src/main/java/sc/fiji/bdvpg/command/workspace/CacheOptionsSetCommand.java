@@ -37,6 +37,8 @@ import org.scijava.prefs.PrefService;
 import org.scijava.widget.Button;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import sc.fiji.bdvpg.cache.AbstractGlobalCache;
+import sc.fiji.bdvpg.cache.AdaptiveCacheSizer;
 import sc.fiji.bdvpg.cache.GlobalCacheBuilder;
 import sc.fiji.bdvpg.command.BdvPlaygroundActionCommand;
 import sc.fiji.bdvpg.scijava.BdvPgMenus;
@@ -47,9 +49,9 @@ import sc.fiji.bdvpg.scijava.service.SourceService;
 				@Menu(label = BdvPgMenus.L1),
 				@Menu(label = BdvPgMenus.L2),
 				@Menu(label = BdvPgMenus.WorkspaceMenu, weight = BdvPgMenus.WorkspaceW),
-				@Menu(label = "Set Cache Options (Needs Restart)", weight = 3)
+				@Menu(label = "Set Cache Options", weight = 3)
 		},
-	description = "Set BDV-Playground cache options (needs a restart)",
+	description = "Set BDV-Playground cache options (a change of cache type needs a restart)",
 	initializer = "initialize")
 public class CacheOptionsSetCommand implements BdvPlaygroundActionCommand {
 
@@ -59,9 +61,13 @@ public class CacheOptionsSetCommand implements BdvPlaygroundActionCommand {
 	@Parameter
 	PrefService prefs;
 
+	@Parameter
+	SourceService source_service;
+
 	@Parameter(label = "Cache type",
-			description = "Type of cache implementation to use",
-			choices = { "Caffeine", "LinkedHashMap" },
+			description = "Type of cache implementation to use (CostAware keeps blocks which are expensive to compute longer)",
+			choices = { "Caffeine", "LinkedHashMap", "SegmentedLinkedHashMap",
+				"CostAware" },
 		persist = false)
 	String cache_type;
 
@@ -85,6 +91,16 @@ public class CacheOptionsSetCommand implements BdvPlaygroundActionCommand {
 		callback = "useMbForElse", persist = false)
 	int mem_for_everything_else_mb;
 
+	@Parameter(label = "Off-heap cache size (MB)",
+			description = "Size in megabytes of the off-heap tier receiving the blocks evicted from the heap (0 to disable)",
+		persist = false)
+	int mem_off_heap_mb;
+
+	@Parameter(label = "Adaptive size",
+			description = "Shrinks the cache under heap pressure and grows it back, up to the size above, when the heap is idle",
+		persist = false)
+	boolean adaptive;
+
 	@Parameter(label = "Reset to default",
 			description = "Resets all cache options to their default values",
 			callback = "reset")
@@ -100,6 +116,12 @@ public class CacheOptionsSetCommand implements BdvPlaygroundActionCommand {
 			case GlobalCacheBuilder.LINKED_HASH_MAP:
 				builder.linkedHashMap();
 				break;
+			case GlobalCacheBuilder.SEGMENTED_LINKED_HASH_MAP:
+				builder.segmentedLinkedHashMap();
+				break;
+			case GlobalCacheBuilder.COST_AWARE:
+				builder.costAware();
+				break;
 		}
 		if (log_ms > 0) builder.log(log_ms);
 		if (mem_for_cache_mb > 0) builder.memoryForCache((long) mem_for_cache_mb *
@@ -108,6 +130,9 @@ public class CacheOptionsSetCommand implements BdvPlaygroundActionCommand {
 			(long) mem_for_everything_else_mb * 1024L * 1024L);
 		if (mem_ratio_pc > 0) builder.memoryRatioForCache(((double) mem_ratio_pc) /
 			100);
+		if (mem_off_heap_mb > 0) builder.offHeapSize((long) mem_off_heap_mb *
+			1024L * 1024L);
+		builder.adaptive(adaptive);
 
 		String serializedCacheBuilder = new Gson().toJson(builder,
 			GlobalCacheBuilder.class);
@@ -116,6 +141,22 @@ public class CacheOptionsSetCommand implements BdvPlaygroundActionCommand {
 
 		prefs.put(SourceService.class, "cache.builder",
 			serializedCacheBuilder);
+
+		// Sizes are applied live, the cache type is only changed after a restart
+		AbstractGlobalCache cache = source_service.getCache();
+		if (cache != null) {
+			long cacheSize = builder.getCacheSize();
+			cache.setMaxSize(cacheSize);
+			cache.setMaxOffHeapSize(builder.getMemoryInBytesOffHeap());
+			cache.setAdaptiveSizer(adaptive ? new AdaptiveCacheSizer(cache,
+				(long) (cacheSize * builder.getAdaptiveFloorRatio()), cacheSize)
+				: null);
+			logger.info("Cache resized : " + cache);
+			if (!cache_type.equals(GlobalCacheBuilder.typeOf(cache))) {
+				logger.info("The cache type " + cache_type +
+					" will be used after a restart");
+			}
+		}
 	}
 
 	void initialize() {
@@ -143,6 +184,9 @@ public class CacheOptionsSetCommand implements BdvPlaygroundActionCommand {
 		mem_for_everything_else_mb = builder.getMemoryInBytesForEverythingElse() > 0
 			? (int) (builder.getMemoryInBytesForEverythingElse() / (1024 * 1024))
 			: -1;
+		mem_off_heap_mb = (int) (builder.getMemoryInBytesOffHeap() / (1024 *
+			1024));
+		adaptive = builder.getAdaptive();
 		if (builder.getLog()) {
 			log_ms = builder.getMsBetweenLog();
 		}
@@ -0,0 +1,103 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.command.workspace;
+
+import bdv.viewer.SourceAndConverter;
+import mpicbg.spim.data.generic.AbstractSpimData;
+import org.scijava.plugin.Menu;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sc.fiji.bdvpg.cache.CacheQuota;
+import sc.fiji.bdvpg.command.BdvPlaygroundActionCommand;
+import sc.fiji.bdvpg.scijava.BdvPgMenus;
+import sc.fiji.bdvpg.scijava.service.SourceService;
+
+import java.util.HashSet;
+import java.util.Set;
+
+@SuppressWarnings({ "CanBeFinal", "unused" }) // Because SciJava command fields
+																							// are set by SciJava
+																							// pre-processors
+
+@Plugin(type = BdvPlaygroundActionCommand.class,
+		menu = {
+				@Menu(label = BdvPgMenus.L1),
+				@Menu(label = BdvPgMenus.L2),
+				@Menu(label = BdvPgMenus.WorkspaceMenu, weight = BdvPgMenus.WorkspaceW),
+				@Menu(label = "Set Cache Quota", weight = 3.1)
+		},
+	description = "Sets a memory quota in the global cache for the selected sources (shared by all sources of a dataset)")
+public class CacheQuotaSetCommand implements BdvPlaygroundActionCommand {
+
+	final public static Logger logger = LoggerFactory.getLogger(
+		CacheQuotaSetCommand.class);
+
+	@Parameter(label = "Select Source(s)",
+			description = "The source(s) whose cache quota should be set")
+	SourceAndConverter<?>[] sources;
+
+	@Parameter(label = "Guaranteed minimum (MB)",
+			description = "The blocks of these sources are not evicted for other sources below this size (0 for none)")
+	int min_mb = 0;
+
+	@Parameter(label = "Hard cap (MB)",
+			description = "These sources can not use more than this size in the cache (negative for no cap)")
+	int max_mb = -1;
+
+	@Parameter
+	SourceService source_service;
+
+	@Override
+	public void run() {
+		CacheQuota quota = ((min_mb <= 0) && (max_mb < 0)) ? null
+			: new CacheQuota((long) Math.max(min_mb, 0) * 1024L * 1024L,
+				max_mb < 0 ? -1 : (long) max_mb * 1024L * 1024L);
+
+		Set<Object> owners = new HashSet<>();
+		for (SourceAndConverter<?> source : sources) {
+			Object owner = source_service.getCacheOwner(source);
+			if (!owners.add(owner)) continue;
+			if (owner instanceof AbstractSpimData) {
+				source_service.setMetadata((AbstractSpimData<?>) owner,
+					SourceService.CACHE_QUOTA, quota);
+			}
+			else if (quota == null) {
+				source_service.removeMetadata(source, SourceService.CACHE_QUOTA);
+			}
+			else {
+				source_service.setMetadata(source, SourceService.CACHE_QUOTA, quota);
+			}
+			logger.info("Cache quota of " + source.getSpimSource().getName() +
+				" : " + (quota == null ? "none" : quota));
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.command.workspace;
+
+import bdv.cache.SharedQueue;
+import org.scijava.plugin.Menu;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.prefs.PrefService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sc.fiji.bdvpg.cache.GlobalSharedQueue;
+import sc.fiji.bdvpg.cache.GlobalSharedQueue.Pool;
+import sc.fiji.bdvpg.command.BdvPlaygroundActionCommand;
+import sc.fiji.bdvpg.scijava.BdvPgMenus;
+import sc.fiji.bdvpg.scijava.service.SourceService;
+
+@SuppressWarnings({ "CanBeFinal", "unused" }) // Because SciJava command fields
+																							// are set by SciJava
+																							// pre-processors
+
+@Plugin(type = BdvPlaygroundActionCommand.class,
+		menu = {
+				@Menu(label = BdvPgMenus.L1),
+				@Menu(label = BdvPgMenus.L2),
+				@Menu(label = BdvPgMenus.WorkspaceMenu, weight = BdvPgMenus.WorkspaceW),
+				@Menu(label = "Set Fetcher Options", weight = 3.2)
+		},
+	description = "Sets the number of threads and priorities of the queues loading and computing the blocks of all sources (applied live)",
+	initializer = "initialize")
+public class FetcherOptionsSetCommand implements BdvPlaygroundActionCommand {
+
+	final public static Logger logger = LoggerFactory.getLogger(
+		FetcherOptionsSetCommand.class);
+
+	@Parameter
+	PrefService prefs;
+
+	@Parameter(label = "Number of fetcher threads",
+			description = "Threads reading blocks from files in the background (I/O bound, can exceed the number of cores)",
+		min = "1", persist = false)
+	int num_fetcher_threads;
+
+	@Parameter(label = "Virtual fetcher threads (Java 21+)",
+			description = "Reads blocks on virtual threads, for data on slow storage: the number of fetcher threads is then the number of reads in flight, and can be in the hundreds",
+		persist = false)
+	boolean virtual_fetcher_threads;
+
+	@Parameter(label = "Number of compute threads",
+			description = "Threads computing blocks of resampled or wrapped sources in the background (CPU bound)",
+		min = "1", persist = false)
+	int num_compute_threads;
+
+	@Parameter(label = "Number of priorities",
+			description = "Priority levels of the queues, one per resolution level is enough",
+		min = "1", persist = false)
+	int num_priorities;
+
+	@Override
+	public void run() {
+		if (virtual_fetcher_threads && !GlobalSharedQueue
+			.isVirtualThreadsSupported())
+		{
+			logger.warn("Virtual threads require Java 21 or later, using platform threads");
+			virtual_fetcher_threads = false;
+		}
+		GlobalSharedQueue.setVirtualThreads(Pool.IO, virtual_fetcher_threads,
+			num_fetcher_threads);
+		GlobalSharedQueue.set(Pool.IO, num_fetcher_threads, num_priorities);
+		GlobalSharedQueue.set(Pool.COMPUTE, num_compute_threads, num_priorities);
+		// Applied again at startup, see SourceService
+		prefs.put(SourceService.class, "queue.threads", num_fetcher_threads);
+		prefs.put(SourceService.class, "queue.virtual", virtual_fetcher_threads);
+		prefs.put(SourceService.class, "queue.compute.threads",
+			num_compute_threads);
+		prefs.put(SourceService.class, "queue.priorities", num_priorities);
+		logger.info("Shared queues : " + num_fetcher_threads + (virtual_fetcher_threads
+			? " virtual" : "") + " fetcher threads, " + num_compute_threads + " compute threads, " +
+			num_priorities + " priorities");
+	}
+
+	void initialize() {
+		SharedQueue queue = GlobalSharedQueue.getInstance();
+		int numFetcherThreads = GlobalSharedQueue.getNumFetcherThreads();
+		num_fetcher_threads = numFetcherThreads > 0 ? numFetcherThreads
+			: GlobalSharedQueue.DEFAULT_NUM_FETCHER_THREADS;
+		virtual_fetcher_threads = GlobalSharedQueue.isVirtualThreads(Pool.IO);
+		int numComputeThreads = GlobalSharedQueue.getNumFetcherThreads(
+			Pool.COMPUTE);
+		num_compute_threads = numComputeThreads > 0 ? numComputeThreads
+			: GlobalSharedQueue.DEFAULT_NUM_COMPUTE_THREADS;
+		num_priorities = queue.getNumPriorities();
+	}
+
+}
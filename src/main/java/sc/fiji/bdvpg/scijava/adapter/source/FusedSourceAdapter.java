@@ -0,0 +1,156 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.scijava.adapter.source;
+
+import bdv.util.FusedSource;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSerializationContext;
+import org.scijava.plugin.Plugin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sc.fiji.bdvpg.service.SourceAdapter;
+import sc.fiji.bdvpg.source.transform.SourceFuser;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+@Plugin(type = ISourceAdapter.class)
+public class FusedSourceAdapter implements ISourceAdapter<FusedSource> {
+
+	protected static final Logger logger = LoggerFactory.getLogger(
+		FusedSourceAdapter.class);
+
+	SourceAdapter sourceSerializer;
+
+	@Override
+	public void setSourceSerializer(SourceAdapter sourceSerializer) {
+		this.sourceSerializer = sourceSerializer;
+	}
+
+	@Override
+	public Class<FusedSource> getSourceClass() {
+		return FusedSource.class;
+	}
+
+	@Override
+	public JsonElement serialize(SourceAndConverter source, Type type,
+		JsonSerializationContext jsonSerializationContext)
+	{
+		JsonObject obj = new JsonObject();
+
+		FusedSource<?> fusedSource = (FusedSource<?>) source.getSpimSource();
+
+		obj.addProperty("type", FusedSource.class.getSimpleName());
+		obj.addProperty("name", fusedSource.getName());
+		obj.addProperty("method", fusedSource.getMethod().name());
+		obj.add("block_size", jsonSerializationContext.serialize(fusedSource
+			.getBlockSize()));
+
+		JsonArray idsOrigin = new JsonArray();
+		for (Source<?> origin : fusedSource.getOriginalSources()) {
+			Integer idOrigin = sourceSerializer.getSourceToId().get(origin);
+			if (idOrigin == null) {
+				logger.error("The fused source " + fusedSource.getName() +
+					" couldn't be serialized : origin source " + origin.getName() +
+					" not identified.");
+				return null;
+			}
+			idsOrigin.add(idOrigin);
+		}
+
+		Integer idModel = sourceSerializer.getSourceToId().get(fusedSource
+			.getModelSource());
+
+		if (idModel == null) {
+			logger.error("The fused source " + fusedSource.getName() +
+				" couldn't be serialized : model source not identified.");
+			return null;
+		}
+
+		obj.add("origin_source_ids", idsOrigin);
+		obj.addProperty("model_source_id", idModel);
+
+		return obj;
+	}
+
+	@Override
+	public SourceAndConverter<?> deserialize(JsonElement jsonElement, Type type,
+		JsonDeserializationContext jsonDeserializationContext)
+		throws JsonParseException
+	{
+		JsonObject obj = jsonElement.getAsJsonObject();
+		String name = obj.getAsJsonPrimitive("name").getAsString();
+		FusedSource.Method method = FusedSource.Method.valueOf(obj
+			.getAsJsonPrimitive("method").getAsString());
+		int[] blockSize = jsonDeserializationContext.deserialize(obj.get(
+			"block_size"), int[].class);
+
+		List<SourceAndConverter<?>> originSources = new ArrayList<>();
+		for (JsonElement idOrigin : obj.getAsJsonArray("origin_source_ids")) {
+			SourceAndConverter<?> originSource = getSource(idOrigin.getAsInt());
+			if (originSource == null) {
+				logger.error("Couldn't deserialize origin source " + idOrigin +
+					" of fused source " + name);
+				return null;
+			}
+			originSources.add(originSource);
+		}
+
+		SourceAndConverter<?> modelSource = getSource(obj.getAsJsonPrimitive(
+			"model_source_id").getAsInt());
+
+		if (modelSource == null) {
+			logger.error("Couldn't deserialize model source of fused source " +
+				name);
+			return null;
+		}
+
+		return new SourceFuser(originSources, modelSource, name, method,
+			blockSize).get();
+	}
+
+	private SourceAndConverter<?> getSource(int id) {
+		if (sourceSerializer.getIdToSac().containsKey(id)) {
+			// Already deserialized
+			return sourceSerializer.getIdToSac().get(id);
+		}
+		// Should be deserialized first
+		JsonElement element = sourceSerializer.idToJsonElement.get(id);
+		return sourceSerializer.getGson().fromJson(element,
+			SourceAndConverter.class);
+	}
+}
@@ -0,0 +1,132 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.scijava.adapter.source;
+
+import bdv.util.PyramidSource;
+import bdv.viewer.SourceAndConverter;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSerializationContext;
+import org.scijava.plugin.Plugin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sc.fiji.bdvpg.service.SourceAdapter;
+import sc.fiji.bdvpg.source.transform.SourcePyramidBuilder;
+
+import java.lang.reflect.Type;
+
+@Plugin(type = ISourceAdapter.class)
+public class PyramidSourceAdapter implements ISourceAdapter<PyramidSource> {
+
+	protected static final Logger logger = LoggerFactory.getLogger(
+		PyramidSourceAdapter.class);
+
+	SourceAdapter sourceSerializer;
+
+	@Override
+	public void setSourceSerializer(SourceAdapter sourceSerializer) {
+		this.sourceSerializer = sourceSerializer;
+	}
+
+	@Override
+	public Class<PyramidSource> getSourceClass() {
+		return PyramidSource.class;
+	}
+
+	@Override
+	public JsonElement serialize(SourceAndConverter source, Type type,
+		JsonSerializationContext jsonSerializationContext)
+	{
+		JsonObject obj = new JsonObject();
+
+		PyramidSource pyramidSource = (PyramidSource) source.getSpimSource();
+
+		obj.addProperty("type", PyramidSource.class.getSimpleName());
+		obj.addProperty("name", pyramidSource.getName());
+		obj.addProperty("method", pyramidSource.getMethod().name());
+		// 0 if picked automatically: picked again on deserialization
+		obj.addProperty("number_of_levels", pyramidSource.getRequestedNumLevels());
+		obj.add("block_size", jsonSerializationContext.serialize(pyramidSource
+			.getBlockSize()));
+
+		Integer idOrigin = sourceSerializer.getSourceToId().get(pyramidSource
+			.getOriginalSource());
+
+		if (idOrigin == null) {
+			logger.error("The pyramid source " + pyramidSource.getName() +
+				" couldn't be serialized : origin source not identified.");
+			return null;
+		}
+
+		obj.addProperty("origin_source_id", idOrigin);
+
+		return obj;
+	}
+
+	@Override
+	public SourceAndConverter<?> deserialize(JsonElement jsonElement, Type type,
+		JsonDeserializationContext jsonDeserializationContext)
+		throws JsonParseException
+	{
+		JsonObject obj = jsonElement.getAsJsonObject();
+		int origin_source_id = obj.getAsJsonPrimitive("origin_source_id")
+			.getAsInt();
+		String name = obj.getAsJsonPrimitive("name").getAsString();
+		PyramidSource.Method method = PyramidSource.Method.valueOf(obj
+			.getAsJsonPrimitive("method").getAsString());
+		int numLevels = obj.getAsJsonPrimitive("number_of_levels").getAsInt();
+		int[] blockSize = jsonDeserializationContext.deserialize(obj.get(
+			"block_size"), int[].class);
+
+		SourceAndConverter<?> originSource;
+
+		if (sourceSerializer.getIdToSac().containsKey(origin_source_id)) {
+			// Already deserialized
+			originSource = sourceSerializer.getIdToSac().get(origin_source_id);
+		}
+		else {
+			// Should be deserialized first
+			JsonElement element = sourceSerializer.idToJsonElement.get(origin_source_id);
+			originSource = sourceSerializer.getGson().fromJson(element,
+				SourceAndConverter.class);
+		}
+
+		if (originSource == null) {
+			logger.error("Couldn't deserialize origin source of pyramid source " +
+				name);
+			return null;
+		}
+
+		return new SourcePyramidBuilder(originSource, name, method, numLevels,
+			blockSize).get();
+	}
+}
@@ -29,6 +29,7 @@
 
 package sc.fiji.bdvpg.scijava.adapter.source;
 
+import bdv.util.RAIHelper;
 import bdv.util.ResampledSource;
 import bdv.viewer.Interpolation;
 import bdv.viewer.SourceAndConverter;
@@ -79,6 +80,13 @@ public class ResampledSourceAdapter implements ISourceAdapter<ResampledSource> {
 		obj.addProperty("name", resampledSource.getName());
 		obj.addProperty("mipmaps_reused", resampledSource.areMipmapsReused());
 		obj.addProperty("defaultMipmapLevel", resampledSource.getDefaultMipMapLevel());
+		int[] blockSize = resampledSource.getBlockSize();
+		if (blockSize == null) {
+			obj.addProperty("block_size", "auto");
+		}
+		else {
+			obj.add("block_size", jsonSerializationContext.serialize(blockSize));
+		}
 
 		Integer idOrigin = sourceSerializer.getSourceToId().get(resampledSource
 			.getOriginalSource());
@@ -121,6 +129,18 @@ public class ResampledSourceAdapter implements ISourceAdapter<ResampledSource> {
 			.getAsBoolean();
 		int defaultMipMapLevel = obj.getAsJsonPrimitive("defaultMipmapLevel")
 			.getAsInt();
+		// Absent from states saved before the block size could be set
+		int[] blockSize = RAIHelper.getDefaultBlockSize();
+		JsonElement blockSizeElement = obj.get("block_size");
+		if (blockSizeElement != null) {
+			if (blockSizeElement.isJsonPrimitive()) { // "auto"
+				blockSize = null;
+			}
+			else {
+				blockSize = jsonDeserializationContext.deserialize(blockSizeElement,
+					int[].class);
+			}
+		}
 
 		SourceAndConverter<?> originSource;
 		SourceAndConverter<?> modelSource;
@@ -160,6 +180,7 @@ public class ResampledSourceAdapter implements ISourceAdapter<ResampledSource> {
 		}
 
 		return new SourceResampler(originSource, modelSource, name, reuseMipMaps, cache,
-			interpolation.equals(Interpolation.NLINEAR), defaultMipMapLevel).get();
+			interpolation.equals(Interpolation.NLINEAR), defaultMipMapLevel, blockSize)
+				.get();
 	}
 }
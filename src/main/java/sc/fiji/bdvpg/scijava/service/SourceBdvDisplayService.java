@@ -29,6 +29,7 @@
 
 package sc.fiji.bdvpg.scijava.service;
 
+import bdv.cache.SharedQueue;
 import bdv.util.BdvHandle;
 import bdv.viewer.SourceAndConverter;
 import com.google.gson.Gson;
@@ -45,6 +46,8 @@ import org.scijava.service.SciJavaService;
 import org.scijava.service.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import sc.fiji.bdvpg.cache.GlobalSharedQueue;
+import sc.fiji.bdvpg.cache.ViewerAwareSharedQueue;
 import sc.fiji.bdvpg.viewer.bdv.BdvHandleHelper;
 import sc.fiji.bdvpg.scijava.service.tree.SourceTreeModel;
 import sc.fiji.bdvpg.service.SourceServices;
@@ -531,6 +534,16 @@ public class SourceBdvDisplayService extends AbstractService
 			// closed by the user
 			BdvHandleHelper.setBdvHandleCloseOperation(bdvh, cacheService, this, true,
 				() -> sourceService.tree().removeBdvHandleNodes(bdvh));
+
+			// ------------ Signals the frames of this window to the shared
+			// queues, which load the cells of its current frame first
+			for (GlobalSharedQueue.Pool pool : GlobalSharedQueue.Pool.values()) {
+				SharedQueue queue = GlobalSharedQueue.getInstance(pool);
+				if (queue instanceof ViewerAwareSharedQueue) {
+					bdvh.getCacheControls().addCacheControl(
+						((ViewerAwareSharedQueue) queue).getFrameControl(windowTitle));
+				}
+			}
 		}
 	}
 
@@ -77,7 +77,9 @@ import org.scijava.ui.UIService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import sc.fiji.bdvpg.cache.AbstractGlobalCache;
+import sc.fiji.bdvpg.cache.CacheQuota;
 import sc.fiji.bdvpg.cache.GlobalCacheBuilder;
+import sc.fiji.bdvpg.cache.GlobalCacheMetrics;
 import sc.fiji.bdvpg.cache.GlobalLoaderCache;
 import sc.fiji.bdvpg.cache.GlobalSharedQueue;
 import sc.fiji.bdvpg.command.BdvPlaygroundActionCommand;
@@ -198,6 +200,7 @@ public class SourceService extends AbstractService implements
 		}
 		else {
 			sourceToMetadata.getIfPresent(source).put(key, data);
+			if (CACHE_QUOTA.equals(key)) setCacheQuota(getCacheOwner(source), data);
 		}
 	}
 
@@ -217,6 +220,7 @@ public class SourceService extends AbstractService implements
 		Map<String, Object> metadata = sourceToMetadata.getIfPresent(source);
 		if (metadata != null) {
 			metadata.remove(key);
+			if (CACHE_QUOTA.equals(key)) setCacheQuota(getCacheOwner(source), null);
 		}
 	}
 
@@ -348,13 +352,46 @@ public class SourceService extends AbstractService implements
 		return globalCache;
 	}
 
+	/**
+	 * @param source a source
+	 * @return the object owning the blocks of this source in the global cache:
+	 *         its dataset if it belongs to one, the spim source otherwise
+	 */
+	public Object getCacheOwner(SourceAndConverter<?> source) {
+		Object info = getMetadata(source, SPIM_DATA_INFO);
+		if (info != null) return ((SpimDataInfo) info).asd;
+		return source.getSpimSource();
+	}
+
+	/**
+	 * Applies a cache quota set through the metadata of a source or a dataset,
+	 * see {@link ISourceService#CACHE_QUOTA}
+	 */
+	private void setCacheQuota(Object owner, Object quota) {
+		if (globalCache == null) return;
+		if (quota == null) {
+			globalCache.setQuota(owner, null);
+		}
+		else if (quota instanceof CacheQuota) {
+			globalCache.setQuota(owner, (CacheQuota) quota);
+		}
+		else {
+			try {
+				globalCache.setQuota(owner, CacheQuota.parse(quota.toString()));
+			}
+			catch (IllegalArgumentException e) {
+				logger.error(e.getMessage());
+			}
+		}
+	}
+
 	private boolean replaceSpimDataCacheByGlobalCache(AbstractSpimData<?> asd) {
 		LoaderCache loaderCache = new GlobalLoaderCache(asd);
 		BasicImgLoader imageLoader = asd.getSequenceDescription().getImgLoader();
-		// Reuse the process-wide shared queue instead of spawning a new pool of
-		// fetcher threads for every registered SpimData (see GlobalSharedQueue).
+		// Reuse the process-wide I/O shared queue instead of spawning a new pool
+		// of fetcher threads for every registered SpimData (see GlobalSharedQueue).
 		VolatileGlobalCellCache cache = new VolatileGlobalCellCache(
-			GlobalSharedQueue.getInstance());
+			GlobalSharedQueue.getInstance(GlobalSharedQueue.Pool.IO));
 		// Now override the backingCache field of the VolatileGlobalCellCache
 		try {
 			Field backingCacheField = VolatileGlobalCellCache.class.getDeclaredField(
@@ -798,6 +835,39 @@ public class SourceService extends AbstractService implements
 			globalCache = GlobalCacheBuilder.builder().create();
 		}
 
+		// Fetcher threads and priorities of the shared queues, if set by the
+		// user (see FetcherOptionsSetCommand)
+		int numFetcherThreads = prefService.getInt(this.getClass(),
+			"queue.threads", -1);
+		int numComputeThreads = prefService.getInt(this.getClass(),
+			"queue.compute.threads", -1);
+		int numPriorities = prefService.getInt(this.getClass(), "queue.priorities",
+			-1);
+		if ((numFetcherThreads > 0) && (numPriorities > 0)) {
+			if (prefService.getBoolean(this.getClass(), "queue.virtual", false) &&
+				GlobalSharedQueue.isVirtualThreadsSupported())
+			{
+				GlobalSharedQueue.setVirtualThreads(GlobalSharedQueue.Pool.IO, true,
+					numFetcherThreads);
+			}
+			GlobalSharedQueue.set(GlobalSharedQueue.Pool.IO, numFetcherThreads,
+				numPriorities);
+		}
+		if ((numComputeThreads > 0) && (numPriorities > 0)) {
+			GlobalSharedQueue.set(GlobalSharedQueue.Pool.COMPUTE, numComputeThreads,
+				numPriorities);
+		}
+
+		// Datasets are named as in the source tree in the JMX metrics
+		globalCache.getMetrics().setSourceNamer(source -> {
+			if (source instanceof AbstractSpimData) {
+				Object name = getMetadata((AbstractSpimData) source, "NAME");
+				if (name != null) return name.toString();
+			}
+			return GlobalCacheMetrics.defaultName(source);
+		});
+		GlobalCacheMetrics.register(globalCache.getMetrics());
+
 		if (!uiService.isHeadless()) {
 			logger.debug(
 					"GUI detected : Constructing JFrame for BdvSourceAndConverterService");
@@ -1046,6 +1116,7 @@ public class SourceService extends AbstractService implements
 			spimdataToMetadata.put(asd, sourceData);
 		}
 		spimdataToMetadata.getIfPresent(asd).put(key, data);
+		if (CACHE_QUOTA.equals(key)) setCacheQuota(asd, data);
 	}
 
 	@Override
@@ -0,0 +1,188 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.scijava.service.tree;
+
+import bdv.cache.SharedQueue;
+import sc.fiji.bdvpg.cache.AbstractGlobalCache;
+import sc.fiji.bdvpg.cache.GlobalCacheMetrics;
+import sc.fiji.bdvpg.cache.GlobalSharedQueue;
+import sc.fiji.bdvpg.cache.QueueMetrics;
+import sc.fiji.bdvpg.cache.ViewerAwareSharedQueue;
+
+import javax.swing.JButton;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.function.Supplier;
+
+/**
+ * Live view of the fetch queues and cache metrics, to tell whether slow
+ * rendering comes from the queue backlog (long waits), from slow sources (long
+ * executions) or from cache misses. Opened from the source tree window
+ * (Workspace &gt; Fetch Monitor), refreshed every second while visible.
+ *
+ * @author Nicolas Chiaruttini
+ */
+public class FetchMonitor {
+
+	static final int REFRESH_MS = 1000;
+
+	final JFrame frame;
+
+	final JTextArea text = new JTextArea();
+
+	final Supplier<AbstractGlobalCache> cache;
+
+	public FetchMonitor(Supplier<AbstractGlobalCache> cache) {
+		this.cache = cache;
+		frame = new JFrame("Fetch Monitor");
+		text.setEditable(false);
+		text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+
+		JButton reset = new JButton("Reset");
+		reset.addActionListener(e -> {
+			for (GlobalSharedQueue.Pool pool : GlobalSharedQueue.Pool.values()) {
+				SharedQueue queue = GlobalSharedQueue.getInstance(pool);
+				if (queue instanceof ViewerAwareSharedQueue) {
+					((ViewerAwareSharedQueue) queue).getMetrics().reset();
+				}
+			}
+			cache.get().getMetrics().reset();
+			refresh();
+		});
+
+		JPanel panel = new JPanel(new BorderLayout());
+		panel.add(new JScrollPane(text), BorderLayout.CENTER);
+		panel.add(reset, BorderLayout.SOUTH);
+		frame.add(panel);
+		frame.setPreferredSize(new Dimension(700, 500));
+		frame.pack();
+
+		Timer timer = new Timer(REFRESH_MS, e -> refresh());
+		frame.addWindowListener(new WindowAdapter() {
+
+			@Override
+			public void windowClosing(WindowEvent e) {
+				timer.stop();
+			}
+		});
+		refresh();
+		timer.start();
+	}
+
+	public void show() {
+		frame.setVisible(true);
+	}
+
+	void refresh() {
+		text.setText(getReport(GlobalSharedQueue.getInstance(), GlobalSharedQueue
+			.getComputeInstance(), cache.get()));
+		text.setCaretPosition(0);
+	}
+
+	/**
+	 * @param queue shared queue
+	 * @param cache global cache
+	 * @return a text report of the queue and cache metrics
+	 */
+	public static String getReport(SharedQueue queue, AbstractGlobalCache cache) {
+		return getReport(queue, null, cache);
+	}
+
+	/**
+	 * @param ioQueue shared queue of the I/O pool
+	 * @param computeQueue shared queue of the compute pool, or null
+	 * @param cache global cache
+	 * @return a text report of the queues and cache metrics
+	 */
+	public static String getReport(SharedQueue ioQueue, SharedQueue computeQueue,
+		AbstractGlobalCache cache)
+	{
+		StringBuilder report = new StringBuilder();
+		if (computeQueue == null) {
+			appendQueueReport(report, "Queue", ioQueue);
+		}
+		else {
+			appendQueueReport(report, "I/O queue", ioQueue);
+			report.append("\n");
+			appendQueueReport(report, "Compute queue", computeQueue);
+		}
+		GlobalCacheMetrics metrics = cache.getMetrics();
+		report.append("\nCache : ").append(metrics.getTotal()).append("\n");
+		report.append("Loads through the queues : ").append(metrics.getTotal()
+			.getQueueWaits().getCount()).append("\n\nSources\n");
+		for (String line : metrics.getSourceSummary()) {
+			report.append("  ").append(line).append("\n");
+		}
+		return report.toString();
+	}
+
+	static void appendQueueReport(StringBuilder report, String title,
+		SharedQueue queue)
+	{
+		if (queue instanceof ViewerAwareSharedQueue) {
+			ViewerAwareSharedQueue viewerAwareQueue = (ViewerAwareSharedQueue) queue;
+			QueueMetrics metrics = viewerAwareQueue.getMetrics();
+			int[] depths = metrics.getDepthPerPriority();
+			report.append(title).append(" : ").append(viewerAwareQueue
+				.getNumFetcherThreads()).append(viewerAwareQueue.isVirtualThreads()
+					? " virtual threads, " : " threads, ").append(viewerAwareQueue.getNumQueued())
+				.append(" queued, ").append(metrics.getNumStale()).append(" stale, ")
+				.append(metrics.getNumCancelled()).append(" cancelled\n\n");
+			report.append(String.format("%8s %8s %10s %12s %12s%n", "Priority",
+				"Depth", "Executed", "Wait (ms)", "Exec (ms)"));
+			for (int p = 0; p < depths.length; p++) {
+				if ((depths[p] == 0) && (metrics.getExecutions(p).getCount() == 0))
+					continue;
+				report.append(String.format("%8d %8d %10d %12.1f %12.1f%n", p,
+					depths[p], metrics.getExecutions(p).getCount(), metrics.getWaits(p)
+						.getMeanMs(), metrics.getExecutions(p).getMeanMs()));
+			}
+			report.append("\nWait      : ").append(metrics.getWaits()).append("\n");
+			report.append("Execution : ").append(metrics.getExecutions()).append(
+				"\n\nViewers\n");
+			for (String line : metrics.getViewerSummary()) {
+				report.append("  ").append(line).append("\n");
+			}
+		}
+		else {
+			report.append(title).append(" is not instrumented (").append(queue
+				.getClass().getSimpleName()).append(")\n");
+		}
+	}
+
+}
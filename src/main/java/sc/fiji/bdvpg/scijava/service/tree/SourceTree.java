@@ -38,6 +38,7 @@ import org.scijava.command.CommandService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import sc.fiji.bdvpg.PlaygroundPrefs;
+import sc.fiji.bdvpg.cache.AbstractGlobalCache;
 import sc.fiji.bdvpg.command.display.bdv.BdvCloseCommand;
 import sc.fiji.bdvpg.command.process.SourceDeleteCommand;
 import sc.fiji.bdvpg.viewer.bdv.BdvHandleHelper;
@@ -225,7 +226,7 @@ public class SourceTree {
 
 				@Override
 				public void run() {
-					SwingUtilities.invokeLater(() -> cacheLabel.setText(sourceAndConverterService.getCache().toString()));
+					SwingUtilities.invokeLater(() -> cacheLabel.setText(getCacheDescription()));
 				}
 			};
 
@@ -253,6 +254,16 @@ public class SourceTree {
 		}
 	}
 
+	/**
+	 * @return the text of the cache label: cache occupancy, and the current
+	 *         budget if the cache size is adaptive
+	 */
+	String getCacheDescription() {
+		AbstractGlobalCache cache = sourceAndConverterService.getCache();
+		if (cache.getAdaptiveSizer() == null) return cache.toString();
+		return cache + " - " + cache.getAdaptiveSizer();
+	}
+
 	public void show() {
 		if ((guiAvailable)&&(PlaygroundPrefs.getSourceTreeVisibility())) {
 			frame.setVisible(true);
@@ -336,6 +347,12 @@ public class SourceTree {
 
 		treeMenu.add(deleteInspectNodesMenuItem);
 		treeMenu.add(addShowAllFilterNodeMenuItem);
+
+		// Live queue and cache metrics
+		JMenuItem fetchMonitorMenuItem = new JMenuItem("Fetch Monitor");
+		fetchMonitorMenuItem.addActionListener(e -> new FetchMonitor(
+			sourceAndConverterService::getCache).show());
+		workspaceMenu.add(fetchMonitorMenuItem);
 	}
 
 	/**
@@ -33,6 +33,8 @@ import bdv.AbstractSpimSource;
 import bdv.img.WarpedSource;
 import bdv.img.cache.VolatileGlobalCellCache;
 import bdv.tools.transformation.TransformedSource;
+import bdv.util.FusedSource;
+import bdv.util.PyramidSource;
 import bdv.util.ResampledSource;
 import bdv.viewer.Source;
 import bdv.viewer.SourceAndConverter;
@@ -50,6 +52,7 @@ import net.imglib2.realtransform.RealTransform;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import sc.fiji.bdvpg.cache.AbstractGlobalCache;
+import sc.fiji.bdvpg.cache.CacheQuota;
 import sc.fiji.bdvpg.scijava.service.SourceService;
 import sc.fiji.bdvpg.scijava.service.RenamableSource;
 import sc.fiji.bdvpg.service.ISourceService;
@@ -59,6 +62,7 @@ import sc.fiji.bdvpg.source.SourceHelper;
 import javax.swing.tree.DefaultMutableTreeNode;
 import java.io.File;
 import java.lang.reflect.Field;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -313,6 +317,11 @@ public class SourceInspector {
 				else {
 					cacheNode.add(new DefaultMutableTreeNode("No data in cache"));
 				}
+
+				CacheQuota quota = globalCache.getQuota(resampledSource);
+				if (quota != null) {
+					cacheNode.add(new DefaultMutableTreeNode(quota.toString()));
+				}
 			}
 		}
 		catch (Exception e) {
@@ -322,6 +331,71 @@ public class SourceInspector {
 			appendMetadata(nodeResampledSource, source);
 		}
 
+		else if (source.getSpimSource() instanceof FusedSource) {
+			DefaultMutableTreeNode nodeFusedSource = new DefaultMutableTreeNode(
+				"Fused Source");
+			parent.add(nodeFusedSource);
+			FusedSource<?> fusedSource = (FusedSource<?>) source.getSpimSource();
+
+			DefaultMutableTreeNode nodeOrigins = new DefaultMutableTreeNode(
+				"Origins");
+			nodeFusedSource.add(nodeOrigins);
+			for (Source<?> origin : fusedSource.getOriginalSources()) {
+				subSources.addAll(appendWrappedSource(nodeOrigins, origin,
+					sourceAndConverterService, registerIntermediateSources));
+			}
+
+			DefaultMutableTreeNode nodeModel = new DefaultMutableTreeNode(
+				"Sampler Model");
+			nodeFusedSource.add(nodeModel);
+			subSources.addAll(appendWrappedSource(nodeModel, fusedSource
+				.getModelSource(), sourceAndConverterService,
+				registerIntermediateSources));
+
+			nodeFusedSource.add(new DefaultMutableTreeNode("Method: " + fusedSource
+				.getMethod()));
+			appendMetadata(nodeFusedSource, source);
+		}
+
+		else if (source.getSpimSource() instanceof PyramidSource) {
+			DefaultMutableTreeNode nodePyramidSource = new DefaultMutableTreeNode(
+				"Pyramid Source");
+			parent.add(nodePyramidSource);
+			PyramidSource<?> pyramidSource = (PyramidSource<?>) source.getSpimSource();
+
+			if (!sourceAndConverterService.getSourcesFromSpimSource(pyramidSource
+				.getOriginalSource()).isEmpty())
+			{
+				// at least a SourceAndConverter already exists for this source
+				sourceAndConverterService.getSourcesFromSpimSource(pyramidSource
+					.getOriginalSource()).forEach((src) -> {
+						DefaultMutableTreeNode wrappedSourceNode =
+							new DefaultMutableTreeNode(new RenamableSource(src));
+						nodePyramidSource.add(wrappedSourceNode);
+						subSources.addAll(appendInspectorResult(wrappedSourceNode, src,
+							sourceAndConverterService, registerIntermediateSources));
+					});
+			}
+			else {
+				// no source and converter exist for this source : creates it
+				SourceAndConverter<?> src = SourceHelper
+					.createSourceAndConverter(pyramidSource.getOriginalSource());
+				if (registerIntermediateSources) {
+					sourceAndConverterService.register(src);
+				}
+				DefaultMutableTreeNode wrappedSourceNode = new DefaultMutableTreeNode(
+					new RenamableSource(src));
+				nodePyramidSource.add(wrappedSourceNode);
+				subSources.addAll(appendInspectorResult(wrappedSourceNode, src,
+					sourceAndConverterService, registerIntermediateSources));
+			}
+			nodePyramidSource.add(new DefaultMutableTreeNode("Method: " +
+				pyramidSource.getMethod()));
+			nodePyramidSource.add(new DefaultMutableTreeNode("Levels: " +
+				pyramidSource.getNumMipmapLevels()));
+			appendMetadata(nodePyramidSource, source);
+		}
+
 		else if (source.getSpimSource() instanceof AbstractSpimSource) {
 			DefaultMutableTreeNode nodeSpimSource = new DefaultMutableTreeNode(
 				"Spim Source");
@@ -348,6 +422,43 @@ public class SourceInspector {
 		return subSources;
 	}
 
+	/**
+	 * Appends the inspection of a source wrapped by another one, creating its
+	 * {@link SourceAndConverter} if none exists yet
+	 *
+	 * @param node node where the wrapped source is appended
+	 * @param wrapped wrapped source
+	 * @param sourceAndConverterService source service
+	 * @param registerIntermediateSources if a created source should be registered
+	 * @return the set of sources that were necessary to build the wrapped source
+	 */
+	private static Set<SourceAndConverter<?>> appendWrappedSource(
+		DefaultMutableTreeNode node, Source<?> wrapped,
+		ISourceService sourceAndConverterService,
+		boolean registerIntermediateSources)
+	{
+		Set<SourceAndConverter<?>> subSources = new HashSet<>();
+		List<SourceAndConverter<?>> sources = sourceAndConverterService
+			.getSourcesFromSpimSource(wrapped);
+		if (sources.isEmpty()) {
+			// no source and converter exist for this source : creates it
+			SourceAndConverter<?> src = SourceHelper.createSourceAndConverter(
+				wrapped);
+			if (registerIntermediateSources) {
+				sourceAndConverterService.register(src);
+			}
+			sources = Collections.singletonList(src);
+		}
+		for (SourceAndConverter<?> src : sources) {
+			DefaultMutableTreeNode wrappedSourceNode = new DefaultMutableTreeNode(
+				new RenamableSource(src));
+			node.add(wrappedSourceNode);
+			subSources.addAll(appendInspectorResult(wrappedSourceNode, src,
+				sourceAndConverterService, registerIntermediateSources));
+		}
+		return subSources;
+	}
+
 	/**
 	 * Returns the root {@link SourceAndConverter} in the sense that it finds the
 	 * original source at the root of this source
@@ -652,6 +763,22 @@ public class SourceInspector {
         // Get the source to query dimensions
         Source<?> spimSource = source.getSpimSource();
 
+        // Cache usage and quota of the whole dataset
+        try {
+            AbstractGlobalCache globalCache = SourceServices
+                .getSourceService().getCache();
+            if (globalCache != null) {
+                AbstractGlobalCache.CacheStats datasetStats = globalCache.getCacheStats(asd, -1);
+                String datasetInfo = "Dataset cache: " + datasetStats.numberOfCells + " cells, " +
+                    datasetStats.getSizeInMB() + " MB";
+                CacheQuota quota = globalCache.getQuota(asd);
+                if (quota != null) datasetInfo += " - " + quota;
+                registrationsNode.add(new DefaultMutableTreeNode(datasetInfo));
+            }
+        } catch (Exception e) {
+            logger.debug("Could not get cache stats for dataset: " + e.getMessage());
+        }
+
         // Get timepoints
         List<TimePoint> timePoints = asd.getSequenceDescription()
             .getTimePoints().getTimePointsOrdered();
@@ -0,0 +1,318 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.service;
+
+import bdv.cache.SharedQueue;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import mpicbg.spim.data.generic.AbstractSpimData;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.util.Intervals;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sc.fiji.bdvpg.cache.AbstractGlobalCache;
+import sc.fiji.bdvpg.cache.GlobalCacheKey;
+import sc.fiji.bdvpg.cache.SpimDataKeys;
+import sc.fiji.bdvpg.scijava.service.SourceService;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Hot set of the global cache, saved next to a state file so that the cells
+ * which were viewed last can be prefetched when the state is loaded again,
+ * instead of starting with a cold cache.
+ * <p>
+ * Each cell is identified by the id of a serialized source (its
+ * {@code source_id} in the state file), its setup (for SpimData sources, -1
+ * otherwise), timepoint, resolution level and cell index. Only cells of
+ * sources saved in the state file are kept.
+ * <p>
+ * On load, the cells are fetched in the background, hottest first, through
+ * the shared fetcher queue of their source
+ * ({@link sc.fiji.bdvpg.cache.GlobalSharedQueue#getInstanceFor}: I/O or
+ * compute pool) at its lowest priority, so that cells requested by the
+ * viewers are always loaded first. Prefetching stops when the cache budget is nearly reached.
+ *
+ * @author Nicolas Chiaruttini
+ */
+public class CacheHotSet {
+
+	protected static final Logger logger = LoggerFactory.getLogger(
+		CacheHotSet.class);
+
+	/** Maximal number of cells saved */
+	public static final int MAX_CELLS = 10_000;
+
+	/** Prefetching stops when the cache is filled at this ratio */
+	public static final double BUDGET_RATIO = 0.9;
+
+	/** Maximal number of prefetch tasks queued at the same time */
+	static final int MAX_TASKS_IN_FLIGHT = 16;
+
+	/** Time after which queued tasks are considered dropped by the queue */
+	static final long TASK_TIMEOUT_MS = 5_000;
+
+	/**
+	 * A cached cell, as serialized
+	 */
+	public static class Cell {
+
+		public int source_id;
+
+		public int setup;
+
+		public int timepoint;
+
+		public int level;
+
+		public long cell;
+
+		public Cell(int source_id, int setup, int timepoint, int level,
+			long cell)
+		{
+			this.source_id = source_id;
+			this.setup = setup;
+			this.timepoint = timepoint;
+			this.level = level;
+			this.cell = cell;
+		}
+	}
+
+	/**
+	 * @param stateFile state file
+	 * @return the file storing the hot set of this state file
+	 */
+	public static File getHotSetFile(File stateFile) {
+		String name = stateFile.getName();
+		if (name.toLowerCase().endsWith(".json")) name = name.substring(0, name
+			.length() - 5);
+		return new File(stateFile.getParentFile(), name + ".cache.json");
+	}
+
+	/**
+	 * Lists the hottest cells of the cache which belong to the saved sources.
+	 *
+	 * @param cache global cache
+	 * @param sourceService source service, used to know the dataset and setup
+	 *          of sources
+	 * @param sacToId ids of the saved sources
+	 * @param maxCells maximal number of cells
+	 * @return the hot cells, hottest first
+	 */
+	public static List<Cell> collect(AbstractGlobalCache cache,
+		SourceService sourceService, Map<SourceAndConverter<?>, Integer> sacToId,
+		int maxCells)
+	{
+		// Owners of the cache keys: spim source or (dataset, setup)
+		Map<Source<?>, Integer> sourceToId = new HashMap<>();
+		Map<AbstractSpimData<?>, Map<Integer, Integer>> setupToId = new HashMap<>();
+		sacToId.forEach((sac, id) -> {
+			sourceToId.putIfAbsent(sac.getSpimSource(), id);
+			Object info = sourceService.getMetadata(sac,
+				ISourceService.SPIM_DATA_INFO);
+			if (info != null) {
+				SourceService.SpimDataInfo spimDataInfo =
+					(SourceService.SpimDataInfo) info;
+				setupToId.computeIfAbsent(spimDataInfo.asd, asd -> new HashMap<>())
+					.putIfAbsent(spimDataInfo.setupId, id);
+			}
+		});
+
+		List<Cell> cells = new ArrayList<>();
+		// Keys of unsaved sources are skipped: more keys are requested
+		for (GlobalCacheKey key : cache.getHotKeys(maxCells * 4)) {
+			if (cells.size() >= maxCells) break;
+			Object source = key.getSource();
+			Object innerKey = key.getKey();
+			if ((source == null) || (innerKey == null)) continue;
+			try {
+				if (SpimDataKeys.isReadable(innerKey)) {
+					int setup = SpimDataKeys.getSetup(innerKey);
+					Map<Integer, Integer> ids = setupToId.get(source);
+					if ((ids == null) || (!ids.containsKey(setup))) continue;
+					cells.add(new Cell(ids.get(setup), setup, SpimDataKeys.getTimepoint(
+						innerKey), SpimDataKeys.getLevel(innerKey), (long) SpimDataKeys
+							.getKey(innerKey)));
+				}
+				else if ((innerKey instanceof Long) && sourceToId.containsKey(
+					source))
+				{
+					cells.add(new Cell(sourceToId.get(source), -1, key.getTimepoint(), key
+						.getLevel(), (Long) innerKey));
+				}
+			}
+			catch (IllegalAccessException e) {
+				logger.debug("Could not read SpimData key: " + e.getMessage());
+			}
+		}
+		return cells;
+	}
+
+	public static void save(File file, List<Cell> cells) throws IOException {
+		try (Writer writer = new FileWriter(file)) {
+			new Gson().toJson(cells, writer);
+		}
+	}
+
+	public static List<Cell> load(File file) throws IOException {
+		try (Reader reader = new FileReader(file)) {
+			List<Cell> cells = new Gson().fromJson(reader, new TypeToken<List<Cell>>()
+			{}.getType());
+			return cells == null ? new ArrayList<>() : cells;
+		}
+	}
+
+	/**
+	 * Prefetches cells in a background (daemon) thread, which feeds the queues
+	 * with a few tasks at a time, at their lowest priority.
+	 *
+	 * @param cells cells to prefetch, hottest first
+	 * @param idToSac loaded sources, by id
+	 * @param cache global cache, used to stop when its budget is reached
+	 * @param queueFor fetcher queue of a source, see
+	 *          {@link sc.fiji.bdvpg.cache.GlobalSharedQueue#getInstanceFor}
+	 * @return the prefetching thread
+	 */
+	public static Thread prefetch(List<Cell> cells,
+		Map<Integer, SourceAndConverter<?>> idToSac, AbstractGlobalCache cache,
+		Function<Source<?>, SharedQueue> queueFor)
+	{
+		Thread thread = new Thread(() -> {
+			final Semaphore permits = new Semaphore(MAX_TASKS_IN_FLIGHT);
+			final Set<Permit> pending = ConcurrentHashMap.newKeySet();
+			int prefetched = 0;
+			for (Cell cell : cells) {
+				if (Thread.currentThread().isInterrupted()) break;
+				if (cache.getEstimatedSize() >= BUDGET_RATIO * cache.getMaxSize()) {
+					logger.info("Cache budget reached, hot set prefetching stopped");
+					break;
+				}
+				final SourceAndConverter<?> sac = idToSac.get(cell.source_id);
+				if (sac == null) continue;
+				try {
+					while (!permits.tryAcquire(TASK_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+						// The queue may drop low priority tasks, when BigDataViewer
+						// clears it to prefetch: the permits of the pending tasks are
+						// given back, each one at most once
+						for (Permit permit : pending)
+							permit.release();
+					}
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				final Permit permit = new Permit(permits, pending);
+				final SharedQueue queue = queueFor.apply(sac.getSpimSource());
+				queue.put(() -> {
+					try {
+						loadCell(sac.getSpimSource(), cell);
+					}
+					finally {
+						permit.release();
+					}
+					return null;
+				}, queue.getNumPriorities() - 1, false);
+				prefetched++;
+			}
+			logger.info(prefetched + " cells of the cache hot set queued for prefetching");
+		}, "Cache hot set prefetcher");
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Permit held by a queued prefetch task, given back when the task is done
+	 * or when it is considered dropped, whichever comes first
+	 */
+	private static final class Permit {
+
+		private final Semaphore permits;
+
+		private final Set<Permit> pending;
+
+		private final AtomicBoolean held = new AtomicBoolean(true);
+
+		Permit(Semaphore permits, Set<Permit> pending) {
+			this.permits = permits;
+			this.pending = pending;
+			pending.add(this);
+		}
+
+		void release() {
+			if (held.compareAndSet(true, false)) {
+				pending.remove(this);
+				permits.release();
+			}
+		}
+	}
+
+	/**
+	 * Loads a single cell, provided the source image is a cell image (sources
+	 * of a dataset, or sources cached with a
+	 * {@link sc.fiji.bdvpg.cache.GlobalLoaderCache}). Otherwise, nothing is
+	 * done.
+	 */
+	static void loadCell(Source<?> source, Cell cell) {
+		if (!source.isPresent(cell.timepoint)) return;
+		if (cell.level >= source.getNumMipmapLevels()) return;
+		RandomAccessibleInterval<?> rai = source.getSource(cell.timepoint,
+			cell.level);
+		if (!(rai instanceof AbstractCellImg)) return;
+		AbstractCellImg<?, ?, ?, ?> img = (AbstractCellImg<?, ?, ?, ?>) rai;
+		long[] position = new long[img.numDimensions()];
+		if (cell.cell >= Intervals.numElements(img.getCellGrid()
+			.getGridDimensions())) return;
+		img.getCellGrid().getCellGridPositionFlat(cell.cell, position);
+		RandomAccess<?> access = img.getCells().randomAccess();
+		access.setPosition(position);
+		access.get();
+	}
+
+}
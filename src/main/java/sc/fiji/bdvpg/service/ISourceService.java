@@ -67,6 +67,15 @@ public interface ISourceService {
 
 	String SPIM_DATA_LOCATION = "SPIM_DATA_LOCATION";
 
+	/**
+	 * Reserved key for the data map: a {@link sc.fiji.bdvpg.cache.CacheQuota},
+	 * or its String representation (see
+	 * {@link sc.fiji.bdvpg.cache.CacheQuota#parse(String)}), applied to the
+	 * global cache when set. For sources of a dataset, the quota is shared by
+	 * all sources of the dataset.
+	 */
+	String CACHE_QUOTA = "CACHE_QUOTA";
+
 	/**
 	 * Test if a Source is already registered in the Service
 	 * 
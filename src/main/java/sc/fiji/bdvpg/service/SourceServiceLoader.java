@@ -33,10 +33,13 @@ import bdv.viewer.SourceAndConverter;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import org.scijava.Context;
+import sc.fiji.bdvpg.cache.AbstractGlobalCache;
+import sc.fiji.bdvpg.cache.GlobalSharedQueue;
 
 import java.io.File;
 import java.io.FileReader;
 import java.util.HashMap;
+import java.util.List;
 
 public class SourceServiceLoader extends SourceAdapter
 	implements Runnable
@@ -109,5 +112,27 @@ public class SourceServiceLoader extends SourceAdapter
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
+
+		prefetchCacheHotSet();
+	}
+
+	/**
+	 * Prefetches in the background the cells which were in the cache when the
+	 * state was saved, if they have been saved, see {@link CacheHotSet}
+	 */
+	void prefetchCacheHotSet() {
+		File hotSetFile = CacheHotSet.getHotSetFile(new File(filePath));
+		AbstractGlobalCache cache = SourceServices.getSourceService().getCache();
+		if ((!hotSetFile.exists()) || (cache == null)) return;
+		try {
+			List<CacheHotSet.Cell> cells = CacheHotSet.load(hotSetFile);
+			logger.info("Prefetching " + cells.size() + " cells of the cache hot set");
+			// Cells of computed sources go to the compute pool, not to the I/O one
+			CacheHotSet.prefetch(cells, getIdToSac(), cache,
+				GlobalSharedQueue::getInstanceFor);
+		}
+		catch (Exception e) {
+			logger.warn("Couldn't read cache hot set file: " + e.getMessage());
+		}
 	}
 }
@@ -35,6 +35,7 @@ import mpicbg.spim.data.generic.AbstractSpimData;
 import org.scijava.Context;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import sc.fiji.bdvpg.cache.AbstractGlobalCache;
 import sc.fiji.bdvpg.scijava.service.SourceService;
 import sc.fiji.bdvpg.scijava.service.tree.inspect.SourceInspector;
 import sc.fiji.bdvpg.source.SourceHelper;
@@ -162,6 +163,8 @@ public class SourceServiceSaver extends SourceAdapter
 				writer.flush();
 				writer.close();
 
+				saveCacheHotSet();
+
 				if (useRelativePaths) {
 					// We need to reset where they were saved, and then maybe restore their location
 					asds.forEach(asd -> {
@@ -182,4 +185,26 @@ public class SourceServiceSaver extends SourceAdapter
 		}
 	}
 
+	/**
+	 * Saves the hottest cells of the global cache next to the state file, see
+	 * {@link CacheHotSet}
+	 */
+	void saveCacheHotSet() {
+		SourceService sourceService = getScijavaContext().getService(
+			SourceService.class);
+		AbstractGlobalCache cache = sourceService.getCache();
+		if (cache == null) return;
+		File hotSetFile = CacheHotSet.getHotSetFile(f);
+		try {
+			List<CacheHotSet.Cell> cells = CacheHotSet.collect(cache, sourceService,
+				sacToId, CacheHotSet.MAX_CELLS);
+			CacheHotSet.save(hotSetFile, cells);
+			logger.info("Cache hot set (" + cells.size() + " cells) written in " +
+				hotSetFile.getAbsolutePath());
+		}
+		catch (Exception e) {
+			logger.warn("Couldn't write cache hot set file: " + e.getMessage());
+		}
+	}
+
 }
@@ -29,12 +29,16 @@
 
 package sc.fiji.bdvpg.source;
 
+import bdv.AbstractSpimSource;
 import bdv.BigDataViewer;
 import bdv.img.WarpedSource;
 import bdv.tools.brightness.ConverterSetup;
 import bdv.tools.transformation.TransformedSource;
 import bdv.util.BdvHandle;
+import bdv.util.FusedSource;
 import bdv.util.LUTConverterSetup;
+import bdv.util.PyramidSource;
+import bdv.util.RandomAccessibleIntervalSource;
 import bdv.util.ResampledSource;
 import bdv.util.UnmodifiableConverterSetup;
 import bdv.viewer.Interpolation;
@@ -991,6 +995,31 @@ public class SourceHelper {
 		return bestLevel(source.getSpimSource(), t, voxSize);
 	}
 
+	/**
+	 * Tells whether the interpolated view of a source
+	 * ({@link Source#getInterpolatedSource}) is the interpolation of its pixels
+	 * ({@link Source#getSource}) extended with zeros. The pixels of such a
+	 * source can be resampled directly, with the same result as its
+	 * interpolated view, and they are zero out of their bounds. This is decided
+	 * from the class of the source, through {@link TransformedSource} wrappers:
+	 * sources which change their interpolated view, like {@link WarpedSource}
+	 * or {@link bdv.util.OutOfBoundsColorChangedSource}, and unknown sources
+	 * are not.
+	 *
+	 * @param source source
+	 * @return true if the source is known to be its pixels extended with zeros
+	 */
+	public static boolean isZeroExtendedRaster(Source<?> source) {
+		Source<?> root = source;
+		while (root instanceof TransformedSource) {
+			root = ((TransformedSource<?>) root).getWrappedSource();
+		}
+		return (root instanceof AbstractSpimSource) ||
+			(root instanceof RandomAccessibleIntervalSource) ||
+			(root instanceof ResampledSource) || (root instanceof PyramidSource) ||
+			(root instanceof FusedSource);
+	}
+
 	/**
 	 * See {@link SourceHelper#bestLevel(Source, int, double)} for an
 	 * example of the use of this function What the 'root' means is actually the
@@ -0,0 +1,116 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.source.transform;
+
+import bdv.util.FusedSource;
+import bdv.util.RAIHelper;
+import bdv.util.VolatileSource;
+import bdv.util.volatiles.VolatileTypeMatcher;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import net.imglib2.Volatile;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import sc.fiji.bdvpg.cache.GlobalSharedQueue;
+import sc.fiji.bdvpg.source.SourceHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fuses sources into a {@link FusedSource}, sampled on the grid of a model
+ * source. The display settings of the fused source are copied from the first
+ * source.
+ */
+public class SourceFuser<T extends RealType<T> & NativeType<T>> implements
+	Runnable
+{
+
+	final List<SourceAndConverter<T>> sources;
+
+	final SourceAndConverter<?> model;
+
+	final FusedSource.Method method;
+
+	final int[] blockSize;
+
+	private final String name;
+
+	public SourceFuser(final List<SourceAndConverter<T>> sources,
+		final SourceAndConverter<?> model, final String name,
+		final FusedSource.Method method)
+	{
+		this(sources, model, name, method, RAIHelper.getDefaultBlockSize());
+	}
+
+	/**
+	 * @param blockSize cell dimensions of the cached levels
+	 */
+	public SourceFuser(final List<SourceAndConverter<T>> sources,
+		final SourceAndConverter<?> model, final String name,
+		final FusedSource.Method method, final int[] blockSize)
+	{
+		this.sources = sources;
+		this.model = model;
+		this.name = name;
+		this.method = method;
+		this.blockSize = blockSize;
+	}
+
+	@Override
+	public void run() {
+
+	}
+
+	public SourceAndConverter<T> get() {
+		final List<Source<T>> origins = new ArrayList<>();
+		sources.forEach(src -> origins.add(src.getSpimSource()));
+		final Source<T> fused = new FusedSource<>(origins, model.getSpimSource(),
+			name, method, blockSize);
+
+		final SourceAndConverter<T> first = sources.get(0);
+		SourceAndConverter<T> source;
+		if (first.asVolatile() != null) {
+			final Source<? extends Volatile<T>> vfused = new VolatileSource(fused,
+				() -> VolatileTypeMatcher.getVolatileTypeForType((NativeType) fused
+					.getType()), GlobalSharedQueue.getInstanceFor(fused));
+			final SourceAndConverter<? extends Volatile<T>> vsource =
+				new SourceAndConverter(vfused, SourceHelper.cloneConverter(first
+					.asVolatile().getConverter(), first.asVolatile()));
+			source = new SourceAndConverter<>(fused, SourceHelper.cloneConverter(
+				first.getConverter(), first), vsource);
+		}
+		else {
+			source = new SourceAndConverter<>(fused, SourceHelper.cloneConverter(
+				first.getConverter(), first));
+		}
+		return source;
+	}
+}
@@ -0,0 +1,116 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.source.transform;
+
+import bdv.util.PyramidSource;
+import bdv.util.RAIHelper;
+import bdv.util.VolatileSource;
+import bdv.util.volatiles.VolatileTypeMatcher;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import net.imglib2.Volatile;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import sc.fiji.bdvpg.cache.GlobalSharedQueue;
+import sc.fiji.bdvpg.source.SourceHelper;
+
+import java.util.function.Function;
+
+/**
+ * Wraps a source into a {@link PyramidSource}, which adds lazily computed
+ * downsampled resolution levels to its level 0
+ */
+public class SourcePyramidBuilder<T extends RealType<T> & NativeType<T>>
+	implements Runnable, Function<SourceAndConverter<T>, SourceAndConverter<T>>
+{
+
+	final SourceAndConverter<T> source;
+
+	final PyramidSource.Method method;
+
+	final int numLevels;
+
+	final int[] blockSize;
+
+	private final String name;
+
+	public SourcePyramidBuilder(final SourceAndConverter<T> source,
+		final String name, final PyramidSource.Method method, final int numLevels)
+	{
+		this(source, name, method, numLevels, RAIHelper.getDefaultBlockSize());
+	}
+
+	/**
+	 * @param numLevels number of resolution levels, 0 to pick it automatically
+	 * @param blockSize cell dimensions of the cached levels
+	 */
+	public SourcePyramidBuilder(final SourceAndConverter<T> source,
+		final String name, final PyramidSource.Method method, final int numLevels,
+		final int[] blockSize)
+	{
+		this.source = source;
+		this.name = name;
+		this.method = method;
+		this.numLevels = numLevels;
+		this.blockSize = blockSize;
+	}
+
+	@Override
+	public void run() {
+
+	}
+
+	public SourceAndConverter<T> get() {
+		return apply(source);
+	}
+
+	@Override
+	public SourceAndConverter<T> apply(final SourceAndConverter<T> src) {
+		final Source<T> pyramid = new PyramidSource<>(src.getSpimSource(), name,
+			method, numLevels, blockSize);
+
+		SourceAndConverter<T> source;
+		if (src.asVolatile() != null) {
+			final Source<? extends Volatile<T>> vpyramid = new VolatileSource(pyramid,
+				() -> VolatileTypeMatcher.getVolatileTypeForType((NativeType) pyramid
+					.getType()), GlobalSharedQueue.getInstanceFor(pyramid));
+			final SourceAndConverter<? extends Volatile<T>> vsource =
+				new SourceAndConverter(vpyramid, SourceHelper.cloneConverter(src
+					.asVolatile().getConverter(), src.asVolatile()));
+			source = new SourceAndConverter<>(pyramid, SourceHelper.cloneConverter(
+				src.getConverter(), src), vsource);
+		}
+		else {
+			source = new SourceAndConverter<>(pyramid, SourceHelper.cloneConverter(
+				src.getConverter(), src));
+		}
+		return source;
+	}
+}
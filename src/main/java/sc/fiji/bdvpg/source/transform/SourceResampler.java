@@ -31,6 +31,7 @@ package sc.fiji.bdvpg.source.transform;
 
 import java.util.function.Function;
 
+import bdv.util.RAIHelper;
 import bdv.util.ResampledSource;
 import bdv.util.VolatileSource;
 import bdv.util.volatiles.VolatileTypeMatcher;
@@ -58,12 +59,29 @@ public class SourceResampler<T extends NumericType<T> & NativeType<T>>
 
 	final int defaultMipMapLevel;
 
+	final int[] blockSize;
+
 	private final String name;
 
 	public SourceResampler(final SourceAndConverter<T> source,
 		final SourceAndConverter<?> model, final String name, final boolean reuseMipmaps,
 		final boolean cache, final boolean interpolate, final int defaultMipMapLevel)
 	{
+		this(source, model, name, reuseMipmaps, cache, interpolate,
+			defaultMipMapLevel, RAIHelper.getDefaultBlockSize());
+	}
+
+	/**
+	 * @param blockSize cell dimensions of the cache, null to pick them
+	 *          automatically, see
+	 *          {@link ResampledSource#getBlockSize(int, int)}
+	 */
+	public SourceResampler(final SourceAndConverter<T> source,
+		final SourceAndConverter<?> model, final String name, final boolean reuseMipmaps,
+		final boolean cache, final boolean interpolate, final int defaultMipMapLevel,
+		final int[] blockSize)
+	{
+		this.blockSize = blockSize;
 		this.name = name;
 		this.reuseMipMaps = reuseMipmaps;
 		this.model = model;
@@ -86,7 +104,7 @@ public class SourceResampler<T extends NumericType<T> & NativeType<T>>
 	public SourceAndConverter<T> apply(final SourceAndConverter<T> src) {
 		final Source<T> srcRsampled = new ResampledSource<>(src.getSpimSource(), model
 			.getSpimSource(), name, reuseMipMaps, cache, interpolate,
-			defaultMipMapLevel);
+			defaultMipMapLevel, blockSize);
 
 		SourceAndConverter<T> source;
 		if (src.asVolatile() != null) {
@@ -96,7 +114,7 @@ public class SourceResampler<T extends NumericType<T> & NativeType<T>>
 				vsrcResampled = new VolatileSource(
 						srcRsampled,
 						() -> VolatileTypeMatcher.getVolatileTypeForType((NativeType)srcRsampled.getType()),
-						GlobalSharedQueue.getInstance());
+						GlobalSharedQueue.getInstanceFor(srcRsampled));
 			}
 			else {
 				vsrcResampled = new ResampledSource(src.asVolatile().getSpimSource(),
@@ -0,0 +1,124 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.demos;
+
+import bdv.util.AxisAlignedSampling;
+import bdv.util.EmptySource;
+import bdv.util.RandomAccessibleIntervalSource;
+import bdv.util.ResampledSource;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import java.util.Random;
+
+/**
+ * Benchmark of the resampling of a 512 x 512 x 128 16 bits image on a grid
+ * aligned with its voxels (a translation and a downsampling by two), with:
+ * <ul>
+ * <li>the interpolation of the origin at each model voxel
+ * ({@link ResampledSource#buildInterpolatedSource})</li>
+ * <li>the sampling view of the origin ({@link ResampledSource#buildSource})</li>
+ * <li>strided copies between the backing arrays, as done for the cells of a
+ * cached resampled source ({@link AxisAlignedSampling#copy})</li>
+ * </ul>
+ */
+public class AxisAlignedResamplingBenchmark {
+
+    static final long[] ORIGIN_DIMENSIONS = {512, 512, 128};
+
+    static final int REPEATS = 5;
+
+    public static void main(String... args) {
+        ArrayImg<UnsignedShortType, ?> img = ArrayImgs.unsignedShorts(ORIGIN_DIMENSIONS);
+        Random random = new Random(0);
+        img.forEach(p -> p.set(random.nextInt(65536)));
+        RandomAccessibleIntervalSource<UnsignedShortType> origin =
+                new RandomAccessibleIntervalSource<>(img, new UnsignedShortType(),
+                        new AffineTransform3D(), "origin");
+
+        AffineTransform3D translation = new AffineTransform3D();
+        translation.translate(7, -3, 2);
+        run("translation", origin, translation, ORIGIN_DIMENSIONS);
+
+        AffineTransform3D downsampling = new AffineTransform3D();
+        downsampling.scale(2);
+        run("downsampling by 2", origin, downsampling,
+                new long[]{ORIGIN_DIMENSIONS[0] / 2, ORIGIN_DIMENSIONS[1] / 2, ORIGIN_DIMENSIONS[2] / 2});
+    }
+
+    static void run(String name, RandomAccessibleIntervalSource<UnsignedShortType> origin,
+                    AffineTransform3D atModel, long[] modelDimensions) {
+        EmptySource model = new EmptySource(modelDimensions[0], modelDimensions[1],
+                modelDimensions[2], atModel, "model", new FinalVoxelDimensions("px", 1, 1, 1));
+        ResampledSource<UnsignedShortType> resampled = new ResampledSource<>(origin, model,
+                "resampled", false, false, true, 0);
+        AxisAlignedSampling sampling = resampled.getAxisAlignedSampling(0, 0);
+        ArrayImg<UnsignedShortType, ?> target = ArrayImgs.unsignedShorts(modelDimensions);
+        long voxels = Intervals.numElements(target);
+
+        System.out.println(name + " (" + voxels / 1_000_000 + " Mvoxels)");
+        double interpolated = best(() -> copy(resampled.buildInterpolatedSource(0, 0), target));
+        double view = best(() -> copy(resampled.buildSource(0, 0), target));
+        double arrays = best(() -> sampling.copy(origin.getSource(0, 0), target));
+        print("interpolation", interpolated, voxels, interpolated);
+        print("sampling view", view, voxels, interpolated);
+        print("strided array copy", arrays, voxels, interpolated);
+    }
+
+    static void copy(RandomAccessibleInterval<UnsignedShortType> source,
+                     RandomAccessibleInterval<UnsignedShortType> target) {
+        Cursor<UnsignedShortType> in = Views.flatIterable(source).cursor();
+        for (UnsignedShortType out : Views.flatIterable(target)) {
+            out.set(in.next());
+        }
+    }
+
+    static double best(Runnable task) {
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < REPEATS; i++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, (System.nanoTime() - start) / 1e9);
+        }
+        return best;
+    }
+
+    static void print(String method, double seconds, long voxels, double reference) {
+        System.out.printf("  %-20s %8.3f s %10.1f Mvoxels/s   x%.1f%n", method, seconds,
+                voxels / seconds / 1e6, reference / seconds);
+    }
+}
@@ -0,0 +1,103 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.demos.cache;
+
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.img.cell.Cell;
+import sc.fiji.bdvpg.cache.AbstractGlobalCache;
+import sc.fiji.bdvpg.cache.GlobalCacheBuilder;
+import sc.fiji.bdvpg.cache.GlobalLoaderCache;
+import sc.fiji.bdvpg.cache.GlobalSharedQueue;
+import sc.fiji.bdvpg.cache.ViewerAwareSharedQueue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the fetch throughput of a {@link ViewerAwareSharedQueue} with a
+ * loader which waits {@link #LATENCY_MS} per block, as a read from slow
+ * storage does: with platform fetcher threads (one per core), with many
+ * platform fetcher threads and, with Java 21 or later, with virtual fetcher
+ * threads.
+ * <p>
+ * Blocks go through a {@link GlobalLoaderCache}, as the blocks of a SpimData
+ * source do.
+ */
+public class FetchThroughputBenchmark {
+
+    static final int LATENCY_MS = 20;
+
+    static final int NUM_BLOCKS = 4000;
+
+    static final int[] BLOCK_SIZE = {32, 32, 32};
+
+    public static void main(String... args) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        run("platform, " + cores + " threads", false, cores);
+        run("platform, 256 threads", false, 256);
+        if (GlobalSharedQueue.isVirtualThreadsSupported()) {
+            run("virtual, 256 in flight", true, 256);
+            run("virtual, 1024 in flight", true, 1024);
+        } else {
+            System.out.println("Virtual threads require Java 21 or later (running Java " +
+                    System.getProperty("java.version") + ")");
+        }
+    }
+
+    static void run(String name, boolean virtualThreads, int numFetcherThreads) throws Exception {
+        AbstractGlobalCache globalCache = GlobalCacheBuilder.builder()
+                .memoryForCache(1_000_000_000L).create();
+        GlobalLoaderCache<Long, Cell<ShortArray>> cache =
+                new GlobalLoaderCache<>(globalCache, new Object(), 0, 0);
+        ViewerAwareSharedQueue queue = new ViewerAwareSharedQueue(0, 1);
+        queue.setVirtualThreads(virtualThreads);
+        queue.setNumFetcherThreads(numFetcherThreads);
+
+        CountDownLatch done = new CountDownLatch(NUM_BLOCKS);
+        long start = System.nanoTime();
+        for (long i = 0; i < NUM_BLOCKS; i++) {
+            final Long key = i;
+            queue.put(() -> {
+                cache.get(key, k -> {
+                    Thread.sleep(LATENCY_MS); // Read
+                    return new Cell<>(BLOCK_SIZE, new long[]{0, 0, 0},
+                            new ShortArray(BLOCK_SIZE[0] * BLOCK_SIZE[1] * BLOCK_SIZE[2]));
+                });
+                done.countDown();
+                return null;
+            }, 0, false);
+        }
+        if (!done.await(10, TimeUnit.MINUTES)) throw new IllegalStateException("Benchmark timed out");
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-26s %8.2f s %10.0f blocks/s   mean wait %8.1f ms%n", name, seconds,
+                NUM_BLOCKS / seconds, queue.getMetrics().getWaits().getMeanMs());
+        queue.shutdown();
+    }
+}
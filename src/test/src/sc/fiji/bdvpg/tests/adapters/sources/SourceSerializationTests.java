@@ -31,6 +31,8 @@ package sc.fiji.bdvpg.tests.adapters.sources;
 import bdv.SpimSource;
 import bdv.img.WarpedSource;
 import bdv.util.EmptySource;
+import bdv.util.FusedSource;
+import bdv.util.PyramidSource;
 import bdv.util.ResampledSource;
 import bdv.viewer.SourceAndConverter;
 import net.imglib2.realtransform.AffineTransform3D;
@@ -48,6 +50,8 @@ import sc.fiji.bdvpg.service.SourceServices;
 import sc.fiji.bdvpg.source.SourceHelper;
 import sc.fiji.bdvpg.source.transform.SourceAffineTransformer;
 import sc.fiji.bdvpg.source.transform.SourceRealTransformer;
+import sc.fiji.bdvpg.source.transform.SourceFuser;
+import sc.fiji.bdvpg.source.transform.SourcePyramidBuilder;
 import sc.fiji.bdvpg.source.transform.SourceResampler;
 import sc.fiji.bdvpg.dataset.importer.XMLToDatasetImporter;
 import sc.fiji.persist.IObjectScijavaAdapterService;
@@ -373,6 +377,113 @@ public class SourceSerializationTests {
                 restoredResampled.getSpimSource().getSource(0, 0));
     }
 
+    @Test
+    public void testResampledSourceBlockSizeSerialization() throws Exception {
+        new XMLToDatasetImporter("src/test/resources/mri-stack.xml").run();
+        SourceAndConverter<?> originSource = SourceServices
+                .getSourceService().getSources().get(0);
+
+        SourceAndConverter<?> fixed = new SourceResampler(originSource, originSource,
+                "Fixed", false, true, false, 0, new int[]{128, 128, 8}).get();
+        SourceAndConverter<?> auto = new SourceResampler(originSource, originSource,
+                "Auto", false, true, false, 0, null).get();
+        SourceServices.getSourceService().register(fixed);
+        SourceServices.getSourceService().register(auto);
+
+        saveSources(Arrays.asList(originSource, fixed, auto));
+        clearAndReload();
+
+        ResampledSource<?> restoredFixed = null, restoredAuto = null;
+        for (SourceAndConverter<?> source : SourceServices.getSourceService().getSources()) {
+            if (source.getSpimSource().getName().equals("Fixed")) {
+                restoredFixed = (ResampledSource<?>) source.getSpimSource();
+            } else if (source.getSpimSource().getName().equals("Auto")) {
+                restoredAuto = (ResampledSource<?>) source.getSpimSource();
+            }
+        }
+        Assert.assertNotNull(restoredFixed);
+        Assert.assertNotNull(restoredAuto);
+        Assert.assertArrayEquals(new int[]{128, 128, 8}, restoredFixed.getBlockSize());
+        // Smaller than the 186 x 226 x 27 pixels image: not clamped
+        Assert.assertArrayEquals(new int[]{128, 128, 8}, restoredFixed.getBlockSize(0, 0));
+        Assert.assertNull("Automatic block size should be kept", restoredAuto.getBlockSize());
+    }
+
+    @Test
+    public void testFusedSourceSerialization() throws Exception {
+        new XMLToDatasetImporter("src/test/resources/mri-stack.xml").run();
+        SourceAndConverter<?> originSource = SourceServices
+                .getSourceService().getSources().get(0);
+
+        SourceAndConverter<?> fused = new SourceFuser(Arrays.asList(originSource, originSource),
+                originSource, "Fused", FusedSource.Method.MAX, new int[]{32, 32, 8}).get();
+        SourceServices.getSourceService().register(fused);
+
+        saveSources(Arrays.asList(originSource, fused));
+        clearAndReload();
+
+        FusedSource<?> restored = null;
+        for (SourceAndConverter<?> source : SourceServices.getSourceService().getSources()) {
+            if (source.getSpimSource().getName().equals("Fused")) {
+                restored = (FusedSource<?>) source.getSpimSource();
+            }
+        }
+        Assert.assertNotNull(restored);
+        Assert.assertEquals(FusedSource.Method.MAX, restored.getMethod());
+        Assert.assertArrayEquals(new int[]{32, 32, 8}, restored.getBlockSize());
+        Assert.assertEquals(2, restored.getOriginalSources().size());
+        Assert.assertNotNull("Should be able to get fused source data",
+                restored.getSource(0, 0));
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testPyramidSourceSerialization() throws Exception {
+        new XMLToDatasetImporter("src/test/resources/mri-stack.xml").run();
+        SourceAndConverter originSource = SourceServices
+                .getSourceService().getSources().get(0);
+
+        // Automatic number of levels, default block size
+        SourceAndConverter<?> automatic = new SourcePyramidBuilder(originSource,
+                "Pyramid_Automatic", PyramidSource.Method.AVERAGE, 0).get();
+        // Fixed number of levels and block size
+        SourceAndConverter<?> fixed = new SourcePyramidBuilder(originSource,
+                "Pyramid_Fixed", PyramidSource.Method.MODE, 2, new int[]{32, 32, 8}).get();
+        SourceServices.getSourceService().register(automatic);
+        SourceServices.getSourceService().register(fixed);
+        int automaticNumLevels = automatic.getSpimSource().getNumMipmapLevels();
+        Assert.assertTrue(automaticNumLevels > 1);
+
+        saveSources(Arrays.asList(originSource, automatic, fixed));
+        clearAndReload();
+
+        PyramidSource<?> restoredAutomatic = null;
+        PyramidSource<?> restoredFixed = null;
+        for (SourceAndConverter<?> source : SourceServices.getSourceService().getSources()) {
+            if (source.getSpimSource().getName().equals("Pyramid_Automatic")) {
+                restoredAutomatic = (PyramidSource<?>) source.getSpimSource();
+            }
+            if (source.getSpimSource().getName().equals("Pyramid_Fixed")) {
+                restoredFixed = (PyramidSource<?>) source.getSpimSource();
+            }
+        }
+
+        Assert.assertNotNull(restoredAutomatic);
+        Assert.assertEquals(PyramidSource.Method.AVERAGE, restoredAutomatic.getMethod());
+        Assert.assertEquals(0, restoredAutomatic.getRequestedNumLevels());
+        Assert.assertEquals(automaticNumLevels, restoredAutomatic.getNumMipmapLevels());
+        Assert.assertArrayEquals(((PyramidSource<?>) automatic.getSpimSource()).getBlockSize(),
+                restoredAutomatic.getBlockSize());
+
+        Assert.assertNotNull(restoredFixed);
+        Assert.assertEquals(PyramidSource.Method.MODE, restoredFixed.getMethod());
+        Assert.assertEquals(2, restoredFixed.getRequestedNumLevels());
+        Assert.assertEquals(2, restoredFixed.getNumMipmapLevels());
+        Assert.assertArrayEquals(new int[]{32, 32, 8}, restoredFixed.getBlockSize());
+        Assert.assertNotNull("Should be able to get the downsampled level",
+                restoredFixed.getSource(0, 1));
+    }
+
     // ==================== Helper Methods ====================
 
     private void saveSource(SourceAndConverter<?> source) {
@@ -0,0 +1,105 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.cache;
+
+import org.junit.Test;
+import sc.fiji.bdvpg.cache.AbstractGlobalCache;
+import sc.fiji.bdvpg.cache.AdaptiveCacheSizer;
+import sc.fiji.bdvpg.cache.GlobalCacheBuilder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link AdaptiveCacheSizer}: the budget shrinks under heap
+ * pressure and grows back when the heap is idle, within its bounds. The heap
+ * occupancy is given explicitly instead of relying on garbage collections.
+ */
+public class AdaptiveCacheSizerTest {
+
+    static final long CEILING = 100_000_000L;
+
+    static final long FLOOR = 10_000_000L;
+
+    @Test
+    public void testShrinkAndGrow() {
+        AbstractGlobalCache cache = GlobalCacheBuilder.builder(CEILING).linkedHashMap()
+                .memoryForCache(CEILING).create();
+        AdaptiveCacheSizer sizer = new AdaptiveCacheSizer(cache, FLOOR, CEILING);
+        long now = System.currentTimeMillis();
+
+        sizer.update(0.95, now);
+        assertTrue("Budget should shrink under heap pressure", sizer.getBudget() < CEILING);
+        assertEquals(sizer.getBudget(), cache.getMaxSize());
+
+        for (int i = 0; i < 100; i++) sizer.update(0.95, now);
+        assertEquals("Budget should not go below the floor", FLOOR, sizer.getBudget());
+
+        long shrunk = sizer.getBudget();
+        sizer.update(0.2, now + 1);
+        assertEquals("Budget should not grow right after heap pressure", shrunk, sizer.getBudget());
+
+        long later = now + 60_000;
+        sizer.update(0.2, later);
+        assertTrue("Budget should grow when the heap is idle", sizer.getBudget() > shrunk);
+
+        for (int i = 0; i < 100; i++) sizer.update(0.2, later);
+        assertEquals("Budget should not exceed the ceiling", CEILING, sizer.getBudget());
+        assertEquals(CEILING, cache.getMaxSize());
+    }
+
+    @Test
+    public void testRepeatedChecksOfTheSameCollection() {
+        AbstractGlobalCache cache = GlobalCacheBuilder.builder(CEILING).linkedHashMap()
+                .memoryForCache(CEILING).create();
+        AdaptiveCacheSizer sizer = new AdaptiveCacheSizer(cache, FLOOR, CEILING);
+        long now = System.currentTimeMillis();
+
+        sizer.check(1, 0.95, now);
+        long shrunk = sizer.getBudget();
+        assertTrue("Budget should shrink under heap pressure", shrunk < CEILING);
+
+        // No collection in between: the reading is the same
+        for (int i = 0; i < 100; i++) sizer.check(1, 0.95, now + 5_000L * i);
+        assertEquals("The same collection should shrink the budget only once",
+                shrunk, sizer.getBudget());
+
+        sizer.check(2, 0.95, now);
+        assertTrue("A new collection should shrink the budget again",
+                sizer.getBudget() < shrunk);
+
+        // The budget keeps growing on an idle heap, even without collections
+        long later = now + 60_000;
+        sizer.check(3, 0.2, later);
+        long grown = sizer.getBudget();
+        sizer.check(3, 0.2, later + 5_000);
+        assertTrue("Budget should keep growing when the heap is idle",
+                sizer.getBudget() > grown);
+    }
+}
@@ -0,0 +1,141 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.cache;
+
+import bdv.util.PyramidSource;
+import bdv.viewer.SourceAndConverter;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.util.Intervals;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import sc.fiji.bdvpg.cache.AbstractGlobalCache;
+import sc.fiji.bdvpg.cache.GlobalSharedQueue;
+import sc.fiji.bdvpg.dataset.importer.XMLToDatasetImporter;
+import sc.fiji.bdvpg.scijava.service.SourceService;
+import sc.fiji.bdvpg.service.CacheHotSet;
+import sc.fiji.bdvpg.service.SourceServices;
+import sc.fiji.bdvpg.source.transform.SourcePyramidBuilder;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trip of the {@link CacheHotSet} on a small dataset: the cells in the
+ * cache are collected, saved, loaded and prefetched back into the cache once
+ * it has been emptied.
+ */
+public class CacheHotSetTest {
+
+    Context ctx;
+
+    File hotSetFile;
+
+    @Before
+    public void setUp() throws Exception {
+        ctx = new Context(SourceService.class);
+        hotSetFile = File.createTempFile("bdvpg_test_", ".cache.json");
+        hotSetFile.deleteOnExit();
+    }
+
+    @After
+    public void tearDown() {
+        ctx.close();
+        hotSetFile.delete();
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testCollectSaveLoadPrefetch() throws Exception {
+        new XMLToDatasetImporter("src/test/resources/mri-stack.xml").run();
+        SourceService sourceService = ctx.getService(SourceService.class);
+        AbstractGlobalCache cache = sourceService.getCache();
+        // A source of the dataset, and a computed one
+        SourceAndConverter datasetSource = SourceServices.getSourceService().getSources().get(0);
+        SourceAndConverter<?> pyramid = new SourcePyramidBuilder(datasetSource, "Pyramid",
+                PyramidSource.Method.AVERAGE, 2, new int[]{32, 32, 8}).get();
+        sourceService.register(pyramid);
+
+        Map<SourceAndConverter<?>, Integer> sacToId = new HashMap<>();
+        sacToId.put(datasetSource, 0);
+        sacToId.put(pyramid, 1);
+        Map<Integer, SourceAndConverter<?>> idToSac = new HashMap<>();
+        sacToId.forEach((sac, id) -> idToSac.put(id, sac));
+
+        // Loads the first cell of the level 1 of the pyramid, and the cells of the dataset it is computed from
+        loadPixel(pyramid.getSpimSource().getSource(0, 1));
+        Object datasetOwner = sourceService.getCacheOwner(datasetSource);
+        Object pyramidOwner = sourceService.getCacheOwner(pyramid);
+        long datasetCells = cache.getCacheStats(datasetOwner, -1).numberOfCells;
+        long pyramidCells = cache.getCacheStats(pyramidOwner, -1).numberOfCells;
+        assertTrue(datasetCells > 0);
+        assertEquals(1, pyramidCells);
+
+        List<CacheHotSet.Cell> collected = CacheHotSet.collect(cache, sourceService, sacToId, 100);
+        assertEquals(datasetCells + pyramidCells, collected.size());
+        CacheHotSet.save(hotSetFile, collected);
+        List<CacheHotSet.Cell> loaded = CacheHotSet.load(hotSetFile);
+        assertEquals(collected.size(), loaded.size());
+        for (int i = 0; i < collected.size(); i++) {
+            CacheHotSet.Cell expected = collected.get(i);
+            CacheHotSet.Cell cell = loaded.get(i);
+            assertEquals(expected.source_id, cell.source_id);
+            assertEquals(expected.setup, cell.setup);
+            assertEquals(expected.timepoint, cell.timepoint);
+            assertEquals(expected.level, cell.level);
+            assertEquals(expected.cell, cell.cell);
+        }
+
+        cache.invalidateIf(pyramidOwner, -1, -1, key -> true);
+        cache.invalidateIf(datasetOwner, -1, -1, key -> true);
+        assertEquals(0, cache.getCacheStats(datasetOwner, -1).numberOfCells);
+
+        CacheHotSet.prefetch(loaded, idToSac, cache, GlobalSharedQueue::getInstanceFor).join();
+        // The prefetching thread only queues the cells: waits for the fetchers
+        for (int i = 0; i < 1000 && (cache.getCacheStats(datasetOwner, -1).numberOfCells < datasetCells ||
+                cache.getCacheStats(pyramidOwner, -1).numberOfCells < pyramidCells); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(datasetCells, cache.getCacheStats(datasetOwner, -1).numberOfCells);
+        assertEquals(pyramidCells, cache.getCacheStats(pyramidOwner, -1).numberOfCells);
+    }
+
+    static void loadPixel(RandomAccessibleInterval<?> image) {
+        RandomAccess<?> access = image.randomAccess();
+        access.setPosition(Intervals.minAsLongArray(image));
+        access.get();
+    }
+}
@@ -0,0 +1,205 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.cache;
+
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.cell.Cell;
+import org.junit.Test;
+import sc.fiji.bdvpg.cache.AbstractGlobalCache;
+import sc.fiji.bdvpg.cache.CacheQuota;
+import sc.fiji.bdvpg.cache.GlobalCacheBuilder;
+import sc.fiji.bdvpg.cache.GlobalCacheKey;
+import sc.fiji.bdvpg.cache.GlobalCacheMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static sc.fiji.bdvpg.tests.cache.CacheTestCells.CELL_WEIGHT;
+import static sc.fiji.bdvpg.tests.cache.CacheTestCells.byteCell;
+
+/**
+ * Unit tests for per source {@link CacheQuota}s: hard caps for all cache
+ * implementations, guaranteed minimums for the ones choosing their victims.
+ */
+public class CacheQuotaTest {
+
+    static final long BUDGET = 100L * CELL_WEIGHT;
+
+    static long cells(AbstractGlobalCache cache, Object source) {
+        return cache.getCacheStats(source, -1).numberOfCells;
+    }
+
+    static void fill(AbstractGlobalCache cache, Object source, int n, List<Object> cells) {
+        for (long i = 0; i < n; i++) {
+            Cell<ByteArray> cell = byteCell();
+            cells.add(cell);
+            cache.put(new GlobalCacheKey(source, 0, 0, i), cell);
+        }
+    }
+
+    static void assertGuaranteedMinimum(GlobalCacheBuilder builder) {
+        AbstractGlobalCache cache = builder.memoryForCache(BUDGET).create();
+        Object protectedSource = new Object();
+        Object hugeSource = new Object();
+        List<Object> cells = new ArrayList<>();
+        cache.setQuota(protectedSource, new CacheQuota(30L * CELL_WEIGHT, -1));
+
+        fill(cache, protectedSource, 50, cells);
+        fill(cache, hugeSource, 1000, cells);
+
+        assertEquals("The protected source should keep its guaranteed minimum",
+                30, cells(cache, protectedSource));
+        assertTrue(cache.getEstimatedSize() <= BUDGET);
+    }
+
+    static void assertHardCap(GlobalCacheBuilder builder) {
+        AbstractGlobalCache cache = builder.memoryForCache(BUDGET).create();
+        Object otherSource = new Object();
+        Object hugeSource = new Object();
+        List<Object> cells = new ArrayList<>();
+        cache.setQuota(hugeSource, new CacheQuota(0, 20L * CELL_WEIGHT));
+
+        fill(cache, otherSource, 50, cells);
+        fill(cache, hugeSource, 1000, cells);
+
+        assertTrue("The capped source should not exceed its cap",
+                cells(cache, hugeSource) <= 20);
+        assertEquals("Other sources should not be evicted",
+                50, cells(cache, otherSource));
+    }
+
+    static void assertCapEvictionsAreNotDemoted(GlobalCacheBuilder builder) {
+        AbstractGlobalCache cache = builder.memoryForCache(BUDGET).create();
+        cache.setMaxOffHeapSize(BUDGET);
+        Object cappedSource = new Object();
+        List<Object> cells = new ArrayList<>();
+        cache.setQuota(cappedSource, new CacheQuota(0, 20L * CELL_WEIGHT));
+
+        // Below the budget: only the cap evicts
+        fill(cache, cappedSource, 50, cells);
+
+        GlobalCacheMetrics metrics = cache.getMetrics();
+        assertTrue("Evictions caused by the cap should be counted",
+                metrics.getQuotaEvictions() >= 30);
+        assertEquals("Evictions caused by the cap are not size evictions",
+                0, metrics.getSizeEvictions());
+        assertEquals("Evictions caused by the cap should not be demoted off-heap",
+                0, cache.getEstimatedOffHeapSize());
+
+        // Setting a lower cap evicts the same way
+        cache.setQuota(cappedSource, new CacheQuota(0, 5L * CELL_WEIGHT));
+        assertTrue(metrics.getQuotaEvictions() >= 45);
+        assertEquals(0, metrics.getSizeEvictions());
+        assertEquals(0, cache.getEstimatedOffHeapSize());
+    }
+
+    @Test
+    public void testCapEvictionsLinkedHashMap() {
+        assertCapEvictionsAreNotDemoted(GlobalCacheBuilder.builder(BUDGET).linkedHashMap());
+    }
+
+    @Test
+    public void testCapEvictionsCostAware() {
+        assertCapEvictionsAreNotDemoted(GlobalCacheBuilder.builder(BUDGET).costAware());
+    }
+
+    @Test
+    public void testCapEvictionsCaffeine() {
+        assertCapEvictionsAreNotDemoted(GlobalCacheBuilder.builder(BUDGET).caffeine());
+    }
+
+    @Test
+    public void testGuaranteedMinimumLinkedHashMap() {
+        assertGuaranteedMinimum(GlobalCacheBuilder.builder(BUDGET).linkedHashMap());
+    }
+
+    @Test
+    public void testGuaranteedMinimumCostAware() {
+        assertGuaranteedMinimum(GlobalCacheBuilder.builder(BUDGET).costAware());
+    }
+
+    @Test
+    public void testHardCapLinkedHashMap() {
+        assertHardCap(GlobalCacheBuilder.builder(BUDGET).linkedHashMap());
+    }
+
+    @Test
+    public void testHardCapCostAware() {
+        assertHardCap(GlobalCacheBuilder.builder(BUDGET).costAware());
+    }
+
+    @Test
+    public void testHardCapCaffeine() {
+        assertHardCap(GlobalCacheBuilder.builder(BUDGET).caffeine());
+    }
+
+    @Test
+    public void testSettingACapShrinksTheSource() {
+        AbstractGlobalCache cache = GlobalCacheBuilder.builder(BUDGET).linkedHashMap()
+                .memoryForCache(BUDGET).create();
+        Object source = new Object();
+        List<Object> cells = new ArrayList<>();
+        fill(cache, source, 50, cells);
+        cache.setQuota(source, new CacheQuota(0, 10L * CELL_WEIGHT));
+        assertEquals(10, cells(cache, source));
+        cache.setQuota(source, null);
+        assertNull(cache.getQuota(source));
+    }
+
+    @Test
+    public void testSettingACapEvictsTheLeastRecentlyUsedBlocks() {
+        AbstractGlobalCache cache = GlobalCacheBuilder.builder(BUDGET).linkedHashMap()
+                .memoryForCache(BUDGET).create();
+        Object source = new Object();
+        List<Object> cells = new ArrayList<>();
+        fill(cache, source, 50, cells);
+        // The first blocks inserted become the most recently used ones
+        for (long i = 0; i < 10; i++) {
+            assertNotNull(cache.getIfPresent(new GlobalCacheKey(source, 0, 0, i)));
+        }
+        cache.setQuota(source, new CacheQuota(0, 10L * CELL_WEIGHT));
+        assertEquals(10, cells(cache, source));
+        for (long i = 0; i < 10; i++) {
+            assertNotNull("Recently used blocks should be kept",
+                    cache.getIfPresent(new GlobalCacheKey(source, 0, 0, i)));
+        }
+    }
+
+    @Test
+    public void testParse() {
+        CacheQuota quota = CacheQuota.parse("min=10, max=200");
+        assertEquals(10L * 1024 * 1024, quota.minBytes);
+        assertEquals(200L * 1024 * 1024, quota.maxBytes);
+        quota = CacheQuota.parse("max=1.5");
+        assertFalse(quota.hasMin());
+        assertEquals((long) (1.5 * 1024 * 1024), quota.maxBytes);
+    }
+}
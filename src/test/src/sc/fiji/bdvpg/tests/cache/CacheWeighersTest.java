@@ -0,0 +1,179 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.cache;
+
+import net.imglib2.img.basictypeaccess.FloatAccess;
+import net.imglib2.img.basictypeaccess.ShortAccess;
+import net.imglib2.img.basictypeaccess.VolatileAccess;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileDoubleArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileLongArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.img.cell.Cell;
+import org.junit.After;
+import org.junit.Test;
+import sc.fiji.bdvpg.cache.AbstractGlobalCache;
+import sc.fiji.bdvpg.cache.CacheWeighers;
+import sc.fiji.bdvpg.cache.EmptyCell;
+import sc.fiji.bdvpg.cache.GlobalCacheBuilder;
+import sc.fiji.bdvpg.cache.GlobalLoaderCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the weights of {@link CacheWeighers}: all array accesses are weighed
+ * with their element size, and a cache filled with mixed cell types, including
+ * the small cells of 2D sources, uses as much heap as its budget.
+ */
+public class CacheWeighersTest {
+
+    // Measured heap use should match the budget within this ratio
+    static final double TOLERANCE = 0.15;
+
+    static final long BUDGET = 32L * 1024 * 1024;
+
+    @After
+    public void unregister() {
+        CacheWeighers.unregister(String.class);
+    }
+
+    static Cell<?> cell(Object access, int... dims) {
+        return new Cell<>(dims, new long[dims.length], access);
+    }
+
+    @Test
+    public void testElementSizes() {
+        long overhead = CacheWeighers.weigh(cell(new ByteArray(0), 1));
+        assertEquals(1000, CacheWeighers.weigh(cell(new ByteArray(1000), 1000)) - overhead);
+        assertEquals(2000, CacheWeighers.weigh(cell(new ShortArray(1000), 1000)) - overhead);
+        assertEquals(4000, CacheWeighers.weigh(cell(new IntArray(1000), 1000)) - overhead);
+        assertEquals(4000, CacheWeighers.weigh(cell(new FloatArray(1000), 1000)) - overhead);
+        assertEquals(8000, CacheWeighers.weigh(cell(new LongArray(1000), 1000)) - overhead);
+        assertEquals(8000, CacheWeighers.weigh(cell(new DoubleArray(1000), 1000)) - overhead);
+        assertEquals(8000, CacheWeighers.weigh(cell(new VolatileLongArray(1000, true), 1000)) - overhead);
+        assertEquals(8000, CacheWeighers.weigh(cell(new VolatileDoubleArray(1000, true), 1000)) - overhead);
+        // Array alignment
+        assertEquals(8, CacheWeighers.weigh(cell(new ByteArray(1), 1)) - overhead);
+        assertTrue(overhead >= CacheWeighers.getEntryOverhead());
+    }
+
+    @Test
+    public void testEmptyCellsAreReadOnly() {
+        EmptyCell<?> a = EmptyCell.create(new int[]{64, 64, 64}, new long[]{0, 0, 0},
+                new VolatileShortArray(0, true));
+        EmptyCell<?> b = EmptyCell.create(new int[]{64, 64, 10}, new long[]{0, 0, 64},
+                new ShortArray(0));
+        assertSame(a.getData(), b.getData());
+        ShortAccess access = (ShortAccess) a.getData();
+        assertEquals(0, access.getValue(64 * 64 * 64 - 1));
+        assertTrue(((VolatileAccess) access).isValid());
+        try {
+            access.setValue(0, (short) 1);
+            fail("An empty cell should not be writable");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+        assertEquals(0, access.getValue(0));
+        assertTrue(EmptyCell.create(new int[]{4}, new long[]{0}, new FloatArray(0))
+                .getData() instanceof FloatAccess);
+        // Only the cell object is weighed
+        assertEquals(CacheWeighers.getEntryOverhead() + CacheWeighers.CELL_OVERHEAD,
+                CacheWeighers.weigh(a));
+    }
+
+    @Test
+    public void testRegisteredWeigher() {
+        long unknown = CacheWeighers.weigh("abc");
+        assertEquals(CacheWeighers.getEntryOverhead(), unknown);
+        CacheWeighers.register(String.class, s -> 2L * s.length());
+        assertEquals(CacheWeighers.getEntryOverhead() + 6, CacheWeighers.weigh("abc"));
+    }
+
+    @Test
+    public void testMixedCellsHeapUseMatchesBudget() throws Exception {
+        List<IntFunction<Cell<?>>> factories = new ArrayList<>();
+        // 3D cells of all pixel types
+        factories.add(i -> cell(new ByteArray(32 * 32 * 32), 32, 32, 32));
+        factories.add(i -> cell(new VolatileShortArray(32 * 32 * 32, true), 32, 32, 32));
+        factories.add(i -> cell(new FloatArray(16 * 16 * 16), 16, 16, 16));
+        factories.add(i -> cell(new LongArray(16 * 16 * 16), 16, 16, 16));
+        factories.add(i -> cell(new VolatileDoubleArray(16 * 16 * 16, true), 16, 16, 16));
+        // Small cells of 2D sources, where the overhead dominates
+        factories.add(i -> cell(new ByteArray(16 * 16), 16, 16, 1));
+        factories.add(i -> cell(new ShortArray(8 * 8), 8, 8, 1));
+
+        long before = usedHeap();
+
+        AbstractGlobalCache globalCache = GlobalCacheBuilder.builder(BUDGET).caffeine()
+                .memoryForCache(BUDGET).create();
+        List<GlobalLoaderCache<Long, Cell<?>>> loaderCaches = new ArrayList<>();
+        for (IntFunction<Cell<?>> factory : factories) {
+            GlobalLoaderCache<Long, Cell<?>> loaderCache =
+                    new GlobalLoaderCache<>(globalCache, new Object(), 0, 0);
+            loaderCaches.add(loaderCache);
+        }
+        // Loads twice the budget, to make sure the cache is full
+        long loaded = 0;
+        for (long key = 0; loaded < 2 * BUDGET; key++) {
+            int type = (int) (key % factories.size());
+            Cell<?> cell = loaderCaches.get(type).get(key, k -> factories.get(type).apply(0));
+            loaded += CacheWeighers.weigh(cell);
+        }
+
+        long used = usedHeap() - before;
+        double error = Math.abs(used - BUDGET) / (double) BUDGET;
+        assertTrue("Heap used by the cache (" + used / 1024 + " kb) should match its budget ("
+                + BUDGET / 1024 + " kb) within " + (int) (100 * TOLERANCE) + " %",
+                error < TOLERANCE);
+        assertTrue(globalCache.getEstimatedSize() <= BUDGET);
+        assertFalse(loaderCaches.isEmpty());
+    }
+
+    static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // Several collections, to let weak references be cleared
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,91 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.cache;
+
+import org.junit.Test;
+import sc.fiji.bdvpg.cache.AbstractGlobalCache;
+import sc.fiji.bdvpg.cache.GlobalCacheBuilder;
+import sc.fiji.bdvpg.cache.GlobalCacheKey;
+
+import static org.junit.Assert.*;
+import static sc.fiji.bdvpg.tests.cache.CacheTestCells.CELL_SIZE;
+import static sc.fiji.bdvpg.tests.cache.CacheTestCells.CELL_WEIGHT;
+import static sc.fiji.bdvpg.tests.cache.CacheTestCells.byteCell;
+
+/**
+ * Unit tests for {@link sc.fiji.bdvpg.cache.CaffeineGlobalCache}: predicate
+ * invalidation, live resizing and weighted size.
+ */
+public class CaffeineGlobalCacheTest {
+
+    static AbstractGlobalCache createCache(long budget) {
+        return GlobalCacheBuilder.builder(budget).caffeine().memoryForCache(budget).create();
+    }
+
+    @Test
+    public void testEstimatedSizeIsWeighted() {
+        AbstractGlobalCache cache = createCache(1_000_000);
+        Object source = new Object();
+        for (long i = 0; i < 10; i++) {
+            cache.put(new GlobalCacheKey(source, 0, 0, i), byteCell());
+        }
+        assertEquals("Estimated size should be the sum of the cell weights in bytes",
+                10L * CELL_WEIGHT, cache.getEstimatedSize());
+    }
+
+    @Test
+    public void testInvalidateIf() {
+        AbstractGlobalCache cache = createCache(1_000_000);
+        Object sourceA = new Object();
+        Object sourceB = new Object();
+        for (long i = 0; i < 10; i++) {
+            cache.put(new GlobalCacheKey(sourceA, 0, 0, i), byteCell());
+            cache.put(new GlobalCacheKey(sourceB, 0, 0, i), byteCell());
+        }
+        cache.invalidateIf(key -> key.getSource() == sourceA);
+        assertNull(cache.getIfPresent(new GlobalCacheKey(sourceA, 0, 0, 1L)));
+        assertNotNull(cache.getIfPresent(new GlobalCacheKey(sourceB, 0, 0, 1L)));
+        assertEquals(0, cache.getCacheStats(sourceA, -1).numberOfCells);
+        assertEquals(10L * CELL_WEIGHT, cache.getEstimatedSize());
+    }
+
+    @Test
+    public void testSetMaxSize() {
+        AbstractGlobalCache cache = createCache(1_000_000);
+        Object source = new Object();
+        for (long i = 0; i < 100; i++) {
+            cache.put(new GlobalCacheKey(source, 0, 0, i), byteCell());
+        }
+        cache.setMaxSize(20L * CELL_SIZE);
+        assertEquals(20L * CELL_SIZE, cache.getMaxSize());
+        assertTrue("Cache should shrink to its new maximal size",
+                cache.getEstimatedSize() <= 20L * CELL_SIZE);
+    }
+}
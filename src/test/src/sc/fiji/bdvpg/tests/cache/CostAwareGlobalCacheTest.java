@@ -0,0 +1,122 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.cache;
+
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.cell.Cell;
+import org.junit.Test;
+import sc.fiji.bdvpg.cache.AbstractGlobalCache;
+import sc.fiji.bdvpg.cache.GlobalCacheBuilder;
+import sc.fiji.bdvpg.cache.GlobalCacheKey;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static sc.fiji.bdvpg.tests.cache.CacheTestCells.CELL_WEIGHT;
+import static sc.fiji.bdvpg.tests.cache.CacheTestCells.byteCell;
+
+/**
+ * Unit tests for {@link sc.fiji.bdvpg.cache.CostAwareGlobalCache}: blocks
+ * which are expensive to load should be kept longer than cheap blocks of the
+ * same size, but not forever.
+ */
+public class CostAwareGlobalCacheTest {
+
+    static final long CHEAP = 1_000; // ns
+
+    static final long EXPENSIVE = 100_000; // ns
+
+    static AbstractGlobalCache createCache(int capacity) {
+        long budget = (long) capacity * CELL_WEIGHT;
+        return GlobalCacheBuilder.builder(budget).costAware().memoryForCache(budget).create();
+    }
+
+    @Test
+    public void testExpensiveBlocksSurviveCheapOnes() {
+        AbstractGlobalCache cache = createCache(100);
+        Object expensiveSource = new Object();
+        Object cheapSource = new Object();
+        List<Object> cells = new ArrayList<>(); // keeps the soft references alive
+
+        for (long i = 0; i < 50; i++) {
+            Cell<ByteArray> cell = byteCell();
+            cells.add(cell);
+            cache.put(new GlobalCacheKey(expensiveSource, 0, 0, i), cell, EXPENSIVE);
+        }
+        for (long i = 0; i < 200; i++) {
+            Cell<ByteArray> cell = byteCell();
+            cells.add(cell);
+            cache.put(new GlobalCacheKey(cheapSource, 0, 0, i), cell, CHEAP);
+        }
+
+        assertTrue(cache.getEstimatedSize() <= 100L * CELL_WEIGHT);
+        assertEquals("Expensive blocks, although older, should still be cached",
+                50, cache.getCacheStats(expensiveSource, -1).numberOfCells);
+        assertEquals(50, cache.getCacheStats(cheapSource, -1).numberOfCells);
+    }
+
+    @Test
+    public void testUnusedExpensiveBlocksAreEventuallyEvicted() {
+        AbstractGlobalCache cache = createCache(100);
+        Object expensiveSource = new Object();
+        Object cheapSource = new Object();
+        Cell<ByteArray> cell = byteCell();
+
+        for (long i = 0; i < 50; i++) {
+            cache.put(new GlobalCacheKey(expensiveSource, 0, 0, i), cell, EXPENSIVE);
+        }
+        for (long i = 0; i < 20_000; i++) {
+            cache.put(new GlobalCacheKey(cheapSource, 0, 0, i), cell, CHEAP);
+        }
+
+        assertEquals("Expensive blocks not accessed anymore should age and be evicted",
+                0, cache.getCacheStats(expensiveSource, -1).numberOfCells);
+    }
+
+    @Test
+    public void testFrequentlyAccessedBlocksAreKept() {
+        AbstractGlobalCache cache = createCache(100);
+        Object source = new Object();
+        Cell<ByteArray> cell = byteCell();
+
+        GlobalCacheKey hot = new GlobalCacheKey(source, 1, 0, 0L);
+        cache.put(hot, cell, CHEAP);
+        for (long i = 0; i < 1000; i++) {
+            cache.touch(hot, cell);
+            cache.put(new GlobalCacheKey(source, 0, 0, i), cell, CHEAP);
+        }
+        assertEquals(1, cache.getCacheStats(source, 1).numberOfCells);
+
+        cache.invalidateAll();
+        assertEquals(0, cache.getEstimatedSize());
+        assertEquals(0, cache.getCacheStats(source, -1).numberOfCells);
+    }
+}
@@ -0,0 +1,157 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.cache;
+
+import bdv.img.cache.VolatileGlobalCellCache;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.cell.Cell;
+import org.junit.Test;
+import sc.fiji.bdvpg.cache.AbstractGlobalCache;
+import sc.fiji.bdvpg.cache.GlobalCacheBuilder;
+import sc.fiji.bdvpg.cache.GlobalCacheKey;
+
+import static org.junit.Assert.*;
+import static sc.fiji.bdvpg.tests.cache.CacheTestCells.CELL_WEIGHT;
+import static sc.fiji.bdvpg.tests.cache.CacheTestCells.byteCell;
+
+/**
+ * Unit tests for the secondary index of the global cache
+ * ({@link sc.fiji.bdvpg.cache.GlobalCacheIndex}): per source statistics and
+ * per source invalidation should stay consistent with the cache content.
+ */
+public class GlobalCacheIndexTest {
+
+    static AbstractGlobalCache[] createCaches(long budget) {
+        return new AbstractGlobalCache[]{
+                GlobalCacheBuilder.builder(budget).caffeine().memoryForCache(budget).create(),
+                GlobalCacheBuilder.builder(budget).linkedHashMap().memoryForCache(budget).create(),
+                GlobalCacheBuilder.builder(budget).segmentedLinkedHashMap().memoryForCache(budget).create(),
+                GlobalCacheBuilder.builder(budget).costAware().memoryForCache(budget).create()
+        };
+    }
+
+    @Test
+    public void testStatsPerSourceAndTimepoint() {
+        for (AbstractGlobalCache cache : createCaches(1_000_000)) {
+            Object sourceA = new Object();
+            Object sourceB = new Object();
+            for (long i = 0; i < 10; i++) {
+                cache.put(new GlobalCacheKey(sourceA, 0, 0, i), byteCell());
+                cache.put(new GlobalCacheKey(sourceA, 1, 0, i), byteCell());
+                cache.put(new GlobalCacheKey(sourceB, 0, 1, i), byteCell());
+            }
+            String name = cache.getClass().getSimpleName();
+            assertEquals(name, 20, cache.getCacheStats(sourceA, -1).numberOfCells);
+            assertEquals(name, 20L * CELL_WEIGHT,
+                    cache.getCacheStats(sourceA, -1).sizeInBytes);
+            assertEquals(name, 10, cache.getCacheStats(sourceA, 1).numberOfCells);
+            assertEquals(name, 10, cache.getCacheStats(sourceB, -1).numberOfCells);
+            assertEquals(name, 0, cache.getCacheStats(sourceB, 1).numberOfCells);
+
+            // Putting the same key again should not count it twice
+            cache.put(new GlobalCacheKey(sourceB, 0, 1, 0L), byteCell());
+            assertEquals(name, 10, cache.getCacheStats(sourceB, -1).numberOfCells);
+        }
+    }
+
+    @Test
+    public void testStatsOfSpimDataKeys() {
+        for (AbstractGlobalCache cache : createCaches(1_000_000)) {
+            Object spimData = new Object();
+            for (int tp = 0; tp < 3; tp++) {
+                for (int setup = 0; setup < 2; setup++) {
+                    for (long i = 0; i < 5; i++) {
+                        cache.put(new GlobalCacheKey(spimData, -1, -1,
+                                new VolatileGlobalCellCache.Key(tp, setup, 0, i)), byteCell());
+                    }
+                }
+            }
+            String name = cache.getClass().getSimpleName();
+            assertEquals(name, 15, cache.getCacheStats(spimData, 1, -1).numberOfCells);
+            assertEquals(name, 5, cache.getCacheStats(spimData, 1, 2).numberOfCells);
+            assertEquals(name, 10, cache.getCacheStats(spimData, 2).numberOfCells);
+            assertEquals(name, 0, cache.getCacheStats(spimData, 3, -1).numberOfCells);
+        }
+    }
+
+    @Test
+    public void testStatsAfterEviction() {
+        long budget = 50L * CELL_WEIGHT;
+        AbstractGlobalCache[] caches = createCaches(budget);
+        // Caffeine is skipped: its eviction is not strictly least recently used
+        for (int c = 1; c < caches.length; c++) {
+            AbstractGlobalCache cache = caches[c];
+            Object source = new Object();
+            for (long i = 0; i < 500; i++) {
+                cache.put(new GlobalCacheKey(source, 0, 0, i), byteCell());
+            }
+            assertEquals(cache.getClass().getSimpleName(), cache.getEstimatedSize(),
+                    cache.getCacheStats(source, -1).sizeInBytes);
+        }
+    }
+
+    @Test
+    public void testInvalidateSingleSource() {
+        for (AbstractGlobalCache cache : createCaches(1_000_000)) {
+            Object sourceA = new Object();
+            Object sourceB = new Object();
+            for (long i = 0; i < 10; i++) {
+                cache.put(new GlobalCacheKey(sourceA, 0, 0, i), byteCell());
+                cache.put(new GlobalCacheKey(sourceA, 0, 1, i), byteCell());
+                cache.put(new GlobalCacheKey(sourceB, 0, 0, i), byteCell());
+            }
+            cache.invalidateIf(sourceA, 0, 1, key -> true);
+            String name = cache.getClass().getSimpleName();
+            assertEquals(name, 10, cache.getCacheStats(sourceA, -1).numberOfCells);
+            assertNull(name, cache.getIfPresent(new GlobalCacheKey(sourceA, 0, 1, 3L)));
+            assertNotNull(name, cache.getIfPresent(new GlobalCacheKey(sourceA, 0, 0, 3L)));
+
+            cache.invalidateIf(sourceA, -1, -1, key -> true);
+            assertEquals(name, 0, cache.getCacheStats(sourceA, -1).numberOfCells);
+            assertEquals(name, 10, cache.getCacheStats(sourceB, -1).numberOfCells);
+        }
+    }
+
+    @Test
+    public void testAccessReplayedAfterInvalidationDoesNotPutTheKeyBack() {
+        for (AbstractGlobalCache cache : createCaches(1_000_000)) {
+            Object source = new Object();
+            GlobalCacheKey key = new GlobalCacheKey(source, 0, 0, 0L);
+            Cell<ByteArray> cell = byteCell();
+            cache.put(key, cell);
+            cache.invalidate(key);
+            // Buffered, and replayed by the next operation taking the lock
+            cache.touch(key, cell);
+            String name = cache.getClass().getSimpleName();
+            assertNull(name, cache.getIfPresent(key));
+            assertEquals(name, 0, cache.getCacheStats(source, -1).numberOfCells);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.cache;
+
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.cell.Cell;
+import org.junit.Test;
+import sc.fiji.bdvpg.cache.AbstractGlobalCache;
+import sc.fiji.bdvpg.cache.CacheMetrics;
+import sc.fiji.bdvpg.cache.CacheWeighers;
+import sc.fiji.bdvpg.cache.GlobalCacheBuilder;
+import sc.fiji.bdvpg.cache.GlobalCacheMetrics;
+import sc.fiji.bdvpg.cache.GlobalLoaderCache;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the hits, misses, loads, evictions and bytes recorded by the global
+ * cache, per source and per level, and their JMX publication.
+ */
+public class GlobalCacheMetricsTest {
+
+    static Cell<ByteArray> cell(int size) {
+        return new Cell<>(new int[]{size}, new long[]{0}, new ByteArray(size));
+    }
+
+    @Test
+    public void testHitsMissesAndLoadsPerLevel() throws Exception {
+        AbstractGlobalCache globalCache = GlobalCacheBuilder.builder().linkedHashMap()
+                .memoryForCache(100_000_000).create();
+        Object source = new Object();
+        GlobalLoaderCache<Long, Cell<ByteArray>> level0 =
+                new GlobalLoaderCache<>(globalCache, source, 0, 0);
+        GlobalLoaderCache<Long, Cell<ByteArray>> level2 =
+                new GlobalLoaderCache<>(globalCache, source, 0, 2);
+
+        Object[] cells = new Object[3];
+        for (long i = 0; i < 3; i++) {
+            cells[(int) i] = level2.get(i, k -> cell(100));
+        }
+        for (long i = 0; i < 3; i++) {
+            assertNotNull(level2.getIfPresent(i));
+            assertNotNull(level2.get(i, k -> cell(100)));
+        }
+        level0.get(0L, k -> cell(100));
+
+        GlobalCacheMetrics metrics = globalCache.getMetrics();
+        CacheMetrics[] levels = metrics.getLevels(source);
+        CacheMetrics l2 = levels[2 + 1];
+        assertEquals(6, l2.getHits());
+        assertEquals(3, l2.getMisses());
+        assertEquals(3, l2.getLoads());
+        assertEquals(1, levels[0 + 1].getLoads());
+        assertEquals(4, metrics.getSourceTotal(source).getLoads());
+        assertEquals(4, metrics.getTotal().getMisses());
+        assertEquals(6.0 / 9.0, l2.getHitRatio(), 1e-9);
+
+        long loadsInHistogram = 0;
+        for (long count : l2.getLoadTimeHistogram()) loadsInHistogram += count;
+        assertEquals(3, loadsInHistogram);
+
+        assertEquals(3 * CacheWeighers.weigh(cell(100)), l2.getBytesIn());
+        assertEquals(0, l2.getBytesOut());
+
+        level2.invalidateAll(1);
+        assertEquals(l2.getBytesIn(), l2.getBytesOut());
+        assertEquals(3, l2.getExplicitRemovals());
+        assertEquals(0, l2.getSizeEvictions());
+        assertNotNull(cells[0]);
+    }
+
+    @Test
+    public void testSizeEvictions() throws Exception {
+        AbstractGlobalCache globalCache = GlobalCacheBuilder.builder().linkedHashMap()
+                .memoryForCache(10_000).create();
+        Object source = new Object();
+        GlobalLoaderCache<Long, Cell<ByteArray>> cache =
+                new GlobalLoaderCache<>(globalCache, source, 0, 0);
+        Object[] cells = new Object[100];
+        for (long i = 0; i < 100; i++) {
+            cells[(int) i] = cache.get(i, k -> cell(1000));
+        }
+        CacheMetrics metrics = globalCache.getMetrics().getSourceTotal(source);
+        assertTrue(metrics.getSizeEvictions() > 50);
+        assertEquals(0, metrics.getExplicitRemovals());
+        assertTrue(metrics.getBytesOut() > 0);
+        assertNotNull(cells[0]);
+    }
+
+    @Test
+    public void testJmxPublication() throws Exception {
+        AbstractGlobalCache globalCache = GlobalCacheBuilder.builder().linkedHashMap()
+                .memoryForCache(100_000_000).create();
+        GlobalCacheMetrics.register(globalCache.getMetrics());
+        GlobalLoaderCache<Long, Cell<ByteArray>> cache =
+                new GlobalLoaderCache<>(globalCache, new Object(), 0, 0);
+        Object cell = cache.get(0L, k -> cell(10));
+        cache.get(0L, k -> cell(10));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(GlobalCacheMetrics.OBJECT_NAME);
+        assertEquals(1L, server.getAttribute(name, "Hits"));
+        assertEquals(1L, server.getAttribute(name, "Loads"));
+        String[] summary = (String[]) server.getAttribute(name, "SourceSummary");
+        assertEquals(2, summary.length); // Source total and level 0
+        server.invoke(name, "reset", null, null);
+        assertEquals(0L, server.getAttribute(name, "Hits"));
+        assertNotNull(cell);
+    }
+}
@@ -0,0 +1,113 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.cache;
+
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.cell.Cell;
+import org.junit.Assume;
+import org.junit.Test;
+import sc.fiji.bdvpg.cache.AbstractGlobalCache;
+import sc.fiji.bdvpg.cache.GlobalCacheBuilder;
+import sc.fiji.bdvpg.cache.GlobalLoaderCache;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a hit in a {@link GlobalLoaderCache} does not allocate: the
+ * global cache key is created once per entry, not once per access.
+ */
+public class GlobalLoaderCacheAllocationTest {
+
+    static final int N_KEYS = 64;
+
+    static final int N_HITS = 1_000_000;
+
+    // Leaves room for the allocations of the measuring code itself
+    static final long MAX_ALLOCATED_BYTES = 64 * 1024;
+
+    @Test
+    public void testLinkedHashMapHitsDoNotAllocate() throws Exception {
+        assertHitsDoNotAllocate(GlobalCacheBuilder.builder().linkedHashMap()
+                .memoryForCache(100_000_000).create());
+    }
+
+    @Test
+    public void testCaffeineHitsDoNotAllocate() throws Exception {
+        assertHitsDoNotAllocate(GlobalCacheBuilder.builder().caffeine()
+                .memoryForCache(100_000_000).create());
+    }
+
+    static void assertHitsDoNotAllocate(AbstractGlobalCache globalCache) throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("Thread allocation measurement not supported",
+                bean instanceof com.sun.management.ThreadMXBean &&
+                        ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported());
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        Object source = new Object();
+        GlobalLoaderCache<Long, Cell<ByteArray>> cache =
+                new GlobalLoaderCache<>(globalCache, source, 0, 0);
+
+        // Pre-boxed keys, the cells are strongly referenced to not be collected
+        Long[] keys = new Long[N_KEYS];
+        Object[] cells = new Object[N_KEYS];
+        for (int i = 0; i < N_KEYS; i++) {
+            keys[i] = (long) i;
+            cells[i] = cache.get(keys[i], k -> new Cell<>(new int[]{10}, new long[]{0}, new ByteArray(10)));
+        }
+
+        // Warm up (JIT)
+        hit(cache, keys);
+        hit(cache, keys);
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        int found = hit(cache, keys);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(2 * N_HITS, found);
+        assertTrue("Cache hits allocated " + allocated + " bytes",
+                allocated < MAX_ALLOCATED_BYTES);
+        assertNotNull(cells[0]);
+    }
+
+    static int hit(GlobalLoaderCache<Long, Cell<ByteArray>> cache, Long[] keys) throws Exception {
+        int found = 0;
+        for (int i = 0; i < N_HITS; i++) {
+            Long key = keys[i & (N_KEYS - 1)];
+            if (cache.getIfPresent(key) != null) found++;
+            if (cache.get(key, k -> null) != null) found++;
+        }
+        return found;
+    }
+}
@@ -0,0 +1,155 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.cache;
+
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.cell.Cell;
+import org.junit.Test;
+import sc.fiji.bdvpg.cache.AbstractGlobalCache;
+import sc.fiji.bdvpg.cache.GlobalCacheKey;
+import sc.fiji.bdvpg.cache.GlobalLoaderCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+import static sc.fiji.bdvpg.tests.cache.CacheTestCells.byteCell;
+import static sc.fiji.bdvpg.tests.cache.GlobalCacheIndexTest.createCaches;
+
+/**
+ * Unit tests for the per source view of the global cache
+ * ({@link GlobalLoaderCache}): loads and invalidations of the same key should
+ * not leave outdated cells in the global cache.
+ */
+public class GlobalLoaderCacheTest {
+
+    @Test
+    public void testInvalidateWaitsForLoadInProgress() throws Exception {
+        assertInvalidationWaitsForLoadInProgress(loaderCache -> loaderCache.invalidate(0L));
+    }
+
+    @Test
+    public void testInvalidateAllWaitsForLoadInProgress() throws Exception {
+        assertInvalidationWaitsForLoadInProgress(GlobalLoaderCache::invalidateAll);
+    }
+
+    static void assertInvalidationWaitsForLoadInProgress(
+            Consumer<GlobalLoaderCache<Long, Cell<ByteArray>>> invalidation) throws Exception {
+        for (AbstractGlobalCache cache : createCaches(1_000_000)) {
+            Object source = new Object();
+            GlobalLoaderCache<Long, Cell<ByteArray>> loaderCache =
+                    new GlobalLoaderCache<>(cache, source, 0, 0);
+            CountDownLatch loading = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            Thread loader = new Thread(() -> {
+                try {
+                    loaderCache.get(0L, key -> {
+                        loading.countDown();
+                        release.await();
+                        return byteCell();
+                    });
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            loader.start();
+            loading.await();
+            Thread invalidator = new Thread(() -> invalidation.accept(loaderCache));
+            invalidator.start();
+            // Lets the load complete once the invalidation waits for it
+            waitUntilWaiting(invalidator);
+            release.countDown();
+            invalidator.join();
+            loader.join();
+            // The cell loaded before the invalidation should not be kept
+            String name = cache.getClass().getSimpleName();
+            assertNull(name, loaderCache.getIfPresent(0L));
+            assertEquals(name, 0, cache.getCacheStats(source, -1).numberOfCells);
+        }
+    }
+
+    @Test
+    public void testLoadWaitingDuringAnInvalidationDoesNotKeepOutdatedValues() throws Exception {
+        for (AbstractGlobalCache cache : createCaches(1_000_000)) {
+            Object source = new Object();
+            GlobalLoaderCache<Long, Cell<ByteArray>> loaderCache =
+                    new GlobalLoaderCache<>(cache, source, 0, 0);
+            CountDownLatch loading = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            Cell<ByteArray> outdated = byteCell();
+            Cell<ByteArray> updated = byteCell();
+            Thread firstLoader = new Thread(() -> {
+                try {
+                    loaderCache.get(0L, key -> {
+                        loading.countDown();
+                        release.await();
+                        return outdated;
+                    });
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            firstLoader.start();
+            loading.await();
+            // Waits for the load in progress, then for the invalidation
+            List<Cell<ByteArray>> result = new ArrayList<>();
+            Thread secondLoader = new Thread(() -> {
+                try {
+                    result.add(loaderCache.get(0L, key -> updated));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            secondLoader.start();
+            waitUntilWaiting(secondLoader);
+            Thread invalidator = new Thread(() -> loaderCache.invalidate(0L));
+            invalidator.start();
+            waitUntilWaiting(invalidator);
+            release.countDown();
+            firstLoader.join();
+            invalidator.join();
+            secondLoader.join();
+            // The second load is served either before the invalidation, or
+            // after it with a value loaded again: the outdated value is not kept
+            String name = cache.getClass().getSimpleName();
+            assertEquals(name, 1, result.size());
+            assertSame(name, updated, loaderCache.get(0L, key -> updated));
+            assertNotSame(name, outdated, cache.getIfPresent(new GlobalCacheKey(source, 0, 0, 0L)));
+        }
+    }
+
+    static void waitUntilWaiting(Thread thread) throws InterruptedException {
+        for (int i = 0; i < 1000 && thread.getState() != Thread.State.WAITING; i++) {
+            Thread.sleep(1);
+        }
+    }
+}
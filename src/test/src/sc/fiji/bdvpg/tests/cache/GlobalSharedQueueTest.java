@@ -0,0 +1,122 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.cache;
+
+import bdv.SpimSource;
+import bdv.img.WarpedSource;
+import bdv.tools.transformation.TransformedSource;
+import bdv.util.RandomAccessibleIntervalSource;
+import bdv.viewer.Source;
+import mpicbg.spim.data.SpimData;
+import mpicbg.spim.data.XmlIoSpimData;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import org.junit.Test;
+import sc.fiji.bdvpg.cache.GlobalSharedQueue;
+import sc.fiji.bdvpg.cache.GlobalSharedQueue.Pool;
+import sc.fiji.bdvpg.cache.QueueMetrics;
+import sc.fiji.bdvpg.cache.ViewerAwareSharedQueue;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link GlobalSharedQueue}: the I/O and compute pools are
+ * separate queues with their own threads, so that saturating one of them does
+ * not delay the other.
+ */
+public class GlobalSharedQueueTest {
+
+    @Test
+    public void testPoolsAreSeparate() throws Exception {
+        GlobalSharedQueue.set(Pool.IO, 1, 4);
+        GlobalSharedQueue.set(Pool.COMPUTE, 2, 4);
+        assertNotSame(GlobalSharedQueue.getInstance(), GlobalSharedQueue.getComputeInstance());
+        assertSame(GlobalSharedQueue.getInstance(), GlobalSharedQueue.getInstance(Pool.IO));
+        assertEquals(1, GlobalSharedQueue.getNumFetcherThreads(Pool.IO));
+        assertEquals(2, GlobalSharedQueue.getNumFetcherThreads(Pool.COMPUTE));
+
+        // The single I/O fetcher is stuck on a slow read
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch ioDone = new CountDownLatch(1);
+        GlobalSharedQueue.getInstance().put(() -> {
+            release.await();
+            ioDone.countDown();
+            return null;
+        }, 0, true);
+
+        // Computed blocks are still fetched, by the compute threads
+        CountDownLatch computeDone = new CountDownLatch(1);
+        String[] computeThread = new String[1];
+        GlobalSharedQueue.getComputeInstance().put(() -> {
+            computeThread[0] = Thread.currentThread().getName();
+            computeDone.countDown();
+            return null;
+        }, 0, true);
+        assertTrue(computeDone.await(5, TimeUnit.SECONDS));
+        assertTrue(computeThread[0].startsWith("bdvpg-compute-fetcher-"));
+        assertEquals(1, ioDone.getCount());
+
+        release.countDown();
+        assertTrue(ioDone.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPoolsArePublishedOverJmx() throws Exception {
+        assertTrue(GlobalSharedQueue.getComputeInstance() instanceof ViewerAwareSharedQueue);
+        GlobalSharedQueue.getInstance();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertTrue(server.isRegistered(new ObjectName(QueueMetrics.OBJECT_NAME)));
+        assertTrue(server.isRegistered(new ObjectName(QueueMetrics.OBJECT_NAME + ",pool=compute")));
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testWrappedSourcesUseThePoolOfTheirOrigin() throws Exception {
+        SpimData spimData = new XmlIoSpimData().load("src/test/resources/mri-stack.xml");
+        Source<?> spimSource = new SpimSource(spimData, 0, "mri-stack");
+        Source<?> transformed = new TransformedSource(spimSource);
+        Source<?> warped = new WarpedSource(transformed, "warped");
+        assertEquals(Pool.IO, GlobalSharedQueue.getPoolFor(spimSource));
+        assertEquals(Pool.IO, GlobalSharedQueue.getPoolFor(transformed));
+        assertEquals(Pool.IO, GlobalSharedQueue.getPoolFor(warped));
+
+        Source<?> computed = new RandomAccessibleIntervalSource<>(
+                ArrayImgs.unsignedBytes(2, 2, 2), new UnsignedByteType(), "computed");
+        assertEquals(Pool.COMPUTE, GlobalSharedQueue.getPoolFor(computed));
+        assertEquals(Pool.COMPUTE, GlobalSharedQueue.getPoolFor(
+                new WarpedSource(new TransformedSource(computed), "warped")));
+    }
+}
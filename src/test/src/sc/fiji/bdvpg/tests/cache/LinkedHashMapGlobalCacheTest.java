@@ -0,0 +1,171 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.cache;
+
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.cell.Cell;
+import org.junit.Test;
+import sc.fiji.bdvpg.cache.AbstractGlobalCache;
+import sc.fiji.bdvpg.cache.GlobalCacheBuilder;
+import sc.fiji.bdvpg.cache.GlobalCacheKey;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static sc.fiji.bdvpg.tests.cache.CacheTestCells.CELL_WEIGHT;
+import static sc.fiji.bdvpg.tests.cache.CacheTestCells.byteCell;
+
+/**
+ * Unit tests for {@link sc.fiji.bdvpg.cache.BoundedLinkedHashMapGlobalCache}:
+ * accesses recorded with touch() are buffered, the LRU order should however be
+ * preserved.
+ */
+public class LinkedHashMapGlobalCacheTest {
+
+    static final int CAPACITY = 100;
+
+    static AbstractGlobalCache createCache() {
+        long budget = CAPACITY * CELL_WEIGHT;
+        return GlobalCacheBuilder.builder(budget).linkedHashMap().memoryForCache(budget).create();
+    }
+
+    /**
+     * Skewed access trace: a few keys are accessed much more often
+     */
+    static int[] trace(long seed, int length, int numberOfKeys) {
+        Random random = new Random(seed);
+        int[] trace = new int[length];
+        for (int i = 0; i < length; i++) {
+            double r = random.nextDouble();
+            trace[i] = (int) (numberOfKeys * r * r * r);
+        }
+        return trace;
+    }
+
+    /**
+     * The index is used to know if a key is cached, because it does not modify
+     * the LRU order. Each key has its own timepoint.
+     */
+    static boolean isCached(AbstractGlobalCache cache, Object source, int key) {
+        return cache.getCacheStats(source, key).numberOfCells > 0;
+    }
+
+    @Test
+    public void testBufferedTouchesKeepExactLRUOrder() {
+        AbstractGlobalCache cache = createCache();
+        Object source = new Object();
+        List<Object> cells = new ArrayList<>(); // keeps the soft references alive
+
+        Map<Integer, Boolean> reference = new LinkedHashMap<Integer, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+                return size() > CAPACITY;
+            }
+        };
+
+        int hits = 0, referenceHits = 0;
+        for (int k : trace(0, 50_000, 400)) {
+            GlobalCacheKey key = new GlobalCacheKey(source, k, 0, 0L);
+            if (isCached(cache, source, k)) {
+                hits++;
+                cache.touch(key, cells.get(0));
+            } else {
+                Cell<ByteArray> cell = byteCell();
+                cells.add(cell);
+                cache.put(key, cell);
+            }
+            if (reference.get(k) != null) {
+                referenceHits++;
+            } else {
+                reference.put(k, true);
+            }
+        }
+        assertTrue(referenceHits > 0);
+        assertEquals("Single threaded hits should match an exact LRU", referenceHits, hits);
+    }
+
+    @Test
+    public void testHotKeysAreMostRecentlyUsedFirst() {
+        AbstractGlobalCache cache = createCache();
+        Object source = new Object();
+        Cell<ByteArray> cell = byteCell();
+        List<GlobalCacheKey> keys = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            GlobalCacheKey key = new GlobalCacheKey(source, i, 0, 0L);
+            keys.add(key);
+            cache.put(key, cell);
+        }
+        cache.touch(keys.get(2), cell);
+
+        List<GlobalCacheKey> hotKeys = cache.getHotKeys(3);
+        assertEquals(3, hotKeys.size());
+        assertSame(keys.get(2), hotKeys.get(0));
+        assertSame(keys.get(9), hotKeys.get(1));
+        assertSame(keys.get(8), hotKeys.get(2));
+    }
+
+    @Test
+    public void testConcurrentTouchesKeepAccounting() throws Exception {
+        AbstractGlobalCache cache = createCache();
+        Object source = new Object();
+        Cell<ByteArray> cell = byteCell();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int[] trace = trace(t, 20_000, 400);
+            Thread thread = new Thread(() -> {
+                for (int k : trace) {
+                    GlobalCacheKey key = new GlobalCacheKey(source, k, 0, 0L);
+                    if ((k & 1) == 0) {
+                        cache.put(key, cell);
+                    } else {
+                        cache.touch(key, cell);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertTrue("Cache size should not exceed the budget",
+                cache.getEstimatedSize() <= CAPACITY * CELL_WEIGHT);
+        assertEquals("Weight counter should match the index",
+                cache.getCacheStats(source, -1).sizeInBytes, cache.getEstimatedSize());
+
+        cache.invalidateAll();
+        assertEquals(0, cache.getEstimatedSize());
+        assertEquals(0, cache.getCacheStats(source, -1).numberOfCells);
+    }
+}
@@ -0,0 +1,180 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.cache;
+
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.img.cell.Cell;
+import org.junit.Test;
+import sc.fiji.bdvpg.cache.AbstractGlobalCache;
+import sc.fiji.bdvpg.cache.CacheWeighers;
+import sc.fiji.bdvpg.cache.GlobalCacheBuilder;
+import sc.fiji.bdvpg.cache.GlobalCacheKey;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the off-heap tier of the global cache: cells evicted from
+ * the heap should be promoted back, with identical data, instead of being
+ * lost.
+ */
+public class OffHeapCacheTest {
+
+    static final int CELL_SIZE = 1000;
+
+    static AbstractGlobalCache createCache(long heapBytes, long offHeapBytes) {
+        return GlobalCacheBuilder.builder(heapBytes)
+                .linkedHashMap()
+                .memoryForCache(heapBytes)
+                .offHeapSize(offHeapBytes)
+                .create();
+    }
+
+    static Cell<VolatileShortArray> shortCell(int seed) {
+        short[] data = new short[CELL_SIZE];
+        for (int i = 0; i < CELL_SIZE; i++) data[i] = (short) (seed + i);
+        return new Cell<>(new int[]{10, 10, 10}, new long[]{seed, 0, 0}, new VolatileShortArray(data, true));
+    }
+
+    @Test
+    public void testEvictedCellIsPromotedWithSameData() {
+        // Heap budget holds two short cells only
+        AbstractGlobalCache cache = createCache(2 * CacheWeighers.weigh(shortCell(0)), 1_000_000);
+        Object source = new Object();
+        Long[] innerKeys = {0L, 1L, 2L};
+        GlobalCacheKey[] keys = new GlobalCacheKey[3];
+        for (int i = 0; i < 3; i++) {
+            keys[i] = new GlobalCacheKey(source, 0, 0, innerKeys[i]);
+            cache.put(keys[i], shortCell(i));
+        }
+
+        assertEquals("One cell should have been demoted off-heap",
+                2 * CELL_SIZE, cache.getEstimatedOffHeapSize());
+
+        Object promoted = cache.getIfPresent(new GlobalCacheKey(source, 0, 0, innerKeys[0]));
+        assertNotNull("The evicted cell should be promoted back from the off-heap tier", promoted);
+        Cell<?> cell = (Cell<?>) promoted;
+        assertEquals("The access class should be preserved",
+                VolatileShortArray.class, cell.getData().getClass());
+        assertArrayEquals("Promoted data should be identical",
+                shortCell(0).getData().getCurrentStorageArray(),
+                ((VolatileShortArray) cell.getData()).getCurrentStorageArray());
+        long[] min = new long[3];
+        cell.min(min);
+        assertArrayEquals("Cell position should be preserved", new long[]{0, 0, 0}, min);
+    }
+
+    @Test
+    public void testDoubleCell() {
+        AbstractGlobalCache cache = createCache(8 * CELL_SIZE, 1_000_000);
+        Object source = new Object();
+        double[] data = new double[CELL_SIZE];
+        for (int i = 0; i < CELL_SIZE; i++) data[i] = Math.sqrt(i);
+        Long key0 = 0L;
+        Long key1 = 1L;
+        cache.put(new GlobalCacheKey(source, 0, 0, key0),
+                new Cell<>(new int[]{CELL_SIZE}, new long[]{0}, new DoubleArray(data)));
+        cache.put(new GlobalCacheKey(source, 0, 0, key1),
+                new Cell<>(new int[]{CELL_SIZE}, new long[]{CELL_SIZE}, new DoubleArray(new double[CELL_SIZE])));
+
+        Cell<?> cell = (Cell<?>) cache.getIfPresent(new GlobalCacheKey(source, 0, 0, key0));
+        assertNotNull("The evicted cell should be promoted back from the off-heap tier", cell);
+        assertArrayEquals("Promoted data should be identical", data,
+                ((DoubleArray) cell.getData()).getCurrentStorageArray(), 0);
+    }
+
+    @Test
+    public void testInvalidatedCellIsNotPromoted() {
+        AbstractGlobalCache cache = createCache(2 * CELL_SIZE, 1_000_000);
+        Object source = new Object();
+        Long key0 = 0L;
+        Long key1 = 1L;
+        cache.put(new GlobalCacheKey(source, 0, 0, key0), shortCell(0));
+        cache.put(new GlobalCacheKey(source, 0, 0, key1), shortCell(1));
+        cache.invalidate(new GlobalCacheKey(source, 0, 0, key0));
+
+        assertNull("An invalidated cell should not be served from the off-heap tier",
+                cache.getIfPresent(new GlobalCacheKey(source, 0, 0, key0)));
+        assertEquals(0, cache.getEstimatedOffHeapSize());
+    }
+
+    @Test
+    public void testOffHeapBudgetIsRespected() {
+        AbstractGlobalCache cache = createCache(2 * CELL_SIZE, 3 * 2 * CELL_SIZE);
+        Object source = new Object();
+        Long[] innerKeys = new Long[10];
+        for (int i = 0; i < 10; i++) {
+            innerKeys[i] = (long) i;
+            cache.put(new GlobalCacheKey(source, 0, 0, innerKeys[i]), shortCell(i));
+        }
+        assertTrue("Off-heap size should not exceed its budget",
+                cache.getEstimatedOffHeapSize() <= cache.getMaxOffHeapSize());
+        assertNull("Least recently demoted cells should have been discarded",
+                cache.getIfPresent(new GlobalCacheKey(source, 0, 0, innerKeys[0])));
+        assertNotNull("Most recently demoted cells should be kept",
+                cache.getIfPresent(new GlobalCacheKey(source, 0, 0, innerKeys[8])));
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        AbstractGlobalCache cache = GlobalCacheBuilder.builder(2 * CELL_SIZE)
+                .linkedHashMap().memoryForCache(2 * CELL_SIZE).create();
+        Object source = new Object();
+        Long key0 = 0L;
+        Long key1 = 1L;
+        cache.put(new GlobalCacheKey(source, 0, 0, key0), shortCell(0));
+        cache.put(new GlobalCacheKey(source, 0, 0, key1), shortCell(1));
+        assertEquals(0, cache.getEstimatedOffHeapSize());
+        assertNull(cache.getIfPresent(new GlobalCacheKey(source, 0, 0, key0)));
+    }
+
+    @Test
+    public void testCellWithManyDimensions() {
+        AbstractGlobalCache cache = createCache(2 * CELL_SIZE, 1_000_000);
+        Object source = new Object();
+        int[] dimensions = {2, 2, 2, 5, 5, 5};
+        long[] min = {0, 2, 4, 6, 8, 10};
+        Long key0 = 0L;
+        Long key1 = 1L;
+        // Evicted to the off-heap tier by the second one
+        cache.put(new GlobalCacheKey(source, 0, 0, key0),
+                new Cell<>(dimensions, min, new VolatileShortArray(new short[CELL_SIZE], true)));
+        cache.put(new GlobalCacheKey(source, 0, 0, key1), shortCell(1));
+
+        Cell<?> cell = (Cell<?>) cache.getIfPresent(new GlobalCacheKey(source, 0, 0, key0));
+        assertNotNull("A cell with more than 5 dimensions should be demoted too", cell);
+        int[] promotedDimensions = new int[6];
+        long[] promotedMin = new long[6];
+        cell.dimensions(promotedDimensions);
+        cell.min(promotedMin);
+        assertArrayEquals("Cell dimensions should be preserved", dimensions, promotedDimensions);
+        assertArrayEquals("Cell position should be preserved", min, promotedMin);
+    }
+}
@@ -0,0 +1,98 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.cache;
+
+import org.junit.Test;
+import sc.fiji.bdvpg.cache.AbstractGlobalCache;
+import sc.fiji.bdvpg.cache.GlobalCacheBuilder;
+import sc.fiji.bdvpg.cache.GlobalCacheKey;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static sc.fiji.bdvpg.tests.cache.CacheTestCells.CELL_SIZE;
+import static sc.fiji.bdvpg.tests.cache.CacheTestCells.byteCell;
+
+/**
+ * Unit tests for {@link sc.fiji.bdvpg.cache.SegmentedLinkedHashMapGlobalCache}.
+ * Checks that the global byte accounting stays consistent when several threads
+ * fill the segments concurrently.
+ */
+public class SegmentedGlobalCacheTest {
+
+    @Test
+    public void testAccountingUnderConcurrentAccess() throws Exception {
+        long budget = 200L * CELL_SIZE;
+        AbstractGlobalCache cache = GlobalCacheBuilder.builder(budget)
+                .segmentedLinkedHashMap().segments(8)
+                .memoryForCache(budget).create();
+        Object source = new Object();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int offset = t * 1000;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    GlobalCacheKey key = new GlobalCacheKey(source, 0, 0, (long) (offset + i));
+                    cache.put(key, byteCell());
+                    cache.touch(new GlobalCacheKey(source, 0, 0, (long) (offset + i / 2)), byteCell());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertTrue("Cache size should not exceed the budget",
+                cache.getEstimatedSize() <= budget);
+        AbstractGlobalCache.CacheStats stats = cache.getCacheStats(source, -1);
+        assertEquals("Global weight counter should match the sum of the segments",
+                stats.sizeInBytes, cache.getEstimatedSize());
+
+        cache.invalidateAll();
+        assertEquals("Cache should be empty after invalidation", 0, cache.getEstimatedSize());
+    }
+
+    @Test
+    public void testSetMaxSizeShrinksAllSegments() {
+        long budget = 64L * CELL_SIZE;
+        AbstractGlobalCache cache = GlobalCacheBuilder.builder(budget)
+                .segmentedLinkedHashMap().segments(4)
+                .memoryForCache(budget).create();
+        Object source = new Object();
+        for (long i = 0; i < 1000; i++) {
+            cache.put(new GlobalCacheKey(source, 0, 0, i), byteCell());
+        }
+        cache.setMaxSize(budget / 2);
+        assertTrue("Cache size should not exceed the reduced budget",
+                cache.getEstimatedSize() <= budget / 2);
+    }
+}
@@ -0,0 +1,123 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.cache;
+
+import bdv.export.ProgressWriterConsole;
+import bdv.util.EmptySource;
+import bdv.util.RandomAccessibleIntervalSource;
+import bdv.util.ResampledSource;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import sc.fiji.bdvpg.cache.CacheWeighers;
+import sc.fiji.bdvpg.cache.SourceBaker;
+import sc.fiji.bdvpg.dataset.importer.XMLToDatasetImporter;
+import sc.fiji.bdvpg.scijava.service.SourceService;
+import sc.fiji.bdvpg.source.transform.SourceResampler;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bakes a cached {@link ResampledSource}: all its cells are computed, and
+ * pinned in the global cache if requested.
+ */
+public class SourceBakerTest {
+
+    Context ctx;
+
+    SourceService sourceService;
+
+    @Before
+    public void startContext() {
+        ctx = new Context(SourceService.class);
+        sourceService = ctx.getService(SourceService.class);
+    }
+
+    @After
+    public void closeContext() {
+        ctx.dispose();
+    }
+
+    @Test(timeout = 20000)
+    public void testBakeResampledSource() {
+        SourceAndConverter<?> mri = sourceService.getSourcesFromDataset(
+                new XMLToDatasetImporter("src/test/resources/mri-stack.xml").get()).get(0);
+        // 186 x 226 x 27 pixels : 3 x 4 x 1 cells of 64 x 64 x 64 pixels
+        SourceAndConverter<?> resampled = new SourceResampler(mri, mri, "resampled",
+                false, true, false, 0).get();
+        ResampledSource<?> source = (ResampledSource<?>) resampled.getSpimSource();
+
+        SourceBaker baker = new SourceBaker(sourceService.getCache(), source,
+                new int[]{0}, new int[]{0}, 4, true, new ProgressWriterConsole());
+        baker.run();
+
+        SourceBaker.Result result = baker.getResult();
+        assertEquals(12, result.numCells);
+        assertEquals(0, result.numSkipped);
+        assertTrue(result.bytes >= 186L * 226 * 27 * 2);
+        assertEquals(result.bytes, sourceService.getCache().getQuota(source).minBytes);
+        assertEquals(12, sourceService.getCache().getCacheStats(source, 0).numberOfCells);
+    }
+
+    @Test(timeout = 20000)
+    public void testEmptyCellsAreNotStored() {
+        // A 10 x 10 x 10 tile resampled on a 512 x 512 x 64 model: 64 cells, one is not empty
+        ArrayImg<UnsignedShortType, ?> tile = ArrayImgs.unsignedShorts(10, 10, 10);
+        tile.forEach(p -> p.set(1000));
+        Source<UnsignedShortType> origin = new RandomAccessibleIntervalSource<>(tile,
+                new UnsignedShortType(), new AffineTransform3D(), "tile");
+        Source<?> model = new EmptySource(512, 512, 64, new AffineTransform3D(), "atlas",
+                new FinalVoxelDimensions("px", 1, 1, 1));
+        ResampledSource<UnsignedShortType> source = new ResampledSource<>(origin, model,
+                "resampled", false, true, true, 0);
+
+        new SourceBaker(sourceService.getCache(), source, new int[]{0}, new int[]{0}, 4,
+                false, new ProgressWriterConsole()).run();
+
+        assertEquals(64, sourceService.getCache().getCacheStats(source, 0).numberOfCells);
+        // One cell of 64 x 64 x 64 16 bits pixels, the 63 others only weigh their cell object
+        assertTrue(sourceService.getCache().getCacheStats(source, 0).sizeInBytes <
+                64L * 64 * 64 * 2 + 64 * (CacheWeighers.getEntryOverhead() + CacheWeighers.CELL_OVERHEAD + 64));
+        RandomAccess<UnsignedShortType> access = source.getSource(0, 0).randomAccess();
+        access.setPosition(new long[]{5, 5, 5});
+        assertEquals(1000, access.get().get());
+        access.setPosition(new long[]{300, 300, 30});
+        assertEquals(0, access.get().get());
+    }
+}
@@ -0,0 +1,281 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.cache;
+
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.cell.Cell;
+import org.junit.Test;
+import sc.fiji.bdvpg.cache.AbstractGlobalCache;
+import sc.fiji.bdvpg.cache.GlobalCacheBuilder;
+import sc.fiji.bdvpg.cache.GlobalLoaderCache;
+import sc.fiji.bdvpg.cache.GlobalSharedQueue;
+import sc.fiji.bdvpg.cache.QueueMetrics;
+import sc.fiji.bdvpg.cache.ViewerAwareSharedQueue;
+import sc.fiji.bdvpg.scijava.service.tree.FetchMonitor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link ViewerAwareSharedQueue}: viewers (thread groups) are
+ * served in turn, the current frame of a viewer before its stale requests, and
+ * requests stale for too long are cancelled. Wait and execution times are
+ * recorded per priority, and attributed to the loaded sources. The number of
+ * fetcher threads and of priorities can be changed live, and fetcher threads
+ * can be virtual threads (Java 21+).
+ */
+public class ViewerAwareSharedQueueTest {
+
+    static Callable<?> task(String name) {
+        return () -> name;
+    }
+
+    // Runs an action on a thread of a viewer thread group
+    static void inViewer(ThreadGroup viewer, Runnable action) throws InterruptedException {
+        Thread thread = new Thread(viewer, action);
+        thread.start();
+        thread.join();
+    }
+
+    static List<Object> takeAll(ViewerAwareSharedQueue queue, int n) throws Exception {
+        List<Object> taken = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            taken.add(queue.take().call());
+        }
+        return taken;
+    }
+
+    @Test
+    public void testViewersAreServedInTurn() throws Exception {
+        ViewerAwareSharedQueue queue = new ViewerAwareSharedQueue(0, 4);
+        ThreadGroup viewerA = new ThreadGroup("A");
+        ThreadGroup viewerB = new ThreadGroup("B");
+        inViewer(viewerA, () -> {
+            for (int i = 0; i < 3; i++) queue.put(task("a" + i), 1, false);
+        });
+        inViewer(viewerB, () -> {
+            for (int i = 0; i < 3; i++) queue.put(task("b" + i), 1, false);
+            queue.put(task("b-coarse"), 0, false);
+        });
+        List<Object> taken = takeAll(queue, 7);
+        assertEquals("a0", taken.get(0));
+        assertEquals("Highest priority first within a viewer", "b-coarse", taken.get(1));
+        assertEquals("a1", taken.get(2));
+        assertEquals("b0", taken.get(3));
+        assertEquals(0, queue.getNumQueued());
+    }
+
+    @Test
+    public void testCurrentFrameFirstThenStaleThenCancelled() throws Exception {
+        ViewerAwareSharedQueue queue = new ViewerAwareSharedQueue(0, 4);
+        queue.setMaxStaleFrames(1);
+        ThreadGroup viewerA = new ThreadGroup("A");
+        ThreadGroup viewerB = new ThreadGroup("B");
+        inViewer(viewerB, () -> queue.put(task("b0"), 0, false));
+        inViewer(viewerA, () -> {
+            queue.put(task("old"), 0, false);
+            queue.clearToPrefetch(); // Viewer A starts a new frame
+            queue.put(task("new"), 0, false);
+        });
+        assertEquals(1, queue.getCurrentFrame());
+        assertEquals(1, queue.getNumStale());
+        // The frame of viewer A does not make the requests of viewer B stale
+        assertEquals(2, queue.getNumQueued());
+        List<Object> taken = takeAll(queue, 3);
+        assertTrue(taken.indexOf("new") < taken.indexOf("old"));
+        assertTrue(taken.indexOf("b0") < taken.indexOf("old"));
+
+        inViewer(viewerA, () -> {
+            queue.put(task("stale"), 0, false);
+            for (int frame = 0; frame < 3; frame++) {
+                queue.clearToPrefetch();
+                queue.put(task("frame" + frame), 0, false);
+            }
+        });
+        assertEquals("A request stale for too long should be cancelled",
+                1, queue.getNumCancelled());
+        assertFalse(takeAll(queue, 3).contains("stale"));
+    }
+
+    @Test
+    public void testFrameWithoutRequestsIsIgnored() throws Exception {
+        ViewerAwareSharedQueue queue = new ViewerAwareSharedQueue(0, 1);
+        inViewer(new ThreadGroup("A"), () -> {
+            queue.put(task("a"), 0, false);
+            // Two cache controls of the same viewer signal the same frame
+            queue.clearToPrefetch();
+            queue.clearToPrefetch();
+        });
+        assertEquals(1, queue.getCurrentFrame());
+        assertEquals(1, queue.getNumStale());
+    }
+
+    @Test
+    public void testFetcherThreadsRunTasks() throws Exception {
+        ViewerAwareSharedQueue queue = new ViewerAwareSharedQueue(2, 2);
+        CountDownLatch done = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            queue.put(() -> {
+                done.countDown();
+                return null;
+            }, i % 2, false);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        queue.shutdown();
+    }
+
+    @Test
+    public void testWaitAndExecutionTimesAreRecorded() throws Exception {
+        ViewerAwareSharedQueue queue = new ViewerAwareSharedQueue(1, 2);
+        AbstractGlobalCache globalCache = GlobalCacheBuilder.builder().linkedHashMap()
+                .memoryForCache(100_000_000).create();
+        Object source = new Object();
+        GlobalLoaderCache<Long, Cell<ByteArray>> loaderCache =
+                new GlobalLoaderCache<>(globalCache, source, 0, 0);
+        CountDownLatch done = new CountDownLatch(4);
+        for (long i = 0; i < 4; i++) {
+            final Long key = i;
+            queue.put(() -> {
+                Thread.sleep(5);
+                Object cell = loaderCache.get(key, k -> new Cell<>(new int[]{1}, new long[]{0}, new ByteArray(1)));
+                done.countDown();
+                return cell;
+            }, (int) (i % 2), false);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        queue.shutdown();
+
+        QueueMetrics metrics = queue.getMetrics();
+        // The last task may still be timed when the latch is released
+        Thread.sleep(100);
+        assertEquals(4, metrics.getNumExecuted());
+        assertEquals(2, metrics.getExecutions(1).getCount());
+        assertTrue(metrics.getMeanExecutionMs() >= 5);
+        assertEquals(4, metrics.getWaits().getCount());
+        assertEquals(0, metrics.getDepthPerPriority()[0]);
+        assertEquals("Queue waits should be attributed to the loaded source",
+                4, globalCache.getMetrics().getSourceTotal(source).getQueueWaits().getCount());
+        assertTrue(FetchMonitor.getReport(queue, globalCache).contains("Priority"));
+    }
+
+    @Test
+    public void testLiveResizing() throws Exception {
+        ViewerAwareSharedQueue queue = new ViewerAwareSharedQueue(1, 4);
+        queue.setNumFetcherThreads(4);
+        assertEquals(4, queue.getNumFetcherThreads());
+        // Only completes if 4 requests run concurrently
+        CyclicBarrier barrier = new CyclicBarrier(4);
+        CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            queue.put(() -> {
+                barrier.await(5, TimeUnit.SECONDS);
+                done.countDown();
+                return null;
+            }, 0, false);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        queue.setNumFetcherThreads(1);
+        assertEquals(1, queue.getNumFetcherThreads());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch doneAfterShrink = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++) {
+            queue.put(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(2);
+                running.decrementAndGet();
+                doneAfterShrink.countDown();
+                return null;
+            }, 3, false);
+        }
+        assertTrue(doneAfterShrink.await(5, TimeUnit.SECONDS));
+        assertEquals("Retired fetcher threads should not run requests", 1, maxRunning.get());
+        queue.shutdown();
+    }
+
+    @Test
+    public void testRemovedPrioritiesAreKept() throws Exception {
+        ViewerAwareSharedQueue queue = new ViewerAwareSharedQueue(0, 4);
+        queue.put(task("low"), 3, false);
+        queue.put(task("medium"), 1, false);
+        queue.setNumPriorities(2);
+        assertEquals(2, queue.getNumPriorities());
+        assertArrayEquals(new int[]{0, 2}, queue.getNumQueuedPerPriority());
+        assertEquals("medium", queue.take().call());
+        assertEquals("low", queue.take().call());
+        queue.setNumPriorities(6);
+        queue.put(task("lowest"), 5, false);
+        assertEquals(1, queue.getNumQueuedPerPriority()[5]);
+    }
+
+    @Test
+    public void testVirtualThreadsLimitRequestsInFlight() throws Exception {
+        ViewerAwareSharedQueue queue = new ViewerAwareSharedQueue(2, 4);
+        if (!GlobalSharedQueue.isVirtualThreadsSupported()) {
+            try {
+                queue.setVirtualThreads(true);
+                fail("Virtual threads should not be available before Java 21");
+            } catch (UnsupportedOperationException e) {
+                assertFalse(queue.isVirtualThreads());
+                assertEquals(2, queue.getNumFetcherThreads());
+            }
+            queue.shutdown();
+            return;
+        }
+        queue.setVirtualThreads(true);
+        queue.setNumFetcherThreads(32);
+        assertTrue(queue.isVirtualThreads());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(256);
+        for (int i = 0; i < 256; i++) {
+            queue.put(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(5); // Slow read
+                running.decrementAndGet();
+                done.countDown();
+                return null;
+            }, 0, false);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue("At most 32 requests should be in flight", maxRunning.get() <= 32);
+        queue.setVirtualThreads(false);
+        assertEquals(32, queue.getNumFetcherThreads());
+        queue.shutdown();
+    }
+}
@@ -0,0 +1,203 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.helpers;
+
+import bdv.util.AxisAlignedSampling;
+import bdv.util.EmptySource;
+import bdv.util.OutOfBoundsColorChangedSource;
+import bdv.util.RandomAccessibleIntervalSource;
+import bdv.util.ResampledSource;
+import bdv.viewer.Source;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.NumericType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import sc.fiji.bdvpg.scijava.service.SourceService;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that resampling on a model grid aligned with the origin voxels, which
+ * skips the interpolation (see {@link AxisAlignedSampling}), gives bit-exact
+ * results compared to the interpolated resampling.
+ */
+public class AxisAlignedSamplingTest {
+
+    static final long[] ORIGIN_DIMENSIONS = {50, 40, 30};
+
+    Context ctx;
+
+    @Before
+    public void startContext() {
+        // The cached resampled sources use the global cache of the source service
+        ctx = new Context(SourceService.class);
+    }
+
+    @After
+    public void closeContext() {
+        ctx.dispose();
+    }
+
+    @Test
+    public void testDetection() {
+        AffineTransform3D modelToOrigin = new AffineTransform3D();
+        modelToOrigin.translate(-3, 5, 2);
+        AxisAlignedSampling sampling = AxisAlignedSampling.of(modelToOrigin);
+        assertNotNull(sampling);
+        assertArrayEquals(new long[]{-3, 5, 2}, sampling.getOffset());
+        assertArrayEquals(new long[]{1, 1, 1}, sampling.getStep());
+
+        modelToOrigin.set(2, 0, 0, 1, 0, 4, 0, 0, 0, 0, 4, 0);
+        sampling = AxisAlignedSampling.of(modelToOrigin);
+        assertNotNull(sampling);
+        assertArrayEquals(new long[]{1, 0, 0}, sampling.getOffset());
+        assertArrayEquals(new long[]{2, 4, 4}, sampling.getStep());
+
+        // Half voxel shift, non integer scaling, flip and rotation
+        modelToOrigin.set(1, 0, 0, 0.5, 0, 1, 0, 0, 0, 0, 1, 0);
+        assertNull(AxisAlignedSampling.of(modelToOrigin));
+        modelToOrigin.set(1.5, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0);
+        assertNull(AxisAlignedSampling.of(modelToOrigin));
+        modelToOrigin.set(-1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0);
+        assertNull(AxisAlignedSampling.of(modelToOrigin));
+        modelToOrigin.set(0, 1, 0, 0, 1, 0, 0, 0, 0, 0, 1, 0);
+        assertNull(AxisAlignedSampling.of(modelToOrigin));
+    }
+
+    @Test
+    public void testTranslationIsBitExact() {
+        AffineTransform3D atModel = new AffineTransform3D();
+        atModel.translate(-3, 5, 2);
+        // The model is larger than the origin: some voxels are out of bounds
+        assertBitExact(atModel, new long[]{60, 40, 30});
+    }
+
+    @Test
+    public void testDownsamplingIsBitExact() {
+        AffineTransform3D atModel = new AffineTransform3D();
+        atModel.set(2, 0, 0, 1, 0, 2, 0, 0, 0, 0, 4, 2);
+        assertBitExact(atModel, new long[]{25, 20, 8});
+    }
+
+    @Test
+    public void testNonAlignedModelIsInterpolated() {
+        Source<FloatType> origin = createSource(ArrayImgs.floats(ORIGIN_DIMENSIONS), new FloatType());
+        AffineTransform3D atModel = new AffineTransform3D();
+        atModel.scale(1.5);
+        ResampledSource<FloatType> resampled = new ResampledSource<>(origin,
+                createModel(atModel, new long[]{20, 20, 20}), "resampled", false, false, true, 0);
+        assertNull(resampled.getAxisAlignedSampling(0, 0));
+    }
+
+    @Test
+    public void testNonZeroOutOfBoundsOriginIsInterpolated() {
+        // The interpolated view of the origin is extended with 7, not with zeros
+        Random random = new Random(3);
+        ArrayImg<UnsignedShortType, ?> shorts = ArrayImgs.unsignedShorts(ORIGIN_DIMENSIONS);
+        shorts.forEach(p -> p.set(random.nextInt(65536)));
+        Source<UnsignedShortType> origin = new OutOfBoundsColorChangedSource<>(
+                createSource(shorts, new UnsignedShortType()), new UnsignedShortType(7));
+        AffineTransform3D atModel = new AffineTransform3D();
+        atModel.translate(-3, 5, 2);
+        Source<?> model = createModel(atModel, new long[]{60, 40, 30});
+
+        for (boolean interpolate : new boolean[]{false, true}) {
+            ResampledSource<UnsignedShortType> resampled = new ResampledSource<>(
+                    origin, model, "shorts", false, false, interpolate, 0);
+            assertNull(resampled.getAxisAlignedSampling(0, 0));
+            assertSameVoxels(resampled.buildInterpolatedSource(0, 0), resampled.getSource(0, 0));
+            // Out of the origin
+            RandomAccess<UnsignedShortType> access = resampled.getSource(0, 0).randomAccess();
+            access.setPosition(new long[]{0, 0, 0});
+            assertEquals(7, access.get().get());
+        }
+    }
+
+    static void assertSameVoxels(RandomAccessibleInterval<UnsignedShortType> expected,
+                                 RandomAccessibleInterval<UnsignedShortType> actual) {
+        Cursor<UnsignedShortType> expectedCursor = Views.flatIterable(expected).cursor();
+        for (UnsignedShortType voxel : Views.flatIterable(actual)) {
+            assertEquals(expectedCursor.next().get(), voxel.get());
+        }
+    }
+
+    static void assertBitExact(AffineTransform3D atModel, long[] modelDimensions) {
+        Random random = new Random(42);
+        ArrayImg<UnsignedShortType, ?> shorts = ArrayImgs.unsignedShorts(ORIGIN_DIMENSIONS);
+        shorts.forEach(p -> p.set(random.nextInt(65536)));
+        ArrayImg<FloatType, ?> floats = ArrayImgs.floats(ORIGIN_DIMENSIONS);
+        floats.forEach(p -> p.set((float) random.nextGaussian()));
+        Source<?> model = createModel(atModel, modelDimensions);
+
+        for (boolean interpolate : new boolean[]{false, true}) {
+            for (boolean cache : new boolean[]{false, true}) {
+                ResampledSource<UnsignedShortType> resampledShorts = new ResampledSource<>(
+                        createSource(shorts, new UnsignedShortType()), model, "shorts", false, cache, interpolate, 0);
+                assertNotNull(resampledShorts.getAxisAlignedSampling(0, 0));
+                Cursor<UnsignedShortType> expectedShorts = Views.flatIterable(
+                        resampledShorts.buildInterpolatedSource(0, 0)).cursor();
+                for (UnsignedShortType actual : Views.flatIterable(resampledShorts.getSource(0, 0))) {
+                    assertEquals(expectedShorts.next().get(), actual.get());
+                }
+
+                ResampledSource<FloatType> resampledFloats = new ResampledSource<>(
+                        createSource(floats, new FloatType()), model, "floats", false, cache, interpolate, 0);
+                Cursor<FloatType> expectedFloats = Views.flatIterable(
+                        resampledFloats.buildInterpolatedSource(0, 0)).cursor();
+                for (FloatType actual : Views.flatIterable(resampledFloats.getSource(0, 0))) {
+                    assertEquals(Float.floatToIntBits(expectedFloats.next().get()),
+                            Float.floatToIntBits(actual.get()));
+                }
+            }
+        }
+    }
+
+    static <T extends NumericType<T>> Source<T> createSource(RandomAccessibleInterval<T> img, T type) {
+        return new RandomAccessibleIntervalSource<>(img, type, new AffineTransform3D(), "origin");
+    }
+
+    static Source<?> createModel(AffineTransform3D atModel, long[] dimensions) {
+        return new EmptySource(dimensions[0], dimensions[1], dimensions[2], atModel, "model",
+                new FinalVoxelDimensions("px", 1, 1, 1));
+    }
+}
@@ -0,0 +1,187 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.helpers;
+
+import bdv.img.WarpedSource;
+import bdv.tools.transformation.TransformedSource;
+import bdv.util.FusedSource;
+import bdv.util.RandomAccessibleIntervalSource;
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import sc.fiji.bdvpg.scijava.service.SourceService;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fuses two overlapping tiles, of constant values 10 and 30, on a model grid:
+ * tile A covers x in [0, 39], tile B covers x in [30, 69], both cover y in
+ * [0, 39], the model covers x in [0, 99] and y in [0, 49].
+ */
+public class FusedSourceTest {
+
+    static final int[] BLOCK_SIZE = {16, 16, 16};
+
+    Context ctx;
+
+    TransformedSource<FloatType> tileB;
+
+    List<Source<FloatType>> tiles;
+
+    Source<FloatType> model;
+
+    @Before
+    public void startContext() {
+        // The fused sources use the global cache of the source service
+        ctx = new Context(SourceService.class);
+        Source<FloatType> tileA = tile(10, 0);
+        tileB = new TransformedSource<>(tile(30, 30));
+        tiles = Arrays.asList(tileA, tileB);
+        model = new RandomAccessibleIntervalSource<>(ArrayImgs.floats(100, 50, 1),
+                new FloatType(), new AffineTransform3D(), "model");
+    }
+
+    @After
+    public void closeContext() {
+        ctx.dispose();
+    }
+
+    @Test
+    public void testAverage() {
+        RandomAccessibleInterval<FloatType> fused = new FusedSource<>(tiles, model, "fused",
+                FusedSource.Method.AVERAGE, BLOCK_SIZE).getSource(0, 0);
+        assertEquals(10, valueAt(fused, 10, 10), 1e-5);
+        assertEquals(20, valueAt(fused, 35, 10), 1e-5);
+        assertEquals(30, valueAt(fused, 50, 10), 1e-5);
+        // Out of all tiles
+        assertEquals(0, valueAt(fused, 80, 10), 0);
+        assertEquals(0, valueAt(fused, 10, 45), 0);
+    }
+
+    @Test
+    public void testMax() {
+        RandomAccessibleInterval<FloatType> fused = new FusedSource<>(tiles, model, "fused",
+                FusedSource.Method.MAX, BLOCK_SIZE).getSource(0, 0);
+        assertEquals(10, valueAt(fused, 10, 10), 1e-5);
+        assertEquals(30, valueAt(fused, 35, 10), 1e-5);
+        assertEquals(0, valueAt(fused, 80, 10), 0);
+    }
+
+    @Test
+    public void testWeighted() {
+        RandomAccessibleInterval<FloatType> fused = new FusedSource<>(tiles, model, "fused",
+                FusedSource.Method.WEIGHTED, BLOCK_SIZE).getSource(0, 0);
+        // A single tile, whatever its weight
+        assertEquals(10, valueAt(fused, 2, 20), 1e-4);
+        assertEquals(30, valueAt(fused, 60, 20), 1e-4);
+        // Closer to the border of tile A than to the border of tile B
+        double closeToA = valueAt(fused, 38, 20);
+        double closeToB = valueAt(fused, 31, 20);
+        assertTrue(closeToA > 20 && closeToA < 30);
+        assertTrue(closeToB > 10 && closeToB < 20);
+    }
+
+    @Test
+    public void testTileTransformChange() {
+        FusedSource<FloatType> fusedSource = new FusedSource<>(tiles, model, "fused",
+                FusedSource.Method.AVERAGE, BLOCK_SIZE);
+        assertEquals(30, valueAt(fusedSource.getSource(0, 0), 50, 10), 1e-5);
+        assertEquals(20, valueAt(fusedSource.getSource(0, 0), 35, 10), 1e-5);
+
+        // Tile B now covers x in [60, 99]
+        AffineTransform3D shift = new AffineTransform3D();
+        shift.translate(30, 0, 0);
+        tileB.setFixedTransform(shift);
+
+        RandomAccessibleInterval<FloatType> fused = fusedSource.getSource(0, 0);
+        assertEquals(0, valueAt(fused, 50, 10), 0);
+        assertEquals(10, valueAt(fused, 35, 10), 1e-5);
+        assertEquals(30, valueAt(fused, 80, 10), 1e-5);
+    }
+
+    @Test
+    public void testWarpedTile() {
+        // Gradient along x, moved by a fraction of pixel: its raster is not its interpolated view
+        ArrayImg<FloatType, ?> img = ArrayImgs.floats(40, 40, 1);
+        Cursor<FloatType> cursor = img.localizingCursor();
+        while (cursor.hasNext()) {
+            cursor.next().set(cursor.getFloatPosition(0));
+        }
+        WarpedSource<FloatType> warped = new WarpedSource<>(new RandomAccessibleIntervalSource<>(img,
+                new FloatType(), new AffineTransform3D(), "gradient"), "warped");
+        AffineTransform3D warp = new AffineTransform3D();
+        warp.translate(0.3, 0, 0);
+        warped.updateTransform(warp);
+        warped.setIsTransformed(true);
+
+        RandomAccessibleInterval<FloatType> fused = new FusedSource<>(
+                Collections.singletonList(warped), model, "fused", FusedSource.Method.AVERAGE,
+                BLOCK_SIZE).getSource(0, 0);
+        AffineTransform3D tileTransform = new AffineTransform3D();
+        warped.getSourceTransform(0, 0, tileTransform);
+        RealRandomAccess<FloatType> expected = warped.getInterpolatedSource(0, 0,
+                Interpolation.NLINEAR).realRandomAccess();
+        for (long x = 5; x < 35; x++) {
+            double[] position = {x, 20, 0};
+            tileTransform.applyInverse(position, position);
+            expected.setPosition(position);
+            assertEquals(expected.get().getRealDouble(), valueAt(fused, x, 20), 1e-4);
+        }
+    }
+
+    static Source<FloatType> tile(float value, double x) {
+        ArrayImg<FloatType, ?> img = ArrayImgs.floats(40, 40, 1);
+        img.forEach(p -> p.set(value));
+        AffineTransform3D transform = new AffineTransform3D();
+        transform.translate(x, 0, 0);
+        return new RandomAccessibleIntervalSource<>(img, new FloatType(), transform, "tile");
+    }
+
+    static double valueAt(RandomAccessibleInterval<FloatType> img, long x, long y) {
+        RandomAccess<FloatType> ra = img.randomAccess();
+        ra.setPosition(new long[]{x, y, 0});
+        return ra.get().getRealDouble();
+    }
+}
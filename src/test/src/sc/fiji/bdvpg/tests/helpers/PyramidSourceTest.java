@@ -0,0 +1,172 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.helpers;
+
+import bdv.util.PyramidSource;
+import bdv.util.RandomAccessibleIntervalSource;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.NumericType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import sc.fiji.bdvpg.scijava.service.SourceService;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the levels of a {@link PyramidSource}: dimensions, transforms and
+ * downsampled pixel values.
+ */
+public class PyramidSourceTest {
+
+    static final int[] BLOCK_SIZE = {16, 16, 16};
+
+    Context ctx;
+
+    @Before
+    public void startContext() {
+        // The cached levels use the global cache of the source service
+        ctx = new Context(SourceService.class);
+    }
+
+    @After
+    public void closeContext() {
+        ctx.dispose();
+    }
+
+    @Test
+    public void testAutoNumLevels() {
+        assertEquals(1, PyramidSource.getAutoNumLevels(new long[]{64, 10, 1}));
+        assertEquals(2, PyramidSource.getAutoNumLevels(new long[]{65, 10, 1}));
+        assertEquals(4, PyramidSource.getAutoNumLevels(new long[]{500, 300, 1}));
+        assertArrayEquals(new int[]{2, 2, 1}, PyramidSource.getFactors(new long[]{5, 2, 1}));
+        assertArrayEquals(new long[]{3, 1, 1}, PyramidSource.downsample(new long[]{5, 2, 1}));
+    }
+
+    @Test
+    public void testAverage() {
+        ArrayImg<FloatType, ?> img = ArrayImgs.floats(41, 30, 7);
+        long[] position = new long[3];
+        RandomAccess<FloatType> ra = img.randomAccess();
+        for (position[2] = 0; position[2] < 7; position[2]++)
+            for (position[1] = 0; position[1] < 30; position[1]++)
+                for (position[0] = 0; position[0] < 41; position[0]++) {
+                    ra.setPosition(position);
+                    ra.get().set(position[0] + 100 * position[1] + 10000 * position[2]);
+                }
+
+        PyramidSource<FloatType> pyramid = new PyramidSource<>(source(img, new FloatType()),
+                "pyramid", PyramidSource.Method.AVERAGE, 3, BLOCK_SIZE);
+        assertEquals(3, pyramid.getNumMipmapLevels());
+
+        RandomAccessibleInterval<FloatType> level1 = pyramid.getSource(0, 1);
+        assertArrayEquals(new long[]{21, 15, 4}, Intervals.dimensionsAsLongArray(level1));
+        // Mean of the 8 pixels below: x in {2,3}, y in {4,5}, z in {0,1}
+        assertEquals(2.5 + 450 + 5000, valueAt(level1, 1, 2, 0), 1e-3);
+        // Border pixel, only x = 40 is below
+        assertEquals(40 + 50 + 5000, valueAt(level1, 20, 0, 0), 1e-3);
+
+        RandomAccessibleInterval<FloatType> level2 = pyramid.getSource(0, 2);
+        assertArrayEquals(new long[]{11, 8, 2}, Intervals.dimensionsAsLongArray(level2));
+        // The mean of a linear ramp is its value at the center of the block
+        assertEquals(5.5 + 950 + 15000, valueAt(level2, 1, 2, 0), 1e-2);
+    }
+
+    @Test
+    public void testMode() {
+        ArrayImg<UnsignedByteType, ?> img = ArrayImgs.unsignedBytes(4, 2, 2);
+        // First block: value 7 on 5 pixels out of 8
+        setAt(img, 0, 0, 0, 7);
+        setAt(img, 1, 0, 0, 7);
+        setAt(img, 0, 1, 0, 7);
+        setAt(img, 1, 1, 1, 7);
+        setAt(img, 0, 0, 1, 7);
+        // Second block: tie between 3 and 5, the lowest value wins
+        for (int x = 2; x < 4; x++)
+            for (int y = 0; y < 2; y++) {
+                setAt(img, x, y, 0, 5);
+                setAt(img, x, y, 1, 3);
+            }
+
+        PyramidSource<UnsignedByteType> pyramid = new PyramidSource<>(source(img,
+                new UnsignedByteType()), "pyramid", PyramidSource.Method.MODE, 2, BLOCK_SIZE);
+        RandomAccessibleInterval<UnsignedByteType> level1 = pyramid.getSource(0, 1);
+        assertEquals(7, valueAt(level1, 0, 0, 0), 0);
+        assertEquals(3, valueAt(level1, 1, 0, 0), 0);
+    }
+
+    @Test
+    public void testLevelTransforms() {
+        ArrayImg<FloatType, ?> img = ArrayImgs.floats(100, 50, 1);
+        AffineTransform3D originTransform = new AffineTransform3D();
+        originTransform.scale(0.5);
+        originTransform.translate(10, 20, 30);
+        PyramidSource<FloatType> pyramid = new PyramidSource<>(
+                new RandomAccessibleIntervalSource<>(img, new FloatType(), originTransform, "origin"),
+                "pyramid", PyramidSource.Method.AVERAGE, 0, BLOCK_SIZE);
+        assertEquals(2, pyramid.getNumMipmapLevels());
+
+        AffineTransform3D levelTransform = new AffineTransform3D();
+        pyramid.getSourceTransform(0, 1, levelTransform);
+        // Pixel (0,0,0) of level 1 is centered between pixels 0 and 1 of level 0,
+        // the single pixel z axis is not downsampled
+        double[] global = new double[3];
+        levelTransform.apply(new double[]{0, 0, 0}, global);
+        assertArrayEquals(new double[]{10.25, 20.25, 30}, global, 1e-9);
+        levelTransform.apply(new double[]{1, 1, 1}, global);
+        assertArrayEquals(new double[]{11.25, 21.25, 30.5}, global, 1e-9);
+    }
+
+    static void setAt(RandomAccessibleInterval<? extends RealType<?>> img, long x, long y, long z, double value) {
+        RandomAccess<? extends RealType<?>> ra = img.randomAccess();
+        ra.setPosition(new long[]{x, y, z});
+        ra.get().setReal(value);
+    }
+
+    static double valueAt(RandomAccessibleInterval<? extends RealType<?>> img, long x, long y, long z) {
+        RandomAccess<? extends RealType<?>> ra = img.randomAccess();
+        ra.setPosition(new long[]{x, y, z});
+        return ra.get().getRealDouble();
+    }
+
+    static <T extends NumericType<T>> RandomAccessibleIntervalSource<T> source(
+            RandomAccessibleInterval<T> img, T type) {
+        return new RandomAccessibleIntervalSource<>(img, type, new AffineTransform3D(), "origin");
+    }
+}
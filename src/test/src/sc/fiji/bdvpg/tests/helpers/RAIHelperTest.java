@@ -0,0 +1,85 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.helpers;
+
+import bdv.util.RAIHelper;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the cell dimensions picked by {@link RAIHelper}.
+ */
+public class RAIHelperTest {
+
+    @Test
+    public void testClampBlockSize() {
+        assertArrayEquals(new int[]{10, 64, 1},
+                RAIHelper.clampBlockSize(new int[]{64, 64, 64}, new long[]{10, 100, 1}));
+    }
+
+    @Test
+    public void testThinImagesGetFlatCells() {
+        // 64 x 64 x 3 cells would be 20 times too small
+        assertArrayEquals(new int[]{256, 256, 3},
+                RAIHelper.autoBlockSize(new long[]{2000, 2000, 3}, null));
+    }
+
+    @Test
+    public void testSmallImagesFitInOneCell() {
+        assertArrayEquals(new int[]{10, 10, 1},
+                RAIHelper.autoBlockSize(new long[]{10, 10, 1}, null));
+    }
+
+    @Test
+    public void testCellsAreAlignedOnNativeCells() {
+        // Native cells of 1024 x 1024 x 16 pixels: cells divide them
+        int[] blockSize = RAIHelper.autoBlockSize(new long[]{2000, 2000, 500},
+                new double[]{1024, 1024, 16});
+        for (int d = 0; d < 3; d++) {
+            assertEquals(0, new int[]{1024, 1024, 16}[d] % blockSize[d]);
+        }
+        assertCellSizeIsReasonable(blockSize);
+
+        // Native cells of 32 x 32 x 32 pixels: cells are multiples of them
+        blockSize = RAIHelper.autoBlockSize(new long[]{2000, 2000, 500},
+                new double[]{32, 32, 32});
+        for (int d = 0; d < 3; d++) {
+            assertEquals(0, blockSize[d] % 32);
+        }
+        assertCellSizeIsReasonable(blockSize);
+    }
+
+    static void assertCellSizeIsReasonable(int[] blockSize) {
+        long numPixels = (long) blockSize[0] * blockSize[1] * blockSize[2];
+        assertTrue(numPixels >= RAIHelper.TARGET_BLOCK_PIXELS / 2);
+        assertTrue(numPixels <= RAIHelper.TARGET_BLOCK_PIXELS * 2);
+    }
+}
@@ -0,0 +1,228 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.helpers;
+
+import bdv.img.WarpedSource;
+import bdv.tools.transformation.TransformedSource;
+import bdv.util.EmptySource;
+import bdv.util.OutOfBoundsColorChangedSource;
+import bdv.util.RandomAccessibleIntervalSource;
+import bdv.util.ResampledSource;
+import bdv.viewer.Source;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import sc.fiji.bdvpg.scijava.service.SourceService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that cached resampled sources give the same voxels as the
+ * interpolated view of their origin, whatever the origin, and that they
+ * recompute the cells affected by a move of the origin.
+ */
+public class ResampledSourceTest {
+
+    static final long[] ORIGIN_DIMENSIONS = {40, 30, 20};
+
+    Context ctx;
+
+    @Before
+    public void startContext() {
+        // The cached resampled sources use the global cache of the source service
+        ctx = new Context(SourceService.class);
+    }
+
+    @After
+    public void closeContext() {
+        ctx.dispose();
+    }
+
+    @Test
+    public void testNonZeroOutOfBoundsOrigin() {
+        Source<FloatType> origin = new OutOfBoundsColorChangedSource<>(
+                createOrigin(new AffineTransform3D()), new FloatType(7));
+        // Rotated model, larger than the origin
+        AffineTransform3D atModel = new AffineTransform3D();
+        atModel.rotate(2, 0.3);
+        atModel.translate(-10, -5, -3);
+        Source<?> model = createModel(atModel, new long[]{70, 60, 30});
+
+        RandomAccessibleInterval<FloatType> resampled = assertMatchesInterpolation(origin, model);
+        // Out of the origin: the out of bounds value
+        assertEquals(7, resampled.randomAccess().get().get(), 0);
+    }
+
+    @Test
+    public void testWarpedOrigin() {
+        // Voxels of 0.5 world units: the warped source raster (1 world unit per voxel) is coarser
+        AffineTransform3D atOrigin = new AffineTransform3D();
+        atOrigin.scale(0.5);
+        WarpedSource<FloatType> origin = new WarpedSource<>(createOrigin(atOrigin), "warped");
+        AffineTransform3D warp = new AffineTransform3D();
+        warp.translate(0.3, -0.2, 0.1);
+        origin.updateTransform(warp);
+        origin.setIsTransformed(true);
+
+        AffineTransform3D atModel = new AffineTransform3D();
+        atModel.scale(0.5);
+        atModel.translate(0.1, 0.2, 0.3);
+        assertMatchesInterpolation(origin, createModel(atModel, new long[]{40, 30, 20}));
+    }
+
+    @Test
+    public void testMovedOriginInvalidatesItsFootprints() {
+        TransformedSource<FloatType> origin = new TransformedSource<>(createCube(1000));
+        ResampledSource<FloatType> resampled = createCachedResampling(origin);
+        RandomAccessibleInterval<FloatType> image = resampled.getSource(0, 0);
+        List<Object> cellsBefore = getCells(image);
+
+        AffineTransform3D translation = new AffineTransform3D();
+        translation.translate(50, 0, 0);
+        origin.setFixedTransform(translation);
+        image = resampled.getSource(0, 0);
+        List<Object> cellsAfter = getCells(image);
+
+        // Cells of 16 pixels: the origin covers the cell 0 along x before, the cell 3 after
+        for (int x = 0; x < 8; x++) {
+            for (int y = 0; y < 8; y++) {
+                int index = x + 8 * y;
+                if ((y == 0) && ((x == 0) || (x == 3))) {
+                    assertNotSame(cellsBefore.get(index), cellsAfter.get(index));
+                } else {
+                    assertSame(cellsBefore.get(index), cellsAfter.get(index));
+                }
+            }
+        }
+        assertEquals(1000, valueAt(image, 55, 5, 5), 0);
+        assertEquals(0, valueAt(image, 5, 5, 5), 0);
+    }
+
+    @Test
+    public void testMovedNonZeroOutOfBoundsOriginInvalidatesAllCells() {
+        TransformedSource<FloatType> origin = new TransformedSource<>(
+                new OutOfBoundsColorChangedSource<>(createCube(1000), new FloatType(7)));
+        ResampledSource<FloatType> resampled = createCachedResampling(origin);
+        List<Object> cellsBefore = getCells(resampled.getSource(0, 0));
+
+        AffineTransform3D translation = new AffineTransform3D();
+        translation.translate(50, 0, 0);
+        origin.setFixedTransform(translation);
+        RandomAccessibleInterval<FloatType> image = resampled.getSource(0, 0);
+        List<Object> cellsAfter = getCells(image);
+
+        // The out of bounds value may depend on the transform: nothing is kept
+        for (int index = 0; index < cellsBefore.size(); index++) {
+            assertNotSame(cellsBefore.get(index), cellsAfter.get(index));
+        }
+        assertEquals(1000, valueAt(image, 55, 5, 5), 0);
+        assertEquals(7, valueAt(image, 5, 5, 5), 0);
+    }
+
+    static ResampledSource<FloatType> createCachedResampling(Source<FloatType> origin) {
+        return new ResampledSource<>(origin, createModel(new AffineTransform3D(), new long[]{128, 128, 16}),
+                "resampled", false, true, true, 0, new int[]{16, 16, 16});
+    }
+
+    /**
+     * @return the cells of a cached image, in flat iteration order, loading
+     * them if needed
+     */
+    static List<Object> getCells(RandomAccessibleInterval<?> image) {
+        List<Object> cells = new ArrayList<>();
+        for (Object cell : Views.flatIterable(((CachedCellImg<?, ?>) image).getCells())) {
+            cells.add(cell);
+        }
+        return cells;
+    }
+
+    static float valueAt(RandomAccessibleInterval<FloatType> image, long... position) {
+        RandomAccess<FloatType> access = image.randomAccess();
+        access.setPosition(position);
+        return access.get().get();
+    }
+
+    /**
+     * @return an origin of 10 x 10 x 10 pixels of the given value
+     */
+    static Source<FloatType> createCube(float value) {
+        ArrayImg<FloatType, ?> img = ArrayImgs.floats(10, 10, 10);
+        img.forEach(p -> p.set(value));
+        return new RandomAccessibleIntervalSource<>(img, new FloatType(), new AffineTransform3D(), "cube");
+    }
+
+    /**
+     * Compares the cached linear resampling of an origin with the
+     * interpolation of the origin at the model voxels
+     *
+     * @return the cached resampling
+     */
+    static RandomAccessibleInterval<FloatType> assertMatchesInterpolation(Source<FloatType> origin,
+                                                                         Source<?> model) {
+        ResampledSource<FloatType> resampled = new ResampledSource<>(origin, model, "resampled",
+                false, true, true, 0, new int[]{16, 16, 16});
+        RandomAccessibleInterval<FloatType> cached = resampled.getSource(0, 0);
+        Cursor<FloatType> expected = Views.flatIterable(resampled.buildInterpolatedSource(0, 0)).cursor();
+        int numNonZero = 0;
+        for (FloatType voxel : Views.flatIterable(cached)) {
+            assertEquals(Float.floatToIntBits(expected.next().get()), Float.floatToIntBits(voxel.get()));
+            if (voxel.get() != 0) numNonZero++;
+        }
+        assertTrue(numNonZero > 0);
+        return cached;
+    }
+
+    static Source<FloatType> createOrigin(AffineTransform3D transform) {
+        Random random = new Random(0);
+        ArrayImg<FloatType, ?> img = ArrayImgs.floats(ORIGIN_DIMENSIONS);
+        img.forEach(p -> p.set(1 + random.nextFloat()));
+        return new RandomAccessibleIntervalSource<>(img, new FloatType(), transform, "origin");
+    }
+
+    static Source<?> createModel(AffineTransform3D atModel, long[] dimensions) {
+        return new EmptySource(dimensions[0], dimensions[1], dimensions[2], atModel, "model",
+                new FinalVoxelDimensions("px", 1, 1, 1));
+    }
+}
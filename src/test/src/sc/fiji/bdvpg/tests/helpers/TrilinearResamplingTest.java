@@ -0,0 +1,139 @@
+/*-
+ * #%L
+ * BigDataViewer-Playground
+ * %%
+ * Copyright (C) 2019 - 2026 Nicolas Chiaruttini, EPFL - Robert Haase, MPI CBG - Christian Tischer, EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.fiji.bdvpg.tests.helpers;
+
+import bdv.util.TrilinearResampling;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.RealViews;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the kernels of {@link TrilinearResampling} with the generic linear
+ * interpolation of imglib2, for origins backed by an array or by cells.
+ */
+public class TrilinearResamplingTest {
+
+    static final long[] ORIGIN_DIMENSIONS = {40, 35, 20};
+
+    static final long[] TARGET_DIMENSIONS = {50, 45, 25};
+
+    static AffineTransform3D targetToOrigin() {
+        // Rotation, scaling and translation, part of the target is out of the origin
+        AffineTransform3D transform = new AffineTransform3D();
+        transform.rotate(2, 0.3);
+        transform.scale(0.8, 0.7, 0.9);
+        transform.translate(-2.3, 1.1, -0.5);
+        return transform;
+    }
+
+    @Test
+    public void testUnsignedShortKernel() {
+        Random random = new Random(0);
+        ArrayImg<UnsignedShortType, ?> origin = ArrayImgs.unsignedShorts(ORIGIN_DIMENSIONS);
+        origin.forEach(p -> p.set(random.nextInt(65536)));
+        // The generic interpolation rounds each of the 8 weighted values
+        assertMatchesInterpolation(origin, ArrayImgs.unsignedShorts(TARGET_DIMENSIONS), 4);
+        assertMatchesInterpolation(toCells(origin, new UnsignedShortType()),
+                ArrayImgs.unsignedShorts(TARGET_DIMENSIONS), 4);
+    }
+
+    @Test
+    public void testUnsignedByteKernel() {
+        Random random = new Random(1);
+        ArrayImg<UnsignedByteType, ?> origin = ArrayImgs.unsignedBytes(ORIGIN_DIMENSIONS);
+        origin.forEach(p -> p.set(random.nextInt(256)));
+        assertMatchesInterpolation(origin, ArrayImgs.unsignedBytes(TARGET_DIMENSIONS), 4);
+        assertMatchesInterpolation(toCells(origin, new UnsignedByteType()),
+                ArrayImgs.unsignedBytes(TARGET_DIMENSIONS), 4);
+    }
+
+    @Test
+    public void testFloatKernel() {
+        Random random = new Random(2);
+        ArrayImg<FloatType, ?> origin = ArrayImgs.floats(ORIGIN_DIMENSIONS);
+        origin.forEach(p -> p.set((float) random.nextGaussian()));
+        assertMatchesInterpolation(origin, ArrayImgs.floats(TARGET_DIMENSIONS), 1e-5);
+        assertMatchesInterpolation(toCells(origin, new FloatType()),
+                ArrayImgs.floats(TARGET_DIMENSIONS), 1e-5);
+    }
+
+    @Test
+    public void testUnsupportedTypeIsNotResampled() {
+        assertFalse(TrilinearResampling.isSupported(new DoubleType()));
+        assertFalse(TrilinearResampling.resample(ArrayImgs.doubles(ORIGIN_DIMENSIONS),
+                targetToOrigin(), ArrayImgs.doubles(TARGET_DIMENSIONS)));
+    }
+
+    static <T extends RealType<T> & NativeType<T>> void assertMatchesInterpolation(
+            RandomAccessibleInterval<T> origin, ArrayImg<T, ?> target, double tolerance) {
+        AffineTransform3D transform = targetToOrigin();
+        assertTrue(TrilinearResampling.resample(origin, transform, target));
+
+        RandomAccessibleInterval<T> expected = Views.interval(RealViews.affine(
+                Views.interpolate(Views.extendZero(origin), new NLinearInterpolatorFactory<>()),
+                transform.inverse()), new FinalInterval(TARGET_DIMENSIONS));
+        Cursor<T> expectedCursor = Views.flatIterable(expected).cursor();
+        int numNonZero = 0;
+        for (T actual : Views.flatIterable(target)) {
+            assertEquals(expectedCursor.next().getRealDouble(), actual.getRealDouble(), tolerance);
+            if (actual.getRealDouble() != 0) numNonZero++;
+        }
+        assertTrue(numNonZero > 0);
+    }
+
+    static <T extends RealType<T> & NativeType<T>> Img<T> toCells(
+            RandomAccessibleInterval<T> img, T type) {
+        Img<T> cells = new CellImgFactory<>(type, 16).create(img);
+        Cursor<T> in = Views.flatIterable(img).cursor();
+        for (T out : Views.flatIterable(cells)) {
+            out.set(in.next());
+        }
+        return cells;
+    }
+}